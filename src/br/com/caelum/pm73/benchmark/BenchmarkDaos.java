@@ -0,0 +1,488 @@
+package br.com.caelum.pm73.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dao.Carregamento;
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.IndicesDoBanco;
+import br.com.caelum.pm73.dao.LeilaoDao;
+import br.com.caelum.pm73.dao.PerfilDoBanco;
+import br.com.caelum.pm73.dao.UsuarioDao;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * Mede vazao e latencia de todos os metodos de LeilaoDao e UsuarioDao sobre
+ * um HSQLDB populado pelo {@link GeradorDeLeiloes}. Os parametros vem como
+ * chave=valor e podem ter varios valores separados por virgula:
+ *
+ * <pre>
+ * banco=memoria,arquivo leiloes=10000,100000,1000000 lances=1,5 (media por leilao)
+ * aquecimento=1000 medicao=3000 (ms) operacoes=LeilaoDao.novos saida=resultados.csv
+ * </pre>
+ *
+ * Cada combinacao roda numa JVM propria, porque a SessionFactory do
+ * CriadorDeSessao e unica por JVM; fork=false roda uma combinacao so no
+ * proprio processo. O banco e um dos perfis do {@link PerfilDoBanco}
+ * (memoria, arquivo, cached ou log); os que vao para o disco ficam em
+ * benchmark/&lt;perfil&gt;/caelum.db, para nao apagar o caelum.db do curso.
+ */
+public class BenchmarkDaos {
+
+	private static final long SEMENTE = 42;
+	private static final int TAMANHO_DA_PAGINA = 50;
+	private static final int LEILOES_POR_LOTE = 100;
+
+	private final Map<String, String> parametros;
+	private final CriadorDeSessao criador = new CriadorDeSessao();
+	private final Random aleatorio = new Random(SEMENTE);
+
+	private int leiloes;
+	private int lancesPorLeilao;
+	private int usuarios;
+	private int menorLeilao, maiorLeilao;
+	private int menorUsuario, maiorUsuario;
+	private int menorLance, maiorLance;
+
+	private BenchmarkDaos(Map<String, String> parametros) {
+		this.parametros = parametros;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> parametros = new LinkedHashMap<String, String>();
+		parametros.put("banco", "memoria,arquivo");
+		parametros.put("leiloes", "10000,100000,1000000");
+		parametros.put("lances", "1,5");
+		parametros.put("aquecimento", "1000");
+		parametros.put("medicao", "3000");
+		parametros.put("operacoes", "");
+		parametros.put("saida", "");
+		parametros.put("fork", "true");
+		for (String arg : args) {
+			String[] chaveEValor = arg.split("=", 2);
+			if (chaveEValor.length != 2 || !parametros.containsKey(chaveEValor[0])) {
+				throw new IllegalArgumentException("Parametro invalido: " + arg);
+			}
+			parametros.put(chaveEValor[0], chaveEValor[1]);
+		}
+
+		if (Boolean.parseBoolean(parametros.get("fork"))) {
+			for (String banco : parametros.get("banco").split(",")) {
+				for (String leiloes : parametros.get("leiloes").split(",")) {
+					for (String lances : parametros.get("lances").split(",")) {
+						Map<String, String> cenario = new LinkedHashMap<String, String>(parametros);
+						cenario.put("banco", banco);
+						cenario.put("leiloes", leiloes);
+						cenario.put("lances", lances);
+						cenario.put("fork", "false");
+						rodaEmOutraJvm(cenario);
+					}
+				}
+			}
+		} else {
+			new BenchmarkDaos(parametros).roda();
+		}
+	}
+
+	private static void rodaEmOutraJvm(Map<String, String> cenario) throws IOException, InterruptedException {
+		List<String> comando = new ArrayList<String>();
+		comando.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		comando.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		comando.add("-cp");
+		comando.add(System.getProperty("java.class.path"));
+		comando.add(BenchmarkDaos.class.getName());
+		for (Map.Entry<String, String> parametro : cenario.entrySet()) {
+			comando.add(parametro.getKey() + "=" + parametro.getValue());
+		}
+
+		int saida = new ProcessBuilder(comando).inheritIO().start().waitFor();
+		if (saida != 0) {
+			throw new IllegalStateException("Cenario " + cenario + " terminou com codigo " + saida);
+		}
+	}
+
+	private void roda() throws IOException {
+		String banco = parametros.get("banco");
+		leiloes = Integer.parseInt(parametros.get("leiloes"));
+		lancesPorLeilao = Integer.parseInt(parametros.get("lances"));
+
+		PerfilDoBanco perfil = PerfilDoBanco.porNome(banco);
+		perfil.aplica(criador.getConfig()
+			.setProperty(PerfilDoBanco.CAMINHO, perfil == PerfilDoBanco.MEMORIA ? "benchmark" : "benchmark/" + banco + "/caelum.db")
+			.setProperty("hibernate.show_sql", "false"));
+		new SchemaExport(criador.getConfig()).create(false, true);
+
+		long inicio = System.nanoTime();
+		usuarios = Math.max(100, leiloes / 10);
+		new GeradorDeLeiloes(criador)
+			.comSemente(SEMENTE)
+			.comLeiloes(leiloes)
+			.comUsuarios(usuarios)
+			.comMediaDeLances(lancesPorLeilao)
+			.gera();
+		preparaBanco();
+		String cenario = String.format("banco=%s leiloes=%d lances=%d", banco, leiloes, lancesPorLeilao);
+		System.out.printf("%s (populado em %.1f s)%n", cenario, (System.nanoTime() - inicio) / 1e9);
+
+		Medidor medidor = new Medidor(criador,
+				Long.parseLong(parametros.get("aquecimento")), Long.parseLong(parametros.get("medicao")));
+		List<ResultadoDaMedicao> resultados = new ArrayList<ResultadoDaMedicao>();
+		for (Map.Entry<String, Operacao> operacao : operacoes().entrySet()) {
+			if (operacao.getKey().contains(parametros.get("operacoes"))) {
+				ResultadoDaMedicao resultado = medidor.mede(operacao.getKey(), operacao.getValue());
+				System.out.println(resultado);
+				resultados.add(resultado);
+			}
+		}
+
+		if (!parametros.get("saida").isEmpty()) {
+			grava(new File(parametros.get("saida")), banco, resultados);
+		}
+	}
+
+	private void preparaBanco() {
+		Session session = criador.getSession();
+		try {
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection conexao) throws SQLException {
+					new IndicesDoBanco().cria(conexao);
+					conexao.commit();
+				}
+			});
+
+			Object[] faixa = (Object[]) session.createQuery("select min(l.id), max(l.id) from Leilao l").uniqueResult();
+			menorLeilao = (Integer) faixa[0];
+			maiorLeilao = (Integer) faixa[1];
+			faixa = (Object[]) session.createQuery("select min(u.id), max(u.id) from Usuario u").uniqueResult();
+			menorUsuario = (Integer) faixa[0];
+			maiorUsuario = (Integer) faixa[1];
+			if (lancesPorLeilao > 0) {
+				faixa = (Object[]) session.createQuery("select min(l.id), max(l.id) from Lance l").uniqueResult();
+				menorLance = (Integer) faixa[0];
+				maiorLance = (Integer) faixa[1];
+			}
+		} finally {
+			session.close();
+		}
+	}
+
+	private Map<String, Operacao> operacoes() {
+		Map<String, Operacao> operacoes = new LinkedHashMap<String, Operacao>();
+
+		operacoes.put("LeilaoDao.salvar", new Operacao() {
+			private Leilao leilao;
+			public void prepara(Session session) {
+				leilao = novoLeilao(session);
+			}
+			public void executa(Session session) {
+				new LeilaoDao(session).salvar(leilao);
+			}
+		});
+		operacoes.put("LeilaoDao.salvarEmLote", new Operacao() {
+			private List<Leilao> lote;
+			public void prepara(Session session) {
+				lote = new ArrayList<Leilao>(LEILOES_POR_LOTE);
+				for (int i = 0; i < LEILOES_POR_LOTE; i++) {
+					lote.add(novoLeilao(session));
+				}
+			}
+			public void executa(Session session) {
+				new LeilaoDao(session).salvarEmLote(lote);
+			}
+		});
+		operacoes.put("LeilaoDao.porId", new Operacao() {
+			public void executa(Session session) {
+				new LeilaoDao(session).porId(sorteia(menorLeilao, maiorLeilao));
+			}
+		});
+		operacoes.put("LeilaoDao.novos", new Operacao() {
+			public void executa(Session session) {
+				new LeilaoDao(session).novos();
+			}
+		});
+		operacoes.put("LeilaoDao.novos(pagina)", new Operacao() {
+			public void executa(Session session) {
+				new LeilaoDao(session).novos(null, TAMANHO_DA_PAGINA);
+			}
+		});
+		operacoes.put("LeilaoDao.novos(COM_LANCES)", new Operacao() {
+			public void executa(Session session) {
+				new LeilaoDao(session).novos(Carregamento.COM_LANCES);
+			}
+		});
+		operacoes.put("LeilaoDao.antigos", new Operacao() {
+			public void executa(Session session) {
+				new LeilaoDao(session).antigos();
+			}
+		});
+		operacoes.put("LeilaoDao.antigos(pagina)", new Operacao() {
+			public void executa(Session session) {
+				new LeilaoDao(session).antigos(null, TAMANHO_DA_PAGINA);
+			}
+		});
+		operacoes.put("LeilaoDao.antigos(COM_LANCES)", new Operacao() {
+			public void executa(Session session) {
+				new LeilaoDao(session).antigos(Carregamento.COM_LANCES);
+			}
+		});
+		operacoes.put("LeilaoDao.porPeriodo", new Operacao() {
+			private Calendar inicio, fim;
+			public void prepara(Session session) {
+				inicio = diasAtras(30 + aleatorio.nextInt(335));
+				fim = (Calendar) inicio.clone();
+				fim.add(Calendar.DAY_OF_MONTH, 30);
+			}
+			public void executa(Session session) {
+				new LeilaoDao(session).porPeriodo(inicio, fim);
+			}
+		});
+		operacoes.put("LeilaoDao.porPeriodo(pagina)", new Operacao() {
+			private Calendar inicio, fim;
+			public void prepara(Session session) {
+				inicio = diasAtras(30 + aleatorio.nextInt(335));
+				fim = (Calendar) inicio.clone();
+				fim.add(Calendar.DAY_OF_MONTH, 30);
+			}
+			public void executa(Session session) {
+				new LeilaoDao(session).porPeriodo(inicio, fim, null, TAMANHO_DA_PAGINA);
+			}
+		});
+		operacoes.put("LeilaoDao.porPeriodo(COM_LANCES)", new Operacao() {
+			private Calendar inicio, fim;
+			public void prepara(Session session) {
+				inicio = diasAtras(30 + aleatorio.nextInt(335));
+				fim = (Calendar) inicio.clone();
+				fim.add(Calendar.DAY_OF_MONTH, 30);
+			}
+			public void executa(Session session) {
+				new LeilaoDao(session).porPeriodo(inicio, fim, Carregamento.COM_LANCES);
+			}
+		});
+		operacoes.put("LeilaoDao.disputadosEntre", new Operacao() {
+			private double inicio;
+			public void prepara(Session session) {
+				inicio = aleatorio.nextInt(950);
+			}
+			public void executa(Session session) {
+				new LeilaoDao(session).disputadosEntre(inicio, inicio + 50);
+			}
+		});
+		operacoes.put("LeilaoDao.disputadosEntre(pagina)", new Operacao() {
+			private double inicio;
+			public void prepara(Session session) {
+				inicio = aleatorio.nextInt(950);
+			}
+			public void executa(Session session) {
+				new LeilaoDao(session).disputadosEntre(inicio, inicio + 50, null, TAMANHO_DA_PAGINA);
+			}
+		});
+		operacoes.put("LeilaoDao.disputadosEntre(COM_LANCES)", new Operacao() {
+			private double inicio;
+			public void prepara(Session session) {
+				inicio = aleatorio.nextInt(950);
+			}
+			public void executa(Session session) {
+				new LeilaoDao(session).disputadosEntre(inicio, inicio + 50, Carregamento.COM_LANCES);
+			}
+		});
+		operacoes.put("LeilaoDao.total", new Operacao() {
+			public void executa(Session session) {
+				new LeilaoDao(session).total();
+			}
+		});
+		operacoes.put("LeilaoDao.atualiza", new Operacao() {
+			private Leilao leilao;
+			public void prepara(Session session) {
+				leilao = leilaoExistente(session);
+				session.evict(leilao);
+				leilao.setNome(leilao.getNome() + "*");
+			}
+			public void executa(Session session) {
+				new LeilaoDao(session).atualiza(leilao);
+			}
+		});
+		operacoes.put("LeilaoDao.deleta", new Operacao() {
+			private Leilao leilao;
+			public void prepara(Session session) {
+				leilao = leilaoExistente(session);
+			}
+			public void executa(Session session) {
+				new LeilaoDao(session).deleta(leilao);
+			}
+		});
+		operacoes.put("LeilaoDao.deletaEncerrados", new Operacao() {
+			public void executa(Session session) {
+				new LeilaoDao(session).deletaEncerrados();
+			}
+		});
+
+		// sem lances nao ha usuario com lance para as consultas abaixo
+		if (lancesPorLeilao > 0) {
+			operacoes.put("LeilaoDao.listaLeiloesDoUsuario", new Operacao() {
+				private Usuario usuario;
+				public void prepara(Session session) {
+					usuario = interessado(session);
+				}
+				public void executa(Session session) {
+					new LeilaoDao(session).listaLeiloesDoUsuario(usuario);
+				}
+			});
+			operacoes.put("LeilaoDao.listaLeiloesDoUsuario(pagina)", new Operacao() {
+				private Usuario usuario;
+				public void prepara(Session session) {
+					usuario = interessado(session);
+				}
+				public void executa(Session session) {
+					new LeilaoDao(session).listaLeiloesDoUsuario(usuario, null, TAMANHO_DA_PAGINA);
+				}
+			});
+			operacoes.put("LeilaoDao.listaLeiloesDoUsuario(COM_LANCES)", new Operacao() {
+				private Usuario usuario;
+				public void prepara(Session session) {
+					usuario = interessado(session);
+				}
+				public void executa(Session session) {
+					new LeilaoDao(session).listaLeiloesDoUsuario(usuario, Carregamento.COM_LANCES);
+				}
+			});
+			operacoes.put("LeilaoDao.getValorInicialMedioDoUsuario", new Operacao() {
+				private Usuario usuario;
+				public void prepara(Session session) {
+					usuario = interessado(session);
+				}
+				public void executa(Session session) {
+					new LeilaoDao(session).getValorInicialMedioDoUsuario(usuario);
+				}
+			});
+		}
+
+		operacoes.put("UsuarioDao.porId", new Operacao() {
+			public void executa(Session session) {
+				new UsuarioDao(session).porId(sorteia(menorUsuario, maiorUsuario));
+			}
+		});
+		operacoes.put("UsuarioDao.porNomeEEmail", new Operacao() {
+			private int numero;
+			public void prepara(Session session) {
+				numero = aleatorio.nextInt(usuarios);
+			}
+			public void executa(Session session) {
+				new UsuarioDao(session).porNomeEEmail("Usuario " + numero, "usuario" + numero + "@leilao.com");
+			}
+		});
+		operacoes.put("UsuarioDao.salvar", new Operacao() {
+			public void executa(Session session) {
+				new UsuarioDao(session).salvar(new Usuario("Novo usuario", "novo@leilao.com"));
+			}
+		});
+		operacoes.put("UsuarioDao.atualizar", new Operacao() {
+			private Usuario usuario;
+			public void prepara(Session session) {
+				usuario = usuarioExistente(session);
+				session.evict(usuario);
+				usuario.setNome(usuario.getNome() + "*");
+			}
+			public void executa(Session session) {
+				new UsuarioDao(session).atualizar(usuario);
+			}
+		});
+		operacoes.put("UsuarioDao.deletar", new Operacao() {
+			private Usuario usuario;
+			public void prepara(Session session) {
+				// um usuario sem leiloes nem lances, que pode ser apagado
+				usuario = new Usuario("Usuario removido", "removido@leilao.com");
+				new UsuarioDao(session).salvar(usuario);
+				session.flush();
+			}
+			public void executa(Session session) {
+				new UsuarioDao(session).deletar(usuario);
+			}
+		});
+
+		return operacoes;
+	}
+
+	private Leilao novoLeilao(Session session) {
+		LeilaoBuilder builder = new LeilaoBuilder()
+				.comDono(usuarioExistente(session))
+				.comValor(aleatorio.nextInt(100000) / 100.0);
+		for (int i = 0; i < lancesPorLeilao; i++) {
+			builder.comLance(Calendar.getInstance(), usuarioExistente(session), 1000.0 + i);
+		}
+		return builder.constroi();
+	}
+
+	private Leilao leilaoExistente(Session session) {
+		LeilaoDao leilaoDao = new LeilaoDao(session);
+		Leilao leilao;
+		do {
+			leilao = leilaoDao.porId(sorteia(menorLeilao, maiorLeilao));
+		} while (leilao == null);
+		return leilao;
+	}
+
+	private Usuario usuarioExistente(Session session) {
+		UsuarioDao usuarioDao = new UsuarioDao(session);
+		Usuario usuario;
+		do {
+			usuario = usuarioDao.porId(sorteia(menorUsuario, maiorUsuario));
+		} while (usuario == null);
+		return usuario;
+	}
+
+	private Usuario interessado(Session session) {
+		Usuario usuario;
+		do {
+			usuario = (Usuario) session.createQuery("select l.usuario from Lance l where l.id = :id")
+					.setParameter("id", sorteia(menorLance, maiorLance))
+					.uniqueResult();
+		} while (usuario == null);
+		return usuario;
+	}
+
+	private Calendar diasAtras(int dias) {
+		Calendar data = Calendar.getInstance();
+		data.add(Calendar.DAY_OF_MONTH, -dias);
+		return data;
+	}
+
+	private int sorteia(int menor, int maior) {
+		return menor + aleatorio.nextInt(maior - menor + 1);
+	}
+
+	private void grava(File arquivo, String banco, List<ResultadoDaMedicao> resultados) throws IOException {
+		boolean novo = !arquivo.exists();
+		PrintWriter saida = new PrintWriter(new FileWriter(arquivo, true));
+		try {
+			if (novo) {
+				saida.println("banco;leiloes;lances;operacao;execucoes;ops_por_s;media_ms;p50_ms;p99_ms");
+			}
+			for (ResultadoDaMedicao resultado : resultados) {
+				saida.printf(Locale.ROOT, "%s;%d;%d;%s;%d;%.1f;%.3f;%.3f;%.3f%n", banco, leiloes,
+						lancesPorLeilao, resultado.getOperacao(), resultado.getExecucoes(), resultado.getVazao(),
+						resultado.getMedia(), resultado.getPercentil(50), resultado.getPercentil(99));
+			}
+		} finally {
+			saida.close();
+		}
+	}
+}
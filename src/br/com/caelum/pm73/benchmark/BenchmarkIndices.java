@@ -0,0 +1,177 @@
+package br.com.caelum.pm73.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.Random;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.DiagnosticoDePlanos;
+import br.com.caelum.pm73.dao.IndicesDoBanco;
+import br.com.caelum.pm73.dao.LeilaoDao;
+import br.com.caelum.pm73.dao.UsuarioDao;
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * Mede a latencia das consultas dos DAOs sobre um banco em memoria com
+ * args[0] leiloes (1.000.000 por padrao), antes e depois de criar os indices.
+ */
+public class BenchmarkIndices {
+
+	private static final int USUARIOS = 10000;
+	private static final int REPETICOES = 20;
+
+	public static void main(String[] args) {
+		final int leiloes = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		System.setProperty(CriadorDeSessao.CACHE, "false");
+		CriadorDeSessao criador = new CriadorDeSessao();
+		criador.getConfig()
+			.setProperty("hibernate.connection.url", "jdbc:hsqldb:mem:indices")
+			.setProperty("hibernate.show_sql", "false");
+		new SchemaExport(criador.getConfig()).create(false, true);
+
+		Session session = criador.getSession();
+		try {
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection conexao) throws SQLException {
+					popula(conexao, leiloes);
+				}
+			});
+
+			System.out.println("sem indices: " + new DiagnosticoDePlanos(session).consultasSemIndice());
+			mede("sem indices", session);
+
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection conexao) throws SQLException {
+					new IndicesDoBanco().cria(conexao);
+				}
+			});
+
+			System.out.println("com indices: " + new DiagnosticoDePlanos(session).consultasSemIndice());
+			mede("com indices", session);
+		} finally {
+			session.close();
+		}
+	}
+
+	private static void mede(String cenario, Session session) {
+		final LeilaoDao leilaoDao = new LeilaoDao(session);
+		final UsuarioDao usuarioDao = new UsuarioDao(session);
+		final Usuario usuario = usuarioDao.porId(USUARIOS / 2);
+		final Calendar inicio = Calendar.getInstance();
+		inicio.add(Calendar.DAY_OF_MONTH, -30);
+		final Calendar fim = Calendar.getInstance();
+		fim.add(Calendar.DAY_OF_MONTH, -29);
+
+		cronometra(cenario, "novos", session, new Runnable() {
+			public void run() { leilaoDao.novos(null, 50); }
+		});
+		cronometra(cenario, "antigos", session, new Runnable() {
+			public void run() { leilaoDao.antigos(null, 50); }
+		});
+		cronometra(cenario, "porPeriodo", session, new Runnable() {
+			public void run() { leilaoDao.porPeriodo(inicio, fim, null, 50); }
+		});
+		cronometra(cenario, "disputadosEntre", session, new Runnable() {
+			public void run() { leilaoDao.disputadosEntre(500.0, 510.0, null, 50); }
+		});
+		cronometra(cenario, "total", session, new Runnable() {
+			public void run() { leilaoDao.total(); }
+		});
+		cronometra(cenario, "listaLeiloesDoUsuario", session, new Runnable() {
+			public void run() { leilaoDao.listaLeiloesDoUsuario(usuario); }
+		});
+		cronometra(cenario, "porNomeEEmail", session, new Runnable() {
+			public void run() { usuarioDao.porNomeEEmail("Usuario 42", "usuario42@leilao.com"); }
+		});
+	}
+
+	private static void cronometra(String cenario, String consulta, Session session, Runnable execucao) {
+		execucao.run();
+		session.clear();
+
+		long inicio = System.nanoTime();
+		for (int i = 0; i < REPETICOES; i++) {
+			execucao.run();
+			session.clear();
+		}
+		double media = (System.nanoTime() - inicio) / 1e6 / REPETICOES;
+
+		System.out.printf("%-12s %-24s %10.3f ms%n", cenario, consulta, media);
+	}
+
+	private static void popula(Connection conexao, int leiloes) throws SQLException {
+		Random aleatorio = new Random(42);
+		long agora = System.currentTimeMillis();
+		long umDia = 24L * 60 * 60 * 1000;
+
+		PreparedStatement usuarios = conexao.prepareStatement(
+				"insert into Usuario (id, nome, email, versao) values (?, ?, ?, 0)");
+		for (int id = 1; id <= USUARIOS; id++) {
+			usuarios.setInt(1, id);
+			usuarios.setString(2, "Usuario " + id);
+			usuarios.setString(3, "usuario" + id + "@leilao.com");
+			usuarios.addBatch();
+		}
+		usuarios.executeBatch();
+		usuarios.close();
+
+		// os totais do leilao vao junto, como o adicionaLance faria
+		PreparedStatement leilao = conexao.prepareStatement("insert into Leilao (id, nome, valorInicial, " +
+				"dono_id, dataAbertura, usado, encerrado, quantidadeLances, maiorLance, dataUltimoLance, versao) " +
+				"values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 0)");
+		PreparedStatement lance = conexao.prepareStatement(
+				"insert into Lance (id, valor, data, usuario_id, leilao_id) values (?, ?, ?, ?, ?)");
+
+		int proximoLance = 1;
+		for (int id = 1; id <= leiloes; id++) {
+			double valor = aleatorio.nextInt(100000) / 100.0;
+			long abertura = agora - aleatorio.nextInt(365) * umDia;
+			int quantidade = aleatorio.nextInt(8);
+
+			for (int i = 1; i <= quantidade; i++) {
+				lance.setInt(1, proximoLance++);
+				lance.setDouble(2, valor + i);
+				lance.setTimestamp(3, new Timestamp(abertura + i * umDia / 24));
+				lance.setInt(4, 1 + aleatorio.nextInt(USUARIOS));
+				lance.setInt(5, id);
+				lance.addBatch();
+			}
+
+			leilao.setInt(1, id);
+			leilao.setString(2, "Leilao " + id);
+			leilao.setDouble(3, valor);
+			leilao.setInt(4, 1 + aleatorio.nextInt(USUARIOS));
+			leilao.setTimestamp(5, new Timestamp(abertura));
+			leilao.setBoolean(6, aleatorio.nextBoolean());
+			leilao.setBoolean(7, aleatorio.nextInt(10) == 0);
+			leilao.setInt(8, quantidade);
+			if (quantidade == 0) {
+				leilao.setNull(9, Types.DOUBLE);
+				leilao.setNull(10, Types.TIMESTAMP);
+			} else {
+				leilao.setDouble(9, valor + quantidade);
+				leilao.setTimestamp(10, new Timestamp(abertura + quantidade * umDia / 24));
+			}
+			leilao.addBatch();
+
+			if (id % 10000 == 0 || id == leiloes) {
+				leilao.executeBatch();
+				lance.executeBatch();
+			}
+		}
+		leilao.close();
+		lance.close();
+		conexao.commit();
+	}
+}
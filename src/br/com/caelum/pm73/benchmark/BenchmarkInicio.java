@@ -0,0 +1,162 @@
+package br.com.caelum.pm73.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Session;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+import org.hibernate.tool.hbm2ddl.SchemaValidator;
+
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.LeilaoDao;
+import br.com.caelum.pm73.dao.PerfilDoBanco;
+
+/**
+ * Partida a frio de um job curto: cada rodada e uma JVM nova que monta a
+ * configuracao, cuida do esquema, faz o resto da propria inicializacao
+ * (simulada por uma espera de "trabalho" ms, como ler arquivos de entrada)
+ * e entao atende a primeira requisicao, que abre sessao e consulta.
+ *
+ * <ul>
+ * <li>antes: anotacoes lidas, esquema recriado, fabrica criada na primeira
+ * requisicao, como o CriaTabelas e o CriadorDeSessao sempre fizeram.</li>
+ * <li>valida: o esquema so e validado.</li>
+ * <li>aquecido: alem disso, {@link CriadorDeSessao#aquece()} logo depois do
+ * esquema, em paralelo ao resto da inicializacao.</li>
+ * </ul>
+ *
+ * Imprime a mediana das rodadas: mapeamento, esquema, primeira requisicao e
+ * o total desde a partida da JVM, descontada a espera. Cada cenario roda
+ * uma vez antes, sem contar, para aquecer o disco.
+ *
+ * <pre>
+ * cenarios=antes,valida,aquecido rodadas=5 trabalho=1000 (ms)
+ * jvm= (opcoes extras para as JVMs medidas, separadas por espaco)
+ * </pre>
+ */
+public class BenchmarkInicio {
+
+	private static final String PASTA = "benchmark/inicio";
+	private static final String[] MEDIDAS = { "mapeamento", "esquema", "primeira requisicao", "total" };
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> parametros = new LinkedHashMap<String, String>();
+		parametros.put("cenarios", "antes,valida,aquecido");
+		parametros.put("rodadas", "5");
+		parametros.put("trabalho", "1000");
+		parametros.put("jvm", "");
+		parametros.put("fase", "");
+		for (String arg : args) {
+			String[] chaveEValor = arg.split("=", 2);
+			if (chaveEValor.length != 2 || !parametros.containsKey(chaveEValor[0])) {
+				throw new IllegalArgumentException("Parametro invalido: " + arg);
+			}
+			parametros.put(chaveEValor[0], chaveEValor[1]);
+		}
+
+		if (!parametros.get("fase").isEmpty()) {
+			mede(parametros.get("fase"), Long.parseLong(parametros.get("trabalho")));
+			return;
+		}
+
+		new File(PASTA).mkdirs();
+		int rodadas = Integer.parseInt(parametros.get("rodadas"));
+		for (String cenario : parametros.get("cenarios").split(",")) {
+			rodaEmOutraJvm(cenario, parametros);
+			double[][] medidas = new double[MEDIDAS.length][rodadas];
+			for (int r = 0; r < rodadas; r++) {
+				double[] rodada = rodaEmOutraJvm(cenario, parametros);
+				for (int m = 0; m < MEDIDAS.length; m++) {
+					medidas[m][r] = rodada[m];
+				}
+			}
+			System.out.printf("%-10s", cenario);
+			for (int m = 0; m < MEDIDAS.length; m++) {
+				System.out.printf("  %s %,6.0f ms", MEDIDAS[m], mediana(medidas[m]));
+			}
+			System.out.println();
+		}
+	}
+
+	private static double[] rodaEmOutraJvm(String cenario, Map<String, String> parametros)
+			throws IOException, InterruptedException {
+		List<String> comando = new ArrayList<String>();
+		comando.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		comando.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		if (!parametros.get("jvm").trim().isEmpty()) {
+			comando.addAll(Arrays.asList(parametros.get("jvm").trim().split("\\s+")));
+		}
+		comando.add("-D" + CriadorDeSessao.MOSTRA_SQL + "=false");
+		comando.add("-D" + PerfilDoBanco.CAMINHO + "=" + PASTA + "/caelum.db");
+		comando.add("-cp");
+		comando.add(System.getProperty("java.class.path"));
+		comando.add(BenchmarkInicio.class.getName());
+		comando.add("fase=" + cenario);
+		comando.add("trabalho=" + parametros.get("trabalho"));
+
+		Process processo = new ProcessBuilder(comando).redirectErrorStream(true).start();
+		BufferedReader saida = new BufferedReader(new InputStreamReader(processo.getInputStream()));
+		String resultado = null;
+		for (String linha; (linha = saida.readLine()) != null;) {
+			if (linha.startsWith("medidas ")) {
+				resultado = linha;
+			}
+		}
+		if (processo.waitFor() != 0 || resultado == null) {
+			throw new IllegalStateException("Cenario " + cenario + " terminou com codigo " + processo.exitValue());
+		}
+
+		String[] valores = resultado.substring("medidas ".length()).split(" ");
+		double[] medidas = new double[valores.length];
+		for (int i = 0; i < valores.length; i++) {
+			medidas[i] = Double.parseDouble(valores[i]);
+		}
+		return medidas;
+	}
+
+	private static void mede(String cenario, long trabalho) throws InterruptedException {
+		long inicio = System.nanoTime();
+		CriadorDeSessao criador = new CriadorDeSessao();
+		Configuration config = criador.getConfig();
+		long mapeamento = System.nanoTime();
+
+		if ("antes".equals(cenario)) {
+			new SchemaExport(config).create(false, true);
+		} else {
+			new SchemaValidator(config).validate();
+		}
+		long esquema = System.nanoTime();
+
+		if ("aquecido".equals(cenario)) {
+			criador.aquece();
+		}
+		Thread.sleep(trabalho);
+
+		long requisicao = System.nanoTime();
+		Session session = criador.getSession();
+		try {
+			new LeilaoDao(session).total();
+		} finally {
+			session.close();
+		}
+		long fim = System.nanoTime();
+
+		System.out.printf("medidas %.1f %.1f %.1f %d%n", (mapeamento - inicio) / 1e6, (esquema - mapeamento) / 1e6,
+				(fim - requisicao) / 1e6, ManagementFactory.getRuntimeMXBean().getUptime() - trabalho);
+	}
+
+	private static double mediana(double[] valores) {
+		double[] ordenados = valores.clone();
+		Arrays.sort(ordenados);
+		return ordenados[ordenados.length / 2];
+	}
+}
@@ -0,0 +1,76 @@
+package br.com.caelum.pm73.benchmark;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import org.hibernate.Session;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.LeilaoDao;
+import br.com.caelum.pm73.dao.UsuarioDao;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+
+public class BenchmarkInsercaoEmLote {
+
+	private static final int LEILOES = 200;
+	private static final int LANCES_POR_LEILAO = 100;
+	private static final int RODADAS = 3;
+
+	public static void main(String[] args) {
+		CriadorDeSessao criador = new CriadorDeSessao();
+		criador.getConfig().setProperty("hibernate.show_sql", "false");
+
+		for (int rodada = 1; rodada <= RODADAS; rodada++) {
+			System.out.printf("rodada %d: um a um = %.0f linhas/s, em lote = %.0f linhas/s%n",
+					rodada, mede(criador, false), mede(criador, true));
+		}
+	}
+
+	private static double mede(CriadorDeSessao criador, boolean emLote) {
+		Session session = criador.getSession();
+		session.beginTransaction();
+		try {
+			UsuarioDao usuarioDao = new UsuarioDao(session);
+			LeilaoDao leilaoDao = new LeilaoDao(session);
+
+			Usuario dono = new Usuario("Dono", "dono@leilao.com");
+			Usuario interessado = new Usuario("Interessado", "interessado@leilao.com");
+			usuarioDao.salvar(dono);
+			usuarioDao.salvar(interessado);
+
+			List<Leilao> leiloes = geraLeiloes(dono, interessado);
+
+			long inicio = System.nanoTime();
+			if (emLote) {
+				leilaoDao.salvarEmLote(leiloes);
+			} else {
+				for (Leilao leilao : leiloes) {
+					leilaoDao.salvar(leilao);
+				}
+				session.flush();
+			}
+			long decorrido = System.nanoTime() - inicio;
+
+			long linhas = (long) LEILOES * (LANCES_POR_LEILAO + 1);
+			return linhas / (decorrido / 1e9);
+		} finally {
+			session.getTransaction().rollback();
+			session.close();
+		}
+	}
+
+	private static List<Leilao> geraLeiloes(Usuario dono, Usuario interessado) {
+		List<Leilao> leiloes = new ArrayList<Leilao>(LEILOES);
+		for (int i = 0; i < LEILOES; i++) {
+			LeilaoBuilder builder = new LeilaoBuilder().comDono(dono).comNome("Leilao " + i);
+			for (int j = 0; j < LANCES_POR_LEILAO; j++) {
+				builder.comLance(Calendar.getInstance(), interessado, 100.0 + j);
+			}
+			leiloes.add(builder.constroi());
+		}
+		return leiloes;
+	}
+}
@@ -0,0 +1,204 @@
+package br.com.caelum.pm73.benchmark;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.Session;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.Daos;
+import br.com.caelum.pm73.dao.ExecutorTransacional;
+import br.com.caelum.pm73.dao.PoolDeConexoes;
+import br.com.caelum.pm73.dao.TarefaTransacional;
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * Milhares de licitantes simultaneos, cada um numa thread propria (com pilha
+ * pequena), dando lances num banco em memoria com pool de 10 conexoes. Cada
+ * lance abre sessao e transacao, carrega o leilao e grava o lance.
+ *
+ * Roda duas vezes: abrindo a sessao direto, quando todos disputam o pool e
+ * quem passa do tempo de espera dele falha, e pelo ExecutorTransacional.
+ * args: licitantes (10.000), lances por licitante (3) e tempo de espera do
+ * pool em milissegundos (1.000).
+ */
+public class BenchmarkLicitantes {
+
+	private static final long SEMENTE = 42;
+	private static final int LEILOES = 1000;
+	private static final long PILHA = 128 * 1024;
+
+	public static void main(String[] args) throws InterruptedException {
+		int licitantes = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int lances = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		String tempoDeEspera = args.length > 2 ? args[2] : "1000";
+
+		CriadorDeSessao criador = new CriadorDeSessao();
+		criador.getConfig()
+			.setProperty("hibernate.connection.url", "jdbc:hsqldb:mem:licitantes")
+			.setProperty("hibernate.show_sql", "false")
+			.setProperty(PoolDeConexoes.MAXIMO, "10")
+			.setProperty(PoolDeConexoes.TEMPO_DE_ESPERA, tempoDeEspera);
+		new SchemaExport(criador.getConfig()).create(false, true);
+		new GeradorDeLeiloes(criador)
+			.comSemente(SEMENTE)
+			.comLeiloes(LEILOES)
+			.comUsuarios(licitantes)
+			.comMediaDeLances(0)
+			.gera();
+		int[] leiloes = faixa(criador, "Leilao");
+		int[] usuarios = faixa(criador, "Usuario");
+
+		ExecutorTransacional executor = new ExecutorTransacional(criador);
+		mede("direto", new Direto(criador), licitantes, lances, leiloes, usuarios);
+		mede("executor", new PeloExecutor(executor), licitantes, lances, leiloes, usuarios);
+		System.out.printf("executor: espera media por vaga %.1fms%n", executor.getEsperaMedia());
+		System.out.println(criador.getEstatisticasDoPool());
+	}
+
+	private static void mede(String nome, final Licitacao licitacao, int licitantes, final int lances,
+			final int[] leiloes, final int[] usuarios) throws InterruptedException {
+		final CountDownLatch largada = new CountDownLatch(1);
+		final AtomicInteger erros = new AtomicInteger();
+		final AtomicLong aceitos = new AtomicLong();
+		final long[][] latencias = new long[licitantes][];
+		Thread[] threads = new Thread[licitantes];
+
+		for (int t = 0; t < licitantes; t++) {
+			final int licitante = t;
+			threads[t] = new Thread(null, new Runnable() {
+				@Override
+				public void run() {
+					Random aleatorio = new Random(SEMENTE + licitante);
+					long[] minhas = new long[lances];
+					int feitos = 0;
+					try {
+						largada.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < lances; i++) {
+						int leilao = leiloes[0] + aleatorio.nextInt(leiloes[1] - leiloes[0] + 1);
+						int usuario = usuarios[0] + aleatorio.nextInt(usuarios[1] - usuarios[0] + 1);
+						long inicio = System.nanoTime();
+						try {
+							licitacao.daLance(leilao, usuario, 1 + aleatorio.nextInt(1000));
+							minhas[feitos++] = System.nanoTime() - inicio;
+						} catch (RuntimeException e) {
+							erros.incrementAndGet();
+						}
+					}
+					latencias[licitante] = Arrays.copyOf(minhas, feitos);
+					aceitos.addAndGet(feitos);
+				}
+			}, "licitante-" + t, PILHA);
+			threads[t].start();
+		}
+
+		long inicio = System.nanoTime();
+		largada.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		double segundos = (System.nanoTime() - inicio) / 1e9;
+
+		long[] todas = junta(latencias, aceitos.get());
+		System.out.printf("%-9s %,7d lances em %5.1fs (%,6.0f lances/s)  p50 %,7.1fms  p99 %,8.1fms  erros %,d%n",
+				nome, aceitos.get(), segundos, aceitos.get() / segundos,
+				percentil(todas, 0.50), percentil(todas, 0.99), erros.get());
+	}
+
+	private static long[] junta(long[][] latencias, long total) {
+		long[] todas = new long[(int) total];
+		int i = 0;
+		for (long[] doLicitante : latencias) {
+			if (doLicitante != null) {
+				System.arraycopy(doLicitante, 0, todas, i, doLicitante.length);
+				i += doLicitante.length;
+			}
+		}
+		Arrays.sort(todas, 0, i);
+		return Arrays.copyOf(todas, i);
+	}
+
+	private static double percentil(long[] ordenadas, double p) {
+		if (ordenadas.length == 0) return 0.0;
+		return ordenadas[(int) Math.min(ordenadas.length - 1, ordenadas.length * p)] / 1e6;
+	}
+
+	private static int[] faixa(CriadorDeSessao criador, String entidade) {
+		Session session = criador.getSession();
+		try {
+			Object[] minimoEMaximo = (Object[]) session
+					.createQuery("select min(e.id), max(e.id) from " + entidade + " e")
+					.uniqueResult();
+			return new int[] { (Integer) minimoEMaximo[0], (Integer) minimoEMaximo[1] };
+		} finally {
+			session.close();
+		}
+	}
+
+	private static Lance lance(Session session, int leilaoId, int usuarioId, double valor) {
+		Leilao leilao = (Leilao) session.get(Leilao.class, leilaoId);
+		Usuario usuario = (Usuario) session.load(Usuario.class, usuarioId);
+		Lance lance = new Lance(Calendar.getInstance(), usuario, valor, leilao);
+		session.save(lance);
+		return lance;
+	}
+
+	private interface Licitacao {
+		void daLance(int leilaoId, int usuarioId, double valor);
+	}
+
+	private static class Direto implements Licitacao {
+
+		private final CriadorDeSessao criador;
+
+		Direto(CriadorDeSessao criador) {
+			this.criador = criador;
+		}
+
+		@Override
+		public void daLance(int leilaoId, int usuarioId, double valor) {
+			Session session = criador.getSession();
+			try {
+				session.beginTransaction();
+				lance(session, leilaoId, usuarioId, valor);
+				session.getTransaction().commit();
+			} catch (RuntimeException e) {
+				if (session.getTransaction().isActive()) {
+					session.getTransaction().rollback();
+				}
+				throw e;
+			} finally {
+				session.close();
+			}
+		}
+	}
+
+	private static class PeloExecutor implements Licitacao {
+
+		private final ExecutorTransacional executor;
+
+		PeloExecutor(ExecutorTransacional executor) {
+			this.executor = executor;
+		}
+
+		@Override
+		public void daLance(final int leilaoId, final int usuarioId, final double valor) {
+			executor.emTransacao(new TarefaTransacional<Lance>() {
+				@Override
+				public Lance executa(Daos daos) {
+					return lance(daos.getSession(), leilaoId, usuarioId, valor);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package br.com.caelum.pm73.benchmark;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.LivroDeLances;
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * Lances por segundo num unico leilao disputado por varias threads: o
+ * LivroDeLances contra um Leilao protegido por synchronized. Cada thread
+ * tenta cobrir o valor atual; uma thread a parte esvazia os pendentes, como
+ * o GravadorDeLances faria. args: threads (1,2,4,8) e segundos por rodada (3).
+ */
+public class BenchmarkLivroDeLances {
+
+	public static void main(String[] args) throws InterruptedException {
+		String[] threads = (args.length > 0 ? args[0] : "1,2,4,8").split(",");
+		long duracao = (args.length > 1 ? Long.parseLong(args[1]) : 3) * 1000;
+
+		for (String quantidade : threads) {
+			int n = Integer.parseInt(quantidade);
+			System.out.printf("%2d threads: livro de lances %,12.0f lances/s, synchronized %,12.0f lances/s%n",
+					n, mede(new ComLivro(), n, duracao), mede(new ComTrava(), n, duracao));
+		}
+	}
+
+	private static double mede(final Disputa disputa, int threads, final long duracao) throws InterruptedException {
+		final AtomicLong aceitos = new AtomicLong();
+		final CountDownLatch largada = new CountDownLatch(1);
+		final long fim = System.currentTimeMillis() + duracao;
+		Thread[] concorrentes = new Thread[threads];
+
+		for (int t = 0; t < threads; t++) {
+			final Usuario usuario = new Usuario("Usuario " + t, "usuario" + t + "@leilao.com");
+			final Random aleatorio = new Random(t);
+			concorrentes[t] = new Thread() {
+				@Override
+				public void run() {
+					long meus = 0;
+					try {
+						largada.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					Calendar agora = Calendar.getInstance();
+					while (System.currentTimeMillis() < fim) {
+						for (int i = 0; i < 1000; i++) {
+							double valor = disputa.valorAtual() + 1 + aleatorio.nextInt(100) / 100.0;
+							if (disputa.oferece(new Lance(agora, usuario, valor, null))) {
+								meus++;
+							}
+						}
+					}
+					aceitos.addAndGet(meus);
+				}
+			};
+			concorrentes[t].start();
+		}
+
+		Thread esvaziador = new Thread() {
+			@Override
+			public void run() {
+				while (System.currentTimeMillis() < fim) {
+					disputa.esvazia();
+					try {
+						Thread.sleep(10);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		};
+		esvaziador.start();
+
+		long inicio = System.nanoTime();
+		largada.countDown();
+		for (Thread concorrente : concorrentes) {
+			concorrente.join();
+		}
+		esvaziador.join();
+		return aceitos.get() / ((System.nanoTime() - inicio) / 1e9);
+	}
+
+	private interface Disputa {
+		double valorAtual();
+		boolean oferece(Lance lance);
+		void esvazia();
+	}
+
+	private static class ComLivro implements Disputa {
+		private final LivroDeLances livro = new LivroDeLances(new LeilaoBuilder().comValor(1.0).constroi());
+
+		public double valorAtual() {
+			return livro.getValorAtual();
+		}
+
+		public boolean oferece(Lance lance) {
+			return livro.oferece(lance);
+		}
+
+		public void esvazia() {
+			livro.retiraPendentes();
+		}
+	}
+
+	private static class ComTrava implements Disputa {
+		private Leilao leilao = new LeilaoBuilder().comValor(1.0).constroi();
+
+		public synchronized double valorAtual() {
+			return leilao.getMaiorLance() == null ? leilao.getValorInicial() : leilao.getMaiorLance();
+		}
+
+		public synchronized boolean oferece(Lance lance) {
+			if (lance.getValor() <= valorAtual()) {
+				return false;
+			}
+			leilao.adicionaLance(lance);
+			return true;
+		}
+
+		public synchronized void esvazia() {
+			// descarta os lances aceitos, mas a disputa continua do valor atual
+			leilao = new LeilaoBuilder().comValor(valorAtual()).constroi();
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package br.com.caelum.pm73.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.hibernate.Session;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.jdbc.Work;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.PerfilDoBanco;
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * Compara os perfis do {@link PerfilDoBanco}. Para cada um, numa JVM
+ * propria, grava o banco do zero pelo {@link GeradorDeLeiloes} (linhas por
+ * segundo em lote), depois da lances um por transacao (commits por segundo)
+ * e fecha com SHUTDOWN. Noutra JVM, abre o banco gravado e mede o tempo ate
+ * a primeira consulta e o heap ocupado depois dela. O perfil memoria nao
+ * tem o que reabrir; o heap dele e medido logo depois de gravar.
+ *
+ * <pre>
+ * perfis=memoria,arquivo,cached,log atrasos=1000,0 (ms, so para o log)
+ * leiloes=50000 lances=3 (media por leilao) commits=3000 (ms)
+ * </pre>
+ *
+ * Os bancos ficam em benchmark/perfis, apagados a cada rodada.
+ */
+public class BenchmarkPerfis {
+
+	private static final long SEMENTE = 42;
+	private static final String PASTA = "benchmark/perfis";
+
+	private final Map<String, String> parametros;
+	private final PerfilDoBanco perfil;
+	private final CriadorDeSessao criador = new CriadorDeSessao();
+
+	private BenchmarkPerfis(Map<String, String> parametros) {
+		this.parametros = parametros;
+		this.perfil = PerfilDoBanco.porNome(parametros.get("perfis"));
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> parametros = new LinkedHashMap<String, String>();
+		parametros.put("perfis", "memoria,arquivo,cached,log");
+		parametros.put("atrasos", "1000,0");
+		parametros.put("leiloes", "50000");
+		parametros.put("lances", "3");
+		parametros.put("commits", "3000");
+		parametros.put("fase", "");
+		for (String arg : args) {
+			String[] chaveEValor = arg.split("=", 2);
+			if (chaveEValor.length != 2 || !parametros.containsKey(chaveEValor[0])) {
+				throw new IllegalArgumentException("Parametro invalido: " + arg);
+			}
+			parametros.put(chaveEValor[0], chaveEValor[1]);
+		}
+
+		if (parametros.get("fase").isEmpty()) {
+			for (String nome : parametros.get("perfis").split(",")) {
+				String[] atrasos = PerfilDoBanco.porNome(nome) == PerfilDoBanco.LOG
+						? parametros.get("atrasos").split(",") : new String[] { "" };
+				for (String atraso : atrasos) {
+					Map<String, String> cenario = new LinkedHashMap<String, String>(parametros);
+					cenario.put("perfis", nome);
+					cenario.put("atrasos", atraso);
+					cenario.put("fase", "grava");
+					rodaEmOutraJvm(cenario);
+					if (PerfilDoBanco.porNome(nome) != PerfilDoBanco.MEMORIA) {
+						cenario.put("fase", "abre");
+						rodaEmOutraJvm(cenario);
+					}
+				}
+			}
+		} else if ("grava".equals(parametros.get("fase"))) {
+			new BenchmarkPerfis(parametros).grava();
+		} else {
+			new BenchmarkPerfis(parametros).abre();
+		}
+	}
+
+	private static void rodaEmOutraJvm(Map<String, String> cenario) throws IOException, InterruptedException {
+		List<String> comando = new ArrayList<String>();
+		comando.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		comando.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+		comando.add("-cp");
+		comando.add(System.getProperty("java.class.path"));
+		comando.add(BenchmarkPerfis.class.getName());
+		for (Map.Entry<String, String> parametro : cenario.entrySet()) {
+			comando.add(parametro.getKey() + "=" + parametro.getValue());
+		}
+
+		int saida = new ProcessBuilder(comando).inheritIO().start().waitFor();
+		if (saida != 0) {
+			throw new IllegalStateException("Cenario " + cenario + " terminou com codigo " + saida);
+		}
+	}
+
+	private void grava() {
+		apagaArquivos();
+		configura();
+		new SchemaExport(criador.getConfig()).create(false, true);
+
+		int leiloes = Integer.parseInt(parametros.get("leiloes"));
+		long inicio = System.nanoTime();
+		long lances = new GeradorDeLeiloes(criador)
+			.comSemente(SEMENTE)
+			.comLeiloes(leiloes)
+			.comUsuarios(Math.max(100, leiloes / 10))
+			.comMediaDeLances(Double.parseDouble(parametros.get("lances")))
+			.gera();
+		double segundos = (System.nanoTime() - inicio) / 1e9;
+		long linhas = leiloes + Math.max(100, leiloes / 10) + lances;
+
+		double commits = commitsPorSegundo(Long.parseLong(parametros.get("commits")));
+
+		if (perfil == PerfilDoBanco.MEMORIA) {
+			System.out.printf("%-12s gravacao: %,9.0f linhas/s em lote, %,6.0f commits/s, heap %,7.1f MB%n",
+					nome(), linhas / segundos, commits, heapOcupado());
+		} else {
+			desliga();
+			System.out.printf("%-12s gravacao: %,9.0f linhas/s em lote, %,6.0f commits/s, disco %,7.1f MB%n",
+					nome(), linhas / segundos, commits, tamanhoEmDisco() / 1e6);
+		}
+	}
+
+	private void abre() {
+		long inicio = System.nanoTime();
+		configura();
+		Session session = criador.getSession();
+		try {
+			Object[] faixa = (Object[]) session.createQuery("select min(l.id), max(l.id) from Leilao l")
+					.uniqueResult();
+			session.get(Leilao.class, (Integer) faixa[1]);
+		} finally {
+			session.close();
+		}
+		double abertura = (System.nanoTime() - inicio) / 1e6;
+
+		System.out.printf("%-12s abertura: %,9.0f ms ate a primeira consulta, heap %,7.1f MB%n",
+				nome(), abertura, heapOcupado());
+		desliga();
+	}
+
+	private double commitsPorSegundo(long duracao) {
+		Session session = criador.getSession();
+		int[] leiloes;
+		int[] usuarios;
+		try {
+			leiloes = faixa(session, "Leilao");
+			usuarios = faixa(session, "Usuario");
+		} finally {
+			session.close();
+		}
+
+		Random aleatorio = new Random(SEMENTE);
+		long commits = 0;
+		long inicio = System.nanoTime();
+		long fim = inicio + duracao * 1000000L;
+		while (System.nanoTime() < fim) {
+			session = criador.getSession();
+			try {
+				session.beginTransaction();
+				Leilao leilao = (Leilao) session.load(Leilao.class,
+						leiloes[0] + aleatorio.nextInt(leiloes[1] - leiloes[0] + 1));
+				Usuario usuario = (Usuario) session.load(Usuario.class,
+						usuarios[0] + aleatorio.nextInt(usuarios[1] - usuarios[0] + 1));
+				session.save(new Lance(Calendar.getInstance(), usuario, 1 + aleatorio.nextInt(1000), leilao));
+				session.getTransaction().commit();
+				commits++;
+			} finally {
+				session.close();
+			}
+		}
+		return commits / ((System.nanoTime() - inicio) / 1e9);
+	}
+
+	private void configura() {
+		Configuration config = criador.getConfig()
+			.setProperty("hibernate.show_sql", "false")
+			.setProperty(PerfilDoBanco.CAMINHO, perfil == PerfilDoBanco.MEMORIA
+					? "perfis" : PASTA + "/" + nome() + "/caelum.db");
+		if (!parametros.get("atrasos").isEmpty()) {
+			config.setProperty(PerfilDoBanco.ATRASO_DO_LOG, parametros.get("atrasos"));
+		}
+		perfil.aplica(config);
+	}
+
+	private String nome() {
+		String atraso = parametros.get("atrasos");
+		return atraso.isEmpty() ? perfil.getNome() : perfil.getNome() + "-" + atraso;
+	}
+
+	/**
+	 * Fecha o banco por inteiro, como o shutdown=true faria ao fechar a
+	 * ultima conexao; sem isso a proxima abertura refaria o log.
+	 */
+	private void desliga() {
+		Session session = criador.getSession();
+		try {
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection conexao) throws SQLException {
+					conexao.createStatement().execute("SHUTDOWN");
+				}
+			});
+		} finally {
+			session.close();
+		}
+	}
+
+	private void apagaArquivos() {
+		File[] arquivos = new File(PASTA, nome()).listFiles();
+		if (arquivos == null) return;
+		for (File arquivo : arquivos) {
+			apaga(arquivo);
+		}
+	}
+
+	private static void apaga(File arquivo) {
+		File[] dentro = arquivo.listFiles();
+		if (dentro != null) {
+			for (File filho : dentro) {
+				apaga(filho);
+			}
+		}
+		arquivo.delete();
+	}
+
+	private long tamanhoEmDisco() {
+		long total = 0;
+		File[] arquivos = new File(PASTA, nome()).listFiles();
+		if (arquivos != null) {
+			for (File arquivo : arquivos) {
+				total += arquivo.length();
+			}
+		}
+		return total;
+	}
+
+	private static double heapOcupado() {
+		System.gc();
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1e6;
+	}
+
+	private static int[] faixa(Session session, String entidade) {
+		Object[] minimoEMaximo = (Object[]) session
+				.createQuery("select min(e.id), max(e.id) from " + entidade + " e")
+				.uniqueResult();
+		return new int[] { (Integer) minimoEMaximo[0], (Integer) minimoEMaximo[1] };
+	}
+}
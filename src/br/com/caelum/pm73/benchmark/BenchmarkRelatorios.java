@@ -0,0 +1,63 @@
+package br.com.caelum.pm73.benchmark;
+
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.PoolDeConexoes;
+import br.com.caelum.pm73.dao.relatorio.MotorDeRelatorios;
+import br.com.caelum.pm73.dao.relatorio.Periodo;
+import br.com.caelum.pm73.dao.relatorio.RelatorioDeLeiloes;
+
+/**
+ * Gera o RelatorioDeLeiloes sobre um banco em memoria com args[0] leiloes
+ * (300.000 por padrao, uns 900.000 lances) com paralelismo de 1 ate o
+ * dobro dos processadores. A primeira linha le tudo numa faixa so, que e
+ * o mesmo que percorrer as tabelas com uma sessao.
+ */
+public class BenchmarkRelatorios {
+
+	private static final long SEMENTE = 42;
+	private static final int REPETICOES = 3;
+
+	public static void main(String[] args) {
+		int leiloes = args.length > 0 ? Integer.parseInt(args[0]) : 300000;
+		int processadores = Runtime.getRuntime().availableProcessors();
+
+		CriadorDeSessao criador = new CriadorDeSessao();
+		criador.getConfig()
+			.setProperty("hibernate.connection.url", "jdbc:hsqldb:mem:relatorios")
+			.setProperty("hibernate.show_sql", "false")
+			.setProperty(PoolDeConexoes.MAXIMO, String.valueOf(Math.max(10, 2 * processadores)));
+		new SchemaExport(criador.getConfig()).create(false, true);
+		new GeradorDeLeiloes(criador)
+			.comSemente(SEMENTE)
+			.comLeiloes(leiloes)
+			.comUsuarios(Math.max(100, leiloes / 10))
+			.comMediaDeLances(3)
+			.gera();
+
+		System.out.printf("%d processadores%n", processadores);
+		mede(criador, "uma faixa, 1 thread", 1, Integer.MAX_VALUE);
+		for (int paralelismo = 1; paralelismo <= 2 * processadores; paralelismo *= 2) {
+			mede(criador, "faixas de " + MotorDeRelatorios.TAMANHO_DA_FAIXA + ", " + paralelismo + " threads",
+					paralelismo, MotorDeRelatorios.TAMANHO_DA_FAIXA);
+		}
+	}
+
+	private static void mede(CriadorDeSessao criador, String nome, int paralelismo, int tamanhoDaFaixa) {
+		MotorDeRelatorios motor = new MotorDeRelatorios(criador, paralelismo, tamanhoDaFaixa,
+				Periodo.MES, MotorDeRelatorios.FAIXAS_DE_VALOR);
+		motor.gera();
+
+		long melhor = Long.MAX_VALUE;
+		RelatorioDeLeiloes relatorio = null;
+		for (int i = 0; i < REPETICOES; i++) {
+			long inicio = System.nanoTime();
+			relatorio = motor.gera();
+			melhor = Math.min(melhor, System.nanoTime() - inicio);
+		}
+		long linhas = relatorio.getLeiloes() + relatorio.getLances().getLances();
+		System.out.printf("%-32s %7.0f ms  %,12.0f linhas/s  (%s)%n", nome, melhor / 1e6,
+				linhas / (melhor / 1e9), relatorio);
+	}
+}
@@ -0,0 +1,141 @@
+package br.com.caelum.pm73.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.Random;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.IndicesDoBanco;
+import br.com.caelum.pm73.dao.LeilaoDao;
+import br.com.caelum.pm73.dao.ResumoDeLeilaoDao;
+
+/**
+ * Compara as listagens do LeilaoDao com as do ResumoDeLeilaoDao sobre um
+ * banco em memoria com args[0] leiloes (100.000 por padrao): latencia pelo
+ * {@link Medidor} e bytes alocados por chamada pela thread que mede.
+ */
+public class BenchmarkResumos {
+
+	private static final long SEMENTE = 42;
+	private static final int TAMANHO_DA_PAGINA = 50;
+	private static final long AQUECIMENTO = 1000;
+	private static final long MEDICAO = 3000;
+
+	private static final Random aleatorio = new Random(SEMENTE);
+
+	public static void main(String[] args) {
+		int leiloes = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+		CriadorDeSessao criador = new CriadorDeSessao();
+		criador.getConfig()
+			.setProperty("hibernate.connection.url", "jdbc:hsqldb:mem:resumos")
+			.setProperty("hibernate.show_sql", "false");
+		new SchemaExport(criador.getConfig()).create(false, true);
+		new GeradorDeLeiloes(criador)
+			.comSemente(SEMENTE)
+			.comLeiloes(leiloes)
+			.comUsuarios(Math.max(100, leiloes / 10))
+			.comMediaDeLances(3)
+			.gera();
+		criaIndices(criador);
+
+		Medidor medidor = new Medidor(criador, AQUECIMENTO, MEDICAO);
+		Medidor semAquecimento = new Medidor(criador, 0, MEDICAO / 3);
+
+		compara(medidor, semAquecimento, "novos(pagina)", new Operacao() {
+			public void executa(Session session) {
+				new LeilaoDao(session).novos(null, TAMANHO_DA_PAGINA);
+			}
+		}, new Operacao() {
+			public void executa(Session session) {
+				new ResumoDeLeilaoDao(session).novos(null, TAMANHO_DA_PAGINA);
+			}
+		});
+		compara(medidor, semAquecimento, "antigos(pagina)", new Operacao() {
+			public void executa(Session session) {
+				new LeilaoDao(session).antigos(null, TAMANHO_DA_PAGINA);
+			}
+		}, new Operacao() {
+			public void executa(Session session) {
+				new ResumoDeLeilaoDao(session).antigos(null, TAMANHO_DA_PAGINA);
+			}
+		});
+		compara(medidor, semAquecimento, "porPeriodo", new Operacao() {
+			public void executa(Session session) {
+				new LeilaoDao(session).porPeriodo(diasAtras(37), diasAtras(30));
+			}
+		}, new Operacao() {
+			public void executa(Session session) {
+				new ResumoDeLeilaoDao(session).porPeriodo(diasAtras(37), diasAtras(30));
+			}
+		});
+		compara(medidor, semAquecimento, "disputadosEntre", new Operacao() {
+			private double inicio;
+			public void prepara(Session session) {
+				inicio = aleatorio.nextInt(950);
+			}
+			public void executa(Session session) {
+				new LeilaoDao(session).disputadosEntre(inicio, inicio + 50);
+			}
+		}, new Operacao() {
+			private double inicio;
+			public void prepara(Session session) {
+				inicio = aleatorio.nextInt(950);
+			}
+			public void executa(Session session) {
+				new ResumoDeLeilaoDao(session).disputadosEntre(inicio, inicio + 50);
+			}
+		});
+	}
+
+	private static void compara(Medidor medidor, Medidor semAquecimento, String listagem,
+			Operacao entidades, Operacao resumos) {
+		mede(medidor, semAquecimento, "LeilaoDao." + listagem, entidades);
+		mede(medidor, semAquecimento, "ResumoDeLeilaoDao." + listagem, resumos);
+	}
+
+	private static void mede(Medidor medidor, Medidor semAquecimento, String nome, Operacao operacao) {
+		ResultadoDaMedicao resultado = medidor.mede(nome, operacao);
+
+		// ja aquecido, mede de novo so para contar a alocacao; inclui abrir e
+		// desfazer a transacao de cada chamada, igual para os dois lados
+		long antes = alocados();
+		ResultadoDaMedicao contagem = semAquecimento.mede(nome, operacao);
+		long porChamada = (alocados() - antes) / Math.max(1, contagem.getExecucoes());
+
+		System.out.printf("%s  %,9d bytes/chamada%n", resultado, porChamada);
+	}
+
+	@SuppressWarnings("restriction")
+	private static long alocados() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+				.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	private static Calendar diasAtras(int dias) {
+		Calendar data = Calendar.getInstance();
+		data.add(Calendar.DAY_OF_MONTH, -dias);
+		return data;
+	}
+
+	private static void criaIndices(CriadorDeSessao criador) {
+		Session session = criador.getSession();
+		try {
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection conexao) throws SQLException {
+					new IndicesDoBanco().cria(conexao);
+					conexao.commit();
+				}
+			});
+		} finally {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,40 @@
+package br.com.caelum.pm73.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Sorteia posicoes de 0 a n-1 com probabilidade proporcional a 1/(k+1)^s:
+ * a posicao 0 sai mais que todas, e as ultimas quase nunca. Serve para
+ * imitar poucos usuarios muito ativos e muitos que quase nao dao lance.
+ * Nao guarda estado alem da tabela acumulada, entao pode ser dividida
+ * entre threads, cada uma com o seu Random.
+ */
+public class DistribuicaoZipf {
+
+	private final double[] acumulada;
+
+	public DistribuicaoZipf(int n, double expoente) {
+		if (n < 1) {
+			throw new IllegalArgumentException("Distribuicao sem elementos: " + n);
+		}
+
+		acumulada = new double[n];
+		double soma = 0;
+		for (int k = 0; k < n; k++) {
+			soma += 1 / Math.pow(k + 1, expoente);
+			acumulada[k] = soma;
+		}
+		for (int k = 0; k < n; k++) {
+			acumulada[k] /= soma;
+		}
+	}
+
+	public int sorteia(Random aleatorio) {
+		int posicao = Arrays.binarySearch(acumulada, aleatorio.nextDouble());
+		if (posicao < 0) {
+			posicao = -posicao - 1;
+		}
+		return Math.min(posicao, acumulada.length - 1);
+	}
+}
@@ -0,0 +1,293 @@
+package br.com.caelum.pm73.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
+import org.hibernate.tool.hbm2ddl.SchemaExport;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.IndicesDoBanco;
+import br.com.caelum.pm73.dao.LeilaoDao;
+import br.com.caelum.pm73.dao.UsuarioDao;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * Gera usuarios, leiloes e lances em volume para testes de carga, montando
+ * cada leilao pelo {@link LeilaoBuilder} e gravando em blocos de mil, cada
+ * bloco numa transacao propria. Os blocos rodam em paralelo, mas cada um
+ * tem o seu Random derivado da semente, entao a mesma semente gera sempre
+ * os mesmos dados, com qualquer numero de threads.
+ *
+ * Os usuarios se chamam "Usuario i", com email "usuarioi@leilao.com". Quem
+ * da lance segue uma distribuicao de Zipf; a quantidade de lances por
+ * leilao e geometrica, com a media pedida; a abertura se espalha pelos
+ * ultimos dias de historico, e os leiloes mais velhos tendem a estar
+ * encerrados.
+ */
+public class GeradorDeLeiloes {
+
+	private static final int POR_BLOCO = 1000;
+	private static final long UM_DIA = 24L * 60 * 60 * 1000;
+	private static final long DURACAO_DOS_LANCES = 7 * UM_DIA;
+
+	private final CriadorDeSessao criador;
+	private long semente = 42;
+	private int usuarios = 1000;
+	private int leiloes = 10000;
+	private double mediaDeLances = 5;
+	private double expoente = 1.0;
+	private int diasDeHistorico = 365;
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	public GeradorDeLeiloes(CriadorDeSessao criador) {
+		this.criador = criador;
+	}
+
+	public GeradorDeLeiloes comSemente(long semente) {
+		this.semente = semente;
+		return this;
+	}
+
+	public GeradorDeLeiloes comUsuarios(int usuarios) {
+		this.usuarios = usuarios;
+		return this;
+	}
+
+	public GeradorDeLeiloes comLeiloes(int leiloes) {
+		this.leiloes = leiloes;
+		return this;
+	}
+
+	public GeradorDeLeiloes comMediaDeLances(double mediaDeLances) {
+		this.mediaDeLances = mediaDeLances;
+		return this;
+	}
+
+	/**
+	 * Quanto maior o expoente, mais os lances se concentram nos primeiros
+	 * usuarios; 0 sorteia todos por igual.
+	 */
+	public GeradorDeLeiloes comExpoenteDeZipf(double expoente) {
+		this.expoente = expoente;
+		return this;
+	}
+
+	public GeradorDeLeiloes comDiasDeHistorico(int diasDeHistorico) {
+		this.diasDeHistorico = diasDeHistorico;
+		return this;
+	}
+
+	/**
+	 * Mais threads do que conexoes no pool so deixa threads esperando.
+	 */
+	public GeradorDeLeiloes comThreads(int threads) {
+		this.threads = threads;
+		return this;
+	}
+
+	/**
+	 * @return quantos lances foram gravados
+	 */
+	public long gera() {
+		final long agora = System.currentTimeMillis();
+		final Usuario[] gravados = new Usuario[usuarios];
+		final DistribuicaoZipf interessados = new DistribuicaoZipf(usuarios, expoente);
+		final AtomicInteger leiloesGravados = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Callable<Integer>> blocosDeUsuarios = new ArrayList<Callable<Integer>>();
+			for (int inicio = 0; inicio < usuarios; inicio += POR_BLOCO) {
+				final int primeiro = inicio;
+				blocosDeUsuarios.add(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						return salvaUsuarios(gravados, primeiro, Math.min(primeiro + POR_BLOCO, usuarios));
+					}
+				});
+			}
+			aguarda(executor, blocosDeUsuarios);
+
+			List<Callable<Integer>> blocosDeLeiloes = new ArrayList<Callable<Integer>>();
+			for (int inicio = 0; inicio < leiloes; inicio += POR_BLOCO) {
+				final int primeiro = inicio;
+				blocosDeLeiloes.add(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						int ultimo = Math.min(primeiro + POR_BLOCO, leiloes);
+						int lances = salvaLeiloes(primeiro, ultimo, gravados, interessados, agora);
+						informaProgresso(leiloesGravados.addAndGet(ultimo - primeiro), ultimo - primeiro);
+						return lances;
+					}
+				});
+			}
+			return aguarda(executor, blocosDeLeiloes);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private int salvaUsuarios(Usuario[] gravados, int primeiro, int ultimo) {
+		Session session = criador.getSession();
+		try {
+			session.beginTransaction();
+			UsuarioDao usuarioDao = new UsuarioDao(session);
+			for (int i = primeiro; i < ultimo; i++) {
+				gravados[i] = new Usuario("Usuario " + i, "usuario" + i + "@leilao.com");
+				usuarioDao.salvar(gravados[i]);
+
+				if ((i - primeiro + 1) % CriadorDeSessao.TAMANHO_DO_LOTE == 0) {
+					session.flush();
+					session.clear();
+				}
+			}
+			session.getTransaction().commit();
+			return ultimo - primeiro;
+		} finally {
+			session.close();
+		}
+	}
+
+	private int salvaLeiloes(int primeiro, int ultimo, Usuario[] gravados, DistribuicaoZipf interessados, long agora) {
+		Random aleatorio = new Random(semente * 31 + primeiro);
+		List<Leilao> bloco = new ArrayList<Leilao>(ultimo - primeiro);
+		int lances = 0;
+
+		for (int i = primeiro; i < ultimo; i++) {
+			Leilao leilao = geraLeilao(i, aleatorio, gravados, interessados, agora);
+			lances += leilao.getQuantidadeLances();
+			bloco.add(leilao);
+		}
+
+		Session session = criador.getSession();
+		try {
+			session.beginTransaction();
+			new LeilaoDao(session).salvarEmLote(bloco);
+			session.getTransaction().commit();
+		} finally {
+			session.close();
+		}
+		return lances;
+	}
+
+	private Leilao geraLeilao(int numero, Random aleatorio, Usuario[] gravados, DistribuicaoZipf interessados,
+			long agora) {
+		long abertura = agora - (long) (aleatorio.nextDouble() * diasDeHistorico * UM_DIA);
+		// valores com cauda longa: a maioria barata, poucos leiloes caros
+		double valor = Math.round(Math.exp(4 + 1.5 * aleatorio.nextGaussian()) * 100) / 100.0;
+
+		LeilaoBuilder builder = new LeilaoBuilder()
+				.comNome("Leilao " + numero)
+				.comDono(gravados[aleatorio.nextInt(gravados.length)])
+				.comValor(valor)
+				.abertoEm(calendario(abertura));
+		if (aleatorio.nextBoolean()) {
+			builder.usado();
+		}
+		boolean antigo = agora - abertura > DURACAO_DOS_LANCES;
+		if (aleatorio.nextDouble() < (antigo ? 0.8 : 0.05)) {
+			builder.encerrado();
+		}
+
+		int quantidade = quantidadeDeLances(aleatorio);
+		long fimDosLances = Math.min(agora, abertura + DURACAO_DOS_LANCES);
+		long data = abertura;
+		for (int i = 0; i < quantidade; i++) {
+			valor = Math.round(valor * (1.01 + aleatorio.nextDouble() * 0.09) * 100) / 100.0 + 1;
+			data += (long) ((fimDosLances - data) * aleatorio.nextDouble() / (quantidade - i));
+			builder.comLance(calendario(data), gravados[interessados.sorteia(aleatorio)], valor);
+		}
+
+		return builder.constroi();
+	}
+
+	private int quantidadeDeLances(Random aleatorio) {
+		if (mediaDeLances <= 0) {
+			return 0;
+		}
+		// geometrica com media "mediaDeLances": muitos leiloes com poucos lances, poucos com muitos
+		double p = 1 / (mediaDeLances + 1);
+		double sorteio = Math.log(1 - aleatorio.nextDouble()) / Math.log(1 - p);
+		return (int) Math.min(Math.floor(sorteio), 50 * mediaDeLances);
+	}
+
+	private void informaProgresso(int gravados, int noBloco) {
+		if ((gravados - noBloco) * 10L / leiloes != gravados * 10L / leiloes) {
+			System.out.printf("%d de %d leiloes gravados%n", gravados, leiloes);
+		}
+	}
+
+	private Calendar calendario(long milissegundos) {
+		Calendar data = Calendar.getInstance();
+		data.setTimeInMillis(milissegundos);
+		return data;
+	}
+
+	private static long aguarda(ExecutorService executor, List<Callable<Integer>> blocos) {
+		try {
+			long total = 0;
+			for (Future<Integer> bloco : executor.invokeAll(blocos)) {
+				total += bloco.get();
+			}
+			return total;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Geracao interrompida", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Falha ao gravar um bloco", e.getCause());
+		}
+	}
+
+	/**
+	 * Popula o banco configurado no CriadorDeSessao (o caelum.db do curso),
+	 * recriando as tabelas antes e os indices depois da carga: leiloes
+	 * [usuarios] [media de lances] [threads] [semente].
+	 */
+	public static void main(String[] args) {
+		int leiloes = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int usuarios = args.length > 1 ? Integer.parseInt(args[1]) : Math.max(100, leiloes / 10);
+
+		CriadorDeSessao criador = new CriadorDeSessao();
+		criador.getConfig().setProperty("hibernate.show_sql", "false");
+		new SchemaExport(criador.getConfig()).create(false, true);
+
+		GeradorDeLeiloes gerador = new GeradorDeLeiloes(criador)
+				.comLeiloes(leiloes)
+				.comUsuarios(usuarios);
+		if (args.length > 2) gerador.comMediaDeLances(Double.parseDouble(args[2]));
+		if (args.length > 3) gerador.comThreads(Integer.parseInt(args[3]));
+		if (args.length > 4) gerador.comSemente(Long.parseLong(args[4]));
+
+		long inicio = System.nanoTime();
+		long lances = gerador.gera();
+
+		Session session = criador.getSession();
+		try {
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection conexao) throws SQLException {
+					new IndicesDoBanco().cria(conexao);
+					conexao.commit();
+				}
+			});
+		} finally {
+			session.close();
+		}
+		System.out.printf("%d usuarios, %d leiloes e %d lances em %.1f s%n",
+				usuarios, leiloes, lances, (System.nanoTime() - inicio) / 1e9);
+	}
+}
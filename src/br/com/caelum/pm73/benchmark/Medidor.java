@@ -0,0 +1,68 @@
+package br.com.caelum.pm73.benchmark;
+
+import java.util.Arrays;
+
+import org.hibernate.Session;
+
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+
+/**
+ * Roda uma {@link Operacao} repetidamente por um tempo de aquecimento e
+ * depois por um tempo de medicao, guardando a latencia de cada chamada.
+ * Cada chamada roda numa transacao desfeita ao final, entao as escritas
+ * nao mudam os dados das medicoes seguintes.
+ */
+public class Medidor {
+
+	private final CriadorDeSessao criador;
+	private final long aquecimento;
+	private final long medicao;
+
+	/**
+	 * @param aquecimento tempo de aquecimento, em milissegundos
+	 * @param medicao tempo de medicao, em milissegundos
+	 */
+	public Medidor(CriadorDeSessao criador, long aquecimento, long medicao) {
+		this.criador = criador;
+		this.aquecimento = aquecimento;
+		this.medicao = medicao;
+	}
+
+	public ResultadoDaMedicao mede(String nome, Operacao operacao) {
+		roda(operacao, aquecimento);
+		return new ResultadoDaMedicao(nome, roda(operacao, medicao));
+	}
+
+	private long[] roda(Operacao operacao, long duracao) {
+		long[] latencias = new long[1024];
+		int execucoes = 0;
+
+		Session session = criador.getSession();
+		try {
+			long fim = System.nanoTime() + duracao * 1000000L;
+			do {
+				session.beginTransaction();
+				try {
+					operacao.prepara(session);
+
+					long inicio = System.nanoTime();
+					operacao.executa(session);
+					session.flush();
+					long latencia = System.nanoTime() - inicio;
+
+					if (execucoes == latencias.length) {
+						latencias = Arrays.copyOf(latencias, execucoes * 2);
+					}
+					latencias[execucoes++] = latencia;
+				} finally {
+					session.getTransaction().rollback();
+					session.clear();
+				}
+			} while (System.nanoTime() < fim);
+		} finally {
+			session.close();
+		}
+
+		return Arrays.copyOf(latencias, execucoes);
+	}
+}
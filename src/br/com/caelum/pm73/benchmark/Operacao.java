@@ -0,0 +1,16 @@
+package br.com.caelum.pm73.benchmark;
+
+import org.hibernate.Session;
+
+/**
+ * Uma chamada de DAO medida pelo {@link Medidor}. So o tempo de
+ * {@link #executa(Session)} (e do flush que vem depois) entra na medicao;
+ * {@link #prepara(Session)} serve para montar os dados da chamada.
+ */
+public abstract class Operacao {
+
+	public void prepara(Session session) {
+	}
+
+	public abstract void executa(Session session);
+}
@@ -0,0 +1,52 @@
+package br.com.caelum.pm73.benchmark;
+
+import java.util.Arrays;
+
+public class ResultadoDaMedicao {
+
+	private final String operacao;
+	private final long[] latencias;
+	private final long tempoTotal;
+
+	public ResultadoDaMedicao(String operacao, long[] latencias) {
+		this.operacao = operacao;
+		this.latencias = latencias.clone();
+		Arrays.sort(this.latencias);
+
+		long soma = 0;
+		for (long latencia : latencias) {
+			soma += latencia;
+		}
+		this.tempoTotal = soma;
+	}
+
+	public String getOperacao() {
+		return operacao;
+	}
+
+	public int getExecucoes() {
+		return latencias.length;
+	}
+
+	public double getVazao() {
+		return tempoTotal == 0 ? 0.0 : latencias.length / (tempoTotal / 1e9);
+	}
+
+	public double getMedia() {
+		return latencias.length == 0 ? 0.0 : tempoTotal / 1e6 / latencias.length;
+	}
+
+	public double getPercentil(double percentil) {
+		if (latencias.length == 0) {
+			return 0.0;
+		}
+		int posicao = (int) Math.ceil(percentil / 100 * latencias.length) - 1;
+		return latencias[Math.max(0, posicao)] / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%-48s %7d ops %10.1f ops/s  media %9.3f ms  p50 %9.3f ms  p99 %9.3f ms",
+				operacao, getExecucoes(), getVazao(), getMedia(), getPercentil(50), getPercentil(99));
+	}
+}
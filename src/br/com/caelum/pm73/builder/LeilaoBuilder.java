@@ -62,6 +62,11 @@ public class LeilaoBuilder {
         return this;
     }
 
+    public LeilaoBuilder abertoEm(Calendar dataAbertura) {
+        this.dataAbertura = dataAbertura;
+        return this;
+    }
+
     public LeilaoBuilder comLance(Calendar data, Usuario usuario, Double valor){
         lances.add(new Lance(data, usuario, valor, null));
         return this;
@@ -1,18 +1,79 @@
 package br.com.caelum.pm73.curso;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.jdbc.Work;
 import org.hibernate.tool.hbm2ddl.SchemaExport;
+import org.hibernate.tool.hbm2ddl.SchemaValidator;
 
 import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.DiagnosticoDePlanos;
+import br.com.caelum.pm73.dao.IndicesDoBanco;
 
+/**
+ * Recria as tabelas do zero. Com -Dpm73.esquema=valida, so confere se as
+ * tabelas batem com o mapeamento e mantem o banco como esta; recria apenas
+ * se nao baterem. Nos dois casos cria os indices que faltarem.
+ */
 public class CriaTabelas {
 
+	public static final String ESQUEMA = "pm73.esquema";
+
 	public static void main(String[] args) {
-		
+
 		Configuration cfg = new CriadorDeSessao().getConfig();
-		SchemaExport se = new SchemaExport(cfg);
-		
-		se.create(true, true);
+		if (!"valida".equals(System.getProperty(ESQUEMA, "recria")) || !valido(cfg)) {
+			SchemaExport se = new SchemaExport(cfg);
+
+			se.create(true, true);
+		}
+
+		Session session = new CriadorDeSessao().getSession();
+		try {
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection conexao) throws SQLException {
+					int criados = new IndicesDoBanco().cria(conexao);
+					conexao.commit();
+					if (criados == 0) {
+						return;
+					}
+
+					// o log do HSQLDB so vai para o disco meio segundo depois; sem o
+					// checkpoint os indices se perdem se a JVM terminar antes disso
+					Statement checkpoint = conexao.createStatement();
+					try {
+						checkpoint.execute("checkpoint");
+					} finally {
+						checkpoint.close();
+					}
+				}
+			});
+
+			Map<String, List<String>> semIndice = new DiagnosticoDePlanos(session).consultasSemIndice();
+			for (Map.Entry<String, List<String>> consulta : semIndice.entrySet()) {
+				System.out.println("Sem indice: " + consulta.getKey() + " varre " + consulta.getValue());
+			}
+		} finally {
+			session.close();
+		}
 	}
-	
+
+	private static boolean valido(Configuration cfg) {
+		try {
+			new SchemaValidator(cfg).validate();
+			return true;
+		} catch (HibernateException e) {
+			System.out.println("Esquema diferente do mapeamento, recriando: " + e.getMessage());
+			return false;
+		}
+	}
+
 }
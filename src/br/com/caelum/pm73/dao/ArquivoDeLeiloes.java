@@ -0,0 +1,16 @@
+package br.com.caelum.pm73.dao;
+
+import java.util.List;
+
+import br.com.caelum.pm73.dominio.Leilao;
+
+public interface ArquivoDeLeiloes {
+
+	/**
+	 * Recebe os leiloes de um lote do expurgo, ja com dono e lances, antes
+	 * de eles serem apagados e dentro da mesma transacao: uma excecao aqui
+	 * desfaz o lote inteiro.
+	 */
+	void arquiva(List<Leilao> leiloes);
+
+}
@@ -0,0 +1,250 @@
+package br.com.caelum.pm73.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.internal.ForeignKeys;
+import org.hibernate.engine.jdbc.spi.JdbcWrapper;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.jdbc.Work;
+
+import br.com.caelum.pm73.dominio.Lance;
+
+/**
+ * Mantem o HistoricoDeLances a cada lance inserido por uma Session. Os
+ * lances da transacao sao somados em memoria e aplicados de uma vez, por
+ * JDBC, logo antes do commit e na mesma transacao: se ela for desfeita, o
+ * historico tambem nao muda. O custo no commit e uma consulta para cada
+ * leilao em que cada usuario deu lance e um update por usuario.
+ *
+ * So lances novos entram. Lances apagados (o ExpurgoDeEncerrados, por
+ * exemplo), alterados ou inseridos por StatelessSession e SQL direto deixam
+ * o historico para tras; a ReconstrucaoDoHistorico acerta tudo.
+ */
+public class AtualizadorDeHistorico implements PostInsertEventListener {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Map<EventSource, Pendencias> porSessao =
+			Collections.synchronizedMap(new IdentityHashMap<EventSource, Pendencias>());
+
+	private final Map<Connection, Comandos> porConexao = new IdentityHashMap<Connection, Comandos>();
+
+	@Override
+	public void onPostInsert(PostInsertEvent event) {
+		if (!(event.getEntity() instanceof Lance)) {
+			return;
+		}
+		Lance lance = (Lance) event.getEntity();
+		EventSource session = event.getSession();
+		Pendencias pendencias = porSessao.get(session);
+		if (pendencias == null) {
+			pendencias = new Pendencias(session);
+			porSessao.put(session, pendencias);
+			session.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) pendencias);
+			session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) pendencias);
+		}
+		pendencias.soma(id(session, lance.getUsuario()), id(session, lance.getLeilao()), lance.getValor());
+	}
+
+	// le o id sem inicializar proxies
+	private static int id(EventSource session, Object entidade) {
+		return (Integer) ForeignKeys.getEntityIdentifierIfNotUnsaved(null, entidade, session);
+	}
+
+	/**
+	 * O HSQLDB recompila o SQL a cada prepareStatement, o que custa mais do
+	 * que executar estes comandos. Por isso eles ficam preparados na conexao
+	 * fisica do pool e sao reaproveitados pelos proximos commits nela. Uma
+	 * conexao so e usada por uma thread de cada vez, entao a trava so
+	 * protege o mapa; o prepare fica fora dela.
+	 */
+	@SuppressWarnings("unchecked")
+	private Comandos comandos(Connection conexao) throws SQLException {
+		Connection fisica = ((JdbcWrapper<Connection>) conexao).getWrappedObject();
+		synchronized (porConexao) {
+			Comandos comandos = porConexao.get(fisica);
+			if (comandos != null) {
+				return comandos;
+			}
+		}
+
+		Comandos comandos = new Comandos(fisica);
+		synchronized (porConexao) {
+			esqueceFechadas();
+			porConexao.put(fisica, comandos);
+		}
+		return comandos;
+	}
+
+	private void esqueceFechadas() throws SQLException {
+		Iterator<Connection> conexoes = porConexao.keySet().iterator();
+		while (conexoes.hasNext()) {
+			if (conexoes.next().isClosed()) {
+				conexoes.remove();
+			}
+		}
+	}
+
+	private class Pendencias implements BeforeTransactionCompletionProcess, AfterTransactionCompletionProcess {
+
+		private final EventSource session;
+		private final Map<Integer, DoUsuario> porUsuario = new HashMap<Integer, DoUsuario>();
+
+		Pendencias(EventSource session) {
+			this.session = session;
+		}
+
+		void soma(int usuarioId, int leilaoId, double valor) {
+			DoUsuario doUsuario = porUsuario.get(usuarioId);
+			if (doUsuario == null) {
+				doUsuario = new DoUsuario(usuarioId);
+				porUsuario.put(usuarioId, doUsuario);
+			}
+			doUsuario.soma(leilaoId, valor);
+		}
+
+		@Override
+		public void doBeforeTransactionCompletion(SessionImplementor implementor) {
+			((Session) implementor).doWork(new Work() {
+				@Override
+				public void execute(Connection conexao) throws SQLException {
+					Comandos comandos = comandos(conexao);
+					for (DoUsuario doUsuario : porUsuario.values()) {
+						doUsuario.aplica(comandos);
+					}
+				}
+			});
+		}
+
+		@Override
+		public void doAfterTransactionCompletion(boolean success, SessionImplementor implementor) {
+			porSessao.remove(session);
+		}
+	}
+
+	private static class DoUsuario {
+
+		private final int usuarioId;
+		private final Map<Integer, Integer> lancesPorLeilao = new HashMap<Integer, Integer>();
+		private int lances;
+		private double maiorLance = Double.NEGATIVE_INFINITY;
+
+		DoUsuario(int usuarioId) {
+			this.usuarioId = usuarioId;
+		}
+
+		void soma(int leilaoId, double valor) {
+			Integer anteriores = lancesPorLeilao.get(leilaoId);
+			lancesPorLeilao.put(leilaoId, anteriores == null ? 1 : anteriores + 1);
+			lances++;
+			maiorLance = Math.max(maiorLance, valor);
+		}
+
+		void aplica(Comandos comandos) throws SQLException {
+			int leiloesNovos = 0;
+			double somaDosValoresIniciais = 0;
+			int lancesComValorInicial = 0;
+
+			for (Map.Entry<Integer, Integer> doLeilao : lancesPorLeilao.entrySet()) {
+				int novos = doLeilao.getValue();
+				PreparedStatement consulta = comandos.consulta;
+				consulta.setInt(1, usuarioId);
+				consulta.setInt(2, doLeilao.getKey());
+				consulta.setInt(3, doLeilao.getKey());
+				ResultSet leilao = consulta.executeQuery();
+				try {
+					if (!leilao.next()) {
+						continue;
+					}
+					double valorInicial = leilao.getDouble(1);
+					if (!leilao.wasNull()) {
+						somaDosValoresIniciais += valorInicial * novos;
+						lancesComValorInicial += novos;
+					}
+					if (leilao.getInt(2) == novos) {
+						leiloesNovos++;
+					}
+				} finally {
+					leilao.close();
+				}
+			}
+
+			PreparedStatement atualiza = comandos.atualiza;
+			atualiza.setInt(1, leiloesNovos);
+			atualiza.setInt(2, lances);
+			atualiza.setDouble(3, somaDosValoresIniciais);
+			atualiza.setInt(4, lancesComValorInicial);
+			atualiza.setDouble(5, maiorLance);
+			atualiza.setDouble(6, maiorLance);
+			atualiza.setInt(7, usuarioId);
+			if (atualiza.executeUpdate() > 0) {
+				return;
+			}
+
+			// primeiro lance do usuario desde a ultima reconstrucao
+			PreparedStatement insere = comandos.insere();
+			insere.setInt(1, usuarioId);
+			insere.setInt(2, leiloesNovos);
+			insere.setInt(3, lances);
+			insere.setDouble(4, somaDosValoresIniciais);
+			insere.setInt(5, lancesComValorInicial);
+			insere.setDouble(6, maiorLance);
+			if (insere.executeUpdate() != 1) {
+				throw new HibernateException("Historico do usuario " + usuarioId + " nao gravado");
+			}
+		}
+	}
+
+	private static class Comandos {
+
+		// um leilao e novo para o usuario quando todos os lances dele ali sao
+		// desta transacao
+		private static final String CONSULTA = "select le.valorInicial, (select count(*) from " +
+				"Lance la where la.usuario_id = ? and la.leilao_id = ?) " +
+				"from Leilao le where le.id = ?";
+
+		private static final String ATUALIZA = "update HistoricoDeLances set " +
+				"leiloes = leiloes + ?, lances = lances + ?, " +
+				"somaDosValoresIniciais = somaDosValoresIniciais + ?, " +
+				"lancesComValorInicial = lancesComValorInicial + ?, " +
+				"maiorLance = case when maiorLance is null or maiorLance < ? then ? else maiorLance end " +
+				"where usuarioId = ?";
+
+		private static final String INSERE = "insert into HistoricoDeLances " +
+				"(usuarioId, leiloes, lances, somaDosValoresIniciais, lancesComValorInicial, maiorLance) " +
+				"values (?, ?, ?, ?, ?, ?)";
+
+		private final Connection conexao;
+		final PreparedStatement consulta;
+		final PreparedStatement atualiza;
+		private PreparedStatement insere;
+
+		Comandos(Connection conexao) throws SQLException {
+			this.conexao = conexao;
+			this.consulta = conexao.prepareStatement(CONSULTA);
+			this.atualiza = conexao.prepareStatement(ATUALIZA);
+		}
+
+		PreparedStatement insere() throws SQLException {
+			if (insere == null) {
+				insere = conexao.prepareStatement(INSERE);
+			}
+			return insere;
+		}
+	}
+}
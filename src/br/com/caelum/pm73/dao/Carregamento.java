@@ -0,0 +1,19 @@
+package br.com.caelum.pm73.dao;
+
+public enum Carregamento {
+
+	SOMENTE_LEILAO("select l from Leilao l"),
+	COM_DONO("select l from Leilao l left join fetch l.dono"),
+	COM_LANCES("select distinct l from Leilao l left join fetch l.dono " +
+			"left join fetch l.lances lance left join fetch lance.usuario");
+
+	private final String consulta;
+
+	private Carregamento(String consulta) {
+		this.consulta = consulta;
+	}
+
+	String getConsulta() {
+		return consulta;
+	}
+}
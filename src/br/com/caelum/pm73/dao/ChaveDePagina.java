@@ -0,0 +1,40 @@
+package br.com.caelum.pm73.dao;
+
+class ChaveDePagina {
+
+	private static final char SEPARADOR = '.';
+
+	private final long valor;
+	private final int id;
+
+	ChaveDePagina(long valor, int id) {
+		this.valor = valor;
+		this.id = id;
+	}
+
+	static ChaveDePagina de(String token) {
+		int separador = token == null ? -1 : token.indexOf(SEPARADOR);
+		if (separador < 0) {
+			throw new IllegalArgumentException("Continuacao de pagina invalida: " + token);
+		}
+		try {
+			return new ChaveDePagina(
+					Long.parseLong(token.substring(0, separador), Character.MAX_RADIX),
+					Integer.parseInt(token.substring(separador + 1), Character.MAX_RADIX));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Continuacao de pagina invalida: " + token, e);
+		}
+	}
+
+	String token() {
+		return Long.toString(valor, Character.MAX_RADIX) + SEPARADOR + Integer.toString(id, Character.MAX_RADIX);
+	}
+
+	long getValor() {
+		return valor;
+	}
+
+	int getId() {
+		return id;
+	}
+}
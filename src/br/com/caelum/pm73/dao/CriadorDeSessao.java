@@ -1,10 +1,33 @@
 package br.com.caelum.pm73.dao;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Interceptor;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.cache.spi.RegionFactory;
 import org.hibernate.cfg.AnnotationConfiguration;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.jdbc.Work;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
 
+import br.com.caelum.pm73.dao.cache.EstatisticasDoCache;
+import br.com.caelum.pm73.dao.cache.FabricaDeRegioesEmMemoria;
+import br.com.caelum.pm73.dao.metricas.OuvinteDeInstrumentacao;
+import br.com.caelum.pm73.dao.replicacao.Replica;
+import br.com.caelum.pm73.dao.replicacao.Replicacao;
+import br.com.caelum.pm73.dominio.HistoricoDeLances;
 import br.com.caelum.pm73.dominio.Lance;
 import br.com.caelum.pm73.dominio.Leilao;
 import br.com.caelum.pm73.dominio.Usuario;
@@ -12,30 +35,185 @@ import br.com.caelum.pm73.dominio.Usuario;
 @SuppressWarnings("deprecation")
 public class CriadorDeSessao {
 
+	public static final int TAMANHO_DO_LOTE = 50;
+	/**
+	 * "true" liga o cache de segundo nivel e o de consultas; desligados por
+	 * padrao, que o cache so enxerga as escritas desta JVM.
+	 */
+	public static final String CACHE = "pm73.cache";
+	public static final String MOSTRA_SQL = "pm73.mostraSql";
+
 	private static AnnotationConfiguration config;
-	private static SessionFactory sf;
-	
+	private static volatile SessionFactory sf;
+	private static volatile Replicacao replicacao;
+	private static FutureTask<SessionFactory> aquecimento;
+
 	public Session getSession() {
-		if(sf == null) {
-			sf = getConfig().buildSessionFactory();
+		return getSessionFactory().openSession();
+	}
+
+	public Session getSession(Interceptor interceptor) {
+		return getSessionFactory().withOptions().interceptor(interceptor).openSession();
+	}
+
+	/**
+	 * Sessao so para leitura: entidades read-only e flush manual. Com
+	 * replicas em "pm73.replicas", abre numa replica em dia escolhida pela
+	 * {@link Replicacao}; sem replicas, ou nenhuma em dia, na primaria.
+	 */
+	public Session getSessionDeLeitura() {
+		Session session = getSessionNaReplica();
+		return session == null ? getSessionDeLeituraNaPrimaria() : session;
+	}
+
+	Session getSessionDeLeituraNaPrimaria() {
+		Session session = getSession();
+		session.setDefaultReadOnly(true);
+		session.setFlushMode(FlushMode.MANUAL);
+		return session;
+	}
+
+	/**
+	 * @return null se nao houver replica em dia
+	 */
+	Session getSessionNaReplica() {
+		getSessionFactory();
+		Replicacao atual = replicacao;
+		Replica replica = atual == null ? null : atual.escolhe();
+		return replica == null ? null : replica.abreSessao();
+	}
+
+	/**
+	 * @return null se nao houver replicas configuradas
+	 */
+	public Replicacao getReplicacao() {
+		getSessionFactory();
+		return replicacao;
+	}
+
+	public StatelessSession getStatelessSession() {
+		return getSessionFactory().openStatelessSession();
+	}
+
+	public StatelessSession getStatelessSession(Connection conexao) {
+		return getSessionFactory().openStatelessSession(conexao);
+	}
+
+	public EstatisticasDoPool getEstatisticasDoPool() {
+		SessionFactoryImplementor fabrica = (SessionFactoryImplementor) getSessionFactory();
+		return fabrica.getServiceRegistry()
+				.getService(ConnectionProvider.class)
+				.unwrap(PoolDeConexoes.class)
+				.getEstatisticas();
+	}
+
+	public List<EstatisticasDoCache> getEstatisticasDoCache() {
+		SessionFactoryImplementor fabrica = (SessionFactoryImplementor) getSessionFactory();
+		RegionFactory regioes = fabrica.getSettings().getRegionFactory();
+		if(regioes instanceof FabricaDeRegioesEmMemoria) {
+			return ((FabricaDeRegioesEmMemoria) regioes).getEstatisticas();
+		}
+		return Collections.emptyList();
+	}
+
+	private SessionFactory getSessionFactory() {
+		SessionFactory fabrica = sf;
+		if(fabrica == null) {
+			synchronized (CriadorDeSessao.class) {
+				fabrica = sf;
+				if(fabrica == null) {
+					fabrica = getConfig().buildSessionFactory();
+					registraOuvintes(fabrica);
+					preparaBanco(fabrica);
+					replicacao = Replicacao.de(config, fabrica);
+					sf = fabrica;
+				}
+			}
+		}
+		return fabrica;
+	}
+
+	/**
+	 * Sobe a SessionFactory numa thread de fundo e compila as consultas HQL
+	 * dos DAOs, para a primeira requisicao nao pagar por isso. Para chamar
+	 * no inicio da aplicacao, depois de ajustar a configuracao; quem pedir
+	 * sessao antes de terminar espera so o que falta. Chamadas seguintes
+	 * devolvem o mesmo Future.
+	 */
+	public Future<SessionFactory> aquece() {
+		synchronized (CriadorDeSessao.class) {
+			if(aquecimento == null) {
+				aquecimento = new FutureTask<SessionFactory>(new Callable<SessionFactory>() {
+					@Override
+					public SessionFactory call() {
+						SessionFactoryImplementor fabrica = (SessionFactoryImplementor) getSessionFactory();
+						List<String> consultas = LeilaoDao.consultas();
+						consultas.add(UsuarioDao.POR_NOME_E_EMAIL);
+						for (String hql : consultas) {
+							fabrica.getQueryPlanCache().getHQLQueryPlan(hql, false,
+									Collections.<String, Object>emptyMap());
+						}
+						return fabrica;
+					}
+				});
+				Thread thread = new Thread(aquecimento, "aquecimento-hibernate");
+				thread.setDaemon(true);
+				thread.start();
+			}
+			return aquecimento;
+		}
+	}
+
+	private static void registraOuvintes(SessionFactory fabrica) {
+		EventListenerRegistry registro = ((SessionFactoryImplementor) fabrica).getServiceRegistry()
+				.getService(EventListenerRegistry.class);
+		registro.appendListeners(EventType.POST_INSERT, new AtualizadorDeHistorico());
+		OuvinteDeInstrumentacao.registra(registro);
+	}
+
+	private static void preparaBanco(SessionFactory fabrica) {
+		final PerfilDoBanco perfil = PerfilDoBanco.de(config);
+		Session session = fabrica.openSession();
+		try {
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection conexao) throws SQLException {
+					perfil.prepara(conexao, config);
+					conexao.commit();
+				}
+			});
+		} finally {
+			session.close();
 		}
-		
-		return sf.openSession();
 	}
 
+	/**
+	 * A URL de conexao vem do {@link PerfilDoBanco} escolhido em "pm73.banco".
+	 */
 	public Configuration getConfig() {
-		if(config == null) {
-			config = new AnnotationConfiguration()
-		    .addAnnotatedClass(Lance.class)
-		    .addAnnotatedClass(Leilao.class)
-		    .addAnnotatedClass(Usuario.class)
-			.setProperty("hibernate.connection.driver_class", "org.hsqldb.jdbcDriver")
-			.setProperty("hibernate.connection.url", "jdbc:hsqldb:caelum.db;shutdown=true")
-			.setProperty("hibernate.dialect", "org.hibernate.dialect.HSQLDialect")
-			.setProperty("hibernate.connection.username", "sa")
-			.setProperty("hibernate.connection.password", "")
-			.setProperty("hibernate.show_sql", "true");
+		synchronized (CriadorDeSessao.class) {
+			if(config == null) {
+				String usaCache = System.getProperty(CACHE, "false");
+				config = new AnnotationConfiguration()
+			    .addAnnotatedClass(Lance.class)
+			    .addAnnotatedClass(Leilao.class)
+			    .addAnnotatedClass(Usuario.class)
+			    .addAnnotatedClass(HistoricoDeLances.class)
+				.setProperty("hibernate.connection.driver_class", "org.hsqldb.jdbcDriver")
+				.setProperty("hibernate.connection.provider_class", PoolDeConexoes.class.getName())
+				.setProperty("hibernate.dialect", "org.hibernate.dialect.HSQLDialect")
+				.setProperty("hibernate.connection.username", "sa")
+				.setProperty("hibernate.connection.password", "")
+				.setProperty("hibernate.jdbc.batch_size", String.valueOf(TAMANHO_DO_LOTE))
+				.setProperty("hibernate.order_inserts", "true")
+				.setProperty("hibernate.order_updates", "true")
+				.setProperty("hibernate.cache.region.factory_class", FabricaDeRegioesEmMemoria.class.getName())
+				.setProperty("hibernate.cache.use_second_level_cache", usaCache)
+				.setProperty("hibernate.cache.use_query_cache", usaCache)
+				.setProperty("hibernate.show_sql", System.getProperty(MOSTRA_SQL, "true"));
+				PerfilDoBanco.de(config).aplica(config);
+			}
+			return config;
 		}
-		return config;
 	}
 }
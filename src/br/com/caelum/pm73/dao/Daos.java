@@ -0,0 +1,55 @@
+package br.com.caelum.pm73.dao;
+
+import org.hibernate.Session;
+
+/**
+ * Os DAOs de uma sessao, criados so quando pedidos.
+ */
+public class Daos {
+
+	private final Session session;
+	private LeilaoDao leilaoDao;
+	private UsuarioDao usuarioDao;
+	private ResumoDeLeilaoDao resumoDeLeilaoDao;
+	private HistoricoDeLancesDao historicoDeLancesDao;
+
+	Daos(Session session) {
+		this.session = session;
+	}
+
+	public LeilaoDao getLeilaoDao() {
+		if (leilaoDao == null) {
+			leilaoDao = new LeilaoDao(session);
+		}
+		return leilaoDao;
+	}
+
+	public UsuarioDao getUsuarioDao() {
+		if (usuarioDao == null) {
+			usuarioDao = new UsuarioDao(session);
+		}
+		return usuarioDao;
+	}
+
+	public ResumoDeLeilaoDao getResumoDeLeilaoDao() {
+		if (resumoDeLeilaoDao == null) {
+			resumoDeLeilaoDao = new ResumoDeLeilaoDao(session);
+		}
+		return resumoDeLeilaoDao;
+	}
+
+	public HistoricoDeLancesDao getHistoricoDeLancesDao() {
+		if (historicoDeLancesDao == null) {
+			historicoDeLancesDao = new HistoricoDeLancesDao(session);
+		}
+		return historicoDeLancesDao;
+	}
+
+	/**
+	 * Para o que os DAOs ainda nao cobrem. A transacao e do executor: nao
+	 * comite nem feche a sessao.
+	 */
+	public Session getSession() {
+		return session;
+	}
+}
@@ -0,0 +1,105 @@
+package br.com.caelum.pm73.dao;
+
+import java.io.Serializable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Calendar;
+import java.util.Date;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.usertype.UserType;
+
+/**
+ * Mapeia uma coluna TIMESTAMP para um Long com os milissegundos desde
+ * 1970, em vez de um Calendar por linha carregada. A coluna e o SQL gerado
+ * nao mudam, so o que o Hibernate monta ao ler.
+ *
+ * Parametros de consulta comparados com essas propriedades podem continuar
+ * vindo como Calendar ou Date; sao convertidos aqui.
+ *
+ * As entidades citam esta classe pelo nome, em texto, no @Type, para o
+ * dominio nao depender do pacote dao.
+ */
+public class DataEmMilissegundos implements UserType {
+
+	private static final int[] TIPOS = { Types.TIMESTAMP };
+
+	@Override
+	public int[] sqlTypes() {
+		return TIPOS;
+	}
+
+	@Override
+	public Class<?> returnedClass() {
+		return Long.class;
+	}
+
+	@Override
+	public Object nullSafeGet(ResultSet resultado, String[] colunas, SessionImplementor session, Object dono)
+			throws SQLException {
+		Timestamp data = resultado.getTimestamp(colunas[0]);
+		return data == null ? null : data.getTime();
+	}
+
+	@Override
+	public void nullSafeSet(PreparedStatement statement, Object valor, int indice, SessionImplementor session)
+			throws SQLException {
+		if (valor == null) {
+			statement.setNull(indice, Types.TIMESTAMP);
+		} else {
+			statement.setTimestamp(indice, new Timestamp(milissegundos(valor)));
+		}
+	}
+
+	private static long milissegundos(Object valor) {
+		if (valor instanceof Long) {
+			return (Long) valor;
+		}
+		if (valor instanceof Calendar) {
+			return ((Calendar) valor).getTimeInMillis();
+		}
+		if (valor instanceof Date) {
+			return ((Date) valor).getTime();
+		}
+		throw new HibernateException("Nao e uma data: " + valor.getClass().getName());
+	}
+
+	@Override
+	public boolean equals(Object x, Object y) {
+		return x == null ? y == null : x.equals(y);
+	}
+
+	@Override
+	public int hashCode(Object x) {
+		return x.hashCode();
+	}
+
+	@Override
+	public Object deepCopy(Object valor) {
+		return valor;
+	}
+
+	@Override
+	public boolean isMutable() {
+		return false;
+	}
+
+	@Override
+	public Serializable disassemble(Object valor) {
+		return (Serializable) valor;
+	}
+
+	@Override
+	public Object assemble(Serializable guardado, Object dono) {
+		return guardado;
+	}
+
+	@Override
+	public Object replace(Object original, Object destino, Object dono) {
+		return original;
+	}
+}
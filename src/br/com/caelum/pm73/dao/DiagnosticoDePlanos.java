@@ -0,0 +1,118 @@
+package br.com.caelum.pm73.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.Session;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.ReturningWork;
+
+/**
+ * Pede ao HSQLDB o plano de execucao (EXPLAIN PLAN) das consultas dos DAOs
+ * e aponta as tabelas que seriam percorridas inteiras, sem indice.
+ */
+public class DiagnosticoDePlanos {
+
+	private static final Map<String, String> CONSULTAS = new LinkedHashMap<String, String>();
+
+	static {
+		// o mesmo HQL dos DAOs; as paginas, sem continuacao, que e a primeira
+		CONSULTAS.put("LeilaoDao.novos", LeilaoDao.DE_LEILAO + LeilaoDao.NOVOS);
+		CONSULTAS.put("LeilaoDao.novos(pagina)", LeilaoDao.DE_LEILAO + LeilaoDao.NOVOS
+				+ LeilaoDao.ORDEM_DOS_NOVOS);
+		CONSULTAS.put("LeilaoDao.antigos", LeilaoDao.DE_LEILAO + LeilaoDao.ANTIGOS);
+		CONSULTAS.put("LeilaoDao.antigos(pagina)", LeilaoDao.DE_LEILAO + LeilaoDao.ANTIGOS
+				+ LeilaoDao.ORDEM_POR_DATA_ABERTURA);
+		CONSULTAS.put("LeilaoDao.porPeriodo", LeilaoDao.DE_LEILAO + LeilaoDao.POR_PERIODO);
+		CONSULTAS.put("LeilaoDao.porPeriodo(pagina)", LeilaoDao.DE_LEILAO + LeilaoDao.POR_PERIODO
+				+ LeilaoDao.ORDEM_POR_DATA_ABERTURA);
+		CONSULTAS.put("LeilaoDao.disputadosEntre", LeilaoDao.DE_LEILAO + LeilaoDao.DISPUTADOS_ENTRE);
+		CONSULTAS.put("LeilaoDao.disputadosEntre(pagina)", LeilaoDao.DE_LEILAO + LeilaoDao.DISPUTADOS_ENTRE
+				+ LeilaoDao.ORDEM_POR_VALOR_INICIAL);
+		// total() fica de fora: conta quase a tabela toda, a varredura e o plano certo
+		CONSULTAS.put("LeilaoDao.listaLeiloesDoUsuario", LeilaoDao.LEILOES_DO_USUARIO);
+		CONSULTAS.put("LeilaoDao.listaLeiloesDoUsuario(pagina)", LeilaoDao.DE_LEILAO + LeilaoDao.DO_USUARIO
+				+ LeilaoDao.ORDEM_POR_DATA_ABERTURA);
+		CONSULTAS.put("LeilaoDao.getValorInicialMedioDoUsuario", LeilaoDao.VALOR_INICIAL_MEDIO_DO_USUARIO);
+		CONSULTAS.put("UsuarioDao.porNomeEEmail", UsuarioDao.POR_NOME_E_EMAIL);
+	}
+
+	private final Session session;
+
+	public DiagnosticoDePlanos(Session session) {
+		this.session = session;
+	}
+
+	/**
+	 * @return para cada consulta com varredura completa, as tabelas varridas
+	 */
+	public Map<String, List<String>> consultasSemIndice() {
+		Map<String, List<String>> semIndice = new LinkedHashMap<String, List<String>>();
+		for (Map.Entry<String, String> consulta : CONSULTAS.entrySet()) {
+			List<String> varridas = tabelasVarridas(plano(consulta.getValue()));
+			if (!varridas.isEmpty()) {
+				semIndice.put(consulta.getKey(), varridas);
+			}
+		}
+		return semIndice;
+	}
+
+	public String plano(String hql) {
+		final String[] sqls = ((SessionImplementor) session).getFactory().getQueryPlanCache()
+				.getHQLQueryPlan(hql, false, Collections.emptyMap())
+				.getSqlStrings();
+
+		return session.doReturningWork(new ReturningWork<String>() {
+			@Override
+			public String execute(Connection conexao) throws SQLException {
+				StringBuilder plano = new StringBuilder();
+				for (String sql : sqls) {
+					plano.append(planoDoSql(conexao, sql));
+				}
+				return plano.toString();
+			}
+		});
+	}
+
+	/**
+	 * O plano de um SQL ja gerado, com os parametros ainda como "?".
+	 */
+	public static String planoDoSql(Connection conexao, String sql) throws SQLException {
+		StringBuilder plano = new StringBuilder();
+		PreparedStatement explain = conexao.prepareStatement("explain plan for " + sql);
+		try {
+			ResultSet linhas = explain.executeQuery();
+			while (linhas.next()) {
+				plano.append(linhas.getString(1)).append('\n');
+			}
+		} finally {
+			explain.close();
+		}
+		return plano.toString();
+	}
+
+	public static List<String> tabelasVarridas(String plano) {
+		List<String> varridas = new ArrayList<String>();
+		String tabela = null;
+		for (String linha : plano.split("\n")) {
+			linha = linha.trim();
+			if (linha.startsWith("table=")) {
+				tabela = linha.substring("table=".length());
+				// o resultado ja filtrado de uma subconsulta "in"; percorre-lo e o normal
+				if (tabela.equals("SYSTEM_SUBQUERY")) {
+					tabela = null;
+				}
+			} else if (linha.equals("access=FULL SCAN") && tabela != null && !varridas.contains(tabela)) {
+				varridas.add(tabela);
+			}
+		}
+		return varridas;
+	}
+}
@@ -0,0 +1,249 @@
+package br.com.caelum.pm73.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Diario local, so de acrescimo, dos lances recebidos pela
+ * {@link IngestaoDeLances}. Cada lance ganha um numero de sequencia e, depois
+ * que um grupo e comitado no banco, uma confirmacao registra ate onde ja
+ * foi gravado. Ao abrir, os lances depois da ultima confirmacao sao os que
+ * ainda precisam ir para o banco.
+ *
+ * Os registros tem tamanho fixo e um CRC; um registro cortado no fim do
+ * arquivo (queda no meio da escrita) e descartado.
+ *
+ * O diario tem uma identidade aleatoria, gravada no primeiro registro, e as
+ * sequencias nunca recomecam, nem quando o diario e esvaziado: o par
+ * (identidade, sequencia) identifica um lance para sempre, e e por ele que
+ * a reaplicacao descobre o que ja chegou ao banco.
+ */
+class DiarioDeLances {
+
+	private static final byte LANCE = 1;
+	private static final byte CONFIRMACAO = 2;
+	private static final byte IDENTIDADE = 3;
+	private static final int TAMANHO = 1 + 8 + 4 + 4 + 8 + 8 + 4;
+	private static final long SEM_DATA = Long.MIN_VALUE;
+
+	private final RandomAccessFile arquivo;
+	private final FileChannel canal;
+	private final Object travaDeSincronia = new Object();
+	private final List<Registro> pendentes = new ArrayList<Registro>();
+
+	private long identidade;
+	private long ultimo;
+	private long confirmado;
+	private volatile long sincronizado;
+
+	DiarioDeLances(File destino) throws IOException {
+		this.arquivo = new RandomAccessFile(destino, "rw");
+		this.canal = arquivo.getChannel();
+		le();
+	}
+
+	private void le() throws IOException {
+		ByteBuffer registro = ByteBuffer.allocate(TAMANHO);
+		long posicao = 0;
+		while (true) {
+			registro.clear();
+			while (registro.hasRemaining()) {
+				if (canal.read(registro, posicao + registro.position()) < 0) {
+					break;
+				}
+			}
+			if (registro.hasRemaining() || !integro(registro)) {
+				break;
+			}
+			registro.flip();
+			byte tipo = registro.get();
+			long sequencia = registro.getLong();
+			if (tipo == CONFIRMACAO) {
+				confirmado = Math.max(confirmado, sequencia);
+			} else if (tipo == IDENTIDADE) {
+				// tudo ate a sequencia dele ja tinha sido confirmado quando o diario foi esvaziado
+				registro.getInt();
+				registro.getInt();
+				registro.getDouble();
+				identidade = registro.getLong();
+				confirmado = Math.max(confirmado, sequencia);
+			} else {
+				int leilaoId = registro.getInt();
+				int usuarioId = registro.getInt();
+				double valor = registro.getDouble();
+				long data = registro.getLong();
+				pendentes.add(new Registro(sequencia, leilaoId, usuarioId, valor, data == SEM_DATA ? null : data));
+			}
+			ultimo = Math.max(ultimo, sequencia);
+			posicao += TAMANHO;
+		}
+
+		// o que vem depois do ultimo registro inteiro e resto de uma escrita interrompida
+		if (canal.size() > posicao) {
+			canal.truncate(posicao);
+		}
+		canal.position(posicao);
+		if (identidade == 0) {
+			identidade = novaIdentidade();
+			escreve(IDENTIDADE, confirmado, 0, 0, 0, identidade);
+			canal.force(false);
+		}
+		sincronizado = ultimo;
+
+		List<Registro> naoConfirmados = new ArrayList<Registro>();
+		for (Registro pendente : pendentes) {
+			if (pendente.getSequencia() > confirmado) {
+				naoConfirmados.add(pendente);
+			}
+		}
+		pendentes.clear();
+		pendentes.addAll(naoConfirmados);
+	}
+
+	long getIdentidade() {
+		return identidade;
+	}
+
+	/**
+	 * @return os lances lidos ao abrir o diario que nao tinham confirmacao
+	 */
+	List<Registro> naoConfirmados() {
+		return pendentes;
+	}
+
+	/**
+	 * Acrescenta o lance ao diario, sem esperar o disco; quem precisa da
+	 * garantia chama {@link #sincroniza(long)} com a sequencia devolvida.
+	 */
+	synchronized Registro acrescenta(int leilaoId, int usuarioId, double valor, Long data) throws IOException {
+		Registro registro = new Registro(++ultimo, leilaoId, usuarioId, valor, data);
+		escreve(LANCE, registro.getSequencia(), leilaoId, usuarioId, valor, data == null ? SEM_DATA : data);
+		return registro;
+	}
+
+	/**
+	 * Garante que tudo ate a sequencia esta no disco. Quem chega enquanto
+	 * outra thread sincroniza espera por ela e normalmente ja sai coberto,
+	 * entao varios lances dividem um mesmo fsync.
+	 */
+	void sincroniza(long sequencia) throws IOException {
+		if (sincronizado >= sequencia) {
+			return;
+		}
+		synchronized (travaDeSincronia) {
+			if (sincronizado >= sequencia) {
+				return;
+			}
+			long ate;
+			synchronized (this) {
+				ate = ultimo;
+			}
+			canal.force(false);
+			sincronizado = ate;
+		}
+	}
+
+	/**
+	 * Registra que os lances ate a sequencia ja estao no banco. Se nao
+	 * sobrou nada depois dela, o diario volta a ter so a identidade, que
+	 * guarda a ultima sequencia usada.
+	 */
+	synchronized void confirma(long sequencia) throws IOException {
+		confirmado = Math.max(confirmado, sequencia);
+		if (confirmado == ultimo) {
+			// sobrescreve o primeiro registro antes de cortar: uma queda no meio deixa o diario valido
+			canal.position(0);
+			escreve(IDENTIDADE, ultimo, 0, 0, 0, identidade);
+			canal.truncate(TAMANHO);
+			canal.position(TAMANHO);
+		} else {
+			escreve(CONFIRMACAO, sequencia, 0, 0, 0, 0);
+		}
+	}
+
+	synchronized long tamanho() throws IOException {
+		return canal.size();
+	}
+
+	void fecha() throws IOException {
+		synchronized (travaDeSincronia) {
+			canal.force(false);
+			arquivo.close();
+		}
+	}
+
+	private void escreve(byte tipo, long sequencia, int leilaoId, int usuarioId, double valor, long data)
+			throws IOException {
+		ByteBuffer registro = ByteBuffer.allocate(TAMANHO);
+		registro.put(tipo).putLong(sequencia).putInt(leilaoId).putInt(usuarioId).putDouble(valor).putLong(data);
+		CRC32 crc = new CRC32();
+		crc.update(registro.array(), 0, TAMANHO - 4);
+		registro.putInt((int) crc.getValue());
+		registro.flip();
+		while (registro.hasRemaining()) {
+			canal.write(registro);
+		}
+	}
+
+	private static long novaIdentidade() {
+		SecureRandom aleatorio = new SecureRandom();
+		long identidade;
+		do {
+			identidade = aleatorio.nextLong();
+		} while (identidade == 0);
+		return identidade;
+	}
+
+	private static boolean integro(ByteBuffer registro) {
+		CRC32 crc = new CRC32();
+		crc.update(registro.array(), 0, TAMANHO - 4);
+		return registro.getInt(TAMANHO - 4) == (int) crc.getValue();
+	}
+
+	static class Registro {
+
+		private final long sequencia;
+		private final int leilaoId;
+		private final int usuarioId;
+		private final double valor;
+		private final Long data;
+
+		Registro(long sequencia, int leilaoId, int usuarioId, double valor, Long data) {
+			this.sequencia = sequencia;
+			this.leilaoId = leilaoId;
+			this.usuarioId = usuarioId;
+			this.valor = valor;
+			this.data = data;
+		}
+
+		long getSequencia() {
+			return sequencia;
+		}
+
+		int getLeilaoId() {
+			return leilaoId;
+		}
+
+		int getUsuarioId() {
+			return usuarioId;
+		}
+
+		double getValor() {
+			return valor;
+		}
+
+		/**
+		 * @return em milissegundos, ou null se o lance veio sem data
+		 */
+		Long getData() {
+			return data;
+		}
+	}
+}
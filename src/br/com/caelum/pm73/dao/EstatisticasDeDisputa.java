@@ -0,0 +1,46 @@
+package br.com.caelum.pm73.dao;
+
+public class EstatisticasDeDisputa {
+
+	private final int leilaoId;
+	private final long execucoes;
+	private final long conflitos;
+	private final long desistencias;
+
+	public EstatisticasDeDisputa(int leilaoId, long execucoes, long conflitos, long desistencias) {
+		this.leilaoId = leilaoId;
+		this.execucoes = execucoes;
+		this.conflitos = conflitos;
+		this.desistencias = desistencias;
+	}
+
+	public int getLeilaoId() {
+		return leilaoId;
+	}
+
+	public long getExecucoes() {
+		return execucoes;
+	}
+
+	/**
+	 * @return quantas tentativas perderam para outra transacao; cada uma
+	 *         virou uma retentativa, menos as das desistencias
+	 */
+	public long getConflitos() {
+		return conflitos;
+	}
+
+	public long getDesistencias() {
+		return desistencias;
+	}
+
+	public double getConflitosPorExecucao() {
+		return execucoes == 0 ? 0.0 : (double) conflitos / execucoes;
+	}
+
+	@Override
+	public String toString() {
+		return "leilao " + leilaoId + ": execucoes=" + execucoes + ", conflitos=" + conflitos
+				+ ", desistencias=" + desistencias;
+	}
+}
@@ -0,0 +1,75 @@
+package br.com.caelum.pm73.dao;
+
+public class EstatisticasDoPool {
+
+	private final int ativas;
+	private final int ociosas;
+	private final int maximo;
+	private final int aguardando;
+	private final long emprestimos;
+	private final long tempoTotalDeEspera;
+	private final long maiorEspera;
+	private final long esgotamentos;
+	private final long vazamentos;
+
+	public EstatisticasDoPool(int ativas, int ociosas, int maximo, int aguardando, long emprestimos,
+			long tempoTotalDeEspera, long maiorEspera, long esgotamentos, long vazamentos) {
+		this.ativas = ativas;
+		this.ociosas = ociosas;
+		this.maximo = maximo;
+		this.aguardando = aguardando;
+		this.emprestimos = emprestimos;
+		this.tempoTotalDeEspera = tempoTotalDeEspera;
+		this.maiorEspera = maiorEspera;
+		this.esgotamentos = esgotamentos;
+		this.vazamentos = vazamentos;
+	}
+
+	public int getAtivas() {
+		return ativas;
+	}
+
+	public int getOciosas() {
+		return ociosas;
+	}
+
+	public int getMaximo() {
+		return maximo;
+	}
+
+	public int getAguardando() {
+		return aguardando;
+	}
+
+	public long getEmprestimos() {
+		return emprestimos;
+	}
+
+	public long getTempoTotalDeEspera() {
+		return tempoTotalDeEspera;
+	}
+
+	public double getTempoMedioDeEspera() {
+		return emprestimos == 0 ? 0.0 : (double) tempoTotalDeEspera / emprestimos;
+	}
+
+	public long getMaiorEspera() {
+		return maiorEspera;
+	}
+
+	public long getEsgotamentos() {
+		return esgotamentos;
+	}
+
+	public long getVazamentos() {
+		return vazamentos;
+	}
+
+	@Override
+	public String toString() {
+		return "ativas=" + ativas + ", ociosas=" + ociosas + ", maximo=" + maximo
+				+ ", aguardando=" + aguardando + ", emprestimos=" + emprestimos
+				+ ", esperaMedia=" + getTempoMedioDeEspera() + "ms, maiorEspera=" + maiorEspera
+				+ "ms, esgotamentos=" + esgotamentos + ", vazamentos=" + vazamentos;
+	}
+}
@@ -0,0 +1,173 @@
+package br.com.caelum.pm73.dao;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.Session;
+
+/**
+ * Executa cada tarefa numa sessao e transacao proprias: abre, comita (ou
+ * desfaz, se a tarefa lancar excecao) e fecha, sem que quem chama precise
+ * lidar com nada disso.
+ *
+ * No maximo tantas tarefas quanto conexoes no pool rodam ao mesmo tempo; as
+ * outras esperam a vez, em ordem de chegada, antes de abrir a sessao. Assim
+ * milhares de threads concorrendo nao esgotam o pool nem estouram o tempo
+ * de espera dele, e quem esta esperando nao segura sessao nenhuma. A espera
+ * e num Semaphore, nao num monitor.
+ *
+ * Uma tarefa que chama o executor de novo, na mesma thread, roda dentro da
+ * transacao de fora, sem pegar outra vaga. Escrever (emTransacao) de dentro
+ * de uma leitura (emLeitura) nao e permitido: a sessao de fora e so de
+ * leitura, talvez numa replica, e o que fosse gravado se perderia.
+ */
+public class ExecutorTransacional {
+
+	public static final long TEMPO_DE_ESPERA = 30000;
+
+	private final CriadorDeSessao criador;
+	private final Semaphore vagas;
+	private final int limite;
+	private final long tempoDeEspera;
+	private final ThreadLocal<Daos> atual = new ThreadLocal<Daos>();
+	private final ThreadLocal<Boolean> emLeitura = new ThreadLocal<Boolean>();
+
+	private final AtomicLong executadas = new AtomicLong();
+	private final AtomicLong desfeitas = new AtomicLong();
+	private final AtomicLong esperaTotal = new AtomicLong();
+
+	/**
+	 * Limitado ao tamanho maximo do pool de conexoes.
+	 */
+	public ExecutorTransacional(CriadorDeSessao criador) {
+		this(criador, criador.getEstatisticasDoPool().getMaximo(), TEMPO_DE_ESPERA);
+	}
+
+	/**
+	 * @param limite tarefas rodando ao mesmo tempo; acima do maximo do pool,
+	 *            as de sobra esperam no pool em vez de aqui
+	 * @param tempoDeEspera quanto uma tarefa espera por vaga, em milissegundos
+	 */
+	public ExecutorTransacional(CriadorDeSessao criador, int limite, long tempoDeEspera) {
+		if (limite < 1) {
+			throw new IllegalArgumentException("Limite invalido: " + limite);
+		}
+		this.criador = criador;
+		this.vagas = new Semaphore(limite, true);
+		this.limite = limite;
+		this.tempoDeEspera = tempoDeEspera;
+	}
+
+	/**
+	 * @throws IllegalStateException se nao houver vaga dentro do tempo de
+	 *             espera, ou se chamado de dentro de emLeitura
+	 */
+	public <T> T emTransacao(TarefaTransacional<T> tarefa) {
+		Daos deFora = atual.get();
+		if (deFora != null) {
+			if (emLeitura.get() != null) {
+				throw new IllegalStateException("Nao e possivel escrever dentro de uma tarefa so de leitura");
+			}
+			return tarefa.executa(deFora);
+		}
+
+		aguardaVaga();
+		try {
+			return executa(tarefa, criador.getSession(), false);
+		} finally {
+			vagas.release();
+		}
+	}
+
+	/**
+	 * Como emTransacao, para tarefas que so leem: roda numa sessao de
+	 * leitura, numa replica em dia se houver (sem ocupar vaga, que as vagas
+	 * sao do pool da primaria) ou na primaria. Chamada de dentro de
+	 * emTransacao, roda na transacao de fora e enxerga o que ela ja gravou.
+	 *
+	 * @throws IllegalStateException se for para a primaria e nao houver vaga
+	 */
+	public <T> T emLeitura(TarefaTransacional<T> tarefa) {
+		Daos deFora = atual.get();
+		if (deFora != null) {
+			return tarefa.executa(deFora);
+		}
+
+		Session replica = criador.getSessionNaReplica();
+		if (replica != null) {
+			return executa(tarefa, replica, true);
+		}
+		aguardaVaga();
+		try {
+			return executa(tarefa, criador.getSessionDeLeituraNaPrimaria(), true);
+		} finally {
+			vagas.release();
+		}
+	}
+
+	private void aguardaVaga() {
+		long inicio = System.nanoTime();
+		boolean obteve;
+		try {
+			obteve = vagas.tryAcquire(tempoDeEspera, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrompido aguardando vaga no executor", e);
+		}
+		esperaTotal.addAndGet(System.nanoTime() - inicio);
+		if (!obteve) {
+			throw new IllegalStateException("Nenhuma vaga no executor apos " + tempoDeEspera
+					+ "ms (limite=" + limite + ")");
+		}
+	}
+
+	private <T> T executa(TarefaTransacional<T> tarefa, Session session, boolean soLeitura) {
+		try {
+			session.beginTransaction();
+			Daos daos = new Daos(session);
+			atual.set(daos);
+			if (soLeitura) {
+				emLeitura.set(Boolean.TRUE);
+			}
+			T resultado = tarefa.executa(daos);
+			session.getTransaction().commit();
+			executadas.incrementAndGet();
+			return resultado;
+		} catch (RuntimeException e) {
+			if (session.getTransaction().isActive()) {
+				session.getTransaction().rollback();
+			}
+			desfeitas.incrementAndGet();
+			throw e;
+		} finally {
+			atual.remove();
+			emLeitura.remove();
+			session.close();
+		}
+	}
+
+	public int getLimite() {
+		return limite;
+	}
+
+	public int getAguardando() {
+		return vagas.getQueueLength();
+	}
+
+	public long getExecutadas() {
+		return executadas.get();
+	}
+
+	public long getDesfeitas() {
+		return desfeitas.get();
+	}
+
+	/**
+	 * @return a espera media por vaga, em milissegundos
+	 */
+	public double getEsperaMedia() {
+		long tarefas = executadas.get() + desfeitas.get();
+		return tarefas == 0 ? 0.0 : esperaTotal.get() / 1e6 / tarefas;
+	}
+}
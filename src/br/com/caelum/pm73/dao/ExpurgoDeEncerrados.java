@@ -0,0 +1,169 @@
+package br.com.caelum.pm73.dao;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+import br.com.caelum.pm73.dominio.Leilao;
+
+/**
+ * Apaga os leiloes encerrados em lotes por faixa de id, cada lote na sua
+ * propria transacao: primeiro os lances, depois os leiloes. Assim nenhuma
+ * transacao segura as tabelas por muito tempo e o expurgo pode rodar junto
+ * com o trafego normal; a pausa entre lotes da ainda mais espaco a ele.
+ * Se parar no meio, o que ja foi comitado fica apagado e basta rodar de novo.
+ */
+public class ExpurgoDeEncerrados {
+
+	public static final int TAMANHO_DO_LOTE = 1000;
+
+	private static final Logger LOG = Logger.getLogger(ExpurgoDeEncerrados.class.getName());
+
+	private final CriadorDeSessao criador;
+	private final int tamanhoDoLote;
+	private final long pausaEntreLotes;
+
+	public ExpurgoDeEncerrados(CriadorDeSessao criador) {
+		this(criador, TAMANHO_DO_LOTE, 0);
+	}
+
+	/**
+	 * @param tamanhoDoLote largura de cada faixa de ids
+	 * @param pausaEntreLotes espera entre um lote e outro, em milissegundos
+	 */
+	public ExpurgoDeEncerrados(CriadorDeSessao criador, int tamanhoDoLote, long pausaEntreLotes) {
+		if (tamanhoDoLote < 1) {
+			throw new IllegalArgumentException("Tamanho de lote invalido: " + tamanhoDoLote);
+		}
+		this.criador = criador;
+		this.tamanhoDoLote = tamanhoDoLote;
+		this.pausaEntreLotes = pausaEntreLotes;
+	}
+
+	public ResultadoDoExpurgo expurga() {
+		return expurga(null);
+	}
+
+	/**
+	 * @param arquivo recebe cada lote antes de ele ser apagado; pode ser null
+	 */
+	public ResultadoDoExpurgo expurga(ArquivoDeLeiloes arquivo) {
+		return expurga(arquivo, null);
+	}
+
+	/**
+	 * Leva para o arquivo so os encerrados sem atividade ha mais de tantos
+	 * dias, contando do ultimo lance (ou da abertura, se nao houve lance).
+	 */
+	public ResultadoDoExpurgo arquivaEncerradosHaMaisDe(int dias, ArquivoDeLeiloes arquivo) {
+		Calendar limite = Calendar.getInstance();
+		limite.add(Calendar.DAY_OF_MONTH, -dias);
+		return expurga(arquivo, limite);
+	}
+
+	private ResultadoDoExpurgo expurga(ArquivoDeLeiloes arquivo, Calendar limite) {
+		Object[] faixa = faixaDeIds(limite);
+		if (faixa[0] == null) {
+			return new ResultadoDoExpurgo(0, 0, 0);
+		}
+		int menor = (Integer) faixa[0];
+		int maior = (Integer) faixa[1];
+
+		int lotes = 0;
+		long leiloes = 0;
+		long lances = 0;
+		for (long inicio = menor; inicio <= maior; inicio += tamanhoDoLote) {
+			int fim = (int) Math.min(inicio + tamanhoDoLote, maior + 1L);
+
+			int[] apagados = expurgaLote((int) inicio, fim, arquivo, limite);
+			lotes++;
+			lances += apagados[0];
+			leiloes += apagados[1];
+
+			LOG.info("Expurgo: ids " + inicio + " a " + (fim - 1) + " de " + maior + ", "
+					+ leiloes + " leiloes e " + lances + " lances apagados ate agora");
+			if (fim <= maior) {
+				pausa();
+			}
+		}
+		return new ResultadoDoExpurgo(lotes, leiloes, lances);
+	}
+
+	private Object[] faixaDeIds(Calendar limite) {
+		Session session = criador.getSession();
+		try {
+			return (Object[]) comLimite(session.createQuery("select min(l.id), max(l.id) from Leilao l " +
+					"where " + encerrados(limite)), limite)
+					.uniqueResult();
+		} finally {
+			session.close();
+		}
+	}
+
+	private int[] expurgaLote(int inicio, int fim, ArquivoDeLeiloes arquivo, Calendar limite) {
+		Session session = criador.getSession();
+		try {
+			session.beginTransaction();
+
+			if (arquivo != null) {
+				@SuppressWarnings("unchecked")
+				List<Leilao> encerrados = comLimite(session.createQuery(Carregamento.COM_LANCES.getConsulta() +
+						" where " + encerrados(limite) + " and l.id >= :inicio and l.id < :fim order by l.id"), limite)
+						.setParameter("inicio", inicio)
+						.setParameter("fim", fim)
+						.list();
+				if (!encerrados.isEmpty()) {
+					arquivo.arquiva(encerrados);
+				}
+				session.clear();
+			}
+
+			int lances = comLimite(session.createQuery("delete from Lance lance where lance.leilao.id in " +
+					"(select l.id from Leilao l where " + encerrados(limite) + " and l.id >= :inicio and l.id < :fim)"), limite)
+					.setParameter("inicio", inicio)
+					.setParameter("fim", fim)
+					.executeUpdate();
+			int leiloes = comLimite(session.createQuery("delete from Leilao l " +
+					"where " + encerrados(limite) + " and l.id >= :inicio and l.id < :fim"), limite)
+					.setParameter("inicio", inicio)
+					.setParameter("fim", fim)
+					.executeUpdate();
+
+			session.getTransaction().commit();
+			return new int[] { lances, leiloes };
+		} catch (RuntimeException e) {
+			if (session.getTransaction().isActive()) {
+				session.getTransaction().rollback();
+			}
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+
+	private String encerrados(Calendar limite) {
+		if (limite == null) {
+			return "l.encerrado = true";
+		}
+		return "l.encerrado = true and coalesce(l.dataUltimoLance, l.dataAbertura) < :limite";
+	}
+
+	private Query comLimite(Query query, Calendar limite) {
+		return limite == null ? query : query.setParameter("limite", limite);
+	}
+
+	private void pausa() {
+		if (pausaEntreLotes <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(pausaEntreLotes);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Expurgo interrompido", e);
+		}
+	}
+}
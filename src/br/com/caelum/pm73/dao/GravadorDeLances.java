@@ -0,0 +1,145 @@
+package br.com.caelum.pm73.dao;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hibernate.Session;
+
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.LivroDeLances;
+
+/**
+ * Mantem um {@link LivroDeLances} para cada leilao em andamento e grava os
+ * lances aceitos em segundo plano, de tempos em tempos: uma transacao por
+ * leilao, com os lances em lote e os totais do leilao atualizados juntos.
+ * Se a gravacao falhar, os lances voltam para o livro e entram na proxima.
+ */
+public class GravadorDeLances {
+
+	private static final Logger LOG = Logger.getLogger(GravadorDeLances.class.getName());
+
+	private final CriadorDeSessao criador;
+	private final ConcurrentMap<Integer, LivroDeLances> livros = new ConcurrentHashMap<Integer, LivroDeLances>();
+	private final ScheduledExecutorService agendador;
+
+	/**
+	 * @param intervalo espera entre uma gravacao e outra, em milissegundos
+	 */
+	public GravadorDeLances(CriadorDeSessao criador, long intervalo) {
+		this.criador = criador;
+		this.agendador = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable tarefa) {
+				Thread thread = new Thread(tarefa, "gravador-de-lances");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		agendador.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				descarrega();
+			}
+		}, intervalo, intervalo, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return o livro do leilao, criado na primeira chamada
+	 */
+	public LivroDeLances abre(Leilao leilao) {
+		LivroDeLances novo = new LivroDeLances(leilao);
+		LivroDeLances existente = livros.putIfAbsent(leilao.getId(), novo);
+		return existente != null ? existente : novo;
+	}
+
+	/**
+	 * @return o livro do leilao, ou null se ele nao foi aberto
+	 */
+	public LivroDeLances livro(int leilaoId) {
+		return livros.get(leilaoId);
+	}
+
+	/**
+	 * Grava agora o que estiver pendente em todos os livros e esquece os
+	 * livros encerrados que nao tem mais nada a gravar.
+	 *
+	 * @return quantos lances foram gravados
+	 */
+	public synchronized int descarrega() {
+		int gravados = 0;
+		for (Iterator<LivroDeLances> it = livros.values().iterator(); it.hasNext();) {
+			LivroDeLances livro = it.next();
+			try {
+				gravados += grava(livro);
+			} catch (RuntimeException e) {
+				LOG.log(Level.WARNING, "Falha ao gravar os lances do leilao " + livro.getLeilaoId()
+						+ "; ficam para a proxima vez", e);
+			}
+			if (livro.isEncerrado() && !livro.temPendentes()) {
+				it.remove();
+			}
+		}
+		return gravados;
+	}
+
+	/**
+	 * Para a gravacao periodica e grava o que sobrou.
+	 */
+	public void encerra() {
+		agendador.shutdown();
+		try {
+			agendador.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		descarrega();
+	}
+
+	private int grava(LivroDeLances livro) {
+		List<Lance> lances = livro.retiraPendentes();
+		if (lances.isEmpty()) {
+			return 0;
+		}
+
+		Session session = criador.getSession();
+		try {
+			session.beginTransaction();
+			Leilao leilao = (Leilao) session.get(Leilao.class, livro.getLeilaoId());
+			if (leilao == null) {
+				LOG.warning("Leilao " + livro.getLeilaoId() + " nao existe mais; "
+						+ lances.size() + " lances descartados");
+				livro.encerra();
+				session.getTransaction().rollback();
+				return 0;
+			}
+
+			// a colecao e inversa: adicionar nao carrega os lances antigos
+			for (Lance lance : lances) {
+				leilao.adicionaLance(lance);
+				session.save(lance);
+			}
+			session.getTransaction().commit();
+			return lances.size();
+		} catch (RuntimeException e) {
+			if (session.getTransaction().isActive()) {
+				session.getTransaction().rollback();
+			}
+			for (Lance lance : lances) {
+				lance.setId(0);
+			}
+			livro.devolve(lances);
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+}
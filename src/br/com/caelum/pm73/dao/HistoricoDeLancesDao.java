@@ -0,0 +1,30 @@
+package br.com.caelum.pm73.dao;
+
+import org.hibernate.Session;
+
+import br.com.caelum.pm73.dominio.HistoricoDeLances;
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * Le o historico de um usuario pela chave, sem passar pela tabela de lances.
+ */
+public class HistoricoDeLancesDao {
+
+	private final Session session;
+
+	public HistoricoDeLancesDao(Session session) {
+		this.session = session;
+	}
+
+	public HistoricoDeLances doUsuario(Usuario usuario) {
+		return doUsuario(usuario.getId());
+	}
+
+	/**
+	 * @return um historico zerado se o usuario nunca deu lance
+	 */
+	public HistoricoDeLances doUsuario(int usuarioId) {
+		HistoricoDeLances historico = (HistoricoDeLances) session.get(HistoricoDeLances.class, usuarioId);
+		return historico == null ? new HistoricoDeLances(usuarioId) : historico;
+	}
+}
@@ -0,0 +1,90 @@
+package br.com.caelum.pm73.dao;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Indices secundarios que atendem as consultas de LeilaoDao e UsuarioDao.
+ * As chaves estrangeiras de Lance ja ganham indice proprio no HSQLDB.
+ *
+ * O HSQLDB escolhe o primeiro indice cuja coluna inicial aparece numa
+ * igualdade; um indice comecando por "encerrado" seria usado por todas as
+ * consultas que filtram leiloes abertos, mesmo as que tem faixa de data ou
+ * de valor muito mais seletiva. Por isso nenhum indice comeca por ela.
+ */
+public class IndicesDoBanco {
+
+	private static final Map<String, String> INDICES = new LinkedHashMap<String, String>();
+
+	static {
+		// novos()
+		INDICES.put("leilao_novos_idx", "Leilao (usado, dataAbertura, id)");
+		// antigos(), porPeriodo()
+		INDICES.put("leilao_abertura_idx", "Leilao (dataAbertura, id)");
+		// disputadosEntre()
+		INDICES.put("leilao_disputados_idx", "Leilao (valorInicial, id)");
+		// listaLeiloesDoUsuario(), getValorInicialMedioDoUsuario()
+		INDICES.put("lance_usuario_leilao_idx", "Lance (usuario_id, leilao_id)");
+		// reaplicacao do diario da IngestaoDeLances
+		INDICES.put("lance_diario_idx", "Lance (diarioDeOrigem, sequenciaNoDiario)");
+		// porNomeEEmail()
+		INDICES.put("usuario_nome_email_idx", "Usuario (nome, email)");
+	}
+
+	public Map<String, String> getIndices() {
+		return Collections.unmodifiableMap(INDICES);
+	}
+
+	/**
+	 * @return quantos indices faltavam e foram criados
+	 */
+	public int cria(Connection conexao) throws SQLException {
+		Set<String> existentes = existentes(conexao);
+		Statement statement = conexao.createStatement();
+		int criados = 0;
+		try {
+			for (Map.Entry<String, String> indice : INDICES.entrySet()) {
+				if (!existentes.contains(indice.getKey().toUpperCase())) {
+					statement.execute("create index " + indice.getKey() + " on " + indice.getValue());
+					criados++;
+				}
+			}
+		} finally {
+			statement.close();
+		}
+		return criados;
+	}
+
+	public void remove(Connection conexao) throws SQLException {
+		Statement statement = conexao.createStatement();
+		try {
+			for (String nome : INDICES.keySet()) {
+				statement.execute("drop index " + nome + " if exists");
+			}
+		} finally {
+			statement.close();
+		}
+	}
+
+	private Set<String> existentes(Connection conexao) throws SQLException {
+		Set<String> nomes = new HashSet<String>();
+		Statement statement = conexao.createStatement();
+		try {
+			ResultSet indices = statement.executeQuery("select index_name " +
+					"from information_schema.system_indexinfo where table_schem = current_schema");
+			while (indices.next()) {
+				nomes.add(indices.getString(1));
+			}
+		} finally {
+			statement.close();
+		}
+		return nomes;
+	}
+}
@@ -0,0 +1,435 @@
+package br.com.caelum.pm73.dao;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hibernate.PessimisticLockException;
+import org.hibernate.QueryTimeoutException;
+import org.hibernate.Session;
+import org.hibernate.StaleStateException;
+import org.hibernate.exception.JDBCConnectionException;
+import org.hibernate.exception.LockAcquisitionException;
+
+import br.com.caelum.pm73.dao.DiarioDeLances.Registro;
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * Recebe lances sem abrir transacao para cada um: o lance vai para o
+ * {@link DiarioDeLances} no disco e para uma fila limitada, e uma thread
+ * gravadora junta o que chegou em grupos, gravando cada grupo numa unica
+ * transacao (os inserts saem no lote JDBC do Hibernate).
+ *
+ * Um grupo fecha quando atinge o tamanho maximo ou quando o primeiro lance
+ * dele ja esperou a latencia maxima. Com a fila cheia, quem entrega lances
+ * espera (ou desiste, na versao com prazo). Quando {@link #recebe(Lance)}
+ * volta, o lance ja esta no disco; se o processo cair antes de ele chegar
+ * ao banco, a proxima IngestaoDeLances sobre o mesmo diario o grava.
+ */
+public class IngestaoDeLances {
+
+	public static final int CAPACIDADE = 10000;
+	public static final int TAMANHO_DO_GRUPO = 500;
+	public static final long LATENCIA_MAXIMA = 10;
+
+	private static final Logger LOG = Logger.getLogger(IngestaoDeLances.class.getName());
+	private static final long ESPERA = TimeUnit.MILLISECONDS.toNanos(50);
+	private static final long PAUSA_MAXIMA = 5000;
+	private static final int TENTATIVAS = 5;
+
+	private final CriadorDeSessao criador;
+	private final DiarioDeLances diario;
+	private final File arquivoDeRejeitados;
+	private final int tamanhoDoGrupo;
+	private final long latenciaMaxima;
+	private final BlockingQueue<Registro> fila;
+	private final Semaphore vagas;
+	private final Thread gravadora;
+
+	private volatile boolean encerrando;
+	private volatile long gravados;
+	private volatile long rejeitados;
+
+	public IngestaoDeLances(CriadorDeSessao criador, File diario) {
+		this(criador, diario, CAPACIDADE, TAMANHO_DO_GRUPO, LATENCIA_MAXIMA);
+	}
+
+	/**
+	 * @param capacidade quantos lances podem esperar pela gravacao
+	 * @param tamanhoDoGrupo maximo de lances por transacao
+	 * @param latenciaMaxima quanto um grupo espera por mais lances, em milissegundos
+	 */
+	public IngestaoDeLances(CriadorDeSessao criador, File diario, int capacidade, int tamanhoDoGrupo,
+			long latenciaMaxima) {
+		if (capacidade < 1 || tamanhoDoGrupo < 1) {
+			throw new IllegalArgumentException("Capacidade e tamanho do grupo precisam ser positivos");
+		}
+		this.criador = criador;
+		this.tamanhoDoGrupo = tamanhoDoGrupo;
+		this.latenciaMaxima = TimeUnit.MILLISECONDS.toNanos(latenciaMaxima);
+		this.arquivoDeRejeitados = new File(diario.getPath() + ".rejeitados");
+		this.fila = new ArrayBlockingQueue<Registro>(capacidade);
+		this.vagas = new Semaphore(capacidade);
+		try {
+			this.diario = new DiarioDeLances(diario);
+		} catch (IOException e) {
+			throw new IllegalStateException("Nao foi possivel abrir o diario " + diario, e);
+		}
+
+		reaplica(this.diario.naoConfirmados());
+
+		this.gravadora = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				grava();
+			}
+		}, "ingestao-de-lances");
+		gravadora.setDaemon(true);
+		gravadora.start();
+	}
+
+	/**
+	 * Espera por uma vaga na fila se ela estiver cheia.
+	 */
+	public void recebe(Lance lance) {
+		try {
+			vagas.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrompido esperando vaga para o lance", e);
+		}
+		enfileira(lance);
+	}
+
+	/**
+	 * @return false se a fila continuou cheia durante todo o prazo
+	 */
+	public boolean recebe(Lance lance, long prazo, TimeUnit unidade) {
+		try {
+			if (!vagas.tryAcquire(prazo, unidade)) {
+				return false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		enfileira(lance);
+		return true;
+	}
+
+	/**
+	 * @return quantos lances ja foram gravados no banco
+	 */
+	public long getGravados() {
+		return gravados;
+	}
+
+	/**
+	 * @return quantos lances foram para o arquivo de rejeitados em vez do banco
+	 */
+	public long getRejeitados() {
+		return rejeitados;
+	}
+
+	public File getArquivoDeRejeitados() {
+		return arquivoDeRejeitados;
+	}
+
+	public int getPendentes() {
+		return fila.size();
+	}
+
+	/**
+	 * Para de receber, grava o que ainda estiver na fila e fecha o diario.
+	 */
+	public void encerra() {
+		encerrando = true;
+		try {
+			gravadora.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			diario.fecha();
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Falha ao fechar o diario de lances", e);
+		}
+	}
+
+	private void enfileira(Lance lance) {
+		if (encerrando) {
+			vagas.release();
+			throw new IllegalStateException("A ingestao de lances ja foi encerrada");
+		}
+		if (lance.getLeilao() == null || lance.getUsuario() == null) {
+			vagas.release();
+			throw new IllegalArgumentException("Lance sem leilao ou sem usuario");
+		}
+
+		Registro registro;
+		// diario e fila na mesma ordem: a confirmacao de um grupo vale para tudo antes dele
+		synchronized (this) {
+			try {
+				registro = diario.acrescenta(lance.getLeilao().getId(), lance.getUsuario().getId(),
+						lance.getValor(), lance.getDataEmMilissegundos());
+			} catch (IOException e) {
+				// nao entrou na fila, entao a gravadora nunca devolveria a vaga
+				vagas.release();
+				throw new IllegalStateException("Nao foi possivel registrar o lance no diario", e);
+			}
+			fila.add(registro);
+		}
+		try {
+			diario.sincroniza(registro.getSequencia());
+		} catch (IOException e) {
+			// ja esta na fila: a vaga volta quando a gravadora gravar
+			throw new IllegalStateException("Nao foi possivel registrar o lance no diario", e);
+		}
+	}
+
+	private void grava() {
+		while (true) {
+			List<Registro> grupo;
+			try {
+				grupo = proximoGrupo();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (grupo.isEmpty()) {
+				if (encerrando) {
+					return;
+				}
+				continue;
+			}
+
+			if (!gravaComRetentativas(grupo, false)) {
+				// continuam no diario e sao gravados na proxima abertura
+				LOG.severe((grupo.size() + fila.size()) + " lances nao foram gravados; ficam no diario");
+				return;
+			}
+			vagas.release(grupo.size());
+		}
+	}
+
+	private List<Registro> proximoGrupo() throws InterruptedException {
+		List<Registro> grupo = new ArrayList<Registro>();
+		Registro primeiro = fila.poll(ESPERA, TimeUnit.NANOSECONDS);
+		if (primeiro == null) {
+			return grupo;
+		}
+		grupo.add(primeiro);
+
+		long limite = System.nanoTime() + latenciaMaxima;
+		while (grupo.size() < tamanhoDoGrupo) {
+			fila.drainTo(grupo, tamanhoDoGrupo - grupo.size());
+			long resta = limite - System.nanoTime();
+			if (grupo.size() >= tamanhoDoGrupo || resta <= 0 || encerrando) {
+				break;
+			}
+			Registro proximo = fila.poll(Math.min(resta, ESPERA), TimeUnit.NANOSECONDS);
+			if (proximo != null) {
+				grupo.add(proximo);
+			}
+		}
+		return grupo;
+	}
+
+	/**
+	 * Falhas transitorias (bloqueio, estado desatualizado, conexao) sao
+	 * repetidas ate {@link #TENTATIVAS} vezes, com espera crescente. Um grupo
+	 * que continua falhando vai para a quarentena: se o erro e dos dados, o
+	 * grupo e dividido ao meio ate isolar o lance que falha, e so ele vai
+	 * para os rejeitados; se o banco continua indisponivel, o grupo inteiro
+	 * vai. Em todo caso o grupo e confirmado no diario e a ingestao segue.
+	 *
+	 * @return false se a ingestao deve parar, deixando o grupo no diario:
+	 * foi interrompida, ou esta encerrando com o banco indisponivel, ou nao
+	 * conseguiu registrar os rejeitados
+	 */
+	private boolean gravaComRetentativas(List<Registro> grupo, boolean reaplicando) {
+		long pausa = 10;
+		for (int tentativa = 1;; tentativa++) {
+			try {
+				gravaGrupo(grupo, reaplicando);
+				gravados += grupo.size();
+				return confirma(grupo);
+			} catch (RuntimeException e) {
+				boolean transitoria = transitoria(e);
+				if (!transitoria) {
+					LOG.log(Level.WARNING, "Falha ao gravar grupo de " + grupo.size() + " lances", e);
+					return isola(grupo, reaplicando, e);
+				}
+				if (tentativa == TENTATIVAS) {
+					LOG.log(Level.WARNING, "Falha ao gravar grupo de " + grupo.size() + " lances apos "
+							+ tentativa + " tentativas", e);
+					return !encerrando && rejeita(grupo, e);
+				}
+				LOG.log(Level.WARNING, "Falha ao gravar grupo de " + grupo.size()
+						+ " lances; tentando de novo em " + pausa + "ms", e);
+				try {
+					Thread.sleep(pausa);
+				} catch (InterruptedException interrompido) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+				pausa = Math.min(pausa * 2, PAUSA_MAXIMA);
+			}
+		}
+	}
+
+	private boolean isola(List<Registro> grupo, boolean reaplicando, RuntimeException falha) {
+		if (grupo.size() == 1) {
+			return rejeita(grupo, falha);
+		}
+		int meio = grupo.size() / 2;
+		return gravaComRetentativas(grupo.subList(0, meio), reaplicando)
+				&& gravaComRetentativas(grupo.subList(meio, grupo.size()), reaplicando);
+	}
+
+	/**
+	 * Grava os lances no arquivo de rejeitados ({@link #getArquivoDeRejeitados()}),
+	 * uma linha "sequencia;leilao;usuario;valor;data;erro" por lance, e so
+	 * entao os confirma no diario.
+	 */
+	private boolean rejeita(List<Registro> grupo, RuntimeException falha) {
+		String erro = String.valueOf(falha).replace('\n', ' ').replace('\r', ' ');
+		StringBuilder linhas = new StringBuilder();
+		for (Registro registro : grupo) {
+			linhas.append(registro.getSequencia()).append(';')
+					.append(registro.getLeilaoId()).append(';')
+					.append(registro.getUsuarioId()).append(';')
+					.append(registro.getValor()).append(';')
+					.append(registro.getData() == null ? "" : registro.getData()).append(';')
+					.append(erro).append('\n');
+		}
+		try {
+			FileOutputStream saida = new FileOutputStream(arquivoDeRejeitados, true);
+			try {
+				saida.write(linhas.toString().getBytes("UTF-8"));
+				saida.getFD().sync();
+			} finally {
+				saida.close();
+			}
+		} catch (IOException e) {
+			LOG.log(Level.SEVERE, "Nao foi possivel registrar " + grupo.size() + " lances rejeitados", e);
+			return false;
+		}
+		LOG.severe(grupo.size() + " lances rejeitados; estao em " + arquivoDeRejeitados);
+		rejeitados += grupo.size();
+		return confirma(grupo);
+	}
+
+	private boolean confirma(List<Registro> grupo) {
+		try {
+			diario.confirma(grupo.get(grupo.size() - 1).getSequencia());
+		} catch (IOException e) {
+			// o grupo ja esta no banco (ou nos rejeitados); sem a confirmacao, a reaplicacao nao o duplica
+			LOG.log(Level.WARNING, "Falha ao confirmar grupo no diario", e);
+		}
+		return true;
+	}
+
+	/**
+	 * Bloqueios, estado desatualizado, prazo de consulta e conexao: falhas
+	 * que podem nao se repetir na proxima tentativa. O resto (restricao
+	 * violada, dado invalido, erro de mapeamento) se repetiria sempre.
+	 */
+	static boolean transitoria(RuntimeException e) {
+		if (e instanceof LockAcquisitionException || e instanceof PessimisticLockException
+				|| e instanceof JDBCConnectionException || e instanceof StaleStateException
+				|| e instanceof QueryTimeoutException) {
+			return true;
+		}
+		for (Throwable causa = e; causa != null; causa = causa.getCause()) {
+			if (causa instanceof SQLTransientException || causa instanceof SQLRecoverableException) {
+				return true;
+			}
+			if (causa instanceof SQLException) {
+				// 08: conexao; 40: transacao desfeita (deadlock, serializacao)
+				String estado = ((SQLException) causa).getSQLState();
+				if (estado != null && (estado.startsWith("08") || estado.startsWith("40"))) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void gravaGrupo(List<Registro> grupo, boolean reaplicando) {
+		Session session = criador.getSession();
+		try {
+			session.beginTransaction();
+			for (Registro registro : grupo) {
+				Leilao leilao = (Leilao) session.get(Leilao.class, registro.getLeilaoId());
+				Usuario usuario = (Usuario) session.get(Usuario.class, registro.getUsuarioId());
+				if (leilao == null || usuario == null) {
+					LOG.warning("Lance " + registro.getSequencia() + " descartado: leilao "
+							+ registro.getLeilaoId() + " ou usuario " + registro.getUsuarioId() + " nao existe");
+					continue;
+				}
+				if (reaplicando && jaGravado(session, registro)) {
+					continue;
+				}
+
+				// a colecao e inversa: adicionar nao carrega os lances antigos
+				Lance lance = new Lance(null, usuario, registro.getValor(), leilao);
+				lance.setDataEmMilissegundos(registro.getData());
+				lance.setOrigem(diario.getIdentidade(), registro.getSequencia());
+				leilao.adicionaLance(lance);
+				session.save(lance);
+			}
+			session.getTransaction().commit();
+		} catch (RuntimeException e) {
+			if (session.getTransaction().isActive()) {
+				session.getTransaction().rollback();
+			}
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+
+	private void reaplica(List<Registro> naoConfirmados) {
+		if (naoConfirmados.isEmpty()) {
+			return;
+		}
+		LOG.info("Reaplicando " + naoConfirmados.size() + " lances do diario");
+		for (int inicio = 0; inicio < naoConfirmados.size(); inicio += tamanhoDoGrupo) {
+			List<Registro> grupo = naoConfirmados.subList(inicio,
+					Math.min(inicio + tamanhoDoGrupo, naoConfirmados.size()));
+			if (!gravaComRetentativas(grupo, true)) {
+				throw new IllegalStateException("Nao foi possivel reaplicar o diario; "
+						+ (naoConfirmados.size() - inicio) + " lances continuam nele");
+			}
+		}
+	}
+
+	/**
+	 * A queda pode ter vindo entre o commit de um grupo e a sua confirmacao
+	 * no diario; nesse caso os lances ja estao no banco, com a identidade do
+	 * diario e a sequencia. Dois lances iguais no mesmo milissegundo tem
+	 * sequencias diferentes e continuam sendo dois.
+	 */
+	private boolean jaGravado(Session session, Registro registro) {
+		Long iguais = (Long) session.createQuery("select count(lance) from Lance lance " +
+				"where lance.diarioDeOrigem = :diario and lance.sequenciaNoDiario = :sequencia")
+				.setParameter("diario", diario.getIdentidade())
+				.setParameter("sequencia", registro.getSequencia())
+				.uniqueResult();
+		return iguais > 0;
+	}
+
+}
@@ -1,106 +1,510 @@
 package br.com.caelum.pm73.dao;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.hibernate.ObjectNotFoundException;
+import org.hibernate.Query;
 import org.hibernate.Session;
 
+import br.com.caelum.pm73.dao.metricas.Instrumentacao;
+import br.com.caelum.pm73.dao.metricas.Medicao;
 import br.com.caelum.pm73.dominio.Lance;
 import br.com.caelum.pm73.dominio.Leilao;
 import br.com.caelum.pm73.dominio.Usuario;
 
 public class LeilaoDao {
 
+	// as consultas ficam em constantes para o DiagnosticoDePlanos e o
+	// aquecimento do CriadorDeSessao usarem exatamente o HQL que roda aqui
+	static final String DE_LEILAO = "from Leilao l ";
+	static final String NOVOS = "where l.usado = false";
+	// inclui o leilao aberto exatamente no limite: com "<", um leilao aberto
+	// no mesmo milissegundo em que o limite e calculado ficava de fora
+	static final String ANTIGOS = "where l.dataAbertura <= :data";
+	static final String POR_PERIODO = "where l.dataAbertura between :inicio and :fim and l.encerrado = false";
+	static final String DISPUTADOS_ENTRE = "where l.valorInicial between :inicio and :fim " +
+			"and l.encerrado = false and l.quantidadeLances > 3";
+	// com exists o HSQLDB percorreria todos os leiloes testando cada um; com
+	// in, le so os lances do usuario pelo indice e busca os leiloes pelo id
+	static final String DO_USUARIO = "where l.id in (select lance.leilao.id from Lance lance " +
+			"where lance.usuario = :usuario)";
+	// "usado" repetido no order by deixa o HSQLDB parar no limite da pagina
+	// em vez de ordenar todos os leiloes novos
+	static final String ORDEM_DOS_NOVOS = " order by l.usado, l.dataAbertura, l.id";
+	static final String ORDEM_POR_DATA_ABERTURA = " order by l.dataAbertura, l.id";
+	static final String ORDEM_POR_VALOR_INICIAL = " order by l.valorInicial, l.id";
+	static final String TOTAL = "select count(l) from Leilao l where l.encerrado = false";
+	static final String LEILOES_DO_USUARIO = "select distinct lance.leilao from Lance lance " +
+			"where lance.usuario = :usuario";
+	static final String VALOR_INICIAL_MEDIO_DO_USUARIO = "select avg(lance.leilao.valorInicial) " +
+			"from Lance lance where lance.usuario = :usuario";
+	static final String AINDA_NO_BANCO = "select l.id from Leilao l where l.id in (:ids)";
+
+	private static final PaginacaoPorChave<Leilao> PAGINA_POR_DATA_ABERTURA =
+			new PaginacaoPorChave.PorDataAbertura<Leilao>() {
+				@Override
+				long dataAberturaEmMilissegundos(Leilao leilao) {
+					return leilao.getDataAberturaEmMilissegundos();
+				}
+
+				@Override
+				int id(Leilao leilao) {
+					return leilao.getId();
+				}
+			};
+	private static final PaginacaoPorChave<Leilao> PAGINA_POR_VALOR_INICIAL =
+			new PaginacaoPorChave.PorValorInicial<Leilao>() {
+				@Override
+				double valorInicial(Leilao leilao) {
+					return leilao.getValorInicial();
+				}
+
+				@Override
+				int id(Leilao leilao) {
+					return leilao.getId();
+				}
+			};
+
 	private final Session session;
+	private final LeiloesArquivados arquivados;
+
+	/**
+	 * Todo HQL que este DAO roda, para o aquecimento do CriadorDeSessao: o
+	 * cache de planos do Hibernate e pelo texto exato da consulta.
+	 */
+	static List<String> consultas() {
+		List<String> consultas = new ArrayList<String>();
+		String[][] listagens = {
+				{ NOVOS, PaginacaoPorChave.DEPOIS_DA_DATA_ABERTURA, ORDEM_DOS_NOVOS },
+				{ ANTIGOS, PaginacaoPorChave.DEPOIS_DA_DATA_ABERTURA, ORDEM_POR_DATA_ABERTURA },
+				{ POR_PERIODO, PaginacaoPorChave.DEPOIS_DA_DATA_ABERTURA, ORDEM_POR_DATA_ABERTURA },
+				{ DISPUTADOS_ENTRE, PaginacaoPorChave.DEPOIS_DO_VALOR_INICIAL, ORDEM_POR_VALOR_INICIAL },
+				{ DO_USUARIO, PaginacaoPorChave.DEPOIS_DA_DATA_ABERTURA, ORDEM_POR_DATA_ABERTURA } };
+		for (String[] listagem : listagens) {
+			consultas.add(DE_LEILAO + listagem[0] + listagem[2]);
+			consultas.add(DE_LEILAO + listagem[0] + listagem[1] + listagem[2]);
+			for (Carregamento carregamento : Carregamento.values()) {
+				consultas.add(carregamento.getConsulta() + " " + listagem[0]);
+			}
+		}
+		consultas.add(DE_LEILAO + NOVOS);
+		consultas.add(DE_LEILAO + ANTIGOS);
+		consultas.add(DE_LEILAO + POR_PERIODO);
+		consultas.add(DE_LEILAO + DISPUTADOS_ENTRE);
+		consultas.add(LEILOES_DO_USUARIO);
+		consultas.add(TOTAL);
+		consultas.add(VALOR_INICIAL_MEDIO_DO_USUARIO);
+		consultas.add(AINDA_NO_BANCO);
+		return consultas;
+	}
 
 	public LeilaoDao(Session session) {
+		this(session, null);
+	}
+
+	/**
+	 * @param arquivados consultado por porId e pelos listaLeiloesDoUsuario
+	 *            quando o leilao ja saiu do banco; pode ser null
+	 */
+	public LeilaoDao(Session session, LeiloesArquivados arquivados) {
 		this.session = session;
+		this.arquivados = arquivados;
 	}
 	
 	public void salvar(Leilao leilao) {
-		session.save(leilao);
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.salvar");
+		try {
+			session.save(leilao);
 		
-		for(Lance lance : leilao.getLances()) {
-			session.save(lance);
+			for(Lance lance : leilao.getLances()) {
+				session.save(lance);
+			}
+		} finally {
+			medicao.termina();
+		}
+	}
+
+	/**
+	 * Salva em lotes JDBC, descarregando a sessao a cada
+	 * {@link CriadorDeSessao#TAMANHO_DO_LOTE} entidades. Os leiloes e lances
+	 * salvos saem da sessao depois de descarregados (ficam destacados, ja com
+	 * id); o resto da sessao de quem chamou continua como estava.
+	 */
+	public void salvarEmLote(Collection<Leilao> leiloes) {
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.salvarEmLote");
+		try {
+			List<Object> pendentes = new ArrayList<Object>();
+
+			for(Leilao leilao : leiloes) {
+				session.save(leilao);
+				pendentes.add(leilao);
+
+				for(Lance lance : leilao.getLances()) {
+					session.save(lance);
+					pendentes.add(lance);
+				}
+
+				if(pendentes.size() >= CriadorDeSessao.TAMANHO_DO_LOTE) {
+					descarrega(pendentes);
+				}
+			}
+
+			descarrega(pendentes);
+		} finally {
+			medicao.termina();
 		}
 	}
+
+	private void descarrega(List<Object> salvos) {
+		session.flush();
+		for(Object salvo : salvos) {
+			session.evict(salvo);
+		}
+		salvos.clear();
+	}
 	
 	public Leilao porId(int id) {
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.porId");
 		try {
-			return (Leilao) session.get(Leilao.class, id);
-		} catch (ObjectNotFoundException obj){
-			return null;
+			Leilao leilao;
+			try {
+				leilao = (Leilao) session.get(Leilao.class, id);
+			} catch (ObjectNotFoundException obj){
+				leilao = null;
+			}
+		
+			if(leilao == null && arquivados != null) {
+				return arquivados.porId(id, session);
+			}
+			return leilao;
+		} finally {
+			medicao.termina();
 		}
 	}
 	
 	@SuppressWarnings("unchecked")
 	public List<Leilao> novos() {
-		return session.createQuery("from Leilao l where usado = false")
-				.list();
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.novos");
+		try {
+			return session.createQuery(DE_LEILAO + NOVOS)
+					.list();
+		} finally {
+			medicao.termina();
+		}
+	}
+	
+	public Pagina<Leilao> novos(String continuacao, int tamanho) {
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.novos(pagina)");
+		try {
+			Query query = session.createQuery(DE_LEILAO + NOVOS +
+					PAGINA_POR_DATA_ABERTURA.depois(continuacao) + ORDEM_DOS_NOVOS);
+			return PAGINA_POR_DATA_ABERTURA.pagina(query, continuacao, tamanho);
+		} finally {
+			medicao.termina();
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	public List<Leilao> novos(Carregamento carregamento) {
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.novos(carregamento)");
+		try {
+			return session.createQuery(carregamento.getConsulta() + " " + NOVOS)
+					.list();
+		} finally {
+			medicao.termina();
+		}
 	}
 	
 	@SuppressWarnings("unchecked")
 	public List<Leilao> antigos() {
-		Calendar seteDiasAtras = Calendar.getInstance();
-		seteDiasAtras.add(Calendar.DAY_OF_MONTH, -7);
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.antigos");
+		try {
+			Calendar seteDiasAtras = Calendar.getInstance();
+			seteDiasAtras.add(Calendar.DAY_OF_MONTH, -7);
 		
-		return session.createQuery("from Leilao l where dataAbertura < :data")
-				.setParameter("data", seteDiasAtras)
-				.list();
+			return session.createQuery(DE_LEILAO + ANTIGOS)
+					.setParameter("data", seteDiasAtras)
+					.list();
+		} finally {
+			medicao.termina();
+		}
+	}
+	
+	public Pagina<Leilao> antigos(String continuacao, int tamanho) {
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.antigos(pagina)");
+		try {
+			Calendar seteDiasAtras = Calendar.getInstance();
+			seteDiasAtras.add(Calendar.DAY_OF_MONTH, -7);
+		
+			Query query = session.createQuery(DE_LEILAO + ANTIGOS +
+					PAGINA_POR_DATA_ABERTURA.depois(continuacao) + ORDEM_POR_DATA_ABERTURA)
+					.setParameter("data", seteDiasAtras);
+			return PAGINA_POR_DATA_ABERTURA.pagina(query, continuacao, tamanho);
+		} finally {
+			medicao.termina();
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	public List<Leilao> antigos(Carregamento carregamento) {
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.antigos(carregamento)");
+		try {
+			Calendar seteDiasAtras = Calendar.getInstance();
+			seteDiasAtras.add(Calendar.DAY_OF_MONTH, -7);
+		
+			return session.createQuery(carregamento.getConsulta() + " " + ANTIGOS)
+					.setParameter("data", seteDiasAtras)
+					.list();
+		} finally {
+			medicao.termina();
+		}
 	}
 	
 	@SuppressWarnings("unchecked")
 	public List<Leilao> porPeriodo(Calendar inicio, Calendar fim) {
-		return session.createQuery("from Leilao l where l.dataAbertura " +
-				"between :inicio and :fim and l.encerrado = false")
-				.setParameter("inicio", inicio)
-				.setParameter("fim", fim)
-				.list();
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.porPeriodo");
+		try {
+			return session.createQuery(DE_LEILAO + POR_PERIODO)
+					.setParameter("inicio", inicio)
+					.setParameter("fim", fim)
+					.list();
+		} finally {
+			medicao.termina();
+		}
+	}
+	
+	public Pagina<Leilao> porPeriodo(Calendar inicio, Calendar fim, String continuacao, int tamanho) {
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.porPeriodo(pagina)");
+		try {
+			Query query = session.createQuery(DE_LEILAO + POR_PERIODO +
+					PAGINA_POR_DATA_ABERTURA.depois(continuacao) + ORDEM_POR_DATA_ABERTURA)
+					.setParameter("inicio", inicio)
+					.setParameter("fim", fim);
+			return PAGINA_POR_DATA_ABERTURA.pagina(query, continuacao, tamanho);
+		} finally {
+			medicao.termina();
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	public List<Leilao> porPeriodo(Calendar inicio, Calendar fim, Carregamento carregamento) {
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.porPeriodo(carregamento)");
+		try {
+			return session.createQuery(carregamento.getConsulta() + " " + POR_PERIODO)
+					.setParameter("inicio", inicio)
+					.setParameter("fim", fim)
+					.list();
+		} finally {
+			medicao.termina();
+		}
 	}
 	
 	@SuppressWarnings("unchecked")
 	public List<Leilao> disputadosEntre(double inicio, double fim) {
-		return session.createQuery("from Leilao l where l.valorInicial " +
-				"between :inicio and :fim and l.encerrado = false " +
-				"and size(l.lances) > 3")
-				.setParameter("inicio", inicio)
-				.setParameter("fim", fim)
-				.list();
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.disputadosEntre");
+		try {
+			return session.createQuery(DE_LEILAO + DISPUTADOS_ENTRE)
+					.setParameter("inicio", inicio)
+					.setParameter("fim", fim)
+					.list();
+		} finally {
+			medicao.termina();
+		}
+	}
+	
+	public Pagina<Leilao> disputadosEntre(double inicio, double fim, String continuacao, int tamanho) {
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.disputadosEntre(pagina)");
+		try {
+			Query query = session.createQuery(DE_LEILAO + DISPUTADOS_ENTRE +
+					PAGINA_POR_VALOR_INICIAL.depois(continuacao) + ORDEM_POR_VALOR_INICIAL)
+					.setParameter("inicio", inicio)
+					.setParameter("fim", fim);
+			return PAGINA_POR_VALOR_INICIAL.pagina(query, continuacao, tamanho);
+		} finally {
+			medicao.termina();
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	public List<Leilao> disputadosEntre(double inicio, double fim, Carregamento carregamento) {
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.disputadosEntre(carregamento)");
+		try {
+			return session.createQuery(carregamento.getConsulta() + " " + DISPUTADOS_ENTRE)
+					.setParameter("inicio", inicio)
+					.setParameter("fim", fim)
+					.list();
+		} finally {
+			medicao.termina();
+		}
 	}
 	
 	public Long total() {
-		return (Long) session.createQuery("select count(l) from Leilao l where l.encerrado = false")
-				.uniqueResult();
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.total");
+		try {
+			return (Long) session.createQuery(TOTAL)
+					.uniqueResult();
+		} finally {
+			medicao.termina();
+		}
 	}
 	
+	/**
+	 * @throws org.hibernate.StaleObjectStateException se o leilao foi alterado
+	 *             por outra transacao depois que esta copia foi carregada
+	 */
 	public void atualiza(Leilao leilao) {
-		session.merge(leilao);
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.atualiza");
+		try {
+			session.merge(leilao);
+		} finally {
+			medicao.termina();
+		}
 	}
 	
 	public void deleta(Leilao leilao) {
-		session.delete(leilao);
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.deleta");
+		try {
+			session.delete(leilao);
+		} finally {
+			medicao.termina();
+		}
 	}
 	
+	/**
+	 * Apaga tudo numa transacao so; para tabelas grandes, prefira o
+	 * {@link ExpurgoDeEncerrados}, que trabalha em lotes.
+	 */
 	public void deletaEncerrados() {
-		session
-			.createQuery("delete from Leilao l where l.encerrado = true")
-			.executeUpdate();
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.deletaEncerrados");
+		try {
+			// o delete em massa nao passa pelo cascade, entao os lances vao antes
+			session
+				.createQuery("delete from Lance lance where lance.leilao.id in " +
+						"(select l.id from Leilao l where l.encerrado = true)")
+				.executeUpdate();
+			session
+				.createQuery("delete from Leilao l where l.encerrado = true")
+				.executeUpdate();
+		} finally {
+			medicao.termina();
+		}
 	}
 	
 	@SuppressWarnings("unchecked")
 	public List<Leilao> listaLeiloesDoUsuario(Usuario usuario) {
-		return session.createQuery("select distinct lance.leilao " +
-								   "from Lance lance " +
-								   "where lance.usuario = :usuario")
-				.setParameter("usuario", usuario).list();
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.listaLeiloesDoUsuario");
+		try {
+			List<Leilao> leiloes = session.createQuery(LEILOES_DO_USUARIO)
+					.setParameter("usuario", usuario).list();
+			return comArquivados(leiloes, usuario);
+		} finally {
+			medicao.termina();
+		}
 	}
+	
+	/**
+	 * Os leiloes arquivados entram na pagina em que cairiam pela data de
+	 * abertura, como se ainda estivessem no banco.
+	 */
+	public Pagina<Leilao> listaLeiloesDoUsuario(Usuario usuario, String continuacao, int tamanho) {
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.listaLeiloesDoUsuario(pagina)");
+		try {
+			Query query = session.createQuery(DE_LEILAO + DO_USUARIO +
+					PAGINA_POR_DATA_ABERTURA.depois(continuacao) + ORDEM_POR_DATA_ABERTURA)
+					.setParameter("usuario", usuario);
+			Pagina<Leilao> pagina = PAGINA_POR_DATA_ABERTURA.pagina(query, continuacao, tamanho);
+			if(arquivados == null) {
+				return pagina;
+			}
 
+			List<Leilao> depois = new ArrayList<Leilao>();
+			for(Leilao arquivado : arquivados.doUsuario(usuario, session)) {
+				if(PAGINA_POR_DATA_ABERTURA.vemDepois(arquivado, continuacao)) {
+					depois.add(arquivado);
+				}
+			}
+			return PAGINA_POR_DATA_ABERTURA.junta(pagina, foraDoBanco(depois), tamanho);
+		} finally {
+			medicao.termina();
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	public List<Leilao> listaLeiloesDoUsuario(Usuario usuario, Carregamento carregamento) {
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.listaLeiloesDoUsuario(carregamento)");
+		try {
+			List<Leilao> leiloes = session.createQuery(carregamento.getConsulta() + " " + DO_USUARIO)
+					.setParameter("usuario", usuario).list();
+			return comArquivados(leiloes, usuario);
+		} finally {
+			medicao.termina();
+		}
+	}
+
+	/**
+	 * Acrescenta os arquivados do usuario que nao vieram do banco; os
+	 * leiloes do banco tem de ser todos os do usuario.
+	 */
+	private List<Leilao> comArquivados(List<Leilao> leiloes, Usuario usuario) {
+		if(arquivados == null) {
+			return leiloes;
+		}
+		Set<Integer> noBanco = new HashSet<Integer>();
+		for(Leilao leilao : leiloes) {
+			noBanco.add(leilao.getId());
+		}
+		for(Leilao arquivado : arquivados.doUsuario(usuario, session)) {
+			if(!noBanco.contains(arquivado.getId())) {
+				leiloes.add(arquivado);
+			}
+		}
+		return leiloes;
+	}
+
+	/**
+	 * Um leilao pode estar no arquivo e ainda no banco, entre o arquivamento
+	 * e o expurgo; nesse caso vale o do banco.
+	 */
+	private List<Leilao> foraDoBanco(List<Leilao> arquivados) {
+		if(arquivados.isEmpty()) {
+			return arquivados;
+		}
+		Set<Integer> ids = new HashSet<Integer>();
+		for(Leilao arquivado : arquivados) {
+			ids.add(arquivado.getId());
+		}
+		@SuppressWarnings("unchecked")
+		List<Integer> noBanco = session.createQuery(AINDA_NO_BANCO).setParameterList("ids", ids).list();
+
+		List<Leilao> fora = new ArrayList<Leilao>();
+		for(Leilao arquivado : arquivados) {
+			if(!noBanco.contains(arquivado.getId())) {
+				fora.add(arquivado);
+			}
+		}
+		return fora;
+	}
+
+	/**
+	 * Percorre todos os lances do usuario; o HistoricoDeLancesDao tem o
+	 * mesmo numero ja calculado.
+	 *
+	 * @return 0 se o usuario nao deu nenhum lance
+	 */
 	public double getValorInicialMedioDoUsuario(Usuario usuario) {
-		return (Double) session.createQuery("select avg(lance.leilao.valorInicial) " +
-				"from Lance lance " +
-				"where lance.usuario = :usuario")
-				.setParameter("usuario", usuario)
-				.uniqueResult();
+		Medicao medicao = Instrumentacao.inicia("LeilaoDao.getValorInicialMedioDoUsuario");
+		try {
+			Double media = (Double) session.createQuery(VALOR_INICIAL_MEDIO_DO_USUARIO)
+					.setParameter("usuario", usuario)
+					.uniqueResult();
+			return media == null ? 0.0 : media;
+		} finally {
+			medicao.termina();
+		}
 	}
 }
@@ -0,0 +1,27 @@
+package br.com.caelum.pm73.dao;
+
+import java.util.List;
+
+import org.hibernate.Session;
+
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * Leiloes que ja sairam das tabelas e so existem no arquivo. Os leiloes
+ * devolvidos nao pertencem a sessao e servem apenas para leitura; a sessao
+ * so e usada para referenciar donos e interessados, que continuam no banco.
+ */
+public interface LeiloesArquivados {
+
+	/**
+	 * @return o leilao arquivado com esse id, ou null
+	 */
+	Leilao porId(int id, Session session);
+
+	/**
+	 * @return os leiloes arquivados em que o usuario deu algum lance
+	 */
+	List<Leilao> doUsuario(Usuario usuario, Session session);
+
+}
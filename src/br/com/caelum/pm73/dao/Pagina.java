@@ -0,0 +1,30 @@
+package br.com.caelum.pm73.dao;
+
+import java.util.Collections;
+import java.util.List;
+
+public class Pagina<T> {
+
+	private final List<T> itens;
+	private final String proxima;
+
+	public Pagina(List<T> itens, String proxima) {
+		this.itens = Collections.unmodifiableList(itens);
+		this.proxima = proxima;
+	}
+
+	public List<T> getItens() {
+		return itens;
+	}
+
+	/**
+	 * Token opaco para pedir a pagina seguinte, ou null se esta e a ultima.
+	 */
+	public String getProxima() {
+		return proxima;
+	}
+
+	public boolean temProxima() {
+		return proxima != null;
+	}
+}
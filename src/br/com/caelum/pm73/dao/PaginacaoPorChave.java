@@ -0,0 +1,164 @@
+package br.com.caelum.pm73.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.hibernate.Query;
+
+/**
+ * Paginacao por chave das listagens de leiloes, a mesma para entidades
+ * ({@link LeilaoDao}) e resumos ({@link ResumoDeLeilaoDao}). Em vez de
+ * OFFSET, cada pagina continua depois da chave (valor de ordenacao, id) do
+ * ultimo item da anterior, e a consulta pede um item a mais para saber se
+ * ha proxima pagina.
+ *
+ * Quem usa so diz como tirar a chave de um item: {@link PorDataAbertura} ou
+ * {@link PorValorInicial}, conforme a ordem da listagem.
+ *
+ * Itens que nao vem da consulta (leiloes arquivados, por exemplo) entram na
+ * pagina por {@link #junta(Pagina, List, int)}, na mesma ordem e com o mesmo
+ * token.
+ */
+abstract class PaginacaoPorChave<T> {
+
+	static final String DEPOIS_DA_DATA_ABERTURA =
+			" and (l.dataAbertura > :chave or (l.dataAbertura = :chave and l.id > :ultimoId))";
+	static final String DEPOIS_DO_VALOR_INICIAL =
+			" and (l.valorInicial > :chave or (l.valorInicial = :chave and l.id > :ultimoId))";
+
+	private final String depois;
+
+	private PaginacaoPorChave(String depois) {
+		this.depois = depois;
+	}
+
+	/**
+	 * @return o filtro que pula as paginas ja vistas; vazio na primeira
+	 */
+	String depois(String continuacao) {
+		return continuacao == null ? "" : depois;
+	}
+
+	@SuppressWarnings("unchecked")
+	Pagina<T> pagina(Query query, String continuacao, int tamanho) {
+		if (tamanho < 1) {
+			throw new IllegalArgumentException("Tamanho de pagina invalido: " + tamanho);
+		}
+		if (continuacao != null) {
+			ChaveDePagina chave = ChaveDePagina.de(continuacao);
+			query.setParameter("chave", parametro(chave.getValor())).setParameter("ultimoId", chave.getId());
+		}
+
+		List<T> itens = query.setMaxResults(tamanho + 1).list();
+		if (itens.size() <= tamanho) {
+			return new Pagina<T>(itens, null);
+		}
+
+		T ultimo = itens.get(tamanho - 1);
+		ChaveDePagina proxima = new ChaveDePagina(chave(ultimo), id(ultimo));
+		return new Pagina<T>(itens.subList(0, tamanho), proxima.token());
+	}
+
+	/**
+	 * @return o valor de ordenacao do item, como vai no token
+	 */
+	/**
+	 * @return true se o item vem depois da pagina que gerou a continuacao
+	 */
+	boolean vemDepois(T item, String continuacao) {
+		if (continuacao == null) {
+			return true;
+		}
+		ChaveDePagina chave = ChaveDePagina.de(continuacao);
+		int comparacao = comparaChaves(chave(item), chave.getValor());
+		return comparacao > 0 || (comparacao == 0 && id(item) > chave.getId());
+	}
+
+	/**
+	 * Junta a pagina da consulta com itens de outra fonte, que ja precisam
+	 * vir depois da continuacao e nao repetir os da consulta.
+	 */
+	Pagina<T> junta(Pagina<T> daConsulta, List<T> outros, int tamanho) {
+		if (outros.isEmpty()) {
+			return daConsulta;
+		}
+		List<T> itens = new ArrayList<T>(daConsulta.getItens());
+		itens.addAll(outros);
+		Collections.sort(itens, new Comparator<T>() {
+			@Override
+			public int compare(T um, T outro) {
+				int comparacao = comparaChaves(chave(um), chave(outro));
+				return comparacao != 0 ? comparacao : Integer.compare(id(um), id(outro));
+			}
+		});
+
+		// o que a consulta nao trouxe vem depois de todos os itens dela
+		if (itens.size() <= tamanho && !daConsulta.temProxima()) {
+			return new Pagina<T>(itens, null);
+		}
+		List<T> pagina = new ArrayList<T>(itens.subList(0, Math.min(tamanho, itens.size())));
+		T ultimo = pagina.get(pagina.size() - 1);
+		return new Pagina<T>(pagina, new ChaveDePagina(chave(ultimo), id(ultimo)).token());
+	}
+
+	abstract long chave(T item);
+
+	abstract int comparaChaves(long uma, long outra);
+
+	abstract int id(T item);
+
+	/**
+	 * @return o parametro ":chave" da consulta, a partir do valor do token
+	 */
+	abstract Object parametro(long chave);
+
+	abstract static class PorDataAbertura<T> extends PaginacaoPorChave<T> {
+
+		PorDataAbertura() {
+			super(DEPOIS_DA_DATA_ABERTURA);
+		}
+
+		abstract long dataAberturaEmMilissegundos(T item);
+
+		@Override
+		final long chave(T item) {
+			return dataAberturaEmMilissegundos(item);
+		}
+
+		@Override
+		final int comparaChaves(long uma, long outra) {
+			return Long.compare(uma, outra);
+		}
+
+		@Override
+		final Object parametro(long chave) {
+			return chave;
+		}
+	}
+
+	abstract static class PorValorInicial<T> extends PaginacaoPorChave<T> {
+
+		PorValorInicial() {
+			super(DEPOIS_DO_VALOR_INICIAL);
+		}
+
+		abstract double valorInicial(T item);
+
+		@Override
+		final long chave(T item) {
+			return Double.doubleToLongBits(valorInicial(item));
+		}
+
+		@Override
+		final int comparaChaves(long uma, long outra) {
+			return Double.compare(Double.longBitsToDouble(uma), Double.longBitsToDouble(outra));
+		}
+
+		@Override
+		final Object parametro(long chave) {
+			return Double.longBitsToDouble(chave);
+		}
+	}
+}
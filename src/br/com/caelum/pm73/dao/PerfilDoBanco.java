@@ -0,0 +1,186 @@
+package br.com.caelum.pm73.dao;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Configuration;
+
+/**
+ * Como o HSQLDB guarda os dados. Escolhido pela propriedade "pm73.banco"
+ * (memoria, arquivo, cached ou log), lida da configuracao do Hibernate:
+ * hibernate.properties no classpath ou -Dpm73.banco=... na linha de
+ * comando. Sem ela, fica o arquivo de sempre.
+ *
+ * <ul>
+ * <li>memoria: nada vai para o disco; as tabelas sao criadas a cada
+ * SessionFactory.</li>
+ * <li>arquivo: tabelas em memoria, carregadas inteiras ao abrir e
+ * regravadas ao fechar.</li>
+ * <li>cached: tabelas CACHED, so parte das linhas em memoria, arquivo de
+ * dados lido por NIO.</li>
+ * <li>log: tabelas em memoria, com o intervalo de sincronia do log e o
+ * tamanho dele ajustados; atrasoDoLog=0 sincroniza a cada commit.</li>
+ * </ul>
+ *
+ * Os ajustes vao por SET FILES na primeira conexao e ficam gravados no
+ * banco, como o HSQLDB faz; voltar para "arquivo" nao os desfaz.
+ */
+public enum PerfilDoBanco {
+
+	MEMORIA("memoria") {
+		@Override
+		String url(String caminho) {
+			return "jdbc:hsqldb:mem:" + caminho;
+		}
+
+		@Override
+		public void aplica(Configuration config) {
+			super.aplica(config);
+			config.setProperty("hibernate.hbm2ddl.auto", "create");
+		}
+	},
+
+	ARQUIVO("arquivo"),
+
+	CACHED("cached") {
+		@Override
+		String url(String caminho) {
+			return super.url(caminho) + ";hsqldb.default_table_type=cached";
+		}
+
+		@Override
+		List<String> ajustes(Configuration config) {
+			return Arrays.asList(
+					"SET DATABASE DEFAULT TABLE TYPE CACHED",
+					"SET FILES CACHE ROWS " + inteiro(config, LINHAS_EM_CACHE, 50000),
+					"SET FILES CACHE SIZE " + inteiro(config, TAMANHO_DO_CACHE, 10000),
+					"SET FILES NIO TRUE",
+					"SET FILES NIO SIZE " + inteiro(config, TAMANHO_DO_NIO, 256));
+		}
+
+		@Override
+		void prepara(Connection conexao, Configuration config) throws SQLException {
+			super.prepara(conexao, config);
+			// tabelas criadas antes de trocar de perfil continuam MEMORY
+			for (String tabela : tabelasEmMemoria(conexao)) {
+				executa(conexao, "SET TABLE PUBLIC." + tabela + " TYPE CACHED");
+			}
+		}
+	},
+
+	LOG("log") {
+		@Override
+		List<String> ajustes(Configuration config) {
+			int atraso = inteiro(config, ATRASO_DO_LOG, 1000);
+			return Arrays.asList(
+					atraso == 0 ? "SET FILES WRITE DELAY FALSE" : "SET FILES WRITE DELAY " + atraso + " MILLIS",
+					"SET FILES LOG SIZE " + inteiro(config, TAMANHO_DO_LOG, 200));
+		}
+	};
+
+	public static final String PERFIL = "pm73.banco";
+	/** nome do banco em memoria ou caminho do arquivo, sem extensao */
+	public static final String CAMINHO = "pm73.banco.caminho";
+	public static final String LINHAS_EM_CACHE = "pm73.banco.linhasEmCache";
+	/** em KB */
+	public static final String TAMANHO_DO_CACHE = "pm73.banco.tamanhoDoCache";
+	/** em MB */
+	public static final String TAMANHO_DO_NIO = "pm73.banco.tamanhoDoNio";
+	/** em milissegundos */
+	public static final String ATRASO_DO_LOG = "pm73.banco.atrasoDoLog";
+	/** em MB */
+	public static final String TAMANHO_DO_LOG = "pm73.banco.tamanhoDoLog";
+
+	private final String nome;
+
+	private PerfilDoBanco(String nome) {
+		this.nome = nome;
+	}
+
+	public String getNome() {
+		return nome;
+	}
+
+	public static PerfilDoBanco de(Configuration config) {
+		return porNome(config.getProperty(PERFIL));
+	}
+
+	public static PerfilDoBanco porNome(String nome) {
+		if (nome == null) {
+			return ARQUIVO;
+		}
+		for (PerfilDoBanco perfil : values()) {
+			if (perfil.nome.equalsIgnoreCase(nome)) {
+				return perfil;
+			}
+		}
+		throw new HibernateException("Perfil de banco desconhecido: " + nome
+				+ " (use memoria, arquivo, cached ou log)");
+	}
+
+	/**
+	 * Ajusta a URL de conexao na configuracao.
+	 */
+	public void aplica(Configuration config) {
+		config.setProperty(PERFIL, nome);
+		String caminho = config.getProperty(CAMINHO);
+		config.setProperty("hibernate.connection.url", url(caminho == null ? "caelum.db" : caminho));
+	}
+
+	String url(String caminho) {
+		return "jdbc:hsqldb:" + caminho + ";shutdown=true";
+	}
+
+	List<String> ajustes(Configuration config) {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Roda os ajustes do perfil; chamado uma vez, quando a SessionFactory sobe.
+	 */
+	void prepara(Connection conexao, Configuration config) throws SQLException {
+		for (String ajuste : ajustes(config)) {
+			executa(conexao, ajuste);
+		}
+	}
+
+	static List<String> tabelasEmMemoria(Connection conexao) throws SQLException {
+		List<String> tabelas = new ArrayList<String>();
+		Statement consulta = conexao.createStatement();
+		try {
+			ResultSet linhas = consulta.executeQuery("select table_name from information_schema.system_tables " +
+					"where table_schem = 'PUBLIC' and hsqldb_type = 'MEMORY'");
+			while (linhas.next()) {
+				tabelas.add(linhas.getString(1));
+			}
+		} finally {
+			consulta.close();
+		}
+		return tabelas;
+	}
+
+	private static void executa(Connection conexao, String sql) throws SQLException {
+		Statement comando = conexao.createStatement();
+		try {
+			comando.execute(sql);
+		} finally {
+			comando.close();
+		}
+	}
+
+	private static int inteiro(Configuration config, String propriedade, int padrao) {
+		String valor = config.getProperty(propriedade);
+		try {
+			return valor == null ? padrao : Integer.parseInt(valor.trim());
+		} catch (NumberFormatException e) {
+			throw new HibernateException("Valor invalido para " + propriedade + ": " + valor, e);
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package br.com.caelum.pm73.dao;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import br.com.caelum.pm73.dao.metricas.ContadorDeJdbc;
+import br.com.caelum.pm73.dao.metricas.Instrumentacao;
+import br.com.caelum.pm73.dao.replicacao.CapturaDeEscritas;
+import br.com.caelum.pm73.dao.replicacao.Replicacao;
+
+/**
+ * Pool de conexoes limitado usado pelo Hibernate no lugar do provider
+ * baseado em DriverManager. Configurado pelas propriedades "pm73.pool.*".
+ */
+public class PoolDeConexoes implements ConnectionProvider, Configurable, Stoppable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String MINIMO = "pm73.pool.minimo";
+	public static final String MAXIMO = "pm73.pool.maximo";
+	public static final String TEMPO_DE_ESPERA = "pm73.pool.tempoDeEspera";
+	public static final String TEMPO_DE_VALIDACAO = "pm73.pool.tempoDeValidacao";
+	public static final String LIMITE_DE_VAZAMENTO = "pm73.pool.limiteDeVazamento";
+
+	private static final Logger LOG = Logger.getLogger(PoolDeConexoes.class.getName());
+
+	private String url;
+	private Properties propriedades;
+	private boolean autocommit;
+	private int minimo;
+	private int maximo;
+	private long tempoDeEspera;
+	private int tempoDeValidacao;
+	private long limiteDeVazamento;
+
+	private Semaphore permissoes;
+	private final LinkedBlockingDeque<Connection> ociosas = new LinkedBlockingDeque<Connection>();
+	private final Map<Connection, Emprestimo> emprestadas = new ConcurrentHashMap<Connection, Emprestimo>();
+
+	private final AtomicLong emprestimos = new AtomicLong();
+	private final AtomicLong esperaTotal = new AtomicLong();
+	private final AtomicLong maiorEspera = new AtomicLong();
+	private final AtomicLong esgotamentos = new AtomicLong();
+	private final AtomicLong vazamentos = new AtomicLong();
+
+	private volatile boolean parado;
+	private volatile Replicacao replicacao;
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public void configure(Map configuracao) {
+		url = (String) configuracao.get(AvailableSettings.URL);
+		if (url == null) {
+			throw new HibernateException("Propriedade " + AvailableSettings.URL + " nao informada");
+		}
+
+		String driver = (String) configuracao.get(AvailableSettings.DRIVER);
+		if (driver != null) {
+			try {
+				Class.forName(driver);
+			} catch (ClassNotFoundException e) {
+				throw new HibernateException("Driver JDBC " + driver + " nao encontrado", e);
+			}
+		}
+
+		propriedades = new Properties();
+		Object usuario = configuracao.get(AvailableSettings.USER);
+		Object senha = configuracao.get(AvailableSettings.PASS);
+		if (usuario != null) propriedades.setProperty("user", usuario.toString());
+		if (senha != null) propriedades.setProperty("password", senha.toString());
+
+		autocommit = ConfigurationHelper.getBoolean(AvailableSettings.AUTOCOMMIT, configuracao);
+		minimo = ConfigurationHelper.getInt(MINIMO, configuracao, 2);
+		maximo = ConfigurationHelper.getInt(MAXIMO, configuracao, 10);
+		tempoDeEspera = ConfigurationHelper.getInt(TEMPO_DE_ESPERA, configuracao, 5000);
+		tempoDeValidacao = ConfigurationHelper.getInt(TEMPO_DE_VALIDACAO, configuracao, 2);
+		limiteDeVazamento = ConfigurationHelper.getInt(LIMITE_DE_VAZAMENTO, configuracao, 30000);
+
+		if (maximo < 1 || minimo < 0 || minimo > maximo) {
+			throw new HibernateException("Limites do pool invalidos: minimo=" + minimo + ", maximo=" + maximo);
+		}
+
+		permissoes = new Semaphore(maximo, true);
+
+		try {
+			for (int i = 0; i < minimo; i++) {
+				ociosas.offerLast(abre());
+			}
+		} catch (SQLException e) {
+			throw new HibernateException("Nao foi possivel abrir as conexoes iniciais do pool", e);
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if (parado) {
+			throw new SQLException("Pool de conexoes encerrado");
+		}
+
+		verificaVazamentos();
+
+		long inicio = System.nanoTime();
+		boolean obteve;
+		try {
+			obteve = permissoes.tryAcquire(tempoDeEspera, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrompido aguardando conexao do pool", e);
+		}
+		long espera = System.nanoTime() - inicio;
+		registraEspera(espera);
+		Instrumentacao.somaEsperaPorConexao(espera);
+
+		if (!obteve) {
+			esgotamentos.incrementAndGet();
+			// transitoria: o Hibernate a traduz para JDBCConnectionException e quem grava pode tentar de novo
+			throw new SQLTransientConnectionException("Nenhuma conexao disponivel apos " + tempoDeEspera
+					+ "ms (maximo=" + maximo + ")");
+		}
+
+		try {
+			Connection doPool = proximaValida();
+			Connection conexao = doPool;
+			if (ContadorDeJdbc.isNecessario()) {
+				// envolvida so durante este emprestimo: as ociosas ficam sem o
+				// proxy, para ele sumir assim que a instrumentacao for desligada
+				conexao = ContadorDeJdbc.envolve(doPool);
+			}
+			emprestadas.put(conexao, new Emprestimo(doPool, limiteDeVazamento > 0));
+			emprestimos.incrementAndGet();
+			return conexao;
+		} catch (SQLException e) {
+			permissoes.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permissoes.release();
+			throw e;
+		}
+	}
+
+	@Override
+	public void closeConnection(Connection conexao) throws SQLException {
+		Emprestimo emprestimo = emprestadas.remove(conexao);
+		if (emprestimo == null) {
+			conexao.close();
+			return;
+		}
+
+		try {
+			Connection doPool = emprestimo.conexao;
+			if (parado || doPool.isClosed()) {
+				doPool.close();
+			} else {
+				ociosas.offerFirst(doPool);
+			}
+		} finally {
+			permissoes.release();
+		}
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return false;
+	}
+
+	@Override
+	public void stop() {
+		parado = true;
+		Connection conexao;
+		while ((conexao = ociosas.pollFirst()) != null) {
+			fechaSilenciosamente(conexao);
+		}
+	}
+
+	/**
+	 * Passa a envolver as conexoes na {@link CapturaDeEscritas}, desde a
+	 * abertura, para a captura ficar por baixo de qualquer outro proxy e
+	 * valer pela vida toda da conexao. As ociosas sao fechadas, para as
+	 * proximas ja nascerem envolvidas.
+	 */
+	public void replicaPara(Replicacao replicacao) {
+		this.replicacao = replicacao;
+		Connection conexao;
+		while ((conexao = ociosas.pollFirst()) != null) {
+			fechaSilenciosamente(conexao);
+		}
+	}
+
+	public EstatisticasDoPool getEstatisticas() {
+		long total = emprestimos.get();
+		return new EstatisticasDoPool(
+				emprestadas.size(),
+				ociosas.size(),
+				maximo,
+				permissoes == null ? 0 : permissoes.getQueueLength(),
+				total,
+				TimeUnit.NANOSECONDS.toMillis(esperaTotal.get()),
+				TimeUnit.NANOSECONDS.toMillis(maiorEspera.get()),
+				esgotamentos.get(),
+				vazamentos.get());
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public boolean isUnwrappableAs(Class tipo) {
+		return ConnectionProvider.class.equals(tipo) || PoolDeConexoes.class.isAssignableFrom(tipo);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(Class<T> tipo) {
+		if (isUnwrappableAs(tipo)) {
+			return (T) this;
+		}
+		throw new UnknownUnwrapTypeException(tipo);
+	}
+
+	private Connection proximaValida() throws SQLException {
+		Connection conexao;
+		while ((conexao = ociosas.pollFirst()) != null) {
+			if (valida(conexao)) {
+				return conexao;
+			}
+			fechaSilenciosamente(conexao);
+		}
+		return abre();
+	}
+
+	private boolean valida(Connection conexao) {
+		try {
+			return !conexao.isClosed() && conexao.isValid(tempoDeValidacao);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private Connection abre() throws SQLException {
+		Connection conexao = DriverManager.getConnection(url, propriedades);
+		if (conexao.getAutoCommit() != autocommit) {
+			conexao.setAutoCommit(autocommit);
+		}
+		Replicacao destino = replicacao;
+		return destino == null ? conexao : CapturaDeEscritas.envolve(conexao, destino);
+	}
+
+	private void registraEspera(long nanos) {
+		esperaTotal.addAndGet(nanos);
+		long maior;
+		do {
+			maior = maiorEspera.get();
+		} while (nanos > maior && !maiorEspera.compareAndSet(maior, nanos));
+	}
+
+	private void verificaVazamentos() {
+		if (limiteDeVazamento <= 0) return;
+
+		long agora = System.currentTimeMillis();
+		for (Emprestimo emprestimo : emprestadas.values()) {
+			if (!emprestimo.reportado && agora - emprestimo.inicio > limiteDeVazamento) {
+				emprestimo.reportado = true;
+				vazamentos.incrementAndGet();
+				LOG.log(Level.WARNING, "Conexao emprestada ha mais de " + limiteDeVazamento
+						+ "ms e ainda nao devolvida ao pool", emprestimo.origem);
+			}
+		}
+	}
+
+	private void fechaSilenciosamente(Connection conexao) {
+		try {
+			conexao.close();
+		} catch (SQLException e) {
+			LOG.log(Level.FINE, "Erro ao fechar conexao do pool", e);
+		}
+	}
+
+	private static class Emprestimo {
+		/** a que volta para as ociosas, sem o proxy das metricas */
+		private final Connection conexao;
+		private final long inicio = System.currentTimeMillis();
+		private final Exception origem;
+		private volatile boolean reportado;
+
+		Emprestimo(Connection conexao, boolean rastreia) {
+			this.conexao = conexao;
+			this.origem = rastreia ? new Exception("Conexao obtida aqui") : null;
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package br.com.caelum.pm73.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import org.hibernate.Session;
+import org.hibernate.jdbc.ReturningWork;
+
+/**
+ * Recalcula o HistoricoDeLances de todos os usuarios a partir da tabela de
+ * lances. Os ids de usuario sao divididos em faixas, cada faixa calculada e
+ * regravada na sua propria transacao, varias faixas ao mesmo tempo.
+ *
+ * Cada faixa primeiro le Lance e Leilao e so depois escreve no historico,
+ * na mesma ordem das transacoes que dao lances, e por isso pode rodar junto
+ * com elas.
+ */
+public class ReconstrucaoDoHistorico {
+
+	public static final int TAMANHO_DA_FAIXA = 1000;
+
+	private static final Logger LOG = Logger.getLogger(ReconstrucaoDoHistorico.class.getName());
+
+	private final CriadorDeSessao criador;
+	private final int threads;
+	private final int tamanhoDaFaixa;
+
+	public ReconstrucaoDoHistorico(CriadorDeSessao criador) {
+		this(criador, Runtime.getRuntime().availableProcessors(), TAMANHO_DA_FAIXA);
+	}
+
+	/**
+	 * Mais threads do que conexoes no pool so deixa threads esperando.
+	 *
+	 * @param tamanhoDaFaixa quantos ids de usuario cada transacao recalcula
+	 */
+	public ReconstrucaoDoHistorico(CriadorDeSessao criador, int threads, int tamanhoDaFaixa) {
+		if (threads < 1 || tamanhoDaFaixa < 1) {
+			throw new IllegalArgumentException("Threads ou tamanho de faixa invalidos: " + threads + ", " + tamanhoDaFaixa);
+		}
+		this.criador = criador;
+		this.threads = threads;
+		this.tamanhoDaFaixa = tamanhoDaFaixa;
+	}
+
+	/**
+	 * @return quantos usuarios tiveram o historico regravado
+	 */
+	public long reconstroi() {
+		Object[] faixa = faixaDeIds();
+		if (faixa[0] == null) {
+			apagaTudo();
+			return 0;
+		}
+		final int menor = (Integer) faixa[0];
+		final int maior = (Integer) faixa[1];
+
+		List<Callable<Integer>> faixas = new ArrayList<Callable<Integer>>();
+		for (long inicio = menor; inicio <= maior; inicio += tamanhoDaFaixa) {
+			final int primeiro = (int) inicio;
+			final int fim = (int) Math.min(inicio + tamanhoDaFaixa, maior + 1L);
+			faixas.add(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					return reconstroi(primeiro, fim);
+				}
+			});
+		}
+		// historicos de usuarios que ja nao existem
+		faixas.add(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				apagaForaDe(menor, maior);
+				return 0;
+			}
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			long total = 0;
+			for (Future<Integer> resultado : executor.invokeAll(faixas)) {
+				total += resultado.get();
+			}
+			LOG.info("Historico reconstruido: " + total + " usuarios, ids " + menor + " a " + maior);
+			return total;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Reconstrucao interrompida", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Falha ao reconstruir uma faixa", e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private Object[] faixaDeIds() {
+		Session session = criador.getSession();
+		try {
+			return (Object[]) session.createQuery("select min(u.id), max(u.id) from Usuario u")
+					.uniqueResult();
+		} finally {
+			session.close();
+		}
+	}
+
+	private int reconstroi(final int inicio, final int fim) {
+		return emTransacao(new ReturningWork<Integer>() {
+			@Override
+			public Integer execute(Connection conexao) throws SQLException {
+				List<Object[]> historicos = calcula(conexao, inicio, fim);
+
+				PreparedStatement apaga = conexao.prepareStatement("delete from HistoricoDeLances " +
+						"where usuarioId >= ? and usuarioId < ?");
+				try {
+					apaga.setInt(1, inicio);
+					apaga.setInt(2, fim);
+					apaga.executeUpdate();
+				} finally {
+					apaga.close();
+				}
+
+				PreparedStatement insere = conexao.prepareStatement("insert into HistoricoDeLances " +
+						"(usuarioId, leiloes, lances, somaDosValoresIniciais, lancesComValorInicial, maiorLance) " +
+						"values (?, ?, ?, ?, ?, ?)");
+				try {
+					int noLote = 0;
+					for (Object[] historico : historicos) {
+						for (int i = 0; i < historico.length; i++) {
+							insere.setObject(i + 1, historico[i]);
+						}
+						insere.addBatch();
+						if (++noLote == CriadorDeSessao.TAMANHO_DO_LOTE) {
+							insere.executeBatch();
+							noLote = 0;
+						}
+					}
+					if (noLote > 0) {
+						insere.executeBatch();
+					}
+				} finally {
+					insere.close();
+				}
+				return historicos.size();
+			}
+		});
+	}
+
+	private List<Object[]> calcula(Connection conexao, int inicio, int fim) throws SQLException {
+		PreparedStatement consulta = conexao.prepareStatement("select la.usuario_id, " +
+				"count(distinct la.leilao_id), count(la.id), coalesce(sum(le.valorInicial), 0), " +
+				"count(le.valorInicial), max(la.valor) " +
+				"from Lance la left join Leilao le on le.id = la.leilao_id " +
+				"where la.usuario_id >= ? and la.usuario_id < ? " +
+				"group by la.usuario_id");
+		try {
+			consulta.setInt(1, inicio);
+			consulta.setInt(2, fim);
+			ResultSet resultado = consulta.executeQuery();
+			List<Object[]> historicos = new ArrayList<Object[]>();
+			while (resultado.next()) {
+				historicos.add(new Object[] { resultado.getInt(1), resultado.getInt(2), resultado.getInt(3),
+						resultado.getDouble(4), resultado.getInt(5), resultado.getDouble(6) });
+			}
+			return historicos;
+		} finally {
+			consulta.close();
+		}
+	}
+
+	private void apagaForaDe(final int menor, final int maior) {
+		emTransacao(new ReturningWork<Integer>() {
+			@Override
+			public Integer execute(Connection conexao) throws SQLException {
+				PreparedStatement apaga = conexao.prepareStatement("delete from HistoricoDeLances " +
+						"where usuarioId < ? or usuarioId > ?");
+				try {
+					apaga.setInt(1, menor);
+					apaga.setInt(2, maior);
+					return apaga.executeUpdate();
+				} finally {
+					apaga.close();
+				}
+			}
+		});
+	}
+
+	private void apagaTudo() {
+		apagaForaDe(Integer.MAX_VALUE, Integer.MIN_VALUE);
+	}
+
+	private int emTransacao(ReturningWork<Integer> trabalho) {
+		Session session = criador.getSession();
+		try {
+			session.beginTransaction();
+			int resultado = session.doReturningWork(trabalho);
+			session.getTransaction().commit();
+			return resultado;
+		} catch (RuntimeException e) {
+			if (session.getTransaction().isActive()) {
+				session.getTransaction().rollback();
+			}
+			throw e;
+		} finally {
+			session.close();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package br.com.caelum.pm73.dao;
+
+public class ResultadoDoExpurgo {
+
+	private final int lotes;
+	private final long leiloes;
+	private final long lances;
+
+	public ResultadoDoExpurgo(int lotes, long leiloes, long lances) {
+		this.lotes = lotes;
+		this.leiloes = leiloes;
+		this.lances = lances;
+	}
+
+	public int getLotes() {
+		return lotes;
+	}
+
+	public long getLeiloes() {
+		return leiloes;
+	}
+
+	public long getLances() {
+		return lances;
+	}
+
+	@Override
+	public String toString() {
+		return leiloes + " leiloes e " + lances + " lances em " + lotes + " lotes";
+	}
+}
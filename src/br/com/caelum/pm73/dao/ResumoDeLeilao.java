@@ -0,0 +1,53 @@
+package br.com.caelum.pm73.dao;
+
+import java.util.Calendar;
+
+/**
+ * O que uma listagem mostra de um leilao, montado direto pela consulta
+ * (select new) pelo {@link ResumoDeLeilaoDao}: nao passa pela sessao, nao
+ * tem snapshot para dirty checking e nao carrega dono nem lances.
+ */
+public class ResumoDeLeilao {
+
+	private final int id;
+	private final String nome;
+	private final Double valorInicial;
+	private final Long dataAbertura;
+
+	public ResumoDeLeilao(int id, String nome, Double valorInicial, Long dataAbertura) {
+		this.id = id;
+		this.nome = nome;
+		this.valorInicial = valorInicial;
+		this.dataAbertura = dataAbertura;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public String getNome() {
+		return nome;
+	}
+
+	public Double getValorInicial() {
+		return valorInicial;
+	}
+
+	public Calendar getDataAbertura() {
+		if (dataAbertura == null) {
+			return null;
+		}
+		Calendar data = Calendar.getInstance();
+		data.setTimeInMillis(dataAbertura);
+		return data;
+	}
+
+	public Long getDataAberturaEmMilissegundos() {
+		return dataAbertura;
+	}
+
+	@Override
+	public String toString() {
+		return "ResumoDeLeilao [id=" + id + ", nome=" + nome + ", valorInicial=" + valorInicial + "]";
+	}
+}
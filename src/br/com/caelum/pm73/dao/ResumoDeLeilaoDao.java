@@ -0,0 +1,133 @@
+package br.com.caelum.pm73.dao;
+
+import java.util.Calendar;
+import java.util.List;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * As mesmas listagens do {@link LeilaoDao}, com os mesmos filtros e ordem
+ * (as constantes de la) e a mesma {@link PaginacaoPorChave}, mas devolvendo
+ * {@link ResumoDeLeilao} em vez de entidades gerenciadas. Serve para telas e relatorios que so leem.
+ */
+public class ResumoDeLeilaoDao {
+
+	private static final String RESUMO = "select new " + ResumoDeLeilao.class.getName() +
+			"(l.id, l.nome, l.valorInicial, l.dataAbertura) from Leilao l ";
+
+	private static final PaginacaoPorChave<ResumoDeLeilao> PAGINA_POR_DATA_ABERTURA =
+			new PaginacaoPorChave.PorDataAbertura<ResumoDeLeilao>() {
+				@Override
+				long dataAberturaEmMilissegundos(ResumoDeLeilao resumo) {
+					return resumo.getDataAberturaEmMilissegundos();
+				}
+
+				@Override
+				int id(ResumoDeLeilao resumo) {
+					return resumo.getId();
+				}
+			};
+	private static final PaginacaoPorChave<ResumoDeLeilao> PAGINA_POR_VALOR_INICIAL =
+			new PaginacaoPorChave.PorValorInicial<ResumoDeLeilao>() {
+				@Override
+				double valorInicial(ResumoDeLeilao resumo) {
+					return resumo.getValorInicial();
+				}
+
+				@Override
+				int id(ResumoDeLeilao resumo) {
+					return resumo.getId();
+				}
+			};
+
+	private final Session session;
+
+	public ResumoDeLeilaoDao(Session session) {
+		this.session = session;
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<ResumoDeLeilao> novos() {
+		return session.createQuery(RESUMO + LeilaoDao.NOVOS)
+				.list();
+	}
+
+	public Pagina<ResumoDeLeilao> novos(String continuacao, int tamanho) {
+		Query query = session.createQuery(RESUMO + LeilaoDao.NOVOS +
+				PAGINA_POR_DATA_ABERTURA.depois(continuacao) + LeilaoDao.ORDEM_DOS_NOVOS);
+		return PAGINA_POR_DATA_ABERTURA.pagina(query, continuacao, tamanho);
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<ResumoDeLeilao> antigos() {
+		return session.createQuery(RESUMO + LeilaoDao.ANTIGOS)
+				.setParameter("data", seteDiasAtras())
+				.list();
+	}
+
+	public Pagina<ResumoDeLeilao> antigos(String continuacao, int tamanho) {
+		Query query = session.createQuery(RESUMO + LeilaoDao.ANTIGOS +
+				PAGINA_POR_DATA_ABERTURA.depois(continuacao) + LeilaoDao.ORDEM_POR_DATA_ABERTURA)
+				.setParameter("data", seteDiasAtras());
+		return PAGINA_POR_DATA_ABERTURA.pagina(query, continuacao, tamanho);
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<ResumoDeLeilao> porPeriodo(Calendar inicio, Calendar fim) {
+		return session.createQuery(RESUMO + LeilaoDao.POR_PERIODO)
+				.setParameter("inicio", inicio)
+				.setParameter("fim", fim)
+				.list();
+	}
+
+	public Pagina<ResumoDeLeilao> porPeriodo(Calendar inicio, Calendar fim, String continuacao, int tamanho) {
+		Query query = session.createQuery(RESUMO + LeilaoDao.POR_PERIODO +
+				PAGINA_POR_DATA_ABERTURA.depois(continuacao) + LeilaoDao.ORDEM_POR_DATA_ABERTURA)
+				.setParameter("inicio", inicio)
+				.setParameter("fim", fim);
+		return PAGINA_POR_DATA_ABERTURA.pagina(query, continuacao, tamanho);
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<ResumoDeLeilao> disputadosEntre(double inicio, double fim) {
+		return session.createQuery(RESUMO + LeilaoDao.DISPUTADOS_ENTRE)
+				.setParameter("inicio", inicio)
+				.setParameter("fim", fim)
+				.list();
+	}
+
+	public Pagina<ResumoDeLeilao> disputadosEntre(double inicio, double fim, String continuacao, int tamanho) {
+		Query query = session.createQuery(RESUMO + LeilaoDao.DISPUTADOS_ENTRE +
+				PAGINA_POR_VALOR_INICIAL.depois(continuacao) + LeilaoDao.ORDEM_POR_VALOR_INICIAL)
+				.setParameter("inicio", inicio)
+				.setParameter("fim", fim);
+		return PAGINA_POR_VALOR_INICIAL.pagina(query, continuacao, tamanho);
+	}
+
+	/**
+	 * Diferente do LeilaoDao, nao consulta o arquivo de leiloes: so o que
+	 * ainda esta no banco.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<ResumoDeLeilao> listaLeiloesDoUsuario(Usuario usuario) {
+		return session.createQuery(RESUMO + LeilaoDao.DO_USUARIO)
+				.setParameter("usuario", usuario)
+				.list();
+	}
+
+	public Pagina<ResumoDeLeilao> listaLeiloesDoUsuario(Usuario usuario, String continuacao, int tamanho) {
+		Query query = session.createQuery(RESUMO + LeilaoDao.DO_USUARIO +
+				PAGINA_POR_DATA_ABERTURA.depois(continuacao) + LeilaoDao.ORDEM_POR_DATA_ABERTURA)
+				.setParameter("usuario", usuario);
+		return PAGINA_POR_DATA_ABERTURA.pagina(query, continuacao, tamanho);
+	}
+
+	private Calendar seteDiasAtras() {
+		Calendar seteDiasAtras = Calendar.getInstance();
+		seteDiasAtras.add(Calendar.DAY_OF_MONTH, -7);
+		return seteDiasAtras;
+	}
+}
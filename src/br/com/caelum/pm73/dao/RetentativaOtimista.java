@@ -0,0 +1,191 @@
+package br.com.caelum.pm73.dao;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.hibernate.Session;
+import org.hibernate.StaleStateException;
+
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * Executa trabalho sobre um leilao em transacao propria e, se outra
+ * transacao alterou o leilao antes (a versao nao bate no update), desfaz e
+ * tenta de novo com dados frescos, esperando um pouco mais a cada vez.
+ * Guarda por leilao quantas vezes isso aconteceu, para achar os disputados.
+ */
+public class RetentativaOtimista {
+
+	public static final int TENTATIVAS = 5;
+	public static final long PAUSA_INICIAL = 5;
+
+	private static final Logger LOG = Logger.getLogger(RetentativaOtimista.class.getName());
+	private static final long PAUSA_MAXIMA = 1000;
+
+	private final CriadorDeSessao criador;
+	private final int tentativas;
+	private final long pausaInicial;
+	private final Random aleatorio = new Random();
+	private final ConcurrentMap<Integer, Contadores> disputas = new ConcurrentHashMap<Integer, Contadores>();
+
+	public RetentativaOtimista(CriadorDeSessao criador) {
+		this(criador, TENTATIVAS, PAUSA_INICIAL);
+	}
+
+	/**
+	 * @param tentativas quantas vezes executar antes de desistir
+	 * @param pausaInicial espera depois do primeiro conflito, em milissegundos;
+	 *            dobra a cada conflito seguinte
+	 */
+	public RetentativaOtimista(CriadorDeSessao criador, int tentativas, long pausaInicial) {
+		if (tentativas < 1) {
+			throw new IllegalArgumentException("Numero de tentativas invalido: " + tentativas);
+		}
+		this.criador = criador;
+		this.tentativas = tentativas;
+		this.pausaInicial = pausaInicial;
+	}
+
+	/**
+	 * @throws StaleStateException se todas as tentativas perderem a disputa
+	 */
+	public <T> T executa(int leilaoId, TentativaOtimista<T> tentativa) {
+		Contadores contadores = contadores(leilaoId);
+		contadores.execucoes.incrementAndGet();
+
+		long pausa = pausaInicial;
+		for (int vez = 1; ; vez++) {
+			Session session = criador.getSession();
+			try {
+				session.beginTransaction();
+				T resultado = tentativa.executa(session);
+				session.getTransaction().commit();
+				return resultado;
+			} catch (StaleStateException e) {
+				if (session.getTransaction().isActive()) {
+					session.getTransaction().rollback();
+				}
+				contadores.conflitos.incrementAndGet();
+				if (vez >= tentativas) {
+					contadores.desistencias.incrementAndGet();
+					LOG.warning("Leilao " + leilaoId + " continuou em disputa depois de " + vez + " tentativas");
+					throw e;
+				}
+			} catch (RuntimeException e) {
+				if (session.getTransaction().isActive()) {
+					session.getTransaction().rollback();
+				}
+				throw e;
+			} finally {
+				session.close();
+			}
+
+			espera(pausa);
+			pausa = Math.min(pausa * 2, PAUSA_MAXIMA);
+		}
+	}
+
+	/**
+	 * Da um lance com as mesmas regras do {@link br.com.caelum.pm73.dominio.LivroDeLances}:
+	 * o valor precisa superar o atual e o leilao nao pode estar encerrado.
+	 * A cada retentativa as regras sao conferidas de novo contra o leilao
+	 * recarregado.
+	 *
+	 * @return o lance gravado, ou null se ele foi recusado
+	 */
+	public Lance daLance(final int leilaoId, final int usuarioId, final double valor) {
+		return executa(leilaoId, new TentativaOtimista<Lance>() {
+			@Override
+			public Lance executa(Session session) {
+				Leilao leilao = (Leilao) session.get(Leilao.class, leilaoId);
+				if (leilao == null || leilao.isEncerrado()) {
+					return null;
+				}
+				Double atual = leilao.getMaiorLance() != null ? leilao.getMaiorLance() : leilao.getValorInicial();
+				if (atual != null && valor <= atual) {
+					return null;
+				}
+
+				Usuario usuario = (Usuario) session.load(Usuario.class, usuarioId);
+				Lance lance = leilao.adicionaLance(new Lance(Calendar.getInstance(), usuario, valor, leilao));
+				session.save(lance);
+				return lance;
+			}
+		});
+	}
+
+	public EstatisticasDeDisputa getDisputa(int leilaoId) {
+		Contadores contadores = disputas.get(leilaoId);
+		return contadores == null ? new EstatisticasDeDisputa(leilaoId, 0, 0, 0) : contadores.estatisticas(leilaoId);
+	}
+
+	/**
+	 * @return os leiloes com mais conflitos, do mais disputado para o menos
+	 */
+	public List<EstatisticasDeDisputa> maisDisputados(int quantos) {
+		List<EstatisticasDeDisputa> todos = new ArrayList<EstatisticasDeDisputa>();
+		for (Integer leilaoId : disputas.keySet()) {
+			EstatisticasDeDisputa disputa = disputas.get(leilaoId).estatisticas(leilaoId);
+			if (disputa.getConflitos() > 0) {
+				todos.add(disputa);
+			}
+		}
+		Collections.sort(todos, new Comparator<EstatisticasDeDisputa>() {
+			@Override
+			public int compare(EstatisticasDeDisputa uma, EstatisticasDeDisputa outra) {
+				return Long.compare(outra.getConflitos(), uma.getConflitos());
+			}
+		});
+		return todos.size() > quantos ? new ArrayList<EstatisticasDeDisputa>(todos.subList(0, quantos)) : todos;
+	}
+
+	public void zera() {
+		disputas.clear();
+	}
+
+	private Contadores contadores(int leilaoId) {
+		Contadores contadores = disputas.get(leilaoId);
+		if (contadores == null) {
+			Contadores novos = new Contadores();
+			contadores = disputas.putIfAbsent(leilaoId, novos);
+			if (contadores == null) {
+				contadores = novos;
+			}
+		}
+		return contadores;
+	}
+
+	private void espera(long pausa) {
+		if (pausa <= 0) {
+			return;
+		}
+		// o sorteio evita que quem perdeu junto tente de novo junto
+		long sorteada = pausa / 2 + (long) (aleatorio.nextDouble() * (pausa / 2 + 1));
+		try {
+			Thread.sleep(sorteada);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrompido esperando para tentar de novo", e);
+		}
+	}
+
+	private static class Contadores {
+		private final AtomicLong execucoes = new AtomicLong();
+		private final AtomicLong conflitos = new AtomicLong();
+		private final AtomicLong desistencias = new AtomicLong();
+
+		EstatisticasDeDisputa estatisticas(int leilaoId) {
+			return new EstatisticasDeDisputa(leilaoId, execucoes.get(), conflitos.get(), desistencias.get());
+		}
+	}
+}
@@ -0,0 +1,10 @@
+package br.com.caelum.pm73.dao;
+
+/**
+ * Trabalho executado pelo {@link ExecutorTransacional} dentro de uma
+ * transacao; os DAOs recebidos so valem enquanto ela durar.
+ */
+public interface TarefaTransacional<T> {
+
+	T executa(Daos daos);
+}
@@ -0,0 +1,13 @@
+package br.com.caelum.pm73.dao;
+
+import org.hibernate.Session;
+
+/**
+ * Trabalho executado pela {@link RetentativaOtimista}; pode rodar mais de uma
+ * vez, sempre numa sessao e transacao novas, entao nao deve guardar nada
+ * carregado de uma tentativa para a outra.
+ */
+public interface TentativaOtimista<T> {
+
+	T executa(Session session);
+}
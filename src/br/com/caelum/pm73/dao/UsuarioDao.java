@@ -4,10 +4,14 @@ import br.com.caelum.pm73.dominio.Leilao;
 import org.hibernate.ObjectNotFoundException;
 import org.hibernate.Session;
 
+import br.com.caelum.pm73.dao.metricas.Instrumentacao;
+import br.com.caelum.pm73.dao.metricas.Medicao;
 import br.com.caelum.pm73.dominio.Usuario;
 
 public class UsuarioDao {
 
+	static final String POR_NOME_E_EMAIL = "from Usuario u where u.nome = :nome and u.email = :email";
+
 	private final Session session;
 
 	public UsuarioDao(Session session) {
@@ -15,29 +19,56 @@ public class UsuarioDao {
 	}
 	
 	public Usuario porId(int id) {
+		Medicao medicao = Instrumentacao.inicia("UsuarioDao.porId");
 		try {
-			return (Usuario) session.get(Usuario.class, id);
-		} catch (ObjectNotFoundException obj){
-			return null;
+			try {
+				return (Usuario) session.get(Usuario.class, id);
+			} catch (ObjectNotFoundException obj){
+				return null;
+			}
+		} finally {
+			medicao.termina();
 		}
 	}
 	
 	public Usuario porNomeEEmail(String nome, String email) {
-		return (Usuario) session.createQuery("from Usuario u where u.nome = :nome and u.email = :email")
-				.setParameter("nome", nome)
-				.setParameter("email", email)
-				.uniqueResult();
+		Medicao medicao = Instrumentacao.inicia("UsuarioDao.porNomeEEmail");
+		try {
+			return (Usuario) session.createQuery(POR_NOME_E_EMAIL)
+					.setParameter("nome", nome)
+					.setParameter("email", email)
+					.setCacheable(true)
+					.setCacheRegion("Usuario.porNomeEEmail")
+					.uniqueResult();
+		} finally {
+			medicao.termina();
+		}
 	}
 	
 	public void salvar(Usuario usuario) {
-		session.save(usuario);
+		Medicao medicao = Instrumentacao.inicia("UsuarioDao.salvar");
+		try {
+			session.save(usuario);
+		} finally {
+			medicao.termina();
+		}
 	}
 	
 	public void atualizar(Usuario usuario) {
-		session.merge(usuario);
+		Medicao medicao = Instrumentacao.inicia("UsuarioDao.atualizar");
+		try {
+			session.merge(usuario);
+		} finally {
+			medicao.termina();
+		}
 	}
 	
 	public void deletar(Usuario usuario) {
-		session.delete(usuario);
+		Medicao medicao = Instrumentacao.inicia("UsuarioDao.deletar");
+		try {
+			session.delete(usuario);
+		} finally {
+			medicao.termina();
+		}
 	}
 }
@@ -0,0 +1,76 @@
+package br.com.caelum.pm73.dao;
+
+import java.util.Calendar;
+
+import org.hibernate.Query;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+
+import br.com.caelum.pm73.dominio.Leilao;
+
+/**
+ * Percorre leiloes com um cursor sobre uma StatelessSession, sem guardar
+ * nada no contexto de persistencia. Os lances nao sao carregados: acessar
+ * getLances() dos leiloes visitados lanca LazyInitializationException.
+ */
+public class VarredorDeLeiloes {
+
+	public static final int TAMANHO_DO_FETCH = 500;
+
+	private static final String DE_LEILAO_COM_DONO = "from Leilao l left join fetch l.dono ";
+
+	private final StatelessSession session;
+	private final int tamanhoDoFetch;
+
+	public VarredorDeLeiloes(StatelessSession session) {
+		this(session, TAMANHO_DO_FETCH);
+	}
+
+	public VarredorDeLeiloes(StatelessSession session, int tamanhoDoFetch) {
+		this.session = session;
+		this.tamanhoDoFetch = tamanhoDoFetch;
+	}
+
+	public long todos(VisitanteDeLeilao visitante) {
+		return percorre(session.createQuery(DE_LEILAO_COM_DONO), visitante);
+	}
+
+	public long novos(VisitanteDeLeilao visitante) {
+		return percorre(session.createQuery(DE_LEILAO_COM_DONO + LeilaoDao.NOVOS), visitante);
+	}
+
+	public long antigos(VisitanteDeLeilao visitante) {
+		Calendar seteDiasAtras = Calendar.getInstance();
+		seteDiasAtras.add(Calendar.DAY_OF_MONTH, -7);
+
+		return percorre(session.createQuery(DE_LEILAO_COM_DONO + LeilaoDao.ANTIGOS)
+				.setParameter("data", seteDiasAtras), visitante);
+	}
+
+	public long porPeriodo(Calendar inicio, Calendar fim, VisitanteDeLeilao visitante) {
+		return percorre(session.createQuery(DE_LEILAO_COM_DONO + LeilaoDao.POR_PERIODO)
+				.setParameter("inicio", inicio)
+				.setParameter("fim", fim), visitante);
+	}
+
+	private long percorre(Query query, VisitanteDeLeilao visitante) {
+		ScrollableResults resultados = query
+				.setFetchSize(tamanhoDoFetch)
+				.setReadOnly(true)
+				.scroll(ScrollMode.FORWARD_ONLY);
+
+		long visitados = 0;
+		try {
+			while (resultados.next()) {
+				visitados++;
+				if (!visitante.visita((Leilao) resultados.get(0))) {
+					break;
+				}
+			}
+		} finally {
+			resultados.close();
+		}
+		return visitados;
+	}
+}
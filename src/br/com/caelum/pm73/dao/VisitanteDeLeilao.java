@@ -0,0 +1,12 @@
+package br.com.caelum.pm73.dao;
+
+import br.com.caelum.pm73.dominio.Leilao;
+
+public interface VisitanteDeLeilao {
+
+	/**
+	 * @return false para interromper a varredura
+	 */
+	boolean visita(Leilao leilao);
+
+}
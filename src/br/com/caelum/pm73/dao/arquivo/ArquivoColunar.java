@@ -0,0 +1,140 @@
+package br.com.caelum.pm73.dao.arquivo;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.hibernate.Session;
+
+import br.com.caelum.pm73.dao.ArquivoDeLeiloes;
+import br.com.caelum.pm73.dao.LeiloesArquivados;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * Arquivo frio de leiloes encerrados: um diretorio de segmentos colunares
+ * comprimidos, so de acrescimo, lidos por mapeamento de memoria. Cada lote
+ * recebido do {@link br.com.caelum.pm73.dao.ExpurgoDeEncerrados} vira um
+ * segmento novo.
+ *
+ * Se o expurgo desfizer um lote depois de arquivado, o leilao continua no
+ * banco e tambem no arquivo; por isso o LeilaoDao consulta o banco primeiro,
+ * e aqui o segmento mais novo prevalece.
+ */
+public class ArquivoColunar implements ArquivoDeLeiloes, LeiloesArquivados {
+
+	private static final String EXTENSAO = ".seg";
+
+	private final File diretorio;
+	private final List<Segmento> segmentos = new CopyOnWriteArrayList<Segmento>();
+	private int proximo;
+
+	public ArquivoColunar(File diretorio) {
+		this.diretorio = diretorio;
+		if (!diretorio.isDirectory() && !diretorio.mkdirs()) {
+			throw new IllegalArgumentException("Nao foi possivel criar o diretorio " + diretorio);
+		}
+
+		// temporarios sobram de gravacoes interrompidas e nunca foram usados
+		for (File temporario : diretorio.listFiles(comExtensao(EXTENSAO + ".tmp"))) {
+			temporario.delete();
+		}
+
+		File[] arquivos = diretorio.listFiles(comExtensao(EXTENSAO));
+		Arrays.sort(arquivos);
+		for (File arquivo : arquivos) {
+			try {
+				segmentos.add(Segmento.abre(arquivo));
+			} catch (IOException e) {
+				throw new IllegalStateException("Segmento ilegivel: " + arquivo, e);
+			}
+			String nome = arquivo.getName();
+			proximo = Math.max(proximo, Integer.parseInt(nome.substring(0, nome.length() - EXTENSAO.length())) + 1);
+		}
+	}
+
+	@Override
+	public synchronized void arquiva(List<Leilao> leiloes) {
+		File destino = new File(diretorio, String.format("%08d%s", proximo, EXTENSAO));
+		try {
+			segmentos.add(Segmento.grava(destino, leiloes));
+			proximo++;
+		} catch (IOException e) {
+			throw new IllegalStateException("Nao foi possivel arquivar em " + destino, e);
+		}
+	}
+
+	@Override
+	public Leilao porId(int id, Session session) {
+		for (int i = segmentos.size() - 1; i >= 0; i--) {
+			Segmento segmento = segmentos.get(i);
+			if (segmento.podeConter(id)) {
+				Leilao leilao = segmento.porId(id, session);
+				if (leilao != null) {
+					return leilao;
+				}
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public List<Leilao> doUsuario(Usuario usuario, Session session) {
+		List<Leilao> leiloes = new ArrayList<Leilao>();
+		Set<Integer> vistos = new HashSet<Integer>();
+		for (int i = segmentos.size() - 1; i >= 0; i--) {
+			Segmento segmento = segmentos.get(i);
+			if (segmento.temLancesDe(usuario.getId())) {
+				for (Leilao leilao : segmento.doUsuario(usuario.getId(), session)) {
+					if (vistos.add(leilao.getId())) {
+						leiloes.add(leilao);
+					}
+				}
+			}
+		}
+		return leiloes;
+	}
+
+	public int getSegmentos() {
+		return segmentos.size();
+	}
+
+	public long getLeiloes() {
+		long leiloes = 0;
+		for (Segmento segmento : segmentos) {
+			leiloes += segmento.getLeiloes();
+		}
+		return leiloes;
+	}
+
+	public long getLances() {
+		long lances = 0;
+		for (Segmento segmento : segmentos) {
+			lances += segmento.getLances();
+		}
+		return lances;
+	}
+
+	public long getTamanhoEmBytes() {
+		long tamanho = 0;
+		for (Segmento segmento : segmentos) {
+			tamanho += segmento.getArquivo().length();
+		}
+		return tamanho;
+	}
+
+	private static FilenameFilter comExtensao(final String extensao) {
+		return new FilenameFilter() {
+			@Override
+			public boolean accept(File diretorio, String nome) {
+				return nome.endsWith(extensao);
+			}
+		};
+	}
+}
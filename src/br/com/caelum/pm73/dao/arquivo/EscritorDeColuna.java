@@ -0,0 +1,64 @@
+package br.com.caelum.pm73.dao.arquivo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.zip.Deflater;
+
+/**
+ * Acumula os valores de uma coluna e devolve o bloco comprimido. Inteiros
+ * sao gravados como diferenca para o anterior, em zigzag e tamanho
+ * variavel: ids e datas em sequencia viram um ou dois bytes cada.
+ */
+class EscritorDeColuna {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	private final DataOutputStream saida = new DataOutputStream(bytes);
+	private long anterior;
+
+	void inteiro(long valor) throws IOException {
+		long diferenca = valor - anterior;
+		anterior = valor;
+
+		long zigzag = (diferenca << 1) ^ (diferenca >> 63);
+		while ((zigzag & ~0x7FL) != 0) {
+			saida.writeByte((int) ((zigzag & 0x7F) | 0x80));
+			zigzag >>>= 7;
+		}
+		saida.writeByte((int) zigzag);
+	}
+
+	void decimal(double valor) throws IOException {
+		saida.writeDouble(valor);
+	}
+
+	void texto(String valor) throws IOException {
+		byte[] utf8 = (valor == null ? "" : valor).getBytes(UTF8);
+		saida.writeInt(utf8.length);
+		saida.write(utf8);
+	}
+
+	int getTamanhoOriginal() {
+		return bytes.size();
+	}
+
+	byte[] comprime() {
+		Deflater compressor = new Deflater(Deflater.BEST_SPEED);
+		try {
+			compressor.setInput(bytes.toByteArray());
+			compressor.finish();
+
+			ByteArrayOutputStream comprimido = new ByteArrayOutputStream(bytes.size() / 2 + 16);
+			byte[] bloco = new byte[8192];
+			while (!compressor.finished()) {
+				comprimido.write(bloco, 0, compressor.deflate(bloco));
+			}
+			return comprimido.toByteArray();
+		} finally {
+			compressor.end();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package br.com.caelum.pm73.dao.arquivo;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Le de volta, na mesma ordem, os valores gravados pelo
+ * {@link EscritorDeColuna}.
+ */
+class LeitorDeColuna {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer bytes;
+	private long anterior;
+
+	LeitorDeColuna(byte[] comprimido, int tamanhoOriginal) {
+		Inflater descompressor = new Inflater();
+		try {
+			descompressor.setInput(comprimido);
+			byte[] original = new byte[tamanhoOriginal];
+			int lidos = 0;
+			while (lidos < tamanhoOriginal) {
+				int n = descompressor.inflate(original, lidos, tamanhoOriginal - lidos);
+				if (n == 0 && (descompressor.finished() || descompressor.needsInput())) {
+					throw new IllegalStateException("Coluna truncada: " + lidos + " de " + tamanhoOriginal + " bytes");
+				}
+				lidos += n;
+			}
+			this.bytes = ByteBuffer.wrap(original);
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("Coluna corrompida", e);
+		} finally {
+			descompressor.end();
+		}
+	}
+
+	long inteiro() {
+		long zigzag = 0;
+		int deslocamento = 0;
+		byte lido;
+		do {
+			lido = bytes.get();
+			zigzag |= (long) (lido & 0x7F) << deslocamento;
+			deslocamento += 7;
+		} while ((lido & 0x80) != 0);
+
+		anterior += (zigzag >>> 1) ^ -(zigzag & 1);
+		return anterior;
+	}
+
+	double decimal() {
+		return bytes.getDouble();
+	}
+
+	String texto() {
+		int tamanho = bytes.getInt();
+		String valor = new String(bytes.array(), bytes.position(), tamanho, UTF8);
+		bytes.position(bytes.position() + tamanho);
+		return valor;
+	}
+}
@@ -0,0 +1,299 @@
+package br.com.caelum.pm73.dao.arquivo;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.hibernate.Session;
+
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+
+/**
+ * Um arquivo imutavel com um lote de leiloes e seus lances, guardados
+ * coluna a coluna, cada coluna comprimida separadamente. O cabecalho traz
+ * a faixa de ids e o tamanho de cada coluna; a primeira coluna e a lista
+ * dos usuarios que deram lance, para saber sem descomprimir o resto se o
+ * segmento interessa a um usuario. Donos e interessados sao guardados so
+ * pelo id, porque os usuarios continuam no banco.
+ */
+class Segmento {
+
+	private static final int MAGICO = 0x504D3733;
+	private static final int VERSAO = 1;
+	private static final long SEM_DATA = Long.MIN_VALUE;
+
+	private static final int INTERESSADOS = 0;
+	private static final int ID = 1;
+	private static final int NOME = 2;
+	private static final int VALOR_INICIAL = 3;
+	private static final int DONO = 4;
+	private static final int ABERTURA = 5;
+	private static final int SITUACAO = 6;
+	private static final int QUANTIDADE_DE_LANCES = 7;
+	private static final int LANCE_ID = 8;
+	private static final int LANCE_VALOR = 9;
+	private static final int LANCE_DATA = 10;
+	private static final int LANCE_USUARIO = 11;
+	private static final int COLUNAS = 12;
+
+	private static final int USADO = 1;
+	private static final int ENCERRADO = 2;
+
+	private final File arquivo;
+	private final MappedByteBuffer mapa;
+	private final int leiloes;
+	private final int lances;
+	private final int menorId;
+	private final int maiorId;
+	private final int[] inicios = new int[COLUNAS];
+	private final int[] comprimidos = new int[COLUNAS];
+	private final int[] originais = new int[COLUNAS];
+	private final int[] interessados;
+
+	private Segmento(File arquivo) throws IOException {
+		this.arquivo = arquivo;
+
+		RandomAccessFile acesso = new RandomAccessFile(arquivo, "r");
+		try {
+			// o mapeamento continua valido depois que o canal e fechado
+			mapa = acesso.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, acesso.length());
+		} finally {
+			acesso.close();
+		}
+
+		if (mapa.getInt() != MAGICO || mapa.getInt() != VERSAO) {
+			throw new IOException("Nao e um segmento de leiloes: " + arquivo);
+		}
+		leiloes = mapa.getInt();
+		lances = mapa.getInt();
+		menorId = mapa.getInt();
+		maiorId = mapa.getInt();
+		if (mapa.getInt() != COLUNAS) {
+			throw new IOException("Quantidade de colunas inesperada em " + arquivo);
+		}
+
+		int inicio = mapa.position() + COLUNAS * 8;
+		for (int i = 0; i < COLUNAS; i++) {
+			comprimidos[i] = mapa.getInt();
+			originais[i] = mapa.getInt();
+			inicios[i] = inicio;
+			inicio += comprimidos[i];
+		}
+
+		LeitorDeColuna coluna = coluna(INTERESSADOS);
+		interessados = new int[(int) coluna.inteiro()];
+		for (int i = 0; i < interessados.length; i++) {
+			interessados[i] = (int) coluna.inteiro();
+		}
+	}
+
+	static Segmento abre(File arquivo) throws IOException {
+		return new Segmento(arquivo);
+	}
+
+	/**
+	 * Grava num arquivo temporario, forca a ida para o disco e so entao
+	 * renomeia: um segmento pela metade nunca aparece com o nome final.
+	 */
+	static Segmento grava(File destino, List<Leilao> lote) throws IOException {
+		List<Leilao> leiloes = new ArrayList<Leilao>(lote);
+		Collections.sort(leiloes, new Comparator<Leilao>() {
+			@Override
+			public int compare(Leilao um, Leilao outro) {
+				return um.getId() < outro.getId() ? -1 : (um.getId() == outro.getId() ? 0 : 1);
+			}
+		});
+
+		EscritorDeColuna[] colunas = new EscritorDeColuna[COLUNAS];
+		for (int i = 0; i < COLUNAS; i++) {
+			colunas[i] = new EscritorDeColuna();
+		}
+
+		TreeSet<Integer> interessados = new TreeSet<Integer>();
+		int lances = 0;
+		for (Leilao leilao : leiloes) {
+			colunas[ID].inteiro(leilao.getId());
+			colunas[NOME].texto(leilao.getNome());
+			colunas[VALOR_INICIAL].decimal(leilao.getValorInicial() == null ? Double.NaN : leilao.getValorInicial());
+			colunas[DONO].inteiro(leilao.getDono() == null ? 0 : leilao.getDono().getId());
+			colunas[ABERTURA].inteiro(milissegundos(leilao.getDataAberturaEmMilissegundos()));
+			colunas[SITUACAO].inteiro((leilao.isUsado() ? USADO : 0) | (leilao.isEncerrado() ? ENCERRADO : 0));
+			colunas[QUANTIDADE_DE_LANCES].inteiro(leilao.getLances().size());
+
+			for (Lance lance : leilao.getLances()) {
+				colunas[LANCE_ID].inteiro(lance.getId());
+				colunas[LANCE_VALOR].decimal(lance.getValor());
+				colunas[LANCE_DATA].inteiro(milissegundos(lance.getDataEmMilissegundos()));
+				colunas[LANCE_USUARIO].inteiro(lance.getUsuario().getId());
+				interessados.add(lance.getUsuario().getId());
+				lances++;
+			}
+		}
+		colunas[INTERESSADOS].inteiro(interessados.size());
+		for (Integer interessado : interessados) {
+			colunas[INTERESSADOS].inteiro(interessado);
+		}
+
+		File temporario = new File(destino.getPath() + ".tmp");
+		FileOutputStream arquivo = new FileOutputStream(temporario);
+		try {
+			DataOutputStream saida = new DataOutputStream(new BufferedOutputStream(arquivo));
+			saida.writeInt(MAGICO);
+			saida.writeInt(VERSAO);
+			saida.writeInt(leiloes.size());
+			saida.writeInt(lances);
+			saida.writeInt(leiloes.isEmpty() ? 0 : leiloes.get(0).getId());
+			saida.writeInt(leiloes.isEmpty() ? 0 : leiloes.get(leiloes.size() - 1).getId());
+			saida.writeInt(COLUNAS);
+
+			byte[][] blocos = new byte[COLUNAS][];
+			for (int i = 0; i < COLUNAS; i++) {
+				blocos[i] = colunas[i].comprime();
+				saida.writeInt(blocos[i].length);
+				saida.writeInt(colunas[i].getTamanhoOriginal());
+			}
+			for (byte[] bloco : blocos) {
+				saida.write(bloco);
+			}
+			saida.flush();
+			arquivo.getFD().sync();
+		} finally {
+			arquivo.close();
+		}
+
+		if (!temporario.renameTo(destino)) {
+			temporario.delete();
+			throw new IOException("Nao foi possivel criar " + destino);
+		}
+		return abre(destino);
+	}
+
+	boolean podeConter(int id) {
+		return leiloes > 0 && id >= menorId && id <= maiorId;
+	}
+
+	boolean temLancesDe(int usuario) {
+		return Arrays.binarySearch(interessados, usuario) >= 0;
+	}
+
+	Leilao porId(int id, Session session) {
+		List<Leilao> encontrados = le(session, id, 0);
+		return encontrados.isEmpty() ? null : encontrados.get(0);
+	}
+
+	List<Leilao> doUsuario(int usuario, Session session) {
+		return le(session, 0, usuario);
+	}
+
+	int getLeiloes() {
+		return leiloes;
+	}
+
+	int getLances() {
+		return lances;
+	}
+
+	File getArquivo() {
+		return arquivo;
+	}
+
+	/**
+	 * Percorre todas as colunas juntas, mas so monta os leiloes com o id
+	 * pedido ou com lance do usuario pedido (0 ignora o criterio).
+	 */
+	private List<Leilao> le(Session session, int idProcurado, int usuarioProcurado) {
+		LeitorDeColuna ids = coluna(ID);
+		LeitorDeColuna nomes = coluna(NOME);
+		LeitorDeColuna valores = coluna(VALOR_INICIAL);
+		LeitorDeColuna donos = coluna(DONO);
+		LeitorDeColuna aberturas = coluna(ABERTURA);
+		LeitorDeColuna situacoes = coluna(SITUACAO);
+		LeitorDeColuna quantidades = coluna(QUANTIDADE_DE_LANCES);
+		LeitorDeColuna lanceIds = coluna(LANCE_ID);
+		LeitorDeColuna lanceValores = coluna(LANCE_VALOR);
+		LeitorDeColuna lanceDatas = coluna(LANCE_DATA);
+		LeitorDeColuna lanceUsuarios = coluna(LANCE_USUARIO);
+
+		List<Leilao> encontrados = new ArrayList<Leilao>();
+		for (int i = 0; i < leiloes; i++) {
+			int id = (int) ids.inteiro();
+			String nome = nomes.texto();
+			double valorInicial = valores.decimal();
+			int dono = (int) donos.inteiro();
+			long abertura = aberturas.inteiro();
+			int situacao = (int) situacoes.inteiro();
+			int quantidade = (int) quantidades.inteiro();
+
+			int[] lanceId = new int[quantidade];
+			double[] lanceValor = new double[quantidade];
+			long[] lanceData = new long[quantidade];
+			int[] lanceUsuario = new int[quantidade];
+			boolean temLanceDoUsuario = false;
+			for (int j = 0; j < quantidade; j++) {
+				lanceId[j] = (int) lanceIds.inteiro();
+				lanceValor[j] = lanceValores.decimal();
+				lanceData[j] = lanceDatas.inteiro();
+				lanceUsuario[j] = (int) lanceUsuarios.inteiro();
+				temLanceDoUsuario |= lanceUsuario[j] == usuarioProcurado;
+			}
+
+			if ((idProcurado != 0 && id != idProcurado) || (usuarioProcurado != 0 && !temLanceDoUsuario)) {
+				continue;
+			}
+
+			Leilao leilao = new Leilao(nome, Double.isNaN(valorInicial) ? null : valorInicial,
+					dono == 0 ? null : usuario(session, dono), (situacao & USADO) != 0);
+			leilao.setId(id);
+			leilao.setDataAberturaEmMilissegundos(data(abertura));
+			if ((situacao & ENCERRADO) != 0) {
+				leilao.encerra();
+			}
+			for (int j = 0; j < quantidade; j++) {
+				Lance lance = new Lance(null, usuario(session, lanceUsuario[j]), lanceValor[j], null);
+				lance.setDataEmMilissegundos(data(lanceData[j]));
+				lance.setId(lanceId[j]);
+				leilao.adicionaLance(lance);
+			}
+			encontrados.add(leilao);
+
+			if (idProcurado != 0) {
+				break;
+			}
+		}
+		return encontrados;
+	}
+
+	private LeitorDeColuna coluna(int indice) {
+		ByteBuffer leitura = mapa.duplicate();
+		leitura.position(inicios[indice]);
+		byte[] comprimido = new byte[comprimidos[indice]];
+		leitura.get(comprimido);
+		return new LeitorDeColuna(comprimido, originais[indice]);
+	}
+
+	private static Usuario usuario(Session session, int id) {
+		return (Usuario) session.load(Usuario.class, id);
+	}
+
+	private static long milissegundos(Long data) {
+		return data == null ? SEM_DATA : data;
+	}
+
+	private static Long data(long milissegundos) {
+		return milissegundos == SEM_DATA ? null : milissegundos;
+	}
+}
@@ -0,0 +1,19 @@
+package br.com.caelum.pm73.dao.cache;
+
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+
+class AcessoAColecao extends AcessoNaoEstrito implements CollectionRegionAccessStrategy {
+
+	private final RegiaoDeColecao regiao;
+
+	AcessoAColecao(RegiaoDeColecao regiao, ArmazemLRU armazem) {
+		super(armazem);
+		this.regiao = regiao;
+	}
+
+	@Override
+	public CollectionRegion getRegion() {
+		return regiao;
+	}
+}
@@ -0,0 +1,45 @@
+package br.com.caelum.pm73.dao.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+
+class AcessoAEntidade extends AcessoNaoEstrito implements EntityRegionAccessStrategy {
+
+	private final RegiaoDeEntidade regiao;
+
+	AcessoAEntidade(RegiaoDeEntidade regiao, ArmazemLRU armazem) {
+		super(armazem);
+		this.regiao = regiao;
+	}
+
+	@Override
+	public EntityRegion getRegion() {
+		return regiao;
+	}
+
+	@Override
+	public boolean insert(Object chave, Object valor, Object versao) throws CacheException {
+		return false;
+	}
+
+	@Override
+	public boolean afterInsert(Object chave, Object valor, Object versao) throws CacheException {
+		return false;
+	}
+
+	@Override
+	public boolean update(Object chave, Object valor, Object versaoAtual, Object versaoAnterior)
+			throws CacheException {
+		armazem.remove(chave);
+		return false;
+	}
+
+	@Override
+	public boolean afterUpdate(Object chave, Object valor, Object versaoAtual, Object versaoAnterior,
+			SoftLock trava) throws CacheException {
+		unlockItem(chave, trava);
+		return false;
+	}
+}
@@ -0,0 +1,80 @@
+package br.com.caelum.pm73.dao.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.access.RegionAccessStrategy;
+import org.hibernate.cache.spi.access.SoftLock;
+
+/**
+ * Estrategia "nonstrict-read-write": nunca trava, apenas remove a entrada
+ * antes e depois de cada alteracao, de modo que a proxima leitura va ao banco.
+ */
+abstract class AcessoNaoEstrito implements RegionAccessStrategy {
+
+	protected final ArmazemLRU armazem;
+
+	AcessoNaoEstrito(ArmazemLRU armazem) {
+		this.armazem = armazem;
+	}
+
+	@Override
+	public Object get(Object chave, long timestampDaTransacao) throws CacheException {
+		return armazem.get(chave);
+	}
+
+	@Override
+	public boolean putFromLoad(Object chave, Object valor, long timestampDaTransacao, Object versao)
+			throws CacheException {
+		return putFromLoad(chave, valor, timestampDaTransacao, versao, false);
+	}
+
+	@Override
+	public boolean putFromLoad(Object chave, Object valor, long timestampDaTransacao, Object versao,
+			boolean minimalPut) throws CacheException {
+		if (minimalPut && armazem.contains(chave)) {
+			return false;
+		}
+		armazem.put(chave, valor);
+		return true;
+	}
+
+	@Override
+	public SoftLock lockItem(Object chave, Object versao) throws CacheException {
+		armazem.remove(chave);
+		return null;
+	}
+
+	@Override
+	public SoftLock lockRegion() throws CacheException {
+		return null;
+	}
+
+	@Override
+	public void unlockItem(Object chave, SoftLock trava) throws CacheException {
+		armazem.remove(chave);
+	}
+
+	@Override
+	public void unlockRegion(SoftLock trava) throws CacheException {
+		armazem.clear();
+	}
+
+	@Override
+	public void remove(Object chave) throws CacheException {
+		armazem.remove(chave);
+	}
+
+	@Override
+	public void removeAll() throws CacheException {
+		armazem.clear();
+	}
+
+	@Override
+	public void evict(Object chave) throws CacheException {
+		armazem.remove(chave);
+	}
+
+	@Override
+	public void evictAll() throws CacheException {
+		armazem.clear();
+	}
+}
@@ -0,0 +1,100 @@
+package br.com.caelum.pm73.dao.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Mapa limitado em numero de entradas, que descarta a menos usada quando
+ * cheio e ignora entradas mais velhas que o tempo de vida (0 = sem limite).
+ */
+class ArmazemLRU {
+
+	private final int capacidade;
+	private final long tempoDeVida;
+	private final LinkedHashMap<Object, Entrada> entradas;
+
+	private long acertos;
+	private long falhas;
+	private long gravacoes;
+	private long expulsoes;
+
+	ArmazemLRU(int capacidade, long tempoDeVida) {
+		this.capacidade = capacidade;
+		this.tempoDeVida = tempoDeVida;
+		this.entradas = new LinkedHashMap<Object, Entrada>(16, 0.75f, true);
+	}
+
+	synchronized Object get(Object chave) {
+		Entrada entrada = entradas.get(chave);
+		if (entrada == null) {
+			falhas++;
+			return null;
+		}
+		if (entrada.expirou(System.currentTimeMillis())) {
+			entradas.remove(chave);
+			expulsoes++;
+			falhas++;
+			return null;
+		}
+		acertos++;
+		return entrada.valor;
+	}
+
+	synchronized void put(Object chave, Object valor) {
+		long expiraEm = tempoDeVida > 0 ? System.currentTimeMillis() + tempoDeVida : Long.MAX_VALUE;
+		entradas.put(chave, new Entrada(valor, expiraEm));
+		gravacoes++;
+
+		if (capacidade > 0 && entradas.size() > capacidade) {
+			Iterator<Object> maisAntiga = entradas.keySet().iterator();
+			maisAntiga.next();
+			maisAntiga.remove();
+			expulsoes++;
+		}
+	}
+
+	synchronized boolean contains(Object chave) {
+		Entrada entrada = entradas.get(chave);
+		return entrada != null && !entrada.expirou(System.currentTimeMillis());
+	}
+
+	synchronized void remove(Object chave) {
+		entradas.remove(chave);
+	}
+
+	synchronized void clear() {
+		entradas.clear();
+	}
+
+	synchronized int size() {
+		return entradas.size();
+	}
+
+	synchronized Map<Object, Object> toMap() {
+		Map<Object, Object> copia = new HashMap<Object, Object>();
+		for (Map.Entry<Object, Entrada> entrada : entradas.entrySet()) {
+			copia.put(entrada.getKey(), entrada.getValue().valor);
+		}
+		return copia;
+	}
+
+	synchronized EstatisticasDoCache estatisticas(String regiao) {
+		return new EstatisticasDoCache(regiao, acertos, falhas, gravacoes, expulsoes, entradas.size());
+	}
+
+	private static class Entrada {
+		private final Object valor;
+		private final long expiraEm;
+
+		Entrada(Object valor, long expiraEm) {
+			this.valor = valor;
+			this.expiraEm = expiraEm;
+		}
+
+		boolean expirou(long agora) {
+			return agora > expiraEm;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+package br.com.caelum.pm73.dao.cache;
+
+public class EstatisticasDoCache {
+
+	private final String regiao;
+	private final long acertos;
+	private final long falhas;
+	private final long gravacoes;
+	private final long expulsoes;
+	private final int tamanho;
+
+	public EstatisticasDoCache(String regiao, long acertos, long falhas, long gravacoes, long expulsoes, int tamanho) {
+		this.regiao = regiao;
+		this.acertos = acertos;
+		this.falhas = falhas;
+		this.gravacoes = gravacoes;
+		this.expulsoes = expulsoes;
+		this.tamanho = tamanho;
+	}
+
+	public String getRegiao() {
+		return regiao;
+	}
+
+	public long getAcertos() {
+		return acertos;
+	}
+
+	public long getFalhas() {
+		return falhas;
+	}
+
+	public long getGravacoes() {
+		return gravacoes;
+	}
+
+	public long getExpulsoes() {
+		return expulsoes;
+	}
+
+	public int getTamanho() {
+		return tamanho;
+	}
+
+	public double getTaxaDeAcerto() {
+		long consultas = acertos + falhas;
+		return consultas == 0 ? 0.0 : (double) acertos / consultas;
+	}
+
+	@Override
+	public String toString() {
+		return regiao + ": acertos=" + acertos + ", falhas=" + falhas + ", gravacoes=" + gravacoes
+				+ ", expulsoes=" + expulsoes + ", tamanho=" + tamanho;
+	}
+}
@@ -0,0 +1,145 @@
+package br.com.caelum.pm73.dao.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.NaturalIdRegion;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.cache.spi.TimestampsRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cfg.Settings;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+/**
+ * Cache de segundo nivel em memoria, dentro da propria JVM. Cada regiao e
+ * limitada por "pm73.cache.tamanho" entradas e "pm73.cache.tempoDeVida"
+ * segundos, que podem ser sobrescritos por regiao com
+ * "pm73.cache.&lt;regiao&gt;.tamanho" e "pm73.cache.&lt;regiao&gt;.tempoDeVida".
+ *
+ * Opcional: o CriadorDeSessao so o liga com -Dpm73.cache=true. Como so
+ * sabe das escritas feitas por esta JVM, nao serve quando outro processo
+ * grava no mesmo banco; ali ele devolveria linhas velhas.
+ */
+public class FabricaDeRegioesEmMemoria implements RegionFactory {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String TAMANHO = "pm73.cache.tamanho";
+	public static final String TEMPO_DE_VIDA = "pm73.cache.tempoDeVida";
+
+	// os timestamps sao milissegundos deslocados, com um contador nos bits de
+	// baixo: dois pedidos no mesmo milissegundo recebem valores crescentes
+	private static final int BITS_DO_CONTADOR = 12;
+	static final int TEMPO_LIMITE_DE_BLOQUEIO = 60000 << BITS_DO_CONTADOR;
+
+	private final ConcurrentMap<String, RegiaoEmMemoria> regioes = new ConcurrentHashMap<String, RegiaoEmMemoria>();
+	private final AtomicLong ultimoTimestamp = new AtomicLong();
+
+	private Properties propriedades;
+
+	@Override
+	public void start(Settings settings, Properties propriedades) throws CacheException {
+		this.propriedades = propriedades;
+	}
+
+	@Override
+	public void stop() {
+		for (RegiaoEmMemoria regiao : regioes.values()) {
+			regiao.destroy();
+		}
+		regioes.clear();
+	}
+
+	@Override
+	public boolean isMinimalPutsEnabledByDefault() {
+		return false;
+	}
+
+	@Override
+	public AccessType getDefaultAccessType() {
+		return AccessType.NONSTRICT_READ_WRITE;
+	}
+
+	/**
+	 * Sempre maior que o anterior. Com milissegundos puros, uma consulta
+	 * feita no mesmo milissegundo de um commit nas suas tabelas nunca era
+	 * aproveitada pelo cache de consultas, que so confia em resultados mais
+	 * novos que a ultima escrita.
+	 */
+	@Override
+	public long nextTimestamp() {
+		while (true) {
+			long ultimo = ultimoTimestamp.get();
+			long proximo = Math.max(System.currentTimeMillis() << BITS_DO_CONTADOR, ultimo + 1);
+			if (ultimoTimestamp.compareAndSet(ultimo, proximo)) {
+				return proximo;
+			}
+		}
+	}
+
+	@Override
+	public EntityRegion buildEntityRegion(String nome, Properties propriedades, CacheDataDescription descricao)
+			throws CacheException {
+		return registra(new RegiaoDeEntidade(nome, this, armazemPara(nome), descricao));
+	}
+
+	@Override
+	public NaturalIdRegion buildNaturalIdRegion(String nome, Properties propriedades, CacheDataDescription descricao)
+			throws CacheException {
+		throw new CacheException("Cache de natural id nao suportado (regiao " + nome + ")");
+	}
+
+	@Override
+	public CollectionRegion buildCollectionRegion(String nome, Properties propriedades, CacheDataDescription descricao)
+			throws CacheException {
+		return registra(new RegiaoDeColecao(nome, this, armazemPara(nome), descricao));
+	}
+
+	@Override
+	public QueryResultsRegion buildQueryResultsRegion(String nome, Properties propriedades) throws CacheException {
+		return registra(new RegiaoGeral(nome, this, armazemPara(nome)));
+	}
+
+	@Override
+	public TimestampsRegion buildTimestampsRegion(String nome, Properties propriedades) throws CacheException {
+		// perder um timestamp faria o cache de consultas devolver resultados velhos
+		return registra(new RegiaoGeral(nome, this, new ArmazemLRU(0, 0)));
+	}
+
+	public List<EstatisticasDoCache> getEstatisticas() {
+		List<EstatisticasDoCache> estatisticas = new ArrayList<EstatisticasDoCache>();
+		for (RegiaoEmMemoria regiao : regioes.values()) {
+			estatisticas.add(regiao.estatisticas());
+		}
+		return estatisticas;
+	}
+
+	public EstatisticasDoCache getEstatisticas(String regiao) {
+		RegiaoEmMemoria encontrada = regioes.get(regiao);
+		return encontrada == null ? null : encontrada.estatisticas();
+	}
+
+	private <T extends RegiaoEmMemoria> T registra(T regiao) {
+		regioes.put(regiao.getName(), regiao);
+		return regiao;
+	}
+
+	private ArmazemLRU armazemPara(String regiao) {
+		int tamanho = ConfigurationHelper.getInt(TAMANHO, propriedades, 10000);
+		int tempoDeVida = ConfigurationHelper.getInt(TEMPO_DE_VIDA, propriedades, 300);
+
+		tamanho = ConfigurationHelper.getInt("pm73.cache." + regiao + ".tamanho", propriedades, tamanho);
+		tempoDeVida = ConfigurationHelper.getInt("pm73.cache." + regiao + ".tempoDeVida", propriedades, tempoDeVida);
+
+		return new ArmazemLRU(tamanho, tempoDeVida * 1000L);
+	}
+}
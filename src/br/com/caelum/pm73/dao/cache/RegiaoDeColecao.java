@@ -0,0 +1,21 @@
+package br.com.caelum.pm73.dao.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.CollectionRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.CollectionRegionAccessStrategy;
+
+class RegiaoDeColecao extends RegiaoTransacional implements CollectionRegion {
+
+	RegiaoDeColecao(String nome, FabricaDeRegioesEmMemoria fabrica, ArmazemLRU armazem,
+			CacheDataDescription descricao) {
+		super(nome, fabrica, armazem, descricao);
+	}
+
+	@Override
+	public CollectionRegionAccessStrategy buildAccessStrategy(AccessType tipo) throws CacheException {
+		verificaSuporte(tipo);
+		return new AcessoAColecao(this, armazem);
+	}
+}
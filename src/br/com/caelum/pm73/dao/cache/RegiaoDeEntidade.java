@@ -0,0 +1,21 @@
+package br.com.caelum.pm73.dao.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.EntityRegion;
+import org.hibernate.cache.spi.access.AccessType;
+import org.hibernate.cache.spi.access.EntityRegionAccessStrategy;
+
+class RegiaoDeEntidade extends RegiaoTransacional implements EntityRegion {
+
+	RegiaoDeEntidade(String nome, FabricaDeRegioesEmMemoria fabrica, ArmazemLRU armazem,
+			CacheDataDescription descricao) {
+		super(nome, fabrica, armazem, descricao);
+	}
+
+	@Override
+	public EntityRegionAccessStrategy buildAccessStrategy(AccessType tipo) throws CacheException {
+		verificaSuporte(tipo);
+		return new AcessoAEntidade(this, armazem);
+	}
+}
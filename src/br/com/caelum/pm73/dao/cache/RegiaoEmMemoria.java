@@ -0,0 +1,69 @@
+package br.com.caelum.pm73.dao.cache;
+
+import java.util.Map;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.Region;
+
+abstract class RegiaoEmMemoria implements Region {
+
+	private final String nome;
+	private final FabricaDeRegioesEmMemoria fabrica;
+	protected final ArmazemLRU armazem;
+
+	RegiaoEmMemoria(String nome, FabricaDeRegioesEmMemoria fabrica, ArmazemLRU armazem) {
+		this.nome = nome;
+		this.fabrica = fabrica;
+		this.armazem = armazem;
+	}
+
+	@Override
+	public String getName() {
+		return nome;
+	}
+
+	@Override
+	public void destroy() throws CacheException {
+		armazem.clear();
+	}
+
+	@Override
+	public boolean contains(Object chave) {
+		return armazem.contains(chave);
+	}
+
+	@Override
+	public long getSizeInMemory() {
+		return -1;
+	}
+
+	@Override
+	public long getElementCountInMemory() {
+		return armazem.size();
+	}
+
+	@Override
+	public long getElementCountOnDisk() {
+		return 0;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Map toMap() {
+		return armazem.toMap();
+	}
+
+	@Override
+	public long nextTimestamp() {
+		return fabrica.nextTimestamp();
+	}
+
+	@Override
+	public int getTimeout() {
+		return FabricaDeRegioesEmMemoria.TEMPO_LIMITE_DE_BLOQUEIO;
+	}
+
+	EstatisticasDoCache estatisticas() {
+		return armazem.estatisticas(nome);
+	}
+}
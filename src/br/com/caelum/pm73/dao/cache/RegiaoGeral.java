@@ -0,0 +1,32 @@
+package br.com.caelum.pm73.dao.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.QueryResultsRegion;
+import org.hibernate.cache.spi.TimestampsRegion;
+
+class RegiaoGeral extends RegiaoEmMemoria implements QueryResultsRegion, TimestampsRegion {
+
+	RegiaoGeral(String nome, FabricaDeRegioesEmMemoria fabrica, ArmazemLRU armazem) {
+		super(nome, fabrica, armazem);
+	}
+
+	@Override
+	public Object get(Object chave) throws CacheException {
+		return armazem.get(chave);
+	}
+
+	@Override
+	public void put(Object chave, Object valor) throws CacheException {
+		armazem.put(chave, valor);
+	}
+
+	@Override
+	public void evict(Object chave) throws CacheException {
+		armazem.remove(chave);
+	}
+
+	@Override
+	public void evictAll() throws CacheException {
+		armazem.clear();
+	}
+}
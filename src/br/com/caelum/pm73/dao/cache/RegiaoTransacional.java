@@ -0,0 +1,33 @@
+package br.com.caelum.pm73.dao.cache;
+
+import org.hibernate.cache.CacheException;
+import org.hibernate.cache.spi.CacheDataDescription;
+import org.hibernate.cache.spi.TransactionalDataRegion;
+import org.hibernate.cache.spi.access.AccessType;
+
+abstract class RegiaoTransacional extends RegiaoEmMemoria implements TransactionalDataRegion {
+
+	private final CacheDataDescription descricao;
+
+	RegiaoTransacional(String nome, FabricaDeRegioesEmMemoria fabrica, ArmazemLRU armazem,
+			CacheDataDescription descricao) {
+		super(nome, fabrica, armazem);
+		this.descricao = descricao;
+	}
+
+	@Override
+	public boolean isTransactionAware() {
+		return false;
+	}
+
+	@Override
+	public CacheDataDescription getCacheDataDescription() {
+		return descricao;
+	}
+
+	protected void verificaSuporte(AccessType tipo) {
+		if (tipo == AccessType.TRANSACTIONAL) {
+			throw new CacheException("Acesso transacional nao suportado na regiao " + getName());
+		}
+	}
+}
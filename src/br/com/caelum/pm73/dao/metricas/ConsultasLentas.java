@@ -0,0 +1,242 @@
+package br.com.caelum.pm73.dao.metricas;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import br.com.caelum.pm73.dao.DiagnosticoDePlanos;
+
+/**
+ * Registra num arquivo local, com rotacao, todo comando JDBC que passar do
+ * limite: o tempo, o SQL, os parametros, o metodo de DAO que o disparou e o
+ * plano do HSQLDB, pego na mesma conexao logo depois da execucao.
+ *
+ * Desligado por padrao. Configurado pelas propriedades de sistema
+ * "pm73.consultasLentas.*": limite em milissegundos (0 registra tudo),
+ * padrao do arquivo no formato do FileHandler, tamanho maximo de cada
+ * arquivo em bytes e quantos arquivos manter. O limite tambem pode ser
+ * trocado pelo JMX, no ControleDeInstrumentacao.
+ *
+ * Como as metricas, depende de as conexoes do pool estarem envolvidas pelo
+ * {@link ContadorDeJdbc}; conexoes emprestadas antes de ligar so passam a
+ * ser vigiadas no proximo emprestimo.
+ */
+public class ConsultasLentas {
+
+	public static final String LIMITE = "pm73.consultasLentas.limite";
+	public static final String ARQUIVO = "pm73.consultasLentas.arquivo";
+	public static final String TAMANHO = "pm73.consultasLentas.tamanho";
+	public static final String ARQUIVOS = "pm73.consultasLentas.arquivos";
+
+	private static final int TAMANHO_DO_VALOR = 200;
+	private static final String[] COMANDOS_COM_PLANO = { "select", "insert", "update", "delete", "merge", "with" };
+	private static final Logger LOG = Logger.getLogger(ConsultasLentas.class.getName());
+
+	private static volatile long limite = TimeUnit.MILLISECONDS.toNanos(Long.getLong(LIMITE, -1));
+	private static volatile Handler saida;
+	private static final AtomicLong registradas = new AtomicLong();
+
+	private ConsultasLentas() {
+	}
+
+	public static boolean isAtiva() {
+		return limite >= 0;
+	}
+
+	/**
+	 * @param milissegundos a partir de quanto um comando e lento; negativo desliga
+	 */
+	public static void setLimite(long milissegundos) {
+		limite = milissegundos < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(milissegundos);
+	}
+
+	/**
+	 * @return o limite em milissegundos, ou -1 se desligado
+	 */
+	public static long getLimite() {
+		long atual = limite;
+		return atual < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(atual);
+	}
+
+	public static long getRegistradas() {
+		return registradas.get();
+	}
+
+	/**
+	 * Troca o arquivo; o atual e fechado. Sem chamar, o primeiro registro
+	 * abre o arquivo das propriedades de sistema.
+	 *
+	 * O handler e usado direto, sem passar por um Logger: o HSQLDB reinicia
+	 * o LogManager ao abrir o primeiro banco, o que tiraria o handler do
+	 * Logger e os registros se perderiam.
+	 */
+	public static synchronized void setArquivo(String padrao, int tamanho, int arquivos) throws IOException {
+		FileHandler novo = new FileHandler(padrao, tamanho, arquivos, true);
+		novo.setFormatter(new Formato());
+		Handler anterior = saida;
+		saida = novo;
+		if (anterior != null) {
+			anterior.close();
+		}
+	}
+
+	static boolean isLenta(long nanos) {
+		long atual = limite;
+		return atual >= 0 && nanos >= atual;
+	}
+
+	/**
+	 * @param conexao a conexao de verdade, sem o proxy, onde o comando rodou
+	 */
+	static void registra(String sql, Map<Integer, Object> parametros, int lote, long nanos, Connection conexao) {
+		if (sql == null) {
+			return;
+		}
+		registradas.incrementAndGet();
+
+		StringBuilder entrada = new StringBuilder();
+		entrada.append(String.format("%.1fms em %s [%s]%n", nanos / 1e6, origem(),
+				Thread.currentThread().getName()));
+		entrada.append("sql: ").append(sql).append('\n');
+		if (parametros != null && !parametros.isEmpty()) {
+			entrada.append("parametros: ").append(formata(parametros));
+			if (lote > 1) {
+				entrada.append(" (ultimos de um lote de ").append(lote).append(')');
+			}
+			entrada.append('\n');
+		}
+		entrada.append(plano(conexao, sql));
+
+		try {
+			abreSeNecessario();
+			saida.publish(new LogRecord(Level.INFO, entrada.toString()));
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Nao foi possivel abrir o log de consultas lentas", e);
+		}
+	}
+
+	private static void abreSeNecessario() throws IOException {
+		if (saida == null) {
+			synchronized (ConsultasLentas.class) {
+				if (saida == null) {
+					setArquivo(System.getProperty(ARQUIVO, "consultas-lentas.%g.log"),
+							Integer.getInteger(TAMANHO, 10 * 1024 * 1024),
+							Integer.getInteger(ARQUIVOS, 5));
+				}
+			}
+		}
+	}
+
+	/**
+	 * O metodo de DAO medido pela Instrumentacao, se ligada; senao, o
+	 * primeiro DAO na pilha, subindo pelos metodos privados dele ate o que
+	 * foi chamado de fora.
+	 */
+	private static String origem() {
+		String medido = Instrumentacao.metodoAtual();
+		if (medido != null) {
+			return medido;
+		}
+
+		StackTraceElement[] pilha = Thread.currentThread().getStackTrace();
+		StackTraceElement primeiroDoProjeto = null;
+		for (int i = 0; i < pilha.length; i++) {
+			String classe = pilha[i].getClassName();
+			if (!classe.startsWith("br.com.caelum.pm73.") || classe.startsWith(ConsultasLentas.class.getPackage().getName())) {
+				continue;
+			}
+			if (classe.endsWith("Dao")) {
+				while (i + 1 < pilha.length && pilha[i + 1].getClassName().equals(classe)) {
+					i++;
+				}
+				return descreve(pilha[i]);
+			}
+			if (primeiroDoProjeto == null) {
+				primeiroDoProjeto = pilha[i];
+			}
+		}
+		return primeiroDoProjeto == null ? "origem desconhecida" : descreve(primeiroDoProjeto);
+	}
+
+	private static String descreve(StackTraceElement quadro) {
+		String classe = quadro.getClassName();
+		return classe.substring(classe.lastIndexOf('.') + 1) + "." + quadro.getMethodName()
+				+ ":" + quadro.getLineNumber();
+	}
+
+	private static String formata(Map<Integer, Object> parametros) {
+		StringBuilder texto = new StringBuilder("[");
+		for (Iterator<Map.Entry<Integer, Object>> it = parametros.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Integer, Object> parametro = it.next();
+			texto.append(parametro.getKey()).append('=').append(formata(parametro.getValue()));
+			if (it.hasNext()) {
+				texto.append(", ");
+			}
+		}
+		return texto.append(']').toString();
+	}
+
+	private static String formata(Object valor) {
+		if (valor == null) {
+			return "null";
+		}
+		String texto = valor.toString();
+		if (texto.length() > TAMANHO_DO_VALOR) {
+			texto = texto.substring(0, TAMANHO_DO_VALOR) + "...";
+		}
+		return valor instanceof String ? "'" + texto + "'" : texto;
+	}
+
+	private static String plano(Connection conexao, String sql) {
+		if (!temPlano(sql)) {
+			return "";
+		}
+		try {
+			String plano = DiagnosticoDePlanos.planoDoSql(conexao, sql);
+			List<String> varridas = DiagnosticoDePlanos.tabelasVarridas(plano);
+			StringBuilder texto = new StringBuilder();
+			if (!varridas.isEmpty()) {
+				texto.append("varredura completa: ").append(varridas).append('\n');
+			}
+			texto.append("plano:\n");
+			for (String linha : plano.split("\n")) {
+				texto.append("  ").append(linha).append('\n');
+			}
+			return texto.toString();
+		} catch (SQLException e) {
+			return "plano indisponivel: " + e.getMessage() + "\n";
+		}
+	}
+
+	private static boolean temPlano(String sql) {
+		String inicio = sql.trim().toLowerCase();
+		for (String comando : COMANDOS_COM_PLANO) {
+			if (inicio.startsWith(comando)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static class Formato extends Formatter {
+
+		@Override
+		public String format(LogRecord registro) {
+			String quando = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(registro.getMillis()));
+			return quando + " " + registro.getMessage() + "\n";
+		}
+	}
+}
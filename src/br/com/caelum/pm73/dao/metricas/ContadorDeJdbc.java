@@ -0,0 +1,183 @@
+package br.com.caelum.pm73.dao.metricas;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Envolve uma conexao JDBC para contar, na medicao aberta na thread, os
+ * comandos preparados nela e as linhas lidas dos ResultSets que eles
+ * devolvem, e para cronometrar cada execucao para as
+ * {@link ConsultasLentas}. O resto passa direto para a conexao de verdade.
+ *
+ * Usa proxies dinamicos, entao cada chamada JDBC numa conexao envolvida
+ * passa por reflexao; o pool so envolve conexoes quando as metricas ou as
+ * consultas lentas estao ligadas.
+ */
+public class ContadorDeJdbc {
+
+	private ContadorDeJdbc() {
+	}
+
+	public static boolean isNecessario() {
+		return Instrumentacao.isAtiva() || ConsultasLentas.isAtiva();
+	}
+
+	/**
+	 * @return a conexao envolvida; a mesma, se ja estiver
+	 */
+	public static Connection envolve(Connection conexao) {
+		if (isEnvolvida(conexao)) {
+			return conexao;
+		}
+		return (Connection) envolve(Connection.class, new DaConexao(conexao));
+	}
+
+	public static boolean isEnvolvida(Connection conexao) {
+		return Proxy.isProxyClass(conexao.getClass())
+				&& Proxy.getInvocationHandler(conexao) instanceof Repassador;
+	}
+
+	private static Object envolve(Class<?> tipo, Repassador repassador) {
+		return Proxy.newProxyInstance(ContadorDeJdbc.class.getClassLoader(),
+				new Class<?>[] { tipo }, repassador);
+	}
+
+	private static class Repassador implements InvocationHandler {
+
+		protected final Object real;
+
+		Repassador(Object real) {
+			this.real = real;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method metodo, Object[] argumentos) throws Throwable {
+			String nome = metodo.getName();
+			// o pool e o Hibernate guardam conexoes e comandos em mapas
+			if ("equals".equals(nome) && argumentos != null && argumentos.length == 1) {
+				return proxy == argumentos[0];
+			}
+			if ("hashCode".equals(nome) && argumentos == null) {
+				return System.identityHashCode(proxy);
+			}
+			return intercepta(nome, metodo, argumentos);
+		}
+
+		Object intercepta(String nome, Method metodo, Object[] argumentos) throws Throwable {
+			return repassa(metodo, argumentos);
+		}
+
+		final Object repassa(Method metodo, Object[] argumentos) throws Throwable {
+			try {
+				return metodo.invoke(real, argumentos);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	private static class DaConexao extends Repassador {
+
+		DaConexao(Connection real) {
+			super(real);
+		}
+
+		@Override
+		Object intercepta(String nome, Method metodo, Object[] argumentos) throws Throwable {
+			Object resultado = repassa(metodo, argumentos);
+			if (resultado instanceof Statement) {
+				Instrumentacao.contaComando();
+				// prepareStatement e prepareCall recebem o SQL primeiro; createStatement, nao
+				String sql = argumentos != null && argumentos[0] instanceof String ? (String) argumentos[0] : null;
+				return envolve(metodo.getReturnType(), new DoComando((Statement) resultado, sql));
+			}
+			return resultado;
+		}
+	}
+
+	private static class DoComando extends Repassador {
+
+		private final String sql;
+		private Map<Integer, Object> parametros;
+		private int lote;
+
+		DoComando(Statement real, String sql) {
+			super(real);
+			this.sql = sql;
+		}
+
+		@Override
+		Object intercepta(String nome, Method metodo, Object[] argumentos) throws Throwable {
+			if (nome.startsWith("execute")) {
+				return executa(nome, metodo, argumentos);
+			}
+			if (nome.startsWith("set") && argumentos != null && argumentos.length >= 2
+					&& argumentos[0] instanceof Integer) {
+				guardaParametro((Integer) argumentos[0], "setNull".equals(nome) ? null : argumentos[1]);
+			} else if ("clearParameters".equals(nome) && parametros != null) {
+				parametros.clear();
+			} else if ("addBatch".equals(nome)) {
+				lote++;
+			}
+
+			Object resultado = repassa(metodo, argumentos);
+			if (resultado instanceof ResultSet && "getResultSet".equals(nome)) {
+				return envolve(ResultSet.class, new DoResultado((ResultSet) resultado));
+			}
+			return resultado;
+		}
+
+		private void guardaParametro(Integer indice, Object valor) {
+			if (!ConsultasLentas.isAtiva()) {
+				return;
+			}
+			if (parametros == null) {
+				parametros = new TreeMap<Integer, Object>();
+			}
+			parametros.put(indice, valor);
+		}
+
+		private Object executa(String nome, Method metodo, Object[] argumentos) throws Throwable {
+			long inicio = System.nanoTime();
+			Object resultado = repassa(metodo, argumentos);
+			long duracao = System.nanoTime() - inicio;
+
+			if (ConsultasLentas.isLenta(duracao)) {
+				// Statement.execute(sql) traz o SQL na chamada, nao no prepare
+				String executado = argumentos != null && argumentos.length > 0 && argumentos[0] instanceof String
+						? (String) argumentos[0] : sql;
+				ConsultasLentas.registra(executado, parametros, lote, duracao, ((Statement) real).getConnection());
+			}
+			if ("executeBatch".equals(nome)) {
+				lote = 0;
+			}
+			if (resultado instanceof ResultSet) {
+				return envolve(ResultSet.class, new DoResultado((ResultSet) resultado));
+			}
+			return resultado;
+		}
+	}
+
+	private static class DoResultado extends Repassador {
+
+		DoResultado(ResultSet real) {
+			super(real);
+		}
+
+		@Override
+		Object intercepta(String nome, Method metodo, Object[] argumentos) throws Throwable {
+			Object resultado = repassa(metodo, argumentos);
+			if ("next".equals(nome) && Boolean.TRUE.equals(resultado)) {
+				Instrumentacao.contaLinha();
+			}
+			return resultado;
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package br.com.caelum.pm73.dao.metricas;
+
+/**
+ * Liga, desliga e zera a instrumentacao pelo JMX, e ajusta o limite das
+ * {@link ConsultasLentas}.
+ */
+public class ControleDeInstrumentacao implements ControleDeInstrumentacaoMBean {
+
+	@Override
+	public boolean isAtiva() {
+		return Instrumentacao.isAtiva();
+	}
+
+	@Override
+	public void setAtiva(boolean ativa) {
+		Instrumentacao.setAtiva(ativa);
+	}
+
+	@Override
+	public void zera() {
+		Instrumentacao.zera();
+	}
+
+	@Override
+	public long getLimiteDeConsultaLenta() {
+		return ConsultasLentas.getLimite();
+	}
+
+	@Override
+	public void setLimiteDeConsultaLenta(long milissegundos) {
+		ConsultasLentas.setLimite(milissegundos);
+	}
+
+	@Override
+	public long getConsultasLentas() {
+		return ConsultasLentas.getRegistradas();
+	}
+}
@@ -0,0 +1,16 @@
+package br.com.caelum.pm73.dao.metricas;
+
+public interface ControleDeInstrumentacaoMBean {
+
+	boolean isAtiva();
+
+	void setAtiva(boolean ativa);
+
+	void zera();
+
+	long getLimiteDeConsultaLenta();
+
+	void setLimiteDeConsultaLenta(long milissegundos);
+
+	long getConsultasLentas();
+}
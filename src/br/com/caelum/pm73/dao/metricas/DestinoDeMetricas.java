@@ -0,0 +1,11 @@
+package br.com.caelum.pm73.dao.metricas;
+
+/**
+ * Recebe cada medicao terminada, na thread que chamou o DAO. Para mandar
+ * as metricas para outro lugar alem do JMX; deve ser rapido e nao lancar
+ * excecao.
+ */
+public interface DestinoDeMetricas {
+
+	void registra(Medicao medicao);
+}
@@ -0,0 +1,198 @@
+package br.com.caelum.pm73.dao.metricas;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metricas por metodo de DAO. Cada metodo instrumentado abre uma
+ * {@link Medicao} com o proprio nome e a termina num finally:
+ *
+ * <pre>
+ * Medicao medicao = Instrumentacao.inicia("LeilaoDao.novos");
+ * try {
+ * 	...
+ * } finally {
+ * 	medicao.termina();
+ * }
+ * </pre>
+ *
+ * Comandos e linhas vem das conexoes do {@link br.com.caelum.pm73.dao.PoolDeConexoes},
+ * entidades e flush de ouvintes do Hibernate e a espera por conexao do
+ * proprio pool; todos sao atribuidos a medicao aberta na thread.
+ *
+ * Desligada por padrao; liga com -Dpm73.metricas=true ou pelo JMX, em
+ * br.com.caelum.pm73:type=Instrumentacao. Desligada, custa uma leitura de
+ * volatile por chamada e por evento. Cada metodo medido aparece no JMX em
+ * br.com.caelum.pm73:type=MetricasDeDao,name=&lt;metodo&gt;.
+ */
+public class Instrumentacao {
+
+	public static final String ATIVA = "pm73.metricas";
+
+	private static final String DOMINIO = "br.com.caelum.pm73";
+	private static final Logger LOG = Logger.getLogger(Instrumentacao.class.getName());
+
+	private static volatile boolean ativa = Boolean.getBoolean(ATIVA);
+	private static volatile DestinoDeMetricas destino;
+
+	private static final ThreadLocal<Medicao> atual = new ThreadLocal<Medicao>();
+	private static final ConcurrentMap<String, MetricasDoMetodo> porMetodo =
+			new ConcurrentHashMap<String, MetricasDoMetodo>();
+
+	static {
+		registraNoJmx(new ControleDeInstrumentacao(), "type=Instrumentacao");
+	}
+
+	private Instrumentacao() {
+	}
+
+	public static Medicao inicia(String metodo) {
+		if (!ativa) {
+			return Medicao.NENHUMA;
+		}
+		Medicao medicao = new Medicao(metricasDe(metodo), atual.get());
+		atual.set(medicao);
+		return medicao;
+	}
+
+	static void termina(Medicao medicao) {
+		Medicao anterior = medicao.getAnterior();
+		if (anterior == null) {
+			atual.remove();
+		} else {
+			atual.set(anterior);
+			anterior.soma(medicao);
+		}
+
+		medicao.getMetricas().registra(medicao);
+		DestinoDeMetricas paraOnde = destino;
+		if (paraOnde != null) {
+			try {
+				paraOnde.registra(medicao);
+			} catch (RuntimeException e) {
+				LOG.log(Level.WARNING, "Destino de metricas falhou", e);
+			}
+		}
+	}
+
+	public static boolean isAtiva() {
+		return ativa;
+	}
+
+	/**
+	 * Conexoes que o pool ja tinha entregue antes de ligar so passam a
+	 * contar comandos e linhas quando forem emprestadas de novo.
+	 */
+	public static void setAtiva(boolean ligada) {
+		ativa = ligada;
+	}
+
+	/**
+	 * @param novo recebe cada medicao terminada, alem do JMX; null para nenhum
+	 */
+	public static void setDestino(DestinoDeMetricas novo) {
+		destino = novo;
+	}
+
+	public static MetricasDoMetodo getMetricas(String metodo) {
+		return porMetodo.get(metodo);
+	}
+
+	/**
+	 * @return os metodos medidos, dos que somaram mais tempo para os que somaram menos
+	 */
+	public static List<MetricasDoMetodo> getMetodos() {
+		List<MetricasDoMetodo> metodos = new ArrayList<MetricasDoMetodo>(porMetodo.values());
+		Collections.sort(metodos, new Comparator<MetricasDoMetodo>() {
+			@Override
+			public int compare(MetricasDoMetodo um, MetricasDoMetodo outro) {
+				return Double.compare(outro.getTempoTotal(), um.getTempoTotal());
+			}
+		});
+		return metodos;
+	}
+
+	public static void zera() {
+		for (MetricasDoMetodo metricas : porMetodo.values()) {
+			metricas.zera();
+		}
+	}
+
+	public static void contaComando() {
+		Medicao medicao = medicaoAtual();
+		if (medicao != null) medicao.contaComando();
+	}
+
+	public static void contaLinha() {
+		Medicao medicao = medicaoAtual();
+		if (medicao != null) medicao.contaLinha();
+	}
+
+	public static void contaEntidade() {
+		Medicao medicao = medicaoAtual();
+		if (medicao != null) medicao.contaEntidade();
+	}
+
+	public static void iniciaFlush() {
+		Medicao medicao = medicaoAtual();
+		if (medicao != null) medicao.iniciaFlush();
+	}
+
+	public static void terminaFlush() {
+		Medicao medicao = medicaoAtual();
+		if (medicao != null) medicao.terminaFlush();
+	}
+
+	public static void somaEsperaPorConexao(long nanos) {
+		Medicao medicao = medicaoAtual();
+		if (medicao != null) medicao.somaEsperaPorConexao(nanos);
+	}
+
+	/**
+	 * @return o metodo da medicao mais interna aberta nesta thread, ou null
+	 */
+	public static String metodoAtual() {
+		Medicao medicao = medicaoAtual();
+		return medicao == null ? null : medicao.getMetodo();
+	}
+
+	private static Medicao medicaoAtual() {
+		return ativa ? atual.get() : null;
+	}
+
+	private static MetricasDoMetodo metricasDe(String metodo) {
+		MetricasDoMetodo metricas = porMetodo.get(metodo);
+		if (metricas == null) {
+			MetricasDoMetodo nova = new MetricasDoMetodo(metodo);
+			metricas = porMetodo.putIfAbsent(metodo, nova);
+			if (metricas == null) {
+				metricas = nova;
+				registraNoJmx(nova, "type=MetricasDeDao,name=" + ObjectName.quote(metodo));
+			}
+		}
+		return metricas;
+	}
+
+	private static void registraNoJmx(Object mbean, String propriedades) {
+		try {
+			MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+			ObjectName nome = new ObjectName(DOMINIO + ":" + propriedades);
+			if (!servidor.isRegistered(nome)) {
+				servidor.registerMBean(mbean, nome);
+			}
+		} catch (JMException e) {
+			LOG.log(Level.WARNING, "Nao foi possivel registrar " + propriedades + " no JMX", e);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package br.com.caelum.pm73.dao.metricas;
+
+/**
+ * Uma chamada de metodo de DAO em andamento, numa thread so. Os comandos,
+ * linhas, entidades, flush e espera por conexao que acontecem nessa thread
+ * ate o termina sao contados aqui; uma medicao aberta dentro de outra soma
+ * os seus numeros na de fora quando termina. Tempos em nanossegundos.
+ *
+ * Com a instrumentacao desligada, o DAO recebe sempre a mesma medicao
+ * vazia e o termina nao faz nada.
+ */
+public class Medicao {
+
+	static final Medicao NENHUMA = new Medicao(null, null);
+
+	private final MetricasDoMetodo metricas;
+	private final Medicao anterior;
+	private final long inicio;
+
+	private long duracao;
+	private int comandos;
+	private long linhas;
+	private int entidades;
+	private long tempoDeFlush;
+	private long esperaPorConexao;
+	private long inicioDoFlush;
+
+	Medicao(MetricasDoMetodo metricas, Medicao anterior) {
+		this.metricas = metricas;
+		this.anterior = anterior;
+		this.inicio = metricas == null ? 0 : System.nanoTime();
+	}
+
+	/**
+	 * Chamado uma vez, num finally, pelo metodo que abriu a medicao.
+	 */
+	public void termina() {
+		if (metricas == null) {
+			return;
+		}
+		duracao = System.nanoTime() - inicio;
+		Instrumentacao.termina(this);
+	}
+
+	void contaComando() {
+		comandos++;
+	}
+
+	void contaLinha() {
+		linhas++;
+	}
+
+	void contaEntidade() {
+		entidades++;
+	}
+
+	void iniciaFlush() {
+		inicioDoFlush = System.nanoTime();
+	}
+
+	void terminaFlush() {
+		if (inicioDoFlush != 0) {
+			tempoDeFlush += System.nanoTime() - inicioDoFlush;
+			inicioDoFlush = 0;
+		}
+	}
+
+	void somaEsperaPorConexao(long nanos) {
+		esperaPorConexao += nanos;
+	}
+
+	void soma(Medicao interna) {
+		comandos += interna.comandos;
+		linhas += interna.linhas;
+		entidades += interna.entidades;
+		tempoDeFlush += interna.tempoDeFlush;
+		esperaPorConexao += interna.esperaPorConexao;
+	}
+
+	MetricasDoMetodo getMetricas() {
+		return metricas;
+	}
+
+	Medicao getAnterior() {
+		return anterior;
+	}
+
+	public String getMetodo() {
+		return metricas.getMetodo();
+	}
+
+	public long getDuracao() {
+		return duracao;
+	}
+
+	public int getComandos() {
+		return comandos;
+	}
+
+	public long getLinhas() {
+		return linhas;
+	}
+
+	public int getEntidades() {
+		return entidades;
+	}
+
+	public long getTempoDeFlush() {
+		return tempoDeFlush;
+	}
+
+	public long getEsperaPorConexao() {
+		return esperaPorConexao;
+	}
+}
@@ -0,0 +1,182 @@
+package br.com.caelum.pm73.dao.metricas;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * O acumulado de um metodo de DAO desde o ultimo zera: quantas chamadas,
+ * a distribuicao da latencia e os totais de comandos, linhas, entidades,
+ * flush e espera por conexao. Tempos em milissegundos.
+ *
+ * A latencia vai para um histograma de faixas em microssegundos, com 8
+ * faixas por potencia de 2; p50 e p99 saem com erro de ate uns 6%.
+ */
+public class MetricasDoMetodo implements MetricasDoMetodoMBean {
+
+	private static final int FAIXAS_POR_POTENCIA = 8;
+	private static final int BITS_DA_FAIXA = 3;
+	private static final int FAIXAS = 64 * FAIXAS_POR_POTENCIA;
+
+	private final String metodo;
+	private final AtomicLongArray histograma = new AtomicLongArray(FAIXAS);
+	private final AtomicLong chamadas = new AtomicLong();
+	private final AtomicLong tempoTotal = new AtomicLong();
+	private final AtomicLong maximo = new AtomicLong();
+	private final AtomicLong comandos = new AtomicLong();
+	private final AtomicLong linhas = new AtomicLong();
+	private final AtomicLong entidades = new AtomicLong();
+	private final AtomicLong tempoDeFlush = new AtomicLong();
+	private final AtomicLong esperaPorConexao = new AtomicLong();
+
+	public MetricasDoMetodo(String metodo) {
+		this.metodo = metodo;
+	}
+
+	void registra(Medicao medicao) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(medicao.getDuracao());
+		histograma.incrementAndGet(faixa(micros));
+		chamadas.incrementAndGet();
+		tempoTotal.addAndGet(medicao.getDuracao());
+		comandos.addAndGet(medicao.getComandos());
+		linhas.addAndGet(medicao.getLinhas());
+		entidades.addAndGet(medicao.getEntidades());
+		tempoDeFlush.addAndGet(medicao.getTempoDeFlush());
+		esperaPorConexao.addAndGet(medicao.getEsperaPorConexao());
+
+		long maior;
+		do {
+			maior = maximo.get();
+		} while (micros > maior && !maximo.compareAndSet(maior, micros));
+	}
+
+	static int faixa(long micros) {
+		if (micros < FAIXAS_POR_POTENCIA) {
+			return (int) Math.max(0, micros);
+		}
+		int potencia = 63 - Long.numberOfLeadingZeros(micros);
+		int resto = (int) (micros >>> (potencia - BITS_DA_FAIXA)) & (FAIXAS_POR_POTENCIA - 1);
+		return (potencia - BITS_DA_FAIXA + 1) * FAIXAS_POR_POTENCIA + resto;
+	}
+
+	/**
+	 * @return o meio da faixa, em microssegundos
+	 */
+	static double meioDaFaixa(int faixa) {
+		if (faixa < FAIXAS_POR_POTENCIA) {
+			return faixa;
+		}
+		int deslocamento = faixa / FAIXAS_POR_POTENCIA - 1;
+		long inicio = (long) (FAIXAS_POR_POTENCIA + faixa % FAIXAS_POR_POTENCIA) << deslocamento;
+		return inicio + ((1L << deslocamento) - 1) / 2.0;
+	}
+
+	/**
+	 * @param fracao entre 0 e 1
+	 * @return a latencia em milissegundos abaixo da qual ficaram essa fracao
+	 *         das chamadas, ou 0 se nao houve nenhuma
+	 */
+	public double percentil(double fracao) {
+		long[] contagens = new long[FAIXAS];
+		long total = 0;
+		for (int i = 0; i < FAIXAS; i++) {
+			contagens[i] = histograma.get(i);
+			total += contagens[i];
+		}
+		if (total == 0) {
+			return 0.0;
+		}
+
+		long alvo = (long) Math.ceil(total * fracao);
+		long acumulado = 0;
+		for (int i = 0; i < FAIXAS; i++) {
+			acumulado += contagens[i];
+			if (acumulado >= Math.max(1, alvo)) {
+				return meioDaFaixa(i) / 1000.0;
+			}
+		}
+		return getMaximo();
+	}
+
+	@Override
+	public String getMetodo() {
+		return metodo;
+	}
+
+	@Override
+	public long getChamadas() {
+		return chamadas.get();
+	}
+
+	@Override
+	public double getTempoTotal() {
+		return tempoTotal.get() / 1e6;
+	}
+
+	@Override
+	public double getP50() {
+		return percentil(0.50);
+	}
+
+	@Override
+	public double getP99() {
+		return percentil(0.99);
+	}
+
+	@Override
+	public double getMaximo() {
+		return maximo.get() / 1000.0;
+	}
+
+	@Override
+	public long getComandos() {
+		return comandos.get();
+	}
+
+	@Override
+	public long getLinhas() {
+		return linhas.get();
+	}
+
+	@Override
+	public long getEntidades() {
+		return entidades.get();
+	}
+
+	@Override
+	public double getTempoDeFlush() {
+		return tempoDeFlush.get() / 1e6;
+	}
+
+	@Override
+	public double getEsperaPorConexao() {
+		return esperaPorConexao.get() / 1e6;
+	}
+
+	/**
+	 * Nao e atomico com chamadas em andamento: uma medicao que termina no
+	 * meio pode ficar com parte dos numeros.
+	 */
+	@Override
+	public void zera() {
+		for (int i = 0; i < FAIXAS; i++) {
+			histograma.set(i, 0);
+		}
+		chamadas.set(0);
+		tempoTotal.set(0);
+		maximo.set(0);
+		comandos.set(0);
+		linhas.set(0);
+		entidades.set(0);
+		tempoDeFlush.set(0);
+		esperaPorConexao.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: chamadas=%d, total=%.1fms, p50=%.3fms, p99=%.3fms, maximo=%.3fms, comandos=%d, "
+				+ "linhas=%d, entidades=%d, flush=%.3fms, esperaPorConexao=%.3fms",
+				metodo, getChamadas(), getTempoTotal(), getP50(), getP99(), getMaximo(), getComandos(),
+				getLinhas(), getEntidades(), getTempoDeFlush(), getEsperaPorConexao());
+	}
+}
@@ -0,0 +1,28 @@
+package br.com.caelum.pm73.dao.metricas;
+
+public interface MetricasDoMetodoMBean {
+
+	String getMetodo();
+
+	long getChamadas();
+
+	double getTempoTotal();
+
+	double getP50();
+
+	double getP99();
+
+	double getMaximo();
+
+	long getComandos();
+
+	long getLinhas();
+
+	long getEntidades();
+
+	double getTempoDeFlush();
+
+	double getEsperaPorConexao();
+
+	void zera();
+}
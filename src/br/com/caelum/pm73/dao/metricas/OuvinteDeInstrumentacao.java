@@ -0,0 +1,68 @@
+package br.com.caelum.pm73.dao.metricas;
+
+import org.hibernate.HibernateException;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.AutoFlushEvent;
+import org.hibernate.event.spi.AutoFlushEventListener;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.FlushEvent;
+import org.hibernate.event.spi.FlushEventListener;
+import org.hibernate.event.spi.PostLoadEvent;
+import org.hibernate.event.spi.PostLoadEventListener;
+
+/**
+ * Conta as entidades carregadas e cronometra os flushes para a
+ * {@link Instrumentacao}. Um ouvinte vai antes dos padroes do Hibernate,
+ * marcando o inicio do flush, e outro depois, marcando o fim. Sao classes
+ * diferentes porque o Hibernate recusa o mesmo tipo duas vezes num evento.
+ */
+public class OuvinteDeInstrumentacao {
+
+	private OuvinteDeInstrumentacao() {
+	}
+
+	public static void registra(EventListenerRegistry registro) {
+		Antes antes = new Antes();
+		Depois depois = new Depois();
+		registro.prependListeners(EventType.FLUSH, antes);
+		registro.prependListeners(EventType.AUTO_FLUSH, antes);
+		registro.appendListeners(EventType.FLUSH, depois);
+		registro.appendListeners(EventType.AUTO_FLUSH, depois);
+		registro.appendListeners(EventType.POST_LOAD, depois);
+	}
+
+	static class Antes implements FlushEventListener, AutoFlushEventListener {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void onFlush(FlushEvent event) throws HibernateException {
+			Instrumentacao.iniciaFlush();
+		}
+
+		@Override
+		public void onAutoFlush(AutoFlushEvent event) throws HibernateException {
+			Instrumentacao.iniciaFlush();
+		}
+	}
+
+	static class Depois implements FlushEventListener, AutoFlushEventListener, PostLoadEventListener {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void onFlush(FlushEvent event) throws HibernateException {
+			Instrumentacao.terminaFlush();
+		}
+
+		@Override
+		public void onAutoFlush(AutoFlushEvent event) throws HibernateException {
+			Instrumentacao.terminaFlush();
+		}
+
+		@Override
+		public void onPostLoad(PostLoadEvent event) {
+			Instrumentacao.contaEntidade();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package br.com.caelum.pm73.dao.relatorio;
+
+import java.util.Calendar;
+
+/**
+ * Lances de um periodo: quantidade, soma, maior valor e histograma pelas
+ * faixas de valor do relatorio.
+ */
+public class LancesDoPeriodo {
+
+	private final long inicio;
+	private final long fim;
+	private final long[] histograma;
+	private long lances;
+	private double total;
+	private double maior = Double.NEGATIVE_INFINITY;
+
+	LancesDoPeriodo(long inicio, long fim, int faixas) {
+		this.inicio = inicio;
+		this.fim = fim;
+		this.histograma = new long[faixas];
+	}
+
+	boolean contem(long data) {
+		return data >= inicio && data < fim;
+	}
+
+	void soma(double valor, int faixa) {
+		lances++;
+		total += valor;
+		maior = Math.max(maior, valor);
+		histograma[faixa]++;
+	}
+
+	void junta(LancesDoPeriodo outro) {
+		lances += outro.lances;
+		total += outro.total;
+		maior = Math.max(maior, outro.maior);
+		for (int i = 0; i < histograma.length; i++) {
+			histograma[i] += outro.histograma[i];
+		}
+	}
+
+	public Calendar getInicio() {
+		Calendar data = Calendar.getInstance();
+		data.setTimeInMillis(inicio);
+		return data;
+	}
+
+	public long getInicioEmMilissegundos() {
+		return inicio;
+	}
+
+	/**
+	 * @return o inicio do periodo seguinte, em milissegundos
+	 */
+	public long getFimEmMilissegundos() {
+		return fim;
+	}
+
+	public long getLances() {
+		return lances;
+	}
+
+	public double getTotal() {
+		return total;
+	}
+
+	public double getMedia() {
+		return lances == 0 ? 0.0 : total / lances;
+	}
+
+	/**
+	 * @return null se nao houve lance
+	 */
+	public Double getMaior() {
+		return lances == 0 ? null : maior;
+	}
+
+	/**
+	 * @return quantos lances cairam em cada faixa de
+	 *         {@link RelatorioDeLeiloes#getFaixas()}
+	 */
+	public long[] getHistograma() {
+		return histograma.clone();
+	}
+}
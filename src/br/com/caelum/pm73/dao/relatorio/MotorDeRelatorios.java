@@ -0,0 +1,182 @@
+package br.com.caelum.pm73.dao.relatorio;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+
+/**
+ * Monta o RelatorioDeLeiloes dividindo os ids de Leilao e de Lance em
+ * faixas. Um ForkJoinPool divide as faixas ao meio ate ficarem do tamanho
+ * pedido; cada faixa e lida na sua propria StatelessSession, so com as
+ * colunas que o relatorio usa, e os relatorios parciais sao juntados na
+ * volta.
+ *
+ * Cada faixa segura uma conexao enquanto e lida: mais paralelismo do que
+ * conexoes no pool so deixa threads esperando.
+ */
+public class MotorDeRelatorios {
+
+	public static final int TAMANHO_DA_FAIXA = 20000;
+	public static final int TAMANHO_DO_FETCH = 1000;
+	public static final double[] FAIXAS_DE_VALOR = { 100, 250, 500, 1000, 2500, 5000 };
+
+	private final CriadorDeSessao criador;
+	private final int paralelismo;
+	private final int tamanhoDaFaixa;
+	private final Periodo periodo;
+	private final double[] faixasDeValor;
+
+	public MotorDeRelatorios(CriadorDeSessao criador) {
+		this(criador, Runtime.getRuntime().availableProcessors(), TAMANHO_DA_FAIXA, Periodo.MES, FAIXAS_DE_VALOR);
+	}
+
+	/**
+	 * @param tamanhoDaFaixa quantos ids cada StatelessSession le
+	 * @param faixasDeValor limites do histograma, em ordem crescente
+	 */
+	public MotorDeRelatorios(CriadorDeSessao criador, int paralelismo, int tamanhoDaFaixa,
+			Periodo periodo, double[] faixasDeValor) {
+		if (paralelismo < 1 || tamanhoDaFaixa < 1) {
+			throw new IllegalArgumentException("Paralelismo ou tamanho de faixa invalidos: "
+					+ paralelismo + ", " + tamanhoDaFaixa);
+		}
+		for (int i = 1; i < faixasDeValor.length; i++) {
+			if (faixasDeValor[i] <= faixasDeValor[i - 1]) {
+				throw new IllegalArgumentException("Faixas de valor fora de ordem: " + faixasDeValor[i]);
+			}
+		}
+		this.criador = criador;
+		this.paralelismo = paralelismo;
+		this.tamanhoDaFaixa = tamanhoDaFaixa;
+		this.periodo = periodo;
+		this.faixasDeValor = faixasDeValor.clone();
+	}
+
+	public RelatorioDeLeiloes gera() {
+		Object[] leiloes = faixaDeIds("Leilao");
+		Object[] lances = faixaDeIds("Lance");
+
+		ForkJoinPool executor = new ForkJoinPool(paralelismo);
+		try {
+			return executor.invoke(new Tudo(leiloes, lances));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private Object[] faixaDeIds(String entidade) {
+		StatelessSession session = criador.getStatelessSession();
+		try {
+			session.beginTransaction();
+			Object[] faixa = (Object[]) session.createQuery("select min(e.id), max(e.id) from " + entidade + " e")
+					.uniqueResult();
+			session.getTransaction().commit();
+			return faixa;
+		} finally {
+			session.close();
+		}
+	}
+
+	private RelatorioDeLeiloes vazio() {
+		return new RelatorioDeLeiloes(periodo, faixasDeValor);
+	}
+
+	private class Tudo extends RecursiveTask<RelatorioDeLeiloes> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Object[] leiloes;
+		private final Object[] lances;
+
+		Tudo(Object[] leiloes, Object[] lances) {
+			this.leiloes = leiloes;
+			this.lances = lances;
+		}
+
+		@Override
+		protected RelatorioDeLeiloes compute() {
+			RelatorioDeLeiloes relatorio = vazio();
+			Faixa deLances = null;
+			if (lances[0] != null) {
+				deLances = new Faixa(true, (Integer) lances[0], (Integer) lances[1] + 1L);
+				deLances.fork();
+			}
+			if (leiloes[0] != null) {
+				relatorio.junta(new Faixa(false, (Integer) leiloes[0], (Integer) leiloes[1] + 1L).compute());
+			}
+			if (deLances != null) {
+				relatorio.junta(deLances.join());
+			}
+			return relatorio;
+		}
+	}
+
+	private class Faixa extends RecursiveTask<RelatorioDeLeiloes> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final boolean deLances;
+		private final long inicio;
+		private final long fim;
+
+		Faixa(boolean deLances, long inicio, long fim) {
+			this.deLances = deLances;
+			this.inicio = inicio;
+			this.fim = fim;
+		}
+
+		@Override
+		protected RelatorioDeLeiloes compute() {
+			if (fim - inicio <= tamanhoDaFaixa) {
+				return le();
+			}
+			long meio = inicio + (fim - inicio) / 2;
+			Faixa direita = new Faixa(deLances, meio, fim);
+			direita.fork();
+			RelatorioDeLeiloes relatorio = new Faixa(deLances, inicio, meio).compute();
+			relatorio.junta(direita.join());
+			return relatorio;
+		}
+
+		private RelatorioDeLeiloes le() {
+			RelatorioDeLeiloes relatorio = vazio();
+			StatelessSession session = criador.getStatelessSession();
+			try {
+				session.beginTransaction();
+				ScrollableResults linhas = session.createQuery(deLances
+						? "select la.valor, la.data from Lance la where la.id >= :inicio and la.id < :fim"
+						: "select l.valorInicial, l.encerrado from Leilao l where l.id >= :inicio and l.id < :fim")
+						.setParameter("inicio", (int) inicio)
+						.setParameter("fim", (int) Math.min(fim, Integer.MAX_VALUE))
+						.setFetchSize(TAMANHO_DO_FETCH)
+						.setReadOnly(true)
+						.scroll(ScrollMode.FORWARD_ONLY);
+				try {
+					while (linhas.next()) {
+						if (deLances) {
+							relatorio.somaLance((Double) linhas.get(0), (Long) linhas.get(1));
+						} else {
+							relatorio.somaLeilao((Double) linhas.get(0), (Boolean) linhas.get(1));
+						}
+					}
+				} finally {
+					linhas.close();
+				}
+				session.getTransaction().commit();
+				return relatorio;
+			} catch (RuntimeException e) {
+				if (session.getTransaction().isActive()) {
+					session.getTransaction().rollback();
+				}
+				throw e;
+			} finally {
+				session.close();
+			}
+		}
+	}
+}
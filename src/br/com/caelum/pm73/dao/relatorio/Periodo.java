@@ -0,0 +1,65 @@
+package br.com.caelum.pm73.dao.relatorio;
+
+import java.util.Calendar;
+
+/**
+ * Granularidade em que o relatorio agrupa os lances, pela data de cada um.
+ */
+public enum Periodo {
+
+	DIA(Calendar.DAY_OF_MONTH) {
+		@Override
+		void trunca(Calendar data) {
+		}
+	},
+	SEMANA(Calendar.WEEK_OF_YEAR) {
+		@Override
+		void trunca(Calendar data) {
+			data.set(Calendar.DAY_OF_WEEK, data.getFirstDayOfWeek());
+		}
+	},
+	MES(Calendar.MONTH) {
+		@Override
+		void trunca(Calendar data) {
+			data.set(Calendar.DAY_OF_MONTH, 1);
+		}
+	},
+	ANO(Calendar.YEAR) {
+		@Override
+		void trunca(Calendar data) {
+			data.set(Calendar.DAY_OF_YEAR, 1);
+		}
+	};
+
+	private final int campo;
+
+	private Periodo(int campo) {
+		this.campo = campo;
+	}
+
+	abstract void trunca(Calendar data);
+
+	/**
+	 * @param calendario reaproveitado entre chamadas, para nao criar um
+	 *        Calendar por lance
+	 * @return o inicio do periodo que contem a data, em milissegundos
+	 */
+	long inicio(Calendar calendario, long milissegundos) {
+		calendario.setTimeInMillis(milissegundos);
+		calendario.set(Calendar.HOUR_OF_DAY, 0);
+		calendario.set(Calendar.MINUTE, 0);
+		calendario.set(Calendar.SECOND, 0);
+		calendario.set(Calendar.MILLISECOND, 0);
+		trunca(calendario);
+		return calendario.getTimeInMillis();
+	}
+
+	/**
+	 * @return o inicio do periodo seguinte, em milissegundos
+	 */
+	long fim(Calendar calendario, long inicio) {
+		calendario.setTimeInMillis(inicio);
+		calendario.add(campo, 1);
+		return calendario.getTimeInMillis();
+	}
+}
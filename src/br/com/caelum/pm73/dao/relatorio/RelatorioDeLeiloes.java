@@ -0,0 +1,141 @@
+package br.com.caelum.pm73.dao.relatorio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Totais de leiloes e de lances, com os lances tambem agrupados por
+ * periodo. Cada faixa de ids monta o seu relatorio parcial e os parciais
+ * sao juntados no fim; depois disso ele so e lido.
+ */
+public class RelatorioDeLeiloes {
+
+	private final Periodo periodo;
+	private final double[] limites;
+	private final TreeMap<Long, LancesDoPeriodo> periodos = new TreeMap<Long, LancesDoPeriodo>();
+	private final LancesDoPeriodo todos;
+	private final Calendar calendario = Calendar.getInstance();
+
+	private long leiloes;
+	private long encerrados;
+	private double somaDosValoresIniciais;
+	private long leiloesComValorInicial;
+	private long lancesSemData;
+
+
+	RelatorioDeLeiloes(Periodo periodo, double[] limites) {
+		this.periodo = periodo;
+		this.limites = limites;
+		this.todos = new LancesDoPeriodo(Long.MIN_VALUE, Long.MAX_VALUE, limites.length + 1);
+	}
+
+	void somaLeilao(Double valorInicial, boolean encerrado) {
+		leiloes++;
+		if (encerrado) {
+			encerrados++;
+		}
+		if (valorInicial != null) {
+			somaDosValoresIniciais += valorInicial;
+			leiloesComValorInicial++;
+		}
+	}
+
+	void somaLance(double valor, Long data) {
+		int faixa = faixa(valor);
+		todos.soma(valor, faixa);
+		if (data == null) {
+			lancesSemData++;
+			return;
+		}
+		doPeriodo(data).soma(valor, faixa);
+	}
+
+	private int faixa(double valor) {
+		int posicao = Arrays.binarySearch(limites, valor);
+		// um valor igual ao limite ja pertence a faixa de cima
+		return posicao >= 0 ? posicao + 1 : -posicao - 1;
+	}
+
+	// o Calendar so entra quando aparece um periodo novo; os outros sao
+	// achados pelo inicio mais proximo antes da data
+	private LancesDoPeriodo doPeriodo(long data) {
+		Map.Entry<Long, LancesDoPeriodo> anterior = periodos.floorEntry(data);
+		if (anterior != null && anterior.getValue().contem(data)) {
+			return anterior.getValue();
+		}
+		long inicio = periodo.inicio(calendario, data);
+		LancesDoPeriodo novo = new LancesDoPeriodo(inicio, periodo.fim(calendario, inicio), limites.length + 1);
+		periodos.put(inicio, novo);
+		return novo;
+	}
+
+	void junta(RelatorioDeLeiloes outro) {
+		leiloes += outro.leiloes;
+		encerrados += outro.encerrados;
+		somaDosValoresIniciais += outro.somaDosValoresIniciais;
+		leiloesComValorInicial += outro.leiloesComValorInicial;
+		lancesSemData += outro.lancesSemData;
+		todos.junta(outro.todos);
+		for (LancesDoPeriodo doOutro : outro.periodos.values()) {
+			LancesDoPeriodo meu = periodos.get(doOutro.getInicioEmMilissegundos());
+			if (meu == null) {
+				meu = new LancesDoPeriodo(doOutro.getInicioEmMilissegundos(),
+						doOutro.getFimEmMilissegundos(), limites.length + 1);
+				periodos.put(doOutro.getInicioEmMilissegundos(), meu);
+			}
+			meu.junta(doOutro);
+		}
+	}
+
+	public Periodo getPeriodo() {
+		return periodo;
+	}
+
+	/**
+	 * Limites entre as faixas do histograma. A faixa 0 vai ate o primeiro
+	 * limite (exclusive), a ultima comeca no ultimo limite.
+	 */
+	public double[] getFaixas() {
+		return limites.clone();
+	}
+
+	public long getLeiloes() {
+		return leiloes;
+	}
+
+	public long getEncerrados() {
+		return encerrados;
+	}
+
+	public double getValorInicialMedio() {
+		return leiloesComValorInicial == 0 ? 0.0 : somaDosValoresIniciais / leiloesComValorInicial;
+	}
+
+	/**
+	 * Todos os lances, inclusive os sem data, que nao entram em nenhum
+	 * periodo.
+	 */
+	public LancesDoPeriodo getLances() {
+		return todos;
+	}
+
+	public long getLancesSemData() {
+		return lancesSemData;
+	}
+
+	/**
+	 * @return em ordem de data, so os periodos que tiveram lance
+	 */
+	public List<LancesDoPeriodo> getPeriodos() {
+		return new ArrayList<LancesDoPeriodo>(periodos.values());
+	}
+
+	@Override
+	public String toString() {
+		return leiloes + " leiloes, " + todos.getLances() + " lances em " + periodos.size() + " periodos";
+	}
+}
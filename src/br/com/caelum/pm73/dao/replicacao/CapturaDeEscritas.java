@@ -0,0 +1,181 @@
+package br.com.caelum.pm73.dao.replicacao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Envolve uma conexao da primaria para guardar os comandos de escrita
+ * (insert, update, delete, merge e DDL) que rodarem nela, com os
+ * parametros, e entrega-los a {@link Replicacao} quando a transacao for
+ * comitada. Rollback ou fechar a conexao sem commit descartam o que foi
+ * guardado. Rollback para savepoint nao e tratado; o Hibernate nao usa.
+ *
+ * Consultas nao sao guardadas: "call next value for" tira o id da
+ * sequence na primaria, e o insert que vem depois ja leva o id pronto.
+ */
+public class CapturaDeEscritas {
+
+	private static final String[] ESCRITAS = { "insert", "update", "delete", "merge", "create", "drop", "alter",
+			"truncate" };
+
+	private CapturaDeEscritas() {
+	}
+
+	public static Connection envolve(Connection conexao, Replicacao replicacao) {
+		return (Connection) envolve(Connection.class, new DaConexao(conexao, replicacao));
+	}
+
+	private static Object envolve(Class<?> tipo, Repassador repassador) {
+		return Proxy.newProxyInstance(CapturaDeEscritas.class.getClassLoader(),
+				new Class<?>[] { tipo }, repassador);
+	}
+
+	static boolean isEscrita(String sql) {
+		if (sql == null) {
+			return false;
+		}
+		String inicio = sql.trim().toLowerCase();
+		for (String comando : ESCRITAS) {
+			if (inicio.startsWith(comando)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static class Repassador implements InvocationHandler {
+
+		protected final Object real;
+
+		Repassador(Object real) {
+			this.real = real;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method metodo, Object[] argumentos) throws Throwable {
+			String nome = metodo.getName();
+			// o pool e o Hibernate guardam conexoes e comandos em mapas
+			if ("equals".equals(nome) && argumentos != null && argumentos.length == 1) {
+				return proxy == argumentos[0];
+			}
+			if ("hashCode".equals(nome) && argumentos == null) {
+				return System.identityHashCode(proxy);
+			}
+			return intercepta(nome, metodo, argumentos);
+		}
+
+		Object intercepta(String nome, Method metodo, Object[] argumentos) throws Throwable {
+			return repassa(metodo, argumentos);
+		}
+
+		final Object repassa(Method metodo, Object[] argumentos) throws Throwable {
+			try {
+				return metodo.invoke(real, argumentos);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	private static class DaConexao extends Repassador {
+
+		private final Replicacao replicacao;
+		private final List<Comando> pendentes = new ArrayList<Comando>();
+
+		DaConexao(Connection real, Replicacao replicacao) {
+			super(real);
+			this.replicacao = replicacao;
+		}
+
+		@Override
+		Object intercepta(String nome, Method metodo, Object[] argumentos) throws Throwable {
+			Connection conexao = (Connection) real;
+			if ("commit".equals(nome)) {
+				replicacao.confirma(conexao, pendentes);
+				return null;
+			}
+			if ("setAutoCommit".equals(nome) && Boolean.TRUE.equals(argumentos[0]) && !conexao.getAutoCommit()) {
+				// ligar o autocommit comita o que estiver aberto
+				replicacao.confirma(conexao, pendentes);
+			}
+			if (("rollback".equals(nome) && argumentos == null) || "close".equals(nome)) {
+				pendentes.clear();
+			}
+
+			Object resultado = repassa(metodo, argumentos);
+			if (resultado instanceof Statement) {
+				// prepareStatement e prepareCall recebem o SQL primeiro; createStatement, nao
+				String sql = argumentos != null && argumentos[0] instanceof String ? (String) argumentos[0] : null;
+				return envolve(metodo.getReturnType(), new DoComando((Statement) resultado, sql, this));
+			}
+			return resultado;
+		}
+
+		void guarda(Comando comando) throws SQLException {
+			pendentes.add(comando);
+			if (((Connection) real).getAutoCommit()) {
+				replicacao.publica(pendentes);
+			}
+		}
+	}
+
+	private static class DoComando extends Repassador {
+
+		private final String sql;
+		private final DaConexao conexao;
+		private final Map<Integer, Object> parametros = new TreeMap<Integer, Object>();
+		private final List<Comando> lote = new ArrayList<Comando>();
+
+		DoComando(Statement real, String sql, DaConexao conexao) {
+			super(real);
+			this.sql = sql;
+			this.conexao = conexao;
+		}
+
+		@Override
+		Object intercepta(String nome, Method metodo, Object[] argumentos) throws Throwable {
+			if (nome.startsWith("set") && argumentos != null && argumentos.length >= 2
+					&& argumentos[0] instanceof Integer) {
+				Object valor = "setNull".equals(nome) ? new Comando.Nulo((Integer) argumentos[1]) : argumentos[1];
+				parametros.put((Integer) argumentos[0], valor);
+			} else if ("clearParameters".equals(nome)) {
+				parametros.clear();
+			} else if ("addBatch".equals(nome)) {
+				// Statement.addBatch(sql) traz o SQL na chamada
+				String noLote = argumentos != null ? (String) argumentos[0] : sql;
+				if (isEscrita(noLote)) {
+					lote.add(new Comando(noLote, argumentos != null ? new TreeMap<Integer, Object>() : parametros));
+				}
+			} else if ("clearBatch".equals(nome)) {
+				lote.clear();
+			}
+
+			Object resultado = repassa(metodo, argumentos);
+
+			// so depois de rodar: o que falhou na primaria nao vai para as replicas
+			if ("executeBatch".equals(nome)) {
+				for (Comando comando : lote) {
+					conexao.guarda(comando);
+				}
+				lote.clear();
+			} else if (nome.startsWith("execute") && !"executeQuery".equals(nome)) {
+				String executado = argumentos != null && argumentos.length > 0 && argumentos[0] instanceof String
+						? (String) argumentos[0] : sql;
+				if (isEscrita(executado)) {
+					conexao.guarda(new Comando(executado, argumentos != null
+							? new TreeMap<Integer, Object>() : parametros));
+				}
+			}
+			return resultado;
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package br.com.caelum.pm73.dao.replicacao;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+
+/**
+ * Um comando de escrita executado na primaria, com os parametros que ele
+ * recebeu, para ser repetido igual nas replicas.
+ */
+class Comando {
+
+	private final String sql;
+	private final Object[] parametros;
+
+	Comando(String sql, Map<Integer, Object> parametros) {
+		this.sql = sql;
+		int maior = 0;
+		for (Integer indice : parametros.keySet()) {
+			maior = Math.max(maior, indice);
+		}
+		this.parametros = new Object[maior];
+		for (Map.Entry<Integer, Object> parametro : parametros.entrySet()) {
+			this.parametros[parametro.getKey() - 1] = parametro.getValue();
+		}
+	}
+
+	String getSql() {
+		return sql;
+	}
+
+	boolean isDdl() {
+		String inicio = sql.trim().toLowerCase();
+		return inicio.startsWith("create") || inicio.startsWith("drop") || inicio.startsWith("alter")
+				|| inicio.startsWith("truncate");
+	}
+
+	void preenche(PreparedStatement comando) throws SQLException {
+		for (int i = 0; i < parametros.length; i++) {
+			Object valor = parametros[i];
+			if (valor instanceof Nulo) {
+				comando.setNull(i + 1, ((Nulo) valor).tipo);
+			} else {
+				comando.setObject(i + 1, valor);
+			}
+		}
+	}
+
+	/**
+	 * Um setNull, que precisa do tipo para ser repetido.
+	 */
+	static class Nulo {
+
+		private final int tipo;
+
+		Nulo(int tipo) {
+			this.tipo = tipo;
+		}
+	}
+}
@@ -0,0 +1,363 @@
+package br.com.caelum.pm73.dao.replicacao;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.hibernate.FlushMode;
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AnnotationConfiguration;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.mapping.PersistentClass;
+
+/**
+ * Uma replica so de leitura: uma SessionFactory propria, sem cache de
+ * segundo nivel, para as leituras, e uma thread que aplica, numa conexao
+ * so, as transacoes comitadas na primaria, uma a uma e na ordem. Se uma
+ * falhar, a replica fica quebrada e deixa de receber leituras.
+ */
+@SuppressWarnings("deprecation")
+public class Replica {
+
+	private static final Logger LOG = Logger.getLogger(Replica.class.getName());
+	private static final int LOTE_DA_COPIA = 500;
+
+	private final String nome;
+	private final String url;
+	private final long atraso;
+	private final SessionFactory fabrica;
+	private final Connection conexao;
+	private final Map<String, PreparedStatement> preparados = new HashMap<String, PreparedStatement>();
+
+	private final LinkedBlockingQueue<Transacao> fila = new LinkedBlockingQueue<Transacao>();
+	private volatile Transacao emAplicacao;
+	private volatile long aplicada;
+	private volatile boolean quebrada;
+	private volatile boolean parada;
+	private final AtomicLong leituras = new AtomicLong();
+	private Thread aplicador;
+
+	/**
+	 * @param atraso quanto, em milissegundos, esperar depois do commit na
+	 *            primaria antes de aplicar; so para simular uma replica lenta
+	 */
+	Replica(String nome, String url, Configuration primaria, long atraso) {
+		this.nome = nome;
+		this.url = url;
+		this.atraso = atraso;
+
+		AnnotationConfiguration config = new AnnotationConfiguration();
+		for (Iterator<PersistentClass> classes = primaria.getClassMappings(); classes.hasNext();) {
+			config.addAnnotatedClass(classes.next().getMappedClass());
+		}
+		Properties propriedades = new Properties();
+		propriedades.putAll(primaria.getProperties());
+		propriedades.remove("hibernate.hbm2ddl.auto");
+		propriedades.setProperty("hibernate.connection.url", url);
+		propriedades.setProperty("hibernate.cache.use_second_level_cache", "false");
+		propriedades.setProperty("hibernate.cache.use_query_cache", "false");
+		config.setProperties(propriedades);
+		this.fabrica = config.buildSessionFactory();
+
+		try {
+			Properties usuario = new Properties();
+			usuario.setProperty("user", propriedades.getProperty("hibernate.connection.username", "sa"));
+			usuario.setProperty("password", propriedades.getProperty("hibernate.connection.password", ""));
+			this.conexao = DriverManager.getConnection(url, usuario);
+			this.conexao.setAutoCommit(false);
+		} catch (SQLException e) {
+			fabrica.close();
+			throw new HibernateException("Nao foi possivel conectar na replica " + url, e);
+		}
+	}
+
+	/**
+	 * Sessao so de leitura na replica: entidades carregadas como read-only
+	 * e flush manual, para nada ser gravado nela por engano.
+	 */
+	public Session abreSessao() {
+		Session session = fabrica.openSession();
+		session.setDefaultReadOnly(true);
+		session.setFlushMode(FlushMode.MANUAL);
+		return session;
+	}
+
+	public String getNome() {
+		return nome;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * @return o numero da ultima transacao da primaria aplicada aqui
+	 */
+	public long getAplicada() {
+		return aplicada;
+	}
+
+	public int getPendentes() {
+		return fila.size() + (emAplicacao == null ? 0 : 1);
+	}
+
+	/**
+	 * @return ha quanto tempo, em milissegundos, foi comitada na primaria a
+	 *         transacao mais antiga ainda nao aplicada; 0 se esta em dia
+	 */
+	public long getAtraso() {
+		Transacao maisAntiga = emAplicacao;
+		if (maisAntiga == null) {
+			maisAntiga = fila.peek();
+		}
+		if (maisAntiga == null) {
+			return 0;
+		}
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - maisAntiga.getConfirmadaEm());
+	}
+
+	public long getLeituras() {
+		return leituras.get();
+	}
+
+	public boolean isQuebrada() {
+		return quebrada;
+	}
+
+	boolean isEmDia(long atrasoMaximo, long escritaMinima) {
+		return !quebrada && aplicada >= escritaMinima && getAtraso() <= atrasoMaximo;
+	}
+
+	void contaLeitura() {
+		leituras.incrementAndGet();
+	}
+
+	void enfileira(Transacao transacao) {
+		if (!quebrada) {
+			fila.offer(transacao);
+		}
+	}
+
+	/**
+	 * Apaga tudo o que houver na replica e copia da primaria as sequences,
+	 * tabelas, indices e linhas. As chaves estrangeiras so voltam a ser
+	 * conferidas depois da copia.
+	 */
+	void copiaDe(Connection primaria) throws SQLException {
+		executa(conexao, "DROP SCHEMA PUBLIC CASCADE");
+		executa(conexao, "SET DATABASE REFERENTIAL INTEGRITY FALSE");
+		for (String ddl : esquema(primaria)) {
+			executa(conexao, ddl);
+		}
+		for (String tabela : tabelas(primaria)) {
+			copiaLinhas(primaria, tabela);
+		}
+		executa(conexao, "SET DATABASE REFERENTIAL INTEGRITY TRUE");
+		conexao.commit();
+	}
+
+	void inicia() {
+		aplicador = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				aplicaEmOrdem();
+			}
+		}, nome);
+		aplicador.setDaemon(true);
+		aplicador.start();
+	}
+
+	void para() {
+		parada = true;
+		if (aplicador != null) {
+			aplicador.interrupt();
+			try {
+				aplicador.join(5000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		fabrica.close();
+		try {
+			conexao.close();
+		} catch (SQLException e) {
+			LOG.log(Level.FINE, "Erro ao fechar a conexao da " + nome, e);
+		}
+	}
+
+	private void aplicaEmOrdem() {
+		while (!parada) {
+			try {
+				Transacao transacao = fila.poll(100, TimeUnit.MILLISECONDS);
+				if (transacao == null) {
+					continue;
+				}
+				emAplicacao = transacao;
+				long falta = transacao.getConfirmadaEm() + TimeUnit.MILLISECONDS.toNanos(atraso) - System.nanoTime();
+				if (falta > 0) {
+					TimeUnit.NANOSECONDS.sleep(falta);
+				}
+				aplica(transacao);
+				aplicada = transacao.getNumero();
+				emAplicacao = null;
+			} catch (InterruptedException e) {
+				return;
+			} catch (SQLException e) {
+				quebrada = true;
+				fila.clear();
+				LOG.log(Level.SEVERE, "A " + nome + " (" + url + ") parou de replicar", e);
+				return;
+			}
+		}
+	}
+
+	private void aplica(Transacao transacao) throws SQLException {
+		try {
+			for (Comando comando : transacao.getComandos()) {
+				if (comando.isDdl()) {
+					// DDL invalida os comandos ja preparados nas tabelas que mexe
+					fechaPreparados();
+					executa(conexao, comando.getSql());
+					continue;
+				}
+				PreparedStatement preparado = preparados.get(comando.getSql());
+				if (preparado == null) {
+					// o HSQLDB recompila a cada prepare, e os mesmos inserts e updates se repetem
+					preparado = conexao.prepareStatement(comando.getSql());
+					preparados.put(comando.getSql(), preparado);
+				}
+				comando.preenche(preparado);
+				preparado.execute();
+			}
+			conexao.commit();
+		} catch (SQLException e) {
+			conexao.rollback();
+			throw e;
+		}
+	}
+
+	private void fechaPreparados() throws SQLException {
+		for (PreparedStatement preparado : preparados.values()) {
+			preparado.close();
+		}
+		preparados.clear();
+	}
+
+	/**
+	 * O SCRIPT do HSQLDB com arquivo escreve o DDL do banco todo; so o que e
+	 * do esquema PUBLIC interessa.
+	 */
+	private static List<String> esquema(Connection primaria) throws SQLException {
+		File arquivo;
+		try {
+			arquivo = File.createTempFile("replica", ".script");
+		} catch (IOException e) {
+			throw new SQLException("Nao foi possivel criar o arquivo do SCRIPT", e);
+		}
+		// o HSQLDB nao sobrescreve um arquivo que ja existe
+		arquivo.delete();
+		try {
+			executa(primaria, "SCRIPT '" + arquivo.getAbsolutePath().replace("'", "''") + "'");
+			List<String> ddl = new ArrayList<String>();
+			BufferedReader linhas = new BufferedReader(new InputStreamReader(new FileInputStream(arquivo), "UTF-8"));
+			try {
+				for (String linha; (linha = linhas.readLine()) != null;) {
+					if (linha.startsWith("CREATE MEMORY TABLE PUBLIC.") || linha.startsWith("CREATE CACHED TABLE PUBLIC.")) {
+						// a replica fica com o tipo de tabela padrao dela
+						ddl.add("CREATE TABLE" + linha.substring(linha.indexOf(" TABLE ") + " TABLE".length()));
+					} else if (linha.startsWith("CREATE TABLE PUBLIC.") || linha.startsWith("CREATE SEQUENCE PUBLIC.")
+							|| linha.startsWith("ALTER TABLE PUBLIC.") || linha.startsWith("ALTER SEQUENCE PUBLIC.")
+							|| linha.startsWith("CREATE INDEX ") || linha.startsWith("CREATE UNIQUE INDEX ")) {
+						ddl.add(linha);
+					}
+				}
+			} finally {
+				linhas.close();
+			}
+			return ddl;
+		} catch (IOException e) {
+			throw new SQLException("Nao foi possivel ler o SCRIPT da primaria", e);
+		} finally {
+			arquivo.delete();
+		}
+	}
+
+	private static List<String> tabelas(Connection primaria) throws SQLException {
+		List<String> tabelas = new ArrayList<String>();
+		Statement consulta = primaria.createStatement();
+		try {
+			ResultSet linhas = consulta.executeQuery("select table_name from information_schema.system_tables "
+					+ "where table_schem = 'PUBLIC' and table_type = 'TABLE'");
+			while (linhas.next()) {
+				tabelas.add(linhas.getString(1));
+			}
+		} finally {
+			consulta.close();
+		}
+		return tabelas;
+	}
+
+	private void copiaLinhas(Connection primaria, String tabela) throws SQLException {
+		Statement consulta = primaria.createStatement();
+		PreparedStatement insere = null;
+		try {
+			ResultSet linhas = consulta.executeQuery("select * from PUBLIC." + tabela);
+			int colunas = linhas.getMetaData().getColumnCount();
+			StringBuilder sql = new StringBuilder("insert into PUBLIC.").append(tabela).append(" values (");
+			for (int i = 0; i < colunas; i++) {
+				sql.append(i == 0 ? "?" : ", ?");
+			}
+			insere = conexao.prepareStatement(sql.append(')').toString());
+
+			int noLote = 0;
+			while (linhas.next()) {
+				for (int i = 1; i <= colunas; i++) {
+					insere.setObject(i, linhas.getObject(i));
+				}
+				insere.addBatch();
+				if (++noLote == LOTE_DA_COPIA) {
+					insere.executeBatch();
+					noLote = 0;
+				}
+			}
+			if (noLote > 0) {
+				insere.executeBatch();
+			}
+		} finally {
+			consulta.close();
+			if (insere != null) {
+				insere.close();
+			}
+		}
+	}
+
+	private static void executa(Connection conexao, String sql) throws SQLException {
+		Statement comando = conexao.createStatement();
+		try {
+			comando.execute(sql);
+		} finally {
+			comando.close();
+		}
+	}
+}
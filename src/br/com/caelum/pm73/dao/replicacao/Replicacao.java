@@ -0,0 +1,215 @@
+package br.com.caelum.pm73.dao.replicacao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.service.jdbc.connections.spi.ConnectionProvider;
+
+import br.com.caelum.pm73.dao.PoolDeConexoes;
+
+/**
+ * Uma primaria e N replicas so de leitura, todas HSQLDB. Como o HSQLDB nao
+ * replica sozinho, a replicacao e por comando: as conexoes da primaria sao
+ * envolvidas pela {@link CapturaDeEscritas}, e cada transacao comitada e
+ * repetida, na mesma ordem, por uma thread de cada {@link Replica}. Ao
+ * subir, cada replica e apagada e copiada da primaria.
+ *
+ * Configurada pelas propriedades "pm73.replicas" (URLs JDBC separadas por
+ * virgula, por exemplo jdbc:hsqldb:mem:replica1,jdbc:hsqldb:mem:replica2),
+ * "pm73.replicas.atrasoMaximo" (ms, padrao 1000) e "pm73.replicas.atraso"
+ * (ms, padrao 0; atraso artificial, para testar).
+ *
+ * Cada leitura vai para a proxima replica, em rodizio, que esteja em dia:
+ * nao quebrada, com a transacao mais antiga ainda nao aplicada comitada ha
+ * no maximo atrasoMaximo, e que ja tenha aplicado tudo o que a propria
+ * thread escreveu. Sem nenhuma assim, a leitura vai para a primaria.
+ *
+ * Os commits na primaria passam por uma trava, para a ordem em que sao
+ * numerados ser a mesma em que aconteceram.
+ */
+public class Replicacao {
+
+	public static final String REPLICAS = "pm73.replicas";
+	/** em milissegundos */
+	public static final String ATRASO_MAXIMO = "pm73.replicas.atrasoMaximo";
+	/** em milissegundos */
+	public static final String ATRASO = "pm73.replicas.atraso";
+
+	private final Object trava = new Object();
+	private volatile long confirmadas;
+	private final List<Replica> replicas;
+	private final long atrasoMaximo;
+	private final AtomicInteger proxima = new AtomicInteger();
+	private final AtomicLong leiturasNaPrimaria = new AtomicLong();
+	private final ThreadLocal<Long> ultimaEscrita = new ThreadLocal<Long>();
+
+	/**
+	 * @return null se nao houver replicas configuradas
+	 */
+	public static Replicacao de(Configuration config, SessionFactory primaria) {
+		String urls = config.getProperty(REPLICAS);
+		if (urls == null || urls.trim().isEmpty()) {
+			return null;
+		}
+		List<String> lista = new ArrayList<String>();
+		for (String url : urls.split(",")) {
+			lista.add(url.trim());
+		}
+		return new Replicacao(config, primaria, lista, milissegundos(config, ATRASO_MAXIMO, 1000),
+				milissegundos(config, ATRASO, 0));
+	}
+
+	/**
+	 * Copia a primaria para as replicas e passa a capturar as escritas dela.
+	 * Deve ser criada antes de qualquer escrita pela primaria.
+	 *
+	 * @param config a configuracao da primaria; as replicas usam as mesmas
+	 *            entidades e propriedades, com outra URL e sem cache
+	 */
+	public Replicacao(Configuration config, SessionFactory primaria, List<String> urls, long atrasoMaximo,
+			long atraso) {
+		if (urls.isEmpty()) {
+			throw new HibernateException("Nenhuma replica informada");
+		}
+		this.atrasoMaximo = atrasoMaximo;
+
+		final List<Replica> criadas = new ArrayList<Replica>();
+		for (int i = 0; i < urls.size(); i++) {
+			criadas.add(new Replica("replica-" + (i + 1), urls.get(i), config, atraso));
+		}
+		this.replicas = Collections.unmodifiableList(criadas);
+
+		Session session = primaria.openSession();
+		try {
+			session.doWork(new Work() {
+				@Override
+				public void execute(Connection conexao) throws SQLException {
+					for (Replica replica : criadas) {
+						replica.copiaDe(conexao);
+					}
+				}
+			});
+		} finally {
+			session.close();
+		}
+
+		for (Replica replica : replicas) {
+			replica.inicia();
+		}
+		((SessionFactoryImplementor) primaria).getServiceRegistry()
+				.getService(ConnectionProvider.class)
+				.unwrap(PoolDeConexoes.class)
+				.replicaPara(this);
+	}
+
+	/**
+	 * @return a proxima replica em dia, ou null se a leitura deve ir para a primaria
+	 */
+	public Replica escolhe() {
+		Long escritaDaThread = ultimaEscrita.get();
+		long minima = escritaDaThread == null ? 0 : escritaDaThread;
+		int inicio = (proxima.getAndIncrement() & Integer.MAX_VALUE) % replicas.size();
+		for (int i = 0; i < replicas.size(); i++) {
+			Replica replica = replicas.get((inicio + i) % replicas.size());
+			if (replica.isEmDia(atrasoMaximo, minima)) {
+				replica.contaLeitura();
+				return replica;
+			}
+		}
+		leiturasNaPrimaria.incrementAndGet();
+		return null;
+	}
+
+	public List<Replica> getReplicas() {
+		return replicas;
+	}
+
+	/**
+	 * @return quantas transacoes com escrita ja foram comitadas na primaria
+	 */
+	public long getConfirmadas() {
+		return confirmadas;
+	}
+
+	public long getLeiturasNaPrimaria() {
+		return leiturasNaPrimaria.get();
+	}
+
+	public long getAtrasoMaximo() {
+		return atrasoMaximo;
+	}
+
+	/**
+	 * Espera todas as replicas aplicarem o que ja foi comitado.
+	 *
+	 * @return false se o tempo acabar antes
+	 */
+	public boolean aguarda(long milissegundos) throws InterruptedException {
+		long alvo = confirmadas;
+		long limite = System.currentTimeMillis() + milissegundos;
+		for (Replica replica : replicas) {
+			while (replica.getAplicada() < alvo && !replica.isQuebrada()) {
+				if (System.currentTimeMillis() > limite) {
+					return false;
+				}
+				Thread.sleep(5);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Para as threads das replicas e fecha as fabricas delas.
+	 */
+	public void para() {
+		for (Replica replica : replicas) {
+			replica.para();
+		}
+	}
+
+	void confirma(Connection primaria, List<Comando> pendentes) throws SQLException {
+		synchronized (trava) {
+			primaria.commit();
+			enfileira(pendentes);
+		}
+	}
+
+	void publica(List<Comando> pendentes) {
+		synchronized (trava) {
+			enfileira(pendentes);
+		}
+	}
+
+	private void enfileira(List<Comando> pendentes) {
+		if (pendentes.isEmpty()) {
+			return;
+		}
+		Transacao transacao = new Transacao(confirmadas + 1, new ArrayList<Comando>(pendentes));
+		pendentes.clear();
+		for (Replica replica : replicas) {
+			replica.enfileira(transacao);
+		}
+		confirmadas = transacao.getNumero();
+		ultimaEscrita.set(transacao.getNumero());
+	}
+
+	private static long milissegundos(Configuration config, String propriedade, long padrao) {
+		String valor = config.getProperty(propriedade);
+		try {
+			return valor == null ? padrao : Long.parseLong(valor.trim());
+		} catch (NumberFormatException e) {
+			throw new HibernateException("Valor invalido para " + propriedade + ": " + valor, e);
+		}
+	}
+}
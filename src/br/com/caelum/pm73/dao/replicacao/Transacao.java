@@ -0,0 +1,35 @@
+package br.com.caelum.pm73.dao.replicacao;
+
+import java.util.List;
+
+/**
+ * Os comandos de escrita de uma transacao comitada na primaria, na ordem em
+ * que rodaram. O numero cresce na ordem dos commits.
+ */
+class Transacao {
+
+	private final long numero;
+	private final long confirmadaEm;
+	private final List<Comando> comandos;
+
+	Transacao(long numero, List<Comando> comandos) {
+		this.numero = numero;
+		this.confirmadaEm = System.nanoTime();
+		this.comandos = comandos;
+	}
+
+	long getNumero() {
+		return numero;
+	}
+
+	/**
+	 * @return o System.nanoTime() do commit na primaria
+	 */
+	long getConfirmadaEm() {
+		return confirmadaEm;
+	}
+
+	List<Comando> getComandos() {
+		return comandos;
+	}
+}
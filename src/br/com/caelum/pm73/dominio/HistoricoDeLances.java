@@ -0,0 +1,67 @@
+package br.com.caelum.pm73.dominio;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import org.hibernate.annotations.Immutable;
+
+/**
+ * Numeros de um usuario como licitante, guardados numa linha por usuario.
+ * Quem escreve a tabela e o AtualizadorDeHistorico, a cada lance comitado,
+ * e a ReconstrucaoDoHistorico; pelo Hibernate ela so e lida.
+ */
+@Entity
+@Immutable
+public class HistoricoDeLances {
+
+	@Id
+	private int usuarioId;
+
+	private int leiloes;
+
+	private int lances;
+
+	private double somaDosValoresIniciais;
+
+	private int lancesComValorInicial;
+
+	private Double maiorLance;
+
+	protected HistoricoDeLances() {}
+
+	/**
+	 * Historico de quem ainda nao deu lance.
+	 */
+	public HistoricoDeLances(int usuarioId) {
+		this.usuarioId = usuarioId;
+	}
+
+	public int getUsuarioId() {
+		return usuarioId;
+	}
+
+	public int getLeiloes() {
+		return leiloes;
+	}
+
+	public int getLances() {
+		return lances;
+	}
+
+	/**
+	 * Media do valor inicial dos leiloes, contada por lance (um leilao com
+	 * tres lances do usuario pesa tres vezes), como em
+	 * LeilaoDao.getValorInicialMedioDoUsuario.
+	 */
+	public double getValorInicialMedio() {
+		if(lancesComValorInicial == 0) return 0.0;
+		return somaDosValoresIniciais / lancesComValorInicial;
+	}
+
+	/**
+	 * @return null se o usuario ainda nao deu lance
+	 */
+	public Double getMaiorLance() {
+		return maiorLance;
+	}
+}
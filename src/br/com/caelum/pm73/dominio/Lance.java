@@ -7,27 +7,40 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.annotations.Type;
+
 @Entity
 public class Lance {
 
 	@Id
-	@GeneratedValue
+	@GeneratedValue(generator = "lance_seq")
+	@GenericGenerator(name = "lance_seq", strategy = "enhanced-sequence", parameters = {
+			@Parameter(name = "sequence_name", value = "lance_seq"),
+			@Parameter(name = "optimizer", value = "pooled"),
+			@Parameter(name = "increment_size", value = "50") })
 	private int id;
 
 	private double valor;
 
-	private Calendar data;
+	@Type(type = "br.com.caelum.pm73.dao.DataEmMilissegundos")
+	private Long data;
 
 	@ManyToOne
 	private Usuario usuario;
 
 	@ManyToOne
 	private Leilao leilao;
+
+	// de onde veio o lance, quando entrou pela ingestao em lote; nulos nos demais
+	private Long diarioDeOrigem;
+	private Long sequenciaNoDiario;
 	
 	protected Lance() {}
 	public Lance(Calendar data, Usuario usuario, double valor, Leilao leilao) {
 		this.usuario = usuario;
-		this.data = data;
+		this.data = data == null ? null : data.getTimeInMillis();
 		this.valor = valor;
 		this.leilao = leilao;
 	}
@@ -45,9 +58,20 @@ public class Lance {
 		this.leilao = leilao;
 	}
 	public Calendar getData() {
-		return data;
+		if(data == null) {
+			return null;
+		}
+		Calendar calendario = Calendar.getInstance();
+		calendario.setTimeInMillis(data);
+		return calendario;
 	}
 	public void setData(Calendar data) {
+		this.data = data == null ? null : data.getTimeInMillis();
+	}
+	public Long getDataEmMilissegundos() {
+		return data;
+	}
+	public void setDataEmMilissegundos(Long data) {
 		this.data = data;
 	}
 	public Usuario getUsuario() {
@@ -59,6 +83,19 @@ public class Lance {
 	public int getId() {
 		return id;
 	}
+	public void setId(int id) {
+		this.id = id;
+	}
+	public Long getDiarioDeOrigem() {
+		return diarioDeOrigem;
+	}
+	public Long getSequenciaNoDiario() {
+		return sequenciaNoDiario;
+	}
+	public void setOrigem(Long diarioDeOrigem, Long sequenciaNoDiario) {
+		this.diarioDeOrigem = diarioDeOrigem;
+		this.sequenciaNoDiario = sequenciaNoDiario;
+	}
 	
 	
 }
@@ -2,6 +2,7 @@ package br.com.caelum.pm73.dominio;
 
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
 import javax.persistence.CascadeType;
@@ -10,12 +11,26 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
+import javax.persistence.Version;
+
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.annotations.Type;
 
 @Entity
+@BatchSize(size = 50)
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 public class Leilao {
 
 	@Id
-	@GeneratedValue
+	@GeneratedValue(generator = "leilao_seq")
+	@GenericGenerator(name = "leilao_seq", strategy = "enhanced-sequence", parameters = {
+			@Parameter(name = "sequence_name", value = "leilao_seq"),
+			@Parameter(name = "optimizer", value = "pooled"),
+			@Parameter(name = "increment_size", value = "50") })
 	private int id;
 
 	private String nome;
@@ -25,18 +40,30 @@ public class Leilao {
 	@ManyToOne
 	private Usuario dono;
 
-	private Calendar dataAbertura;
+	@Type(type = "br.com.caelum.pm73.dao.DataEmMilissegundos")
+	private Long dataAbertura;
 
 	private boolean usado;
 
 	private boolean encerrado;
 
+	private int quantidadeLances;
+
+	private Double maiorLance;
+
+	@Type(type = "br.com.caelum.pm73.dao.DataEmMilissegundos")
+	private Long dataUltimoLance;
+
+	@Version
+	private int versao;
+
 	@OneToMany(cascade=CascadeType.ALL, orphanRemoval=true, mappedBy="leilao")
+	@BatchSize(size = 50)
 	private List<Lance> lances;
 	
 	public Leilao() {
 		this.lances = new ArrayList<Lance>();
-		this.dataAbertura = Calendar.getInstance();
+		this.dataAbertura = System.currentTimeMillis();
 	}
 	
 	public Leilao(String nome, Double valorInicial, Usuario dono, boolean usado) {
@@ -48,10 +75,22 @@ public class Leilao {
 	}
 
 	public void setDataAbertura(Calendar dataAbertura) {
-		this.dataAbertura = dataAbertura;
+		this.dataAbertura = dataAbertura == null ? null : dataAbertura.getTimeInMillis();
 	}
 
+	/**
+	 * @return um Calendar novo a cada chamada; quem so compara ou ordena
+	 *         datas pode usar {@link #getDataAberturaEmMilissegundos()}
+	 */
 	public Calendar getDataAbertura() {
+		return calendario(dataAbertura);
+	}
+
+	public void setDataAberturaEmMilissegundos(Long dataAbertura) {
+		this.dataAbertura = dataAbertura;
+	}
+
+	public Long getDataAberturaEmMilissegundos() {
 		return dataAbertura;
 	}
 
@@ -87,14 +126,27 @@ public class Leilao {
 		this.usado = usado;
 	}
 
+	/**
+	 * Somente leitura: lances entram por {@link #adicionaLance(Lance)} e saem
+	 * por {@link #removeLance(Lance)}, que mantem quantidadeLances,
+	 * maiorLance e dataUltimoLance em dia.
+	 */
 	public List<Lance> getLances() {
-		return lances;
+		return Collections.unmodifiableList(lances);
 	}
 
 	public int getId() {
 		return id;
 	}
 
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public int getVersao() {
+		return versao;
+	}
+
 	public void encerra() {
 		this.encerrado = true;
 	}
@@ -103,9 +155,67 @@ public class Leilao {
 		return encerrado;
 	}
 	
+	public int getQuantidadeLances() {
+		return quantidadeLances;
+	}
+
+	public Double getMaiorLance() {
+		return maiorLance;
+	}
+
+	public Calendar getDataUltimoLance() {
+		return calendario(dataUltimoLance);
+	}
+
+	public Long getDataUltimoLanceEmMilissegundos() {
+		return dataUltimoLance;
+	}
+	
 	public Lance adicionaLance(Lance lance) {
 		lance.setLeilao(this);
 		lances.add(lance);
+
+		quantidadeLances++;
+		acumula(lance);
 		return lance;
 	}
+
+	/**
+	 * Tira o lance do leilao; ao descarregar a sessao ele e apagado. Os
+	 * totais sao recalculados com os lances que sobraram, o que carrega a
+	 * colecao se ela ainda nao estiver carregada.
+	 */
+	public boolean removeLance(Lance lance) {
+		if(!lances.remove(lance)) {
+			return false;
+		}
+		lance.setLeilao(null);
+
+		quantidadeLances = lances.size();
+		maiorLance = null;
+		dataUltimoLance = null;
+		for(Lance restante : lances) {
+			acumula(restante);
+		}
+		return true;
+	}
+
+	private void acumula(Lance lance) {
+		if(maiorLance == null || lance.getValor() > maiorLance) {
+			maiorLance = lance.getValor();
+		}
+		Long data = lance.getDataEmMilissegundos();
+		if(dataUltimoLance == null || (data != null && data > dataUltimoLance)) {
+			dataUltimoLance = data;
+		}
+	}
+
+	private static Calendar calendario(Long milissegundos) {
+		if(milissegundos == null) {
+			return null;
+		}
+		Calendar data = Calendar.getInstance();
+		data.setTimeInMillis(milissegundos);
+		return data;
+	}
 }
@@ -0,0 +1,133 @@
+package br.com.caelum.pm73.dominio;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Livro de lances de um leilao em andamento, seguro para muitas threads sem
+ * trava: o melhor lance, a quantidade de lances e o encerramento ficam num
+ * unico objeto imutavel trocado por compareAndSet. Um lance so entra se
+ * superar o valor atual (o inicial, enquanto ninguem deu lance). Os lances
+ * aceitos esperam numa fila ate alguem retira-los para gravar no banco.
+ */
+public class LivroDeLances {
+
+	private final int leilaoId;
+	private final AtomicReference<Situacao> situacao;
+	private final ConcurrentLinkedQueue<Lance> pendentes = new ConcurrentLinkedQueue<Lance>();
+	private final AtomicReference<List<Lance>> devolvidos = new AtomicReference<List<Lance>>();
+
+	public LivroDeLances(Leilao leilao) {
+		this.leilaoId = leilao.getId();
+
+		Double atual = leilao.getMaiorLance() != null ? leilao.getMaiorLance() : leilao.getValorInicial();
+		this.situacao = new AtomicReference<Situacao>(new Situacao(atual == null ? 0.0 : atual, null,
+				leilao.getQuantidadeLances(), leilao.isEncerrado()));
+	}
+
+	/**
+	 * @return false se o lance nao supera o valor atual ou se o leilao ja
+	 *         foi encerrado
+	 */
+	public boolean oferece(Lance lance) {
+		while (true) {
+			Situacao atual = situacao.get();
+			if (atual.encerrado || lance.getValor() <= atual.valor) {
+				return false;
+			}
+
+			Situacao nova = new Situacao(lance.getValor(), lance, atual.quantidade + 1, false);
+			if (situacao.compareAndSet(atual, nova)) {
+				pendentes.add(lance);
+				return true;
+			}
+		}
+	}
+
+	public void encerra() {
+		while (true) {
+			Situacao atual = situacao.get();
+			if (atual.encerrado || situacao.compareAndSet(atual,
+					new Situacao(atual.valor, atual.melhor, atual.quantidade, true))) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return os lances aceitos desde a ultima retirada
+	 */
+	public List<Lance> retiraPendentes() {
+		List<Lance> retirados = new ArrayList<Lance>();
+		List<Lance> antes = devolvidos.getAndSet(null);
+		if (antes != null) {
+			retirados.addAll(antes);
+		}
+		Lance lance;
+		while ((lance = pendentes.poll()) != null) {
+			retirados.add(lance);
+		}
+		return retirados;
+	}
+
+	/**
+	 * Devolve lances retirados que nao puderam ser gravados; a proxima
+	 * retirada os entrega antes dos que chegaram depois, na mesma ordem.
+	 */
+	public void devolve(List<Lance> lances) {
+		while (true) {
+			List<Lance> antes = devolvidos.get();
+			List<Lance> juntos = new ArrayList<Lance>(lances);
+			if (antes != null) {
+				juntos.addAll(antes);
+			}
+			if (devolvidos.compareAndSet(antes, juntos)) {
+				return;
+			}
+		}
+	}
+
+	public int getLeilaoId() {
+		return leilaoId;
+	}
+
+	public double getValorAtual() {
+		return situacao.get().valor;
+	}
+
+	/**
+	 * @return o melhor lance aceito por este livro, ou null
+	 */
+	public Lance getMelhorLance() {
+		return situacao.get().melhor;
+	}
+
+	public int getQuantidadeLances() {
+		return situacao.get().quantidade;
+	}
+
+	public boolean isEncerrado() {
+		return situacao.get().encerrado;
+	}
+
+	public boolean temPendentes() {
+		return devolvidos.get() != null || !pendentes.isEmpty();
+	}
+
+	private static class Situacao {
+
+		private final double valor;
+		private final Lance melhor;
+		private final int quantidade;
+		private final boolean encerrado;
+
+		Situacao(double valor, Lance melhor, int quantidade, boolean encerrado) {
+			this.valor = valor;
+			this.melhor = melhor;
+			this.quantidade = quantidade;
+			this.encerrado = encerrado;
+		}
+	}
+}
@@ -3,18 +3,34 @@ package br.com.caelum.pm73.dominio;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Version;
+
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 @Entity
+@BatchSize(size = 50)
+@Cache(usage = CacheConcurrencyStrategy.NONSTRICT_READ_WRITE)
 public class Usuario {
 	
 	@Id
-	@GeneratedValue
+	@GeneratedValue(generator = "usuario_seq")
+	@GenericGenerator(name = "usuario_seq", strategy = "enhanced-sequence", parameters = {
+			@Parameter(name = "sequence_name", value = "usuario_seq"),
+			@Parameter(name = "optimizer", value = "pooled"),
+			@Parameter(name = "increment_size", value = "50") })
 	private int id;
 
 	private String nome;
 
 	private String email;
 
+	@Version
+	private int versao;
+
 	protected Usuario() {}
 	
 	public Usuario(String nome, String email) {
@@ -46,5 +62,9 @@ public class Usuario {
 		this.id = id;
 	}
 
+	public int getVersao() {
+		return versao;
+	}
+
 	
 }
@@ -0,0 +1,58 @@
+package br.com.caelum.pm73.benchmark;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DistribuicaoZipfTest {
+
+    @Test
+    public void deveSortearOsPrimeirosMaisVezes() {
+        DistribuicaoZipf zipf = new DistribuicaoZipf(100, 1.0);
+        Random aleatorio = new Random(42);
+        int[] sorteios = new int[100];
+
+        for (int i = 0; i < 100000; i++) {
+            sorteios[zipf.sorteia(aleatorio)]++;
+        }
+
+        // com expoente 1 o primeiro sai o dobro do segundo e dez vezes o decimo
+        assertEquals(2.0, (double) sorteios[0] / sorteios[1], 0.1);
+        assertEquals(10.0, (double) sorteios[0] / sorteios[9], 1.0);
+        assertTrue(sorteios[99] > 0);
+    }
+
+    @Test
+    public void deveSortearTodosPorIgualComExpoenteZero() {
+        DistribuicaoZipf zipf = new DistribuicaoZipf(4, 0.0);
+        Random aleatorio = new Random(42);
+        int[] sorteios = new int[4];
+
+        for (int i = 0; i < 40000; i++) {
+            sorteios[zipf.sorteia(aleatorio)]++;
+        }
+
+        for (int sorteio : sorteios) {
+            assertEquals(10000, sorteio, 500);
+        }
+    }
+
+    @Test
+    public void deveRepetirOsSorteiosComAMesmaSemente() {
+        DistribuicaoZipf zipf = new DistribuicaoZipf(1000, 1.2);
+        Random umaVez = new Random(7);
+        Random outraVez = new Random(7);
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(zipf.sorteia(umaVez), zipf.sorteia(outraVez));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void naoDeveAceitarDistribuicaoVazia() {
+        new DistribuicaoZipf(0, 1.0);
+    }
+}
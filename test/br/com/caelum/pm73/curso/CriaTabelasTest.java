@@ -0,0 +1,48 @@
+package br.com.caelum.pm73.curso;
+
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.UsuarioDao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotNull;
+
+public class CriaTabelasTest {
+
+    private static final String EMAIL = "criatabelas@teste.com";
+
+    private final CriadorDeSessao criador = new CriadorDeSessao();
+
+    @After
+    public void depois() {
+        System.clearProperty(CriaTabelas.ESQUEMA);
+        Session session = criador.getSession();
+        session.beginTransaction();
+        session.createQuery("delete from Usuario u where u.email = :email")
+                .setParameter("email", EMAIL)
+                .executeUpdate();
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @Test
+    public void validandoDeveManterOsDadosQuandoOEsquemaBate() {
+        Session session = criador.getSession();
+        session.beginTransaction();
+        new UsuarioDao(session).salvar(new Usuario("Mauricio", EMAIL));
+        session.getTransaction().commit();
+        session.close();
+
+        System.setProperty(CriaTabelas.ESQUEMA, "valida");
+        CriaTabelas.main(new String[0]);
+
+        session = criador.getSession();
+        try {
+            assertNotNull(new UsuarioDao(session).porNomeEEmail("Mauricio", EMAIL));
+        } finally {
+            session.close();
+        }
+    }
+}
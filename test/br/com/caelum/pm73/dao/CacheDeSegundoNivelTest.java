@@ -0,0 +1,134 @@
+package br.com.caelum.pm73.dao;
+
+import br.com.caelum.pm73.dominio.HistoricoDeLances;
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AnnotationConfiguration;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+@SuppressWarnings("deprecation")
+public class CacheDeSegundoNivelTest {
+
+    // o cache e opcional e vem desligado; o teste monta uma fabrica propria com ele ligado
+    private static SessionFactory fabrica;
+
+    private ContadorDeSql contador;
+    private Session session;
+    private UsuarioDao usuarioDao;
+    private Usuario usuario;
+
+    @BeforeClass
+    public static void ligaOCache() {
+        Properties propriedades = new Properties();
+        propriedades.putAll(new CriadorDeSessao().getConfig().getProperties());
+        propriedades.setProperty("hibernate.connection.url", "jdbc:hsqldb:mem:cacheDeSegundoNivel");
+        propriedades.setProperty("hibernate.hbm2ddl.auto", "create");
+        propriedades.setProperty("hibernate.show_sql", "false");
+        propriedades.setProperty("hibernate.cache.use_second_level_cache", "true");
+        propriedades.setProperty("hibernate.cache.use_query_cache", "true");
+        fabrica = new AnnotationConfiguration()
+                .addAnnotatedClass(Lance.class)
+                .addAnnotatedClass(Leilao.class)
+                .addAnnotatedClass(Usuario.class)
+                .addAnnotatedClass(HistoricoDeLances.class)
+                .setProperties(propriedades)
+                .buildSessionFactory();
+    }
+
+    @AfterClass
+    public static void fechaAFabrica() {
+        fabrica.close();
+    }
+
+    @Before
+    public void antes() {
+        // o Hibernate nao guarda no cache o que foi inserido na transacao corrente,
+        // entao o usuario precisa estar comitado antes do teste
+        usuario = new Usuario("Mauricio Aniche", "mauricio@aniche.com.br");
+        Session preparacao = fabrica.openSession();
+        preparacao.beginTransaction();
+        new UsuarioDao(preparacao).salvar(usuario);
+        preparacao.getTransaction().commit();
+        preparacao.close();
+
+        contador = new ContadorDeSql();
+        session = fabrica.withOptions().interceptor(contador).openSession();
+        usuarioDao = new UsuarioDao(session);
+        session.beginTransaction();
+    }
+
+    @After
+    public void depois() {
+        session.getTransaction().rollback();
+        session.close();
+
+        Session limpeza = fabrica.openSession();
+        limpeza.beginTransaction();
+        limpeza.createQuery("delete from Usuario u where u.id = :id")
+                .setParameter("id", usuario.getId())
+                .executeUpdate();
+        limpeza.getTransaction().commit();
+        limpeza.close();
+    }
+
+    @Test
+    public void deveBuscarUsuarioDoCacheNaSegundaVez() {
+        usuarioDao.porId(usuario.getId());
+        session.clear();
+        contador.zera();
+
+        Usuario doCache = usuarioDao.porId(usuario.getId());
+
+        assertEquals("Mauricio Aniche", doCache.getNome());
+        assertEquals(0, contador.getTotal());
+    }
+
+    @Test
+    public void deveBuscarPorNomeEEmailDoCacheNaSegundaVez() {
+        usuarioDao.porNomeEEmail("Mauricio Aniche", "mauricio@aniche.com.br");
+        session.clear();
+        contador.zera();
+
+        Usuario doCache = usuarioDao.porNomeEEmail("Mauricio Aniche", "mauricio@aniche.com.br");
+
+        assertEquals(usuario.getId(), doCache.getId());
+        assertEquals(0, contador.getTotal());
+    }
+
+    @Test
+    public void deveInvalidarOCacheAoAtualizar() {
+        usuarioDao.porId(usuario.getId());
+        session.clear();
+
+        usuario.setNome("Flavio Santana");
+        usuarioDao.atualizar(usuario);
+        session.flush();
+        session.clear();
+
+        assertEquals("Flavio Santana", usuarioDao.porId(usuario.getId()).getNome());
+        assertNull(usuarioDao.porNomeEEmail("Mauricio Aniche", "mauricio@aniche.com.br"));
+    }
+
+    @Test
+    public void deveInvalidarOCacheAoDeletar() {
+        usuarioDao.porNomeEEmail("Mauricio Aniche", "mauricio@aniche.com.br");
+        usuarioDao.deletar(usuarioDao.porId(usuario.getId()));
+        session.flush();
+        session.clear();
+
+        assertNull(usuarioDao.porId(usuario.getId()));
+        assertNull(usuarioDao.porNomeEEmail("Mauricio Aniche", "mauricio@aniche.com.br"));
+    }
+}
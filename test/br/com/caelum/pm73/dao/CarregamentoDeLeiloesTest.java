@@ -0,0 +1,91 @@
+package br.com.caelum.pm73.dao;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CarregamentoDeLeiloesTest {
+
+    private static final int LEILOES = 10;
+
+    private ContadorDeSql contador;
+    private Session session;
+    private LeilaoDao leilaoDao;
+
+    @Before
+    public void antes() {
+        contador = new ContadorDeSql();
+        session = new CriadorDeSessao().getSession(contador);
+        leilaoDao = new LeilaoDao(session);
+        session.beginTransaction();
+
+        UsuarioDao usuarioDao = new UsuarioDao(session);
+        for (int i = 0; i < LEILOES; i++) {
+            Usuario dono = new Usuario("Dono " + i, "dono" + i + "@leilao.com");
+            Usuario interessado = new Usuario("Interessado " + i, "interessado" + i + "@leilao.com");
+            usuarioDao.salvar(dono);
+            usuarioDao.salvar(interessado);
+
+            leilaoDao.salvar(new LeilaoBuilder().comDono(dono)
+                    .comLance(Calendar.getInstance(), interessado, 100.0)
+                    .comLance(Calendar.getInstance(), interessado, 200.0)
+                    .constroi());
+        }
+
+        session.flush();
+        session.clear();
+        contador.zera();
+    }
+
+    @After
+    public void depois() {
+        session.getTransaction().rollback();
+        session.close();
+    }
+
+    @Test
+    public void deveTrazerTudoNumaUnicaConsultaComJoinFetch() {
+        List<Leilao> leiloes = leilaoDao.novos(Carregamento.COM_LANCES);
+        percorre(leiloes);
+
+        assertEquals(LEILOES, leiloes.size());
+        assertEquals(1, contador.getTotal());
+    }
+
+    @Test
+    public void deveCarregarAssociacoesEmLoteSemJoinFetch() {
+        List<Leilao> leiloes = leilaoDao.novos(Carregamento.SOMENTE_LEILAO);
+        percorre(leiloes);
+
+        // leiloes + donos em lote + lances em lote, ja com os interessados
+        assertEquals(LEILOES, leiloes.size());
+        assertEquals(3, contador.getTotal());
+    }
+
+    @Test
+    public void naoDeveCrescerComONumeroDeLeiloes() {
+        List<Leilao> leiloes = leilaoDao.novos();
+        percorre(leiloes);
+
+        assertEquals(3, contador.getTotal());
+    }
+
+    private void percorre(List<Leilao> leiloes) {
+        for (Leilao leilao : leiloes) {
+            leilao.getDono().getNome();
+            for (Lance lance : leilao.getLances()) {
+                lance.getUsuario().getNome();
+            }
+        }
+    }
+}
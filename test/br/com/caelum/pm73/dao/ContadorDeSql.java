@@ -0,0 +1,24 @@
+package br.com.caelum.pm73.dao;
+
+import org.hibernate.EmptyInterceptor;
+
+public class ContadorDeSql extends EmptyInterceptor {
+
+    private static final long serialVersionUID = 1L;
+
+    private int total;
+
+    @Override
+    public String onPrepareStatement(String sql) {
+        total++;
+        return sql;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void zera() {
+        total = 0;
+    }
+}
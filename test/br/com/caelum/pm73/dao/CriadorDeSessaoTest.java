@@ -0,0 +1,38 @@
+package br.com.caelum.pm73.dao;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.junit.Test;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class CriadorDeSessaoTest {
+
+    @Test
+    public void aquecimentoDeveDeixarAFabricaProntaEmSegundoPlano() throws Exception {
+        CriadorDeSessao criador = new CriadorDeSessao();
+
+        SessionFactory fabrica = criador.aquece().get(60, TimeUnit.SECONDS);
+
+        Session session = criador.getSession();
+        try {
+            assertSame(fabrica, session.getSessionFactory());
+            assertNotNull(new LeilaoDao(session).total());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void deveAquecerUmaVezSo() {
+        CriadorDeSessao criador = new CriadorDeSessao();
+
+        Future<SessionFactory> primeiro = criador.aquece();
+
+        assertSame(primeiro, new CriadorDeSessao().aquece());
+    }
+}
@@ -0,0 +1,42 @@
+package br.com.caelum.pm73.dao;
+
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class DiagnosticoDePlanosTest {
+
+    private Session session;
+
+    @Before
+    public void antes() {
+        session = new CriadorDeSessao().getSession();
+    }
+
+    @After
+    public void depois() {
+        session.close();
+    }
+
+    @Test
+    public void nenhumaConsultaDosDaosDeveVarrerTabelaInteira() {
+        Map<String, List<String>> semIndice = new DiagnosticoDePlanos(session).consultasSemIndice();
+
+        assertEquals(Collections.emptyMap(), semIndice);
+    }
+
+    @Test
+    public void deveApontarTabelaVarridaNoPlano() {
+        String plano = "[range variable 1\n  join type=INNER\n  table=LEILAO\n  access=FULL SCAN\n"
+                + "[range variable 2\n  table=LANCE\n  access=INDEX PRED\n";
+
+        assertEquals(Collections.singletonList("LEILAO"), DiagnosticoDePlanos.tabelasVarridas(plano));
+    }
+}
@@ -0,0 +1,255 @@
+package br.com.caelum.pm73.dao;
+
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExecutorTransacionalTest {
+
+    private static final String EMAIL = "executor@teste.com";
+
+    private CriadorDeSessao criador;
+    private ExecutorTransacional executor;
+
+    @Before
+    public void antes() {
+        criador = new CriadorDeSessao();
+        executor = new ExecutorTransacional(criador);
+    }
+
+    @After
+    public void depois() {
+        Session session = criador.getSession();
+        session.beginTransaction();
+        session.createQuery("delete from Usuario u where u.email = :email")
+                .setParameter("email", EMAIL)
+                .executeUpdate();
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @Test
+    public void deveComitarOQueATarefaGravou() {
+        final Usuario mauricio = new Usuario("Mauricio", EMAIL);
+
+        executor.emTransacao(new TarefaTransacional<Void>() {
+            @Override
+            public Void executa(Daos daos) {
+                daos.getUsuarioDao().salvar(mauricio);
+                return null;
+            }
+        });
+
+        assertNotNull(porNome("Mauricio"));
+        assertEquals(1, executor.getExecutadas());
+    }
+
+    @Test
+    public void deveDesfazerQuandoATarefaLancaExcecao() {
+        try {
+            executor.emTransacao(new TarefaTransacional<Void>() {
+                @Override
+                public Void executa(Daos daos) {
+                    daos.getUsuarioDao().salvar(new Usuario("Flavio", EMAIL));
+                    daos.getSession().flush();
+                    throw new IllegalStateException("falhou depois de gravar");
+                }
+            });
+            fail();
+        } catch (IllegalStateException esperada) {
+        }
+
+        assertNull(porNome("Flavio"));
+        assertEquals(1, executor.getDesfeitas());
+    }
+
+    @Test
+    public void tarefaAninhadaDeveUsarATransacaoDeFora() {
+        executor.emTransacao(new TarefaTransacional<Void>() {
+            @Override
+            public Void executa(final Daos deFora) {
+                Daos deDentro = executor.emTransacao(new TarefaTransacional<Daos>() {
+                    @Override
+                    public Daos executa(Daos daos) {
+                        return daos;
+                    }
+                });
+                assertSame(deFora, deDentro);
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void naoDeveRodarMaisTarefasDoQueOLimite() throws InterruptedException {
+        final ExecutorTransacional limitado = new ExecutorTransacional(criador, 2, 5000);
+        final AtomicInteger rodando = new AtomicInteger();
+        final AtomicInteger maximo = new AtomicInteger();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    limitado.emTransacao(new TarefaTransacional<Void>() {
+                        @Override
+                        public Void executa(Daos daos) {
+                            int agora = rodando.incrementAndGet();
+                            for (int visto = maximo.get(); agora > visto; visto = maximo.get()) {
+                                if (maximo.compareAndSet(visto, agora)) {
+                                    break;
+                                }
+                            }
+                            daos.getLeilaoDao().total();
+                            dorme(20);
+                            rodando.decrementAndGet();
+                            return null;
+                        }
+                    });
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(2, maximo.get());
+        assertEquals(8, limitado.getExecutadas());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void deveDesistirSeNaoHouverVagaNoTempoDeEspera() throws InterruptedException {
+        final ExecutorTransacional limitado = new ExecutorTransacional(criador, 1, 50);
+        final CountDownLatch ocupado = new CountDownLatch(1);
+        final CountDownLatch libera = new CountDownLatch(1);
+
+        Thread ocupante = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                limitado.emTransacao(new TarefaTransacional<Void>() {
+                    @Override
+                    public Void executa(Daos daos) {
+                        ocupado.countDown();
+                        try {
+                            libera.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return null;
+                    }
+                });
+            }
+        });
+        ocupante.start();
+
+        try {
+            assertTrue(ocupado.await(10, TimeUnit.SECONDS));
+            limitado.emTransacao(new TarefaTransacional<Void>() {
+                @Override
+                public Void executa(Daos daos) {
+                    return null;
+                }
+            });
+        } finally {
+            libera.countDown();
+            ocupante.join();
+        }
+    }
+
+    @Test
+    public void leituraSemReplicasDeveIrParaAPrimariaSoParaLeitura() {
+        final Usuario mauricio = new Usuario("Mauricio", EMAIL);
+        executor.emTransacao(new TarefaTransacional<Void>() {
+            @Override
+            public Void executa(Daos daos) {
+                daos.getUsuarioDao().salvar(mauricio);
+                return null;
+            }
+        });
+
+        Usuario lido = executor.emLeitura(new TarefaTransacional<Usuario>() {
+            @Override
+            public Usuario executa(Daos daos) {
+                assertTrue(daos.getSession().isDefaultReadOnly());
+                return daos.getUsuarioDao().porNomeEEmail("Mauricio", EMAIL);
+            }
+        });
+
+        assertEquals(mauricio.getId(), lido.getId());
+    }
+
+    @Test
+    public void leituraDentroDaTransacaoDeveVerOQueElaJaGravou() {
+        Usuario lido = executor.emTransacao(new TarefaTransacional<Usuario>() {
+            @Override
+            public Usuario executa(Daos daos) {
+                daos.getUsuarioDao().salvar(new Usuario("Mauricio", EMAIL));
+                return executor.emLeitura(new TarefaTransacional<Usuario>() {
+                    @Override
+                    public Usuario executa(Daos daos) {
+                        return daos.getUsuarioDao().porNomeEEmail("Mauricio", EMAIL);
+                    }
+                });
+            }
+        });
+
+        assertNotNull(lido);
+    }
+
+    @Test
+    public void naoDeveEscreverDentroDeUmaLeitura() {
+        try {
+            executor.emLeitura(new TarefaTransacional<Void>() {
+                @Override
+                public Void executa(Daos daos) {
+                    return executor.emTransacao(new TarefaTransacional<Void>() {
+                        @Override
+                        public Void executa(Daos daos) {
+                            daos.getUsuarioDao().salvar(new Usuario("Mauricio", EMAIL));
+                            return null;
+                        }
+                    });
+                }
+            });
+            fail();
+        } catch (IllegalStateException esperada) {
+        }
+
+        assertNull(porNome("Mauricio"));
+        assertEquals(1, executor.getDesfeitas());
+    }
+
+    private Usuario porNome(String nome) {
+        Session session = criador.getSession();
+        try {
+            return new UsuarioDao(session).porNomeEEmail(nome, EMAIL);
+        } finally {
+            session.close();
+        }
+    }
+
+    private static void dorme(long milissegundos) {
+        try {
+            Thread.sleep(milissegundos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package br.com.caelum.pm73.dao;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dao.arquivo.ArquivoColunar;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ExpurgoDeEncerradosTest {
+
+    private CriadorDeSessao criador;
+    private Usuario mauricio;
+    private List<Leilao> encerrados;
+    private Leilao aberto;
+
+    @Before
+    public void antes() {
+        criador = new CriadorDeSessao();
+
+        // o expurgo comita cada lote na sua propria transacao, entao os dados
+        // precisam estar comitados antes e sao apagados depois do teste
+        Session session = criador.getSession();
+        session.beginTransaction();
+        mauricio = new Usuario("Mauricio", "m@a.com");
+        new UsuarioDao(session).salvar(mauricio);
+
+        LeilaoDao leilaoDao = new LeilaoDao(session);
+        encerrados = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Leilao leilao = new LeilaoBuilder().comDono(mauricio).comNome("Encerrado " + i).encerrado()
+                    .comLance(Calendar.getInstance(), mauricio, 100.0)
+                    .comLance(Calendar.getInstance(), mauricio, 200.0)
+                    .constroi();
+            leilaoDao.salvar(leilao);
+            encerrados.add(leilao);
+        }
+        aberto = new LeilaoBuilder().comDono(mauricio)
+                .comLance(Calendar.getInstance(), mauricio, 100.0)
+                .constroi();
+        leilaoDao.salvar(aberto);
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @After
+    public void depois() {
+        Session session = criador.getSession();
+        session.beginTransaction();
+        session.createQuery("delete from Lance lance where lance.usuario = :usuario")
+                .setParameter("usuario", mauricio)
+                .executeUpdate();
+        session.createQuery("delete from Leilao l where l.dono = :usuario")
+                .setParameter("usuario", mauricio)
+                .executeUpdate();
+        session.createQuery("delete from Usuario u where u.id = :id")
+                .setParameter("id", mauricio.getId())
+                .executeUpdate();
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @Test
+    public void deveApagarEncerradosELancesEmLotes() {
+        ResultadoDoExpurgo resultado = new ExpurgoDeEncerrados(criador, 2, 0).expurga();
+
+        assertEquals(5L, resultado.getLeiloes());
+        assertEquals(10L, resultado.getLances());
+        assertEquals(3, resultado.getLotes());
+
+        Session session = criador.getSession();
+        try {
+            LeilaoDao leilaoDao = new LeilaoDao(session);
+            for (Leilao encerrado : encerrados) {
+                assertNull(leilaoDao.porId(encerrado.getId()));
+            }
+            assertEquals(1, leilaoDao.porId(aberto.getId()).getLances().size());
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void deveArquivarAntesDeApagar() {
+        final List<Leilao> arquivados = new ArrayList<>();
+
+        new ExpurgoDeEncerrados(criador, 2, 0).expurga(new ArquivoDeLeiloes() {
+            @Override
+            public void arquiva(List<Leilao> leiloes) {
+                for (Leilao leilao : leiloes) {
+                    assertEquals(2, leilao.getLances().size());
+                    assertEquals("Mauricio", leilao.getDono().getNome());
+                }
+                arquivados.addAll(leiloes);
+            }
+        });
+
+        assertEquals(5, arquivados.size());
+        assertEquals("Encerrado 0", arquivados.get(0).getNome());
+    }
+
+    @Test
+    public void deveLevarParaOArquivoSoOsParadosHaMaisDeNDias() throws IOException {
+        File diretorio = File.createTempFile("arquivo", "");
+        diretorio.delete();
+        ArquivoColunar arquivo = new ArquivoColunar(diretorio);
+        try {
+            ExpurgoDeEncerrados expurgo = new ExpurgoDeEncerrados(criador, 2, 0);
+
+            assertEquals(0L, expurgo.arquivaEncerradosHaMaisDe(30, arquivo).getLeiloes());
+            assertEquals(5L, expurgo.arquivaEncerradosHaMaisDe(0, arquivo).getLeiloes());
+
+            Session session = criador.getSession();
+            try {
+                Leilao arquivado = new LeilaoDao(session, arquivo).porId(encerrados.get(3).getId());
+                assertEquals("Encerrado 3", arquivado.getNome());
+                assertEquals(2, arquivado.getLances().size());
+            } finally {
+                session.close();
+            }
+        } finally {
+            for (File segmento : diretorio.listFiles()) {
+                segmento.delete();
+            }
+            diretorio.delete();
+        }
+    }
+
+    @Test
+    public void deveManterOLoteQuandoOArquivoFalha() {
+        try {
+            new ExpurgoDeEncerrados(criador, 100, 0).expurga(new ArquivoDeLeiloes() {
+                @Override
+                public void arquiva(List<Leilao> leiloes) {
+                    throw new IllegalStateException("disco cheio");
+                }
+            });
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("disco cheio", e.getMessage());
+        }
+
+        Session session = criador.getSession();
+        try {
+            assertNotNull(new LeilaoDao(session).porId(encerrados.get(0).getId()));
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package br.com.caelum.pm73.dao;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.LivroDeLances;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class GravadorDeLancesTest {
+
+    private CriadorDeSessao criador;
+    private GravadorDeLances gravador;
+    private Usuario mauricio;
+    private Leilao leilao;
+
+    @Before
+    public void antes() {
+        criador = new CriadorDeSessao();
+
+        // o gravador usa as proprias transacoes, entao o leilao precisa estar comitado
+        Session session = criador.getSession();
+        session.beginTransaction();
+        mauricio = new Usuario("Mauricio", "m@a.com");
+        new UsuarioDao(session).salvar(mauricio);
+        leilao = new LeilaoBuilder().comDono(mauricio).comValor(100.0).constroi();
+        new LeilaoDao(session).salvar(leilao);
+        session.getTransaction().commit();
+        session.close();
+
+        // intervalo longo: o teste chama descarrega() quando quer
+        gravador = new GravadorDeLances(criador, 60000);
+    }
+
+    @After
+    public void depois() {
+        gravador.encerra();
+
+        Session session = criador.getSession();
+        session.beginTransaction();
+        session.createQuery("delete from Lance lance where lance.leilao.id = :id")
+                .setParameter("id", leilao.getId())
+                .executeUpdate();
+        session.createQuery("delete from Leilao l where l.id = :id")
+                .setParameter("id", leilao.getId())
+                .executeUpdate();
+        session.createQuery("delete from Usuario u where u.id = :id")
+                .setParameter("id", mauricio.getId())
+                .executeUpdate();
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @Test
+    public void deveGravarOsLancesAceitosEOsTotaisDoLeilao() {
+        LivroDeLances livro = gravador.abre(leilao);
+        livro.oferece(new Lance(Calendar.getInstance(), mauricio, 150.0, null));
+        livro.oferece(new Lance(Calendar.getInstance(), mauricio, 120.0, null));
+        livro.oferece(new Lance(Calendar.getInstance(), mauricio, 200.0, null));
+
+        assertEquals(2, gravador.descarrega());
+        assertEquals(0, gravador.descarrega());
+
+        Session session = criador.getSession();
+        try {
+            Leilao doBanco = new LeilaoDao(session).porId(leilao.getId());
+            assertEquals(2, doBanco.getLances().size());
+            assertEquals(2, doBanco.getQuantidadeLances());
+            assertEquals(200.0, doBanco.getMaiorLance(), 0.00001);
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void deveDevolverOMesmoLivroParaOMesmoLeilao() {
+        assertSame(gravador.abre(leilao), gravador.abre(leilao));
+        assertSame(gravador.abre(leilao), gravador.livro(leilao.getId()));
+    }
+
+    @Test
+    public void deveEsquecerOLivroEncerradoDepoisDeGravar() {
+        LivroDeLances livro = gravador.abre(leilao);
+        livro.oferece(new Lance(Calendar.getInstance(), mauricio, 150.0, null));
+        livro.encerra();
+
+        assertEquals(1, gravador.descarrega());
+        assertNull(gravador.livro(leilao.getId()));
+    }
+}
@@ -0,0 +1,169 @@
+package br.com.caelum.pm73.dao;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dominio.HistoricoDeLances;
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class HistoricoDeLancesTest {
+
+    private CriadorDeSessao criador;
+    private Usuario mauricio;
+    private Usuario flavio;
+    private Leilao xbox;
+    private Leilao ps4;
+
+    @Before
+    public void antes() {
+        criador = new CriadorDeSessao();
+
+        // o historico so muda quando a transacao dos lances comita
+        Session session = criador.getSession();
+        session.beginTransaction();
+        mauricio = new Usuario("Mauricio", "m@a.com");
+        flavio = new Usuario("Flavio", "f@s.com");
+        new UsuarioDao(session).salvar(mauricio);
+        new UsuarioDao(session).salvar(flavio);
+        xbox = new LeilaoBuilder().comNome("Xbox").comValor(1000.0).comDono(mauricio).constroi();
+        ps4 = new LeilaoBuilder().comNome("PS4").comValor(100.0).comDono(mauricio).constroi();
+        new LeilaoDao(session).salvar(xbox);
+        new LeilaoDao(session).salvar(ps4);
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @After
+    public void depois() {
+        Session session = criador.getSession();
+        session.beginTransaction();
+        List<Integer> leiloes = Arrays.asList(xbox.getId(), ps4.getId());
+        List<Integer> usuarios = Arrays.asList(mauricio.getId(), flavio.getId());
+        session.createQuery("delete from Lance lance where lance.leilao.id in (:ids)")
+                .setParameterList("ids", leiloes)
+                .executeUpdate();
+        session.createQuery("delete from Leilao l where l.id in (:ids)")
+                .setParameterList("ids", leiloes)
+                .executeUpdate();
+        session.createQuery("delete from Usuario u where u.id in (:ids)")
+                .setParameterList("ids", usuarios)
+                .executeUpdate();
+        session.createQuery("delete from HistoricoDeLances h where h.usuarioId in (:ids)")
+                .setParameterList("ids", usuarios)
+                .executeUpdate();
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @Test
+    public void deveAtualizarOHistoricoQuandoOsLancesComitam() {
+        daLances(true, lance(flavio, xbox, 750.0), lance(flavio, xbox, 950.0));
+        daLances(true, lance(flavio, ps4, 120.0), lance(mauricio, ps4, 130.0));
+
+        HistoricoDeLances doFlavio = historico(flavio);
+        assertEquals(2, doFlavio.getLeiloes());
+        assertEquals(3, doFlavio.getLances());
+        assertEquals(700.0, doFlavio.getValorInicialMedio(), 0.00001);
+        assertEquals(950.0, doFlavio.getMaiorLance(), 0.00001);
+
+        HistoricoDeLances doMauricio = historico(mauricio);
+        assertEquals(1, doMauricio.getLeiloes());
+        assertEquals(1, doMauricio.getLances());
+        assertEquals(valorInicialMedioPelosLances(flavio), doFlavio.getValorInicialMedio(), 0.00001);
+    }
+
+    @Test
+    public void naoDeveMudarOHistoricoQuandoATransacaoEDesfeita() {
+        daLances(true, lance(flavio, xbox, 750.0));
+        daLances(false, lance(flavio, ps4, 2000.0));
+
+        HistoricoDeLances doFlavio = historico(flavio);
+        assertEquals(1, doFlavio.getLeiloes());
+        assertEquals(1, doFlavio.getLances());
+        assertEquals(750.0, doFlavio.getMaiorLance(), 0.00001);
+    }
+
+    @Test
+    public void deveDevolverHistoricoZeradoParaQuemNuncaDeuLance() {
+        HistoricoDeLances doMauricio = historico(mauricio);
+
+        assertEquals(0, doMauricio.getLances());
+        assertEquals(0.0, doMauricio.getValorInicialMedio(), 0.00001);
+        assertNull(doMauricio.getMaiorLance());
+    }
+
+    @Test
+    public void deveReconstruirOHistoricoAPartirDosLances() {
+        daLances(true, lance(flavio, xbox, 750.0), lance(flavio, ps4, 120.0), lance(mauricio, ps4, 130.0));
+
+        // lances apagados por fora nao passam pelo atualizador
+        Session session = criador.getSession();
+        session.beginTransaction();
+        session.createQuery("delete from Lance lance where lance.leilao.id = :id")
+                .setParameter("id", ps4.getId())
+                .executeUpdate();
+        session.getTransaction().commit();
+        session.close();
+        assertEquals(2, historico(flavio).getLances());
+
+        new ReconstrucaoDoHistorico(criador, 2, 1).reconstroi();
+
+        HistoricoDeLances doFlavio = historico(flavio);
+        assertEquals(1, doFlavio.getLeiloes());
+        assertEquals(1, doFlavio.getLances());
+        assertEquals(1000.0, doFlavio.getValorInicialMedio(), 0.00001);
+        assertEquals(750.0, doFlavio.getMaiorLance(), 0.00001);
+        assertEquals(0, historico(mauricio).getLances());
+    }
+
+    private Lance lance(Usuario usuario, Leilao leilao, double valor) {
+        return new Lance(Calendar.getInstance(), usuario, valor, leilao);
+    }
+
+    private void daLances(boolean comita, Lance... lances) {
+        Session session = criador.getSession();
+        try {
+            session.beginTransaction();
+            for (Lance lance : lances) {
+                session.save(lance);
+            }
+            session.flush();
+            if (comita) {
+                session.getTransaction().commit();
+            } else {
+                session.getTransaction().rollback();
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    private HistoricoDeLances historico(Usuario usuario) {
+        Session session = criador.getSession();
+        try {
+            return new HistoricoDeLancesDao(session).doUsuario(usuario);
+        } finally {
+            session.close();
+        }
+    }
+
+    private double valorInicialMedioPelosLances(Usuario usuario) {
+        Session session = criador.getSession();
+        try {
+            return new LeilaoDao(session).getValorInicialMedioDoUsuario(usuario);
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package br.com.caelum.pm73.dao;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Interceptor;
+import org.hibernate.Session;
+import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.exception.LockAcquisitionException;
+import org.hibernate.type.Type;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IngestaoDeLancesTest {
+
+    private CriadorDeSessao criador;
+    private File diario;
+    private Usuario mauricio;
+    private Leilao leilao;
+
+    @Before
+    public void antes() throws IOException {
+        criador = new CriadorDeSessao();
+        diario = File.createTempFile("lances", ".diario");
+
+        // a ingestao usa as proprias transacoes, entao o leilao precisa estar comitado
+        Session session = criador.getSession();
+        session.beginTransaction();
+        mauricio = new Usuario("Mauricio", "m@a.com");
+        new UsuarioDao(session).salvar(mauricio);
+        leilao = new LeilaoBuilder().comDono(mauricio).comValor(100.0).constroi();
+        new LeilaoDao(session).salvar(leilao);
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @After
+    public void depois() {
+        diario.delete();
+
+        Session session = criador.getSession();
+        session.beginTransaction();
+        session.createQuery("delete from Lance lance where lance.leilao.id = :id")
+                .setParameter("id", leilao.getId())
+                .executeUpdate();
+        session.createQuery("delete from Leilao l where l.id = :id")
+                .setParameter("id", leilao.getId())
+                .executeUpdate();
+        session.createQuery("delete from Usuario u where u.id = :id")
+                .setParameter("id", mauricio.getId())
+                .executeUpdate();
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @Test
+    public void deveGravarOsLancesRecebidosEOsTotaisDoLeilao() throws IOException {
+        IngestaoDeLances ingestao = new IngestaoDeLances(criador, diario);
+        ingestao.recebe(new Lance(Calendar.getInstance(), mauricio, 150.0, leilao));
+        ingestao.recebe(new Lance(Calendar.getInstance(), mauricio, 200.0, leilao));
+        ingestao.recebe(new Lance(Calendar.getInstance(), mauricio, 180.0, leilao));
+        ingestao.encerra();
+
+        assertEquals(3, ingestao.getGravados());
+        assertTrue(tudoConfirmadoNoDiario());
+
+        Leilao doBanco = doBanco();
+        assertEquals(3, doBanco.getQuantidadeLances());
+        assertEquals(200.0, doBanco.getMaiorLance(), 0.00001);
+    }
+
+    @Test
+    public void deveGravarAoAbrirOQueFicouSoNoDiario() throws IOException {
+        Calendar data = Calendar.getInstance();
+        DiarioDeLances antigo = new DiarioDeLances(diario);
+        antigo.acrescenta(leilao.getId(), mauricio.getId(), 150.0, data.getTimeInMillis());
+        antigo.acrescenta(leilao.getId(), mauricio.getId(), 300.0, data.getTimeInMillis());
+        antigo.fecha();
+
+        // simula a queda entre o commit do primeiro lance e a confirmacao dele no diario
+        comitaComoSeTivesseVindoDoDiario(antigo, 1, new Lance(data, mauricio, 150.0, leilao));
+
+        IngestaoDeLances ingestao = new IngestaoDeLances(criador, diario);
+        ingestao.encerra();
+
+        assertEquals(2, ingestao.getGravados());
+        assertTrue(tudoConfirmadoNoDiario());
+        Leilao doBanco = doBanco();
+        assertEquals(2, doBanco.getQuantidadeLances());
+        assertEquals(300.0, doBanco.getMaiorLance(), 0.00001);
+    }
+
+    @Test
+    public void deveManterLancesIguaisNoMesmoMilissegundoAoReaplicar() throws IOException {
+        long data = System.currentTimeMillis();
+        DiarioDeLances antigo = new DiarioDeLances(diario);
+        antigo.acrescenta(leilao.getId(), mauricio.getId(), 150.0, data);
+        antigo.acrescenta(leilao.getId(), mauricio.getId(), 150.0, data);
+        antigo.fecha();
+
+        Calendar calendario = Calendar.getInstance();
+        calendario.setTimeInMillis(data);
+        comitaComoSeTivesseVindoDoDiario(antigo, 1, new Lance(calendario, mauricio, 150.0, leilao));
+
+        IngestaoDeLances ingestao = new IngestaoDeLances(criador, diario);
+        ingestao.encerra();
+
+        assertEquals(2, doBanco().getQuantidadeLances());
+    }
+
+    @Test
+    public void deveContinuarAsSequenciasDepoisDeEsvaziarODiario() throws IOException {
+        DiarioDeLances escrito = new DiarioDeLances(diario);
+        long identidade = escrito.getIdentidade();
+        escrito.acrescenta(leilao.getId(), mauricio.getId(), 150.0, null);
+        escrito.confirma(1);
+        escrito.fecha();
+
+        DiarioDeLances reaberto = new DiarioDeLances(diario);
+        try {
+            assertEquals(identidade, reaberto.getIdentidade());
+            assertEquals(2, reaberto.acrescenta(leilao.getId(), mauricio.getId(), 160.0, null).getSequencia());
+        } finally {
+            reaberto.fecha();
+        }
+    }
+
+    @Test
+    public void deveRejeitarSoOLanceQueFalhaESeguirComOsOutros() throws IOException {
+        // o lance de 666 viola uma restricao: falha sempre, nao adianta repetir
+        IngestaoDeLances ingestao = new IngestaoDeLances(comFalhaAoSalvar(new EmptyInterceptor() {
+            @Override
+            public boolean onSave(Object entidade, Serializable id, Object[] estado, String[] propriedades, Type[] tipos) {
+                if (entidade instanceof Lance && ((Lance) entidade).getValor() == 666.0) {
+                    throw new ConstraintViolationException("valor proibido", new SQLException("valor proibido", "23000"), "lance");
+                }
+                return false;
+            }
+        }), diario, 10, 10, 60000);
+        ingestao.recebe(new Lance(Calendar.getInstance(), mauricio, 150.0, leilao));
+        ingestao.recebe(new Lance(Calendar.getInstance(), mauricio, 666.0, leilao));
+        ingestao.recebe(new Lance(Calendar.getInstance(), mauricio, 200.0, leilao));
+        ingestao.encerra();
+
+        assertEquals(2, ingestao.getGravados());
+        assertEquals(1, ingestao.getRejeitados());
+        assertTrue(tudoConfirmadoNoDiario());
+        try {
+            List<String> rejeitados = Files.readAllLines(ingestao.getArquivoDeRejeitados().toPath(), StandardCharsets.UTF_8);
+            assertEquals(1, rejeitados.size());
+            assertTrue(rejeitados.get(0).startsWith("2;" + leilao.getId() + ";" + mauricio.getId() + ";666.0;"));
+        } finally {
+            ingestao.getArquivoDeRejeitados().delete();
+        }
+        assertEquals(2, doBanco().getQuantidadeLances());
+    }
+
+    @Test
+    public void deveRepetirOGrupoQuandoAFalhaETransitoria() {
+        final AtomicInteger falhas = new AtomicInteger(2);
+        IngestaoDeLances ingestao = new IngestaoDeLances(comFalhaAoSalvar(new EmptyInterceptor() {
+            @Override
+            public boolean onSave(Object entidade, Serializable id, Object[] estado, String[] propriedades, Type[] tipos) {
+                if (falhas.getAndDecrement() > 0) {
+                    throw new LockAcquisitionException("deadlock", new SQLException("deadlock", "40001"));
+                }
+                return false;
+            }
+        }), diario, 10, 10, 60000);
+        ingestao.recebe(new Lance(Calendar.getInstance(), mauricio, 150.0, leilao));
+        ingestao.recebe(new Lance(Calendar.getInstance(), mauricio, 200.0, leilao));
+        ingestao.encerra();
+
+        assertEquals(2, ingestao.getGravados());
+        assertEquals(0, ingestao.getRejeitados());
+        assertFalse(ingestao.getArquivoDeRejeitados().exists());
+        assertEquals(2, doBanco().getQuantidadeLances());
+    }
+
+    @Test
+    public void deveSegurarQuemEntregaLancesComAFilaCheia() {
+        // grupo grande e latencia longa: o primeiro lance fica esperando companhia
+        IngestaoDeLances ingestao = new IngestaoDeLances(criador, diario, 1, 10, 60000);
+
+        assertTrue(ingestao.recebe(new Lance(Calendar.getInstance(), mauricio, 150.0, leilao), 1, TimeUnit.SECONDS));
+        assertFalse(ingestao.recebe(new Lance(Calendar.getInstance(), mauricio, 160.0, leilao), 50, TimeUnit.MILLISECONDS));
+
+        ingestao.encerra();
+        assertEquals(1, ingestao.getGravados());
+    }
+
+    @Test
+    public void deveDescartarRegistroCortadoNoFimDoDiario() throws IOException {
+        DiarioDeLances escrito = new DiarioDeLances(diario);
+        escrito.acrescenta(leilao.getId(), mauricio.getId(), 150.0, null);
+        escrito.fecha();
+        long inteiro = diario.length();
+
+        FileOutputStream resto = new FileOutputStream(diario, true);
+        resto.write(new byte[] { 1, 0, 0, 7 });
+        resto.close();
+
+        DiarioDeLances lido = new DiarioDeLances(diario);
+        assertEquals(1, lido.naoConfirmados().size());
+        assertEquals(150.0, lido.naoConfirmados().get(0).getValor(), 0.00001);
+        assertEquals(inteiro, lido.tamanho());
+        lido.fecha();
+    }
+
+    private void comitaComoSeTivesseVindoDoDiario(DiarioDeLances origem, long sequencia, Lance lance) {
+        Session session = criador.getSession();
+        session.beginTransaction();
+        Leilao comitado = (Leilao) session.get(Leilao.class, leilao.getId());
+        lance.setLeilao(comitado);
+        lance.setOrigem(origem.getIdentidade(), sequencia);
+        session.save(comitado.adicionaLance(lance));
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    private boolean tudoConfirmadoNoDiario() throws IOException {
+        DiarioDeLances lido = new DiarioDeLances(diario);
+        try {
+            return lido.naoConfirmados().isEmpty();
+        } finally {
+            lido.fecha();
+        }
+    }
+
+    private CriadorDeSessao comFalhaAoSalvar(final Interceptor interceptor) {
+        return new CriadorDeSessao() {
+            @Override
+            public Session getSession() {
+                return getSession(interceptor);
+            }
+        };
+    }
+
+    private Leilao doBanco() {
+        Session session = criador.getSession();
+        try {
+            return new LeilaoDao(session).porId(leilao.getId());
+        } finally {
+            session.close();
+        }
+    }
+}
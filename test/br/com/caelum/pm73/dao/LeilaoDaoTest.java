@@ -9,11 +9,14 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class LeilaoDaoTest {
 
@@ -160,6 +163,30 @@ public class LeilaoDaoTest {
         assertEquals("Geladeira", antigos.get(0).getNome());
     }
 
+    @Test
+    public void deveIncluirNosAntigosOLeilaoAbertoNoLimiteDosSeteDias() {
+        Usuario mauricio = new Usuario("Mauricio Aniche", "mauricio@aniche.com.br");
+        usuarioDao.salvar(mauricio);
+
+        Calendar limite = Calendar.getInstance();
+        limite.add(Calendar.DAY_OF_MONTH, -7);
+        Calendar depoisDoLimite = (Calendar) limite.clone();
+        depoisDoLimite.add(Calendar.MINUTE, 1);
+
+        Leilao noLimite = new LeilaoBuilder().comDono(mauricio).comNome("No limite").constroi();
+        noLimite.setDataAbertura(limite);
+        Leilao recente = new LeilaoBuilder().comDono(mauricio).comNome("Recente").constroi();
+        recente.setDataAbertura(depoisDoLimite);
+        leilaoDao.salvar(noLimite);
+        leilaoDao.salvar(recente);
+
+        // o limite das consultas e calculado agora, no mesmo milissegundo ou depois
+        assertEquals(1, leilaoDao.antigos().size());
+        assertEquals(1, leilaoDao.antigos(null, 10).getItens().size());
+        assertEquals(1, leilaoDao.antigos(Carregamento.SOMENTE_LEILAO).size());
+        assertEquals("No limite", leilaoDao.antigos().get(0).getNome());
+    }
+
     @Test
     public void deveTrazerSomenteLeiloesAntigosHaMaisDe7Dias() {
 
@@ -299,6 +326,49 @@ public class LeilaoDaoTest {
 
     }
 
+    @Test
+    public void deveJuntarOsArquivadosNasPaginasENoCarregamento() {
+        Usuario mauricio = new Usuario("Mauricio", "m@a.com");
+        usuarioDao.salvar(mauricio);
+        leilaoDao.salvar(new LeilaoBuilder().comDono(mauricio).comNome("Ha 5 dias").diasAtras(5)
+                .comLance(Calendar.getInstance(), mauricio, 10.0).constroi());
+        leilaoDao.salvar(new LeilaoBuilder().comDono(mauricio).comNome("Ha 3 dias").diasAtras(3)
+                .comLance(Calendar.getInstance(), mauricio, 10.0).constroi());
+
+        final List<Leilao> noArquivo = new ArrayList<>();
+        noArquivo.add(arquivado(Integer.MAX_VALUE - 1, "Arquivado ha 10 dias", 10, mauricio));
+        noArquivo.add(arquivado(Integer.MAX_VALUE - 2, "Arquivado ha 1 dia", 1, mauricio));
+        LeilaoDao comArquivo = new LeilaoDao(session, new LeiloesArquivados() {
+            @Override
+            public Leilao porId(int id, Session session) {
+                return null;
+            }
+
+            @Override
+            public List<Leilao> doUsuario(Usuario usuario, Session session) {
+                return noArquivo;
+            }
+        });
+
+        Pagina<Leilao> primeira = comArquivo.listaLeiloesDoUsuario(mauricio, null, 2);
+        Pagina<Leilao> segunda = comArquivo.listaLeiloesDoUsuario(mauricio, primeira.getProxima(), 2);
+
+        assertEquals("Arquivado ha 10 dias", primeira.getItens().get(0).getNome());
+        assertEquals("Ha 5 dias", primeira.getItens().get(1).getNome());
+        assertEquals("Ha 3 dias", segunda.getItens().get(0).getNome());
+        assertEquals("Arquivado ha 1 dia", segunda.getItens().get(1).getNome());
+        assertFalse(segunda.temProxima());
+
+        assertEquals(4, comArquivo.listaLeiloesDoUsuario(mauricio, Carregamento.COM_DONO).size());
+    }
+
+    private Leilao arquivado(int id, String nome, int dias, Usuario usuario) {
+        Leilao leilao = new LeilaoBuilder().comDono(usuario).comNome(nome).diasAtras(dias)
+                .comLance(Calendar.getInstance(), usuario, 10.0).constroi();
+        leilao.setId(id);
+        return leilao;
+    }
+
     @Test
     public void getValorInicialMedioDoUsuario(){
 
@@ -330,6 +400,14 @@ public class LeilaoDaoTest {
 
     }
 
+    @Test
+    public void valorInicialMedioDeveSerZeroParaQuemNaoDeuLance() {
+        Usuario mauricio = new Usuario("Mauricio Aniche", "mauricio@aniche.com.br");
+        usuarioDao.salvar(mauricio);
+
+        assertEquals(0.0, leilaoDao.getValorInicialMedioDoUsuario(mauricio), 0.00001);
+    }
+
 
     @Test
     public void deveDeletarUmUsuario() {
@@ -383,4 +461,198 @@ public class LeilaoDaoTest {
 
     }
 
+    @Test
+    public void deveDeletarEncerradosJuntoComSeusLances() {
+        Usuario mauricio = new Usuario("Mauricio", "m@a.com");
+        Leilao encerrado = new LeilaoBuilder().comDono(mauricio).encerrado()
+                .comLance(Calendar.getInstance(), mauricio, 10000.0)
+                .constroi();
+        Leilao aberto = new LeilaoBuilder().comDono(mauricio)
+                .comLance(Calendar.getInstance(), mauricio, 10000.0)
+                .constroi();
+
+        usuarioDao.salvar(mauricio);
+        leilaoDao.salvar(encerrado);
+        leilaoDao.salvar(aberto);
+        session.flush();
+
+        leilaoDao.deletaEncerrados();
+        session.clear();
+
+        assertNull(leilaoDao.porId(encerrado.getId()));
+        assertEquals(1, leilaoDao.porId(aberto.getId()).getLances().size());
+    }
+
+    @Test
+    public void deveRecalcularOsTotaisAoRemoverUmLance() {
+        Usuario mauricio = new Usuario("Mauricio", "m@a.com");
+        usuarioDao.salvar(mauricio);
+        Calendar ontem = Calendar.getInstance();
+        ontem.add(Calendar.DAY_OF_MONTH, -1);
+        Leilao leilao = new LeilaoBuilder().comDono(mauricio)
+                .comLance(ontem, mauricio, 100.0)
+                .comLance(Calendar.getInstance(), mauricio, 300.0)
+                .comLance(ontem, mauricio, 200.0)
+                .constroi();
+        leilaoDao.salvar(leilao);
+        session.flush();
+        session.clear();
+
+        Leilao doBanco = leilaoDao.porId(leilao.getId());
+        Lance maior = null;
+        for (Lance lance : doBanco.getLances()) {
+            if (lance.getValor() == 300.0) {
+                maior = lance;
+            }
+        }
+        assertTrue(doBanco.removeLance(maior));
+        session.flush();
+        session.clear();
+
+        Leilao depois = leilaoDao.porId(leilao.getId());
+        assertEquals(2, depois.getLances().size());
+        assertEquals(2, depois.getQuantidadeLances());
+        assertEquals(200.0, depois.getMaiorLance(), 0.00001);
+        assertEquals(ontem.getTimeInMillis(), (long) depois.getDataUltimoLanceEmMilissegundos());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void naoDeveAlterarOsLancesPorForaDoLeilao() {
+        Leilao leilao = new LeilaoBuilder().constroi();
+        leilao.getLances().add(new Lance(Calendar.getInstance(), null, 10.0, leilao));
+    }
+
+    @Test
+    public void deveSalvarLeiloesEmLote() {
+        Usuario mauricio = new Usuario("Mauricio", "m@a.com");
+        usuarioDao.salvar(mauricio);
+
+        List<Leilao> leiloes = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            leiloes.add(new LeilaoBuilder()
+                    .comDono(mauricio)
+                    .comLance(Calendar.getInstance(), mauricio, 10.0)
+                    .constroi());
+        }
+
+        leilaoDao.salvarEmLote(leiloes);
+
+        assertEquals(120L, (long) leilaoDao.total());
+        assertEquals(1, leilaoDao.porId(leiloes.get(119).getId()).getLances().size());
+    }
+
+    @Test
+    public void naoDeveTirarDaSessaoAsEntidadesDeQuemChamaOLote() {
+        Usuario mauricio = new Usuario("Mauricio", "m@a.com");
+        usuarioDao.salvar(mauricio);
+        Leilao existente = new LeilaoBuilder().comDono(mauricio).constroi();
+        leilaoDao.salvar(existente);
+
+        List<Leilao> leiloes = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            leiloes.add(new LeilaoBuilder().comDono(mauricio).constroi());
+        }
+        leilaoDao.salvarEmLote(leiloes);
+
+        assertTrue(session.contains(mauricio));
+        assertTrue(session.contains(existente));
+        assertFalse(session.contains(leiloes.get(0)));
+        assertFalse(session.contains(leiloes.get(59)));
+    }
+
+    @Test
+    public void devePaginarLeiloesNovosPelaDataDeAbertura() {
+        Usuario mauricio = new Usuario("Mauricio", "m@a.com");
+        usuarioDao.salvar(mauricio);
+
+        for (int dias = 5; dias > 0; dias--) {
+            leilaoDao.salvar(new LeilaoBuilder().comDono(mauricio).comNome("Ha " + dias + " dias")
+                    .diasAtras(dias).constroi());
+        }
+
+        Pagina<Leilao> primeira = leilaoDao.novos(null, 2);
+        Pagina<Leilao> segunda = leilaoDao.novos(primeira.getProxima(), 2);
+        Pagina<Leilao> terceira = leilaoDao.novos(segunda.getProxima(), 2);
+
+        assertEquals("Ha 5 dias", primeira.getItens().get(0).getNome());
+        assertEquals("Ha 3 dias", segunda.getItens().get(0).getNome());
+        assertEquals(1, terceira.getItens().size());
+        assertEquals("Ha 1 dias", terceira.getItens().get(0).getNome());
+        assertFalse(terceira.temProxima());
+    }
+
+    @Test
+    public void devePaginarDisputadosPeloValorInicial() {
+        Usuario mauricio = new Usuario("Mauricio", "m@a.com");
+        usuarioDao.salvar(mauricio);
+
+        for (int i = 0; i < 3; i++) {
+            leilaoDao.salvar(new LeilaoBuilder().comDono(mauricio).comValor(900.0)
+                    .comLance(Calendar.getInstance(), mauricio, 901.0)
+                    .comLance(Calendar.getInstance(), mauricio, 902.0)
+                    .comLance(Calendar.getInstance(), mauricio, 903.0)
+                    .comLance(Calendar.getInstance(), mauricio, 904.0)
+                    .constroi());
+        }
+
+        Pagina<Leilao> primeira = leilaoDao.disputadosEntre(800.0, 1000.0, null, 2);
+        Pagina<Leilao> segunda = leilaoDao.disputadosEntre(800.0, 1000.0, primeira.getProxima(), 2);
+
+        assertEquals(2, primeira.getItens().size());
+        assertEquals(1, segunda.getItens().size());
+        assertFalse(segunda.temProxima());
+    }
+
+    @Test
+    public void deveGuardarOsTotaisDeLancesDoLeilao() {
+        Usuario mauricio = new Usuario("Mauricio", "m@a.com");
+        Calendar ontem = Calendar.getInstance();
+        ontem.add(Calendar.DAY_OF_MONTH, -1);
+        Calendar hoje = Calendar.getInstance();
+
+        Leilao leilao = new LeilaoBuilder().comDono(mauricio).comValor(900.0)
+                .comLance(hoje, mauricio, 950.0)
+                .comLance(ontem, mauricio, 1200.0)
+                .comLance(ontem, mauricio, 1000.0)
+                .constroi();
+
+        usuarioDao.salvar(mauricio);
+        leilaoDao.salvar(leilao);
+        session.flush();
+        session.clear();
+
+        Leilao doBanco = leilaoDao.porId(leilao.getId());
+
+        assertEquals(3, doBanco.getQuantidadeLances());
+        assertEquals(1200.0, doBanco.getMaiorLance(), 0.00001);
+        assertEquals(hoje.getTimeInMillis(), doBanco.getDataUltimoLance().getTimeInMillis());
+        assertEquals(0, leilaoDao.disputadosEntre(800.0, 1000.0).size());
+    }
+
+    @Test
+    public void deveGuardarAsDatasEmMilissegundosEAceitarCalendarNasConsultas() {
+        Usuario mauricio = new Usuario("Mauricio", "m@a.com");
+        Calendar abertura = Calendar.getInstance();
+        abertura.add(Calendar.DAY_OF_MONTH, -10);
+        Leilao leilao = new LeilaoBuilder().comDono(mauricio).abertoEm(abertura)
+                .comLance(abertura, mauricio, 950.0)
+                .constroi();
+
+        usuarioDao.salvar(mauricio);
+        leilaoDao.salvar(leilao);
+        session.flush();
+        session.clear();
+
+        Leilao doBanco = leilaoDao.porId(leilao.getId());
+        assertEquals(Long.valueOf(abertura.getTimeInMillis()), doBanco.getDataAberturaEmMilissegundos());
+        assertEquals(abertura.getTimeInMillis(), doBanco.getLances().get(0).getData().getTimeInMillis());
+
+        Calendar inicio = (Calendar) abertura.clone();
+        inicio.add(Calendar.HOUR_OF_DAY, -1);
+        Calendar fim = (Calendar) abertura.clone();
+        fim.add(Calendar.HOUR_OF_DAY, 1);
+        assertEquals(1, leilaoDao.porPeriodo(inicio, fim).size());
+        assertEquals(0, leilaoDao.porPeriodo(fim, fim).size());
+    }
+
 }
@@ -0,0 +1,73 @@
+package br.com.caelum.pm73.dao;
+
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Configuration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PerfilDoBancoTest {
+
+    @Rule
+    public TemporaryFolder pasta = new TemporaryFolder();
+
+    @Test
+    public void semPerfilDeveFicarNoArquivoDeSempre() {
+        Configuration config = new Configuration();
+
+        PerfilDoBanco.de(config).aplica(config);
+
+        assertEquals(PerfilDoBanco.ARQUIVO, PerfilDoBanco.de(config));
+        assertEquals("jdbc:hsqldb:caelum.db;shutdown=true", config.getProperty("hibernate.connection.url"));
+    }
+
+    @Test
+    public void memoriaDeveCriarAsTabelasAoSubir() {
+        Configuration config = new Configuration().setProperty(PerfilDoBanco.PERFIL, "memoria");
+
+        PerfilDoBanco.de(config).aplica(config);
+
+        assertEquals("jdbc:hsqldb:mem:caelum.db", config.getProperty("hibernate.connection.url"));
+        assertEquals("create", config.getProperty("hibernate.hbm2ddl.auto"));
+    }
+
+    @Test(expected = HibernateException.class)
+    public void naoDeveAceitarPerfilDesconhecido() {
+        PerfilDoBanco.porNome("oracle");
+    }
+
+    @Test
+    public void logComAtrasoZeroDeveSincronizarACadaCommit() {
+        Configuration config = new Configuration().setProperty(PerfilDoBanco.ATRASO_DO_LOG, "0");
+
+        assertTrue(PerfilDoBanco.LOG.ajustes(config).contains("SET FILES WRITE DELAY FALSE"));
+    }
+
+    @Test
+    public void cachedDeveConverterAsTabelasQueJaEstavamEmMemoria() throws SQLException {
+        String url = "jdbc:hsqldb:" + new File(pasta.getRoot(), "caelum.db").getPath() + ";shutdown=true";
+        Connection conexao = DriverManager.getConnection(url, "sa", "");
+        try {
+            conexao.createStatement().execute("create memory table Leilao (id int primary key)");
+
+            PerfilDoBanco.CACHED.prepara(conexao, new Configuration());
+
+            assertTrue(PerfilDoBanco.tabelasEmMemoria(conexao).isEmpty());
+            ResultSet linhas = conexao.createStatement().executeQuery("select property_value " +
+                    "from information_schema.system_properties where property_name = 'hsqldb.nio_data_file'");
+            linhas.next();
+            assertEquals("true", linhas.getString(1));
+        } finally {
+            conexao.close();
+        }
+    }
+}
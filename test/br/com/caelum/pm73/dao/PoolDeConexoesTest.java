@@ -0,0 +1,115 @@
+package br.com.caelum.pm73.dao;
+
+import br.com.caelum.pm73.dao.metricas.ContadorDeJdbc;
+import br.com.caelum.pm73.dao.metricas.Instrumentacao;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PoolDeConexoesTest {
+
+    private PoolDeConexoes pool;
+
+    @Before
+    public void antes() {
+        Map<String, String> configuracao = new HashMap<>();
+        configuracao.put("hibernate.connection.driver_class", "org.hsqldb.jdbcDriver");
+        configuracao.put("hibernate.connection.url", "jdbc:hsqldb:mem:pool");
+        configuracao.put("hibernate.connection.username", "sa");
+        configuracao.put("hibernate.connection.password", "");
+        configuracao.put(PoolDeConexoes.MINIMO, "1");
+        configuracao.put(PoolDeConexoes.MAXIMO, "2");
+        configuracao.put(PoolDeConexoes.TEMPO_DE_ESPERA, "50");
+
+        pool = new PoolDeConexoes();
+        pool.configure(configuracao);
+    }
+
+    @After
+    public void depois() {
+        pool.stop();
+    }
+
+    @Test
+    public void deveReaproveitarConexaoDevolvida() throws SQLException {
+        Connection primeira = pool.getConnection();
+        pool.closeConnection(primeira);
+
+        Connection segunda = pool.getConnection();
+
+        assertSame(primeira, segunda);
+        pool.closeConnection(segunda);
+    }
+
+    @Test
+    public void naoDeveManterOProxyDasMetricasDepoisDeDesligadas() throws SQLException {
+        Instrumentacao.setAtiva(true);
+        try {
+            Connection medida = pool.getConnection();
+            assertTrue(ContadorDeJdbc.isEnvolvida(medida));
+            pool.closeConnection(medida);
+        } finally {
+            Instrumentacao.setAtiva(false);
+        }
+
+        Connection semMedicao = pool.getConnection();
+
+        assertFalse(ContadorDeJdbc.isEnvolvida(semMedicao));
+        pool.closeConnection(semMedicao);
+    }
+
+    @Test
+    public void naoDeveEmprestarMaisQueOMaximo() throws SQLException {
+        Connection primeira = pool.getConnection();
+        Connection segunda = pool.getConnection();
+
+        try {
+            pool.getConnection();
+            fail("o pool deveria estar esgotado");
+        } catch (SQLException esperado) {
+            assertEquals(1L, pool.getEstatisticas().getEsgotamentos());
+        }
+
+        pool.closeConnection(primeira);
+        pool.closeConnection(segunda);
+    }
+
+    @Test
+    public void deveContarConexoesAtivasEOciosas() throws SQLException {
+        Connection conexao = pool.getConnection();
+
+        EstatisticasDoPool emUso = pool.getEstatisticas();
+        assertEquals(1, emUso.getAtivas());
+        assertEquals(0, emUso.getOciosas());
+
+        pool.closeConnection(conexao);
+
+        EstatisticasDoPool devolvida = pool.getEstatisticas();
+        assertEquals(0, devolvida.getAtivas());
+        assertEquals(1, devolvida.getOciosas());
+        assertEquals(1L, devolvida.getEmprestimos());
+    }
+
+    @Test
+    public void deveDescartarConexaoFechadaPorFora() throws SQLException {
+        Connection conexao = pool.getConnection();
+        conexao.close();
+        pool.closeConnection(conexao);
+
+        Connection nova = pool.getConnection();
+
+        assertEquals(false, nova.isClosed());
+        pool.closeConnection(nova);
+    }
+}
@@ -0,0 +1,116 @@
+package br.com.caelum.pm73.dao;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ResumoDeLeilaoDaoTest {
+
+    private Session session;
+    private LeilaoDao leilaoDao;
+    private ResumoDeLeilaoDao resumoDao;
+    private Usuario mauricio;
+
+    @Before
+    public void antes() {
+        session = new CriadorDeSessao().getSession();
+        leilaoDao = new LeilaoDao(session);
+        resumoDao = new ResumoDeLeilaoDao(session);
+        session.beginTransaction();
+
+        mauricio = new Usuario("Mauricio", "m@a.com");
+        new UsuarioDao(session).salvar(mauricio);
+    }
+
+    @After
+    public void depois() {
+        session.getTransaction().rollback();
+        session.close();
+    }
+
+    @Test
+    public void deveResumirLeiloesNovosSemCarregarEntidades() {
+        Leilao xbox = new LeilaoBuilder().comNome("Xbox").comValor(700.0).comDono(mauricio).constroi();
+        Leilao geladeira = new LeilaoBuilder().comNome("Geladeira").usado().comDono(mauricio).constroi();
+        leilaoDao.salvar(xbox);
+        leilaoDao.salvar(geladeira);
+        session.flush();
+        session.clear();
+
+        List<ResumoDeLeilao> novos = resumoDao.novos();
+
+        assertEquals(1, novos.size());
+        assertEquals(xbox.getId(), novos.get(0).getId());
+        assertEquals("Xbox", novos.get(0).getNome());
+        assertEquals(700.0, novos.get(0).getValorInicial(), 0.00001);
+        assertEquals(xbox.getDataAbertura().getTimeInMillis(), novos.get(0).getDataAbertura().getTimeInMillis());
+        assertEquals(0, session.getStatistics().getEntityCount());
+    }
+
+    @Test
+    public void devePaginarNaMesmaOrdemDoLeilaoDao() {
+        for (int i = 0; i < 5; i++) {
+            Calendar abertura = Calendar.getInstance();
+            abertura.add(Calendar.DAY_OF_MONTH, -i);
+            leilaoDao.salvar(new LeilaoBuilder().comNome("Leilao " + i).abertoEm(abertura)
+                    .comDono(mauricio).constroi());
+        }
+        session.flush();
+
+        Pagina<ResumoDeLeilao> primeira = resumoDao.novos(null, 3);
+        Pagina<Leilao> primeiraDoLeilaoDao = leilaoDao.novos(null, 3);
+        assertEquals(primeiraDoLeilaoDao.getProxima(), primeira.getProxima());
+
+        Pagina<ResumoDeLeilao> segunda = resumoDao.novos(primeira.getProxima(), 3);
+
+        assertEquals("Leilao 4", primeira.getItens().get(0).getNome());
+        assertEquals("Leilao 2", primeira.getItens().get(2).getNome());
+        assertEquals(2, segunda.getItens().size());
+        assertEquals("Leilao 0", segunda.getItens().get(1).getNome());
+        assertNull(segunda.getProxima());
+    }
+
+    @Test
+    public void deveResumirDisputadosEntreValores() {
+        Usuario flavio = new Usuario("Flavio", "f@s.com");
+        new UsuarioDao(session).salvar(flavio);
+        LeilaoBuilder disputado = new LeilaoBuilder().comNome("Disputado").comValor(150.0).comDono(mauricio);
+        for (int i = 0; i < 4; i++) {
+            disputado.comLance(Calendar.getInstance(), i % 2 == 0 ? flavio : mauricio, 200.0 + i);
+        }
+        leilaoDao.salvar(disputado.constroi());
+        leilaoDao.salvar(new LeilaoBuilder().comNome("Calmo").comValor(150.0).comDono(mauricio)
+                .comLance(Calendar.getInstance(), flavio, 200.0).constroi());
+        session.flush();
+
+        List<ResumoDeLeilao> disputados = resumoDao.disputadosEntre(100.0, 200.0);
+
+        assertEquals(1, disputados.size());
+        assertEquals("Disputado", disputados.get(0).getNome());
+    }
+
+    @Test
+    public void deveResumirLeiloesDoUsuario() {
+        Usuario flavio = new Usuario("Flavio", "f@s.com");
+        new UsuarioDao(session).salvar(flavio);
+        leilaoDao.salvar(new LeilaoBuilder().comNome("Com lance").comDono(mauricio)
+                .comLance(Calendar.getInstance(), flavio, 200.0).constroi());
+        leilaoDao.salvar(new LeilaoBuilder().comNome("Sem lance").comDono(mauricio).constroi());
+        session.flush();
+
+        List<ResumoDeLeilao> doFlavio = resumoDao.listaLeiloesDoUsuario(flavio);
+
+        assertEquals(1, doFlavio.size());
+        assertEquals("Com lance", doFlavio.get(0).getNome());
+    }
+}
@@ -0,0 +1,156 @@
+package br.com.caelum.pm73.dao;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.hibernate.StaleObjectStateException;
+import org.hibernate.StaleStateException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class RetentativaOtimistaTest {
+
+    private CriadorDeSessao criador;
+    private Usuario mauricio;
+    private Leilao leilao;
+
+    @Before
+    public void antes() {
+        criador = new CriadorDeSessao();
+
+        // cada tentativa comita a sua transacao, entao o leilao precisa estar comitado
+        Session session = criador.getSession();
+        session.beginTransaction();
+        mauricio = new Usuario("Mauricio", "m@a.com");
+        new UsuarioDao(session).salvar(mauricio);
+        leilao = new LeilaoBuilder().comDono(mauricio).comValor(100.0).constroi();
+        new LeilaoDao(session).salvar(leilao);
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @After
+    public void depois() {
+        Session session = criador.getSession();
+        session.beginTransaction();
+        session.createQuery("delete from Lance lance where lance.leilao.id = :id")
+                .setParameter("id", leilao.getId())
+                .executeUpdate();
+        session.createQuery("delete from Leilao l where l.id = :id")
+                .setParameter("id", leilao.getId())
+                .executeUpdate();
+        session.createQuery("delete from Usuario u where u.id = :id")
+                .setParameter("id", mauricio.getId())
+                .executeUpdate();
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @Test(expected = StaleObjectStateException.class)
+    public void naoDeveSobrescreverAlteracaoFeitaDepoisDaCopiaSerCarregada() {
+        Leilao copiaVelha = carrega();
+        renomeia("Alterado por outro");
+
+        copiaVelha.setNome("Alterado por mim");
+        Session session = criador.getSession();
+        try {
+            session.beginTransaction();
+            new LeilaoDao(session).atualiza(copiaVelha);
+            session.getTransaction().commit();
+        } finally {
+            session.close();
+        }
+    }
+
+    @Test
+    public void deveTentarDeNovoQuandoOutraTransacaoAlterouOLeilao() {
+        RetentativaOtimista retentativa = new RetentativaOtimista(criador, 3, 1);
+        final int[] vezes = new int[1];
+
+        String nome = retentativa.executa(leilao.getId(), new TentativaOtimista<String>() {
+            @Override
+            public String executa(Session session) {
+                Leilao carregado = (Leilao) session.get(Leilao.class, leilao.getId());
+                if (vezes[0]++ == 0) {
+                    renomeia("Alterado por outro");
+                }
+                carregado.setNome(carregado.getNome() + " e por mim");
+                return carregado.getNome();
+            }
+        });
+
+        assertEquals("Alterado por outro e por mim", nome);
+        assertEquals("Alterado por outro e por mim", carrega().getNome());
+        assertEquals(1, retentativa.getDisputa(leilao.getId()).getExecucoes());
+        assertEquals(1, retentativa.getDisputa(leilao.getId()).getConflitos());
+        assertEquals(0, retentativa.getDisputa(leilao.getId()).getDesistencias());
+    }
+
+    @Test
+    public void deveDesistirDepoisDeTodasAsTentativas() {
+        RetentativaOtimista retentativa = new RetentativaOtimista(criador, 2, 1);
+        final int[] vezes = new int[1];
+
+        try {
+            retentativa.executa(leilao.getId(), new TentativaOtimista<Void>() {
+                @Override
+                public Void executa(Session session) {
+                    Leilao carregado = (Leilao) session.get(Leilao.class, leilao.getId());
+                    renomeia("Alterado por outro " + ++vezes[0]);
+                    carregado.setNome("Nunca gravado");
+                    return null;
+                }
+            });
+            fail();
+        } catch (StaleStateException esperada) {
+        }
+
+        assertEquals("Alterado por outro 2", carrega().getNome());
+        assertEquals(1, retentativa.maisDisputados(10).size());
+        assertEquals(2, retentativa.maisDisputados(10).get(0).getConflitos());
+        assertEquals(1, retentativa.maisDisputados(10).get(0).getDesistencias());
+    }
+
+    @Test
+    public void deveDarLanceSoSeSuperarOValorAtual() {
+        RetentativaOtimista retentativa = new RetentativaOtimista(criador);
+
+        Lance aceito = retentativa.daLance(leilao.getId(), mauricio.getId(), 150.0);
+        Lance recusado = retentativa.daLance(leilao.getId(), mauricio.getId(), 120.0);
+
+        assertNotNull(aceito);
+        assertNull(recusado);
+        Leilao doBanco = carrega();
+        assertEquals(1, doBanco.getQuantidadeLances());
+        assertEquals(150.0, doBanco.getMaiorLance(), 0.00001);
+        assertEquals(1, doBanco.getVersao());
+    }
+
+    private Leilao carrega() {
+        Session session = criador.getSession();
+        try {
+            return new LeilaoDao(session).porId(leilao.getId());
+        } finally {
+            session.close();
+        }
+    }
+
+    private void renomeia(String nome) {
+        Session outra = criador.getSession();
+        try {
+            outra.beginTransaction();
+            ((Leilao) outra.get(Leilao.class, leilao.getId())).setNome(nome);
+            outra.getTransaction().commit();
+        } finally {
+            outra.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package br.com.caelum.pm73.dao;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.hibernate.StatelessSession;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class VarredorDeLeiloesTest {
+
+    private Session session;
+    private StatelessSession statelessSession;
+    private LeilaoDao leilaoDao;
+    private UsuarioDao usuarioDao;
+    private VarredorDeLeiloes varredor;
+
+    @Before
+    public void antes() {
+        CriadorDeSessao criador = new CriadorDeSessao();
+        session = criador.getSession();
+        leilaoDao = new LeilaoDao(session);
+        usuarioDao = new UsuarioDao(session);
+        session.beginTransaction();
+
+        // mesma conexao fisica, para enxergar o que ainda nao foi comitado
+        Connection conexao = ((SessionImplementor) session).getTransactionCoordinator()
+                .getJdbcCoordinator().getLogicalConnection().getConnection();
+        statelessSession = criador.getStatelessSession(conexao);
+        varredor = new VarredorDeLeiloes(statelessSession, 2);
+    }
+
+    @After
+    public void depois() {
+        statelessSession.close();
+        session.getTransaction().rollback();
+        session.close();
+    }
+
+    @Test
+    public void deveVisitarSomenteLeiloesNovos() {
+        Usuario mauricio = new Usuario("Mauricio Aniche", "mauricio@aniche.com.br");
+        usuarioDao.salvar(mauricio);
+
+        for (int i = 0; i < 5; i++) {
+            leilaoDao.salvar(new LeilaoBuilder().comDono(mauricio).comNome("Novo " + i).constroi());
+        }
+        leilaoDao.salvar(new LeilaoBuilder().comDono(mauricio).usado().constroi());
+        session.flush();
+
+        final List<String> nomes = new ArrayList<>();
+        long visitados = varredor.novos(new VisitanteDeLeilao() {
+            @Override
+            public boolean visita(Leilao leilao) {
+                nomes.add(leilao.getNome());
+                return true;
+            }
+        });
+
+        assertEquals(5L, visitados);
+        assertEquals(5, nomes.size());
+    }
+
+    @Test
+    public void devePararQuandoOVisitantePedir() {
+        Usuario mauricio = new Usuario("Mauricio Aniche", "mauricio@aniche.com.br");
+        usuarioDao.salvar(mauricio);
+
+        for (int i = 0; i < 5; i++) {
+            leilaoDao.salvar(new LeilaoBuilder().comDono(mauricio).diasAtras(10).constroi());
+        }
+        session.flush();
+
+        long visitados = varredor.antigos(new VisitanteDeLeilao() {
+            @Override
+            public boolean visita(Leilao leilao) {
+                return false;
+            }
+        });
+
+        assertEquals(1L, visitados);
+    }
+}
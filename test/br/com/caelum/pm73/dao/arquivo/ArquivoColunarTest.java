@@ -0,0 +1,154 @@
+package br.com.caelum.pm73.dao.arquivo;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.LeilaoDao;
+import br.com.caelum.pm73.dao.UsuarioDao;
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ArquivoColunarTest {
+
+    private File diretorio;
+    private Session session;
+    private Usuario mauricio;
+    private Usuario flavio;
+
+    @Before
+    public void antes() throws IOException {
+        diretorio = File.createTempFile("arquivo", "");
+        diretorio.delete();
+
+        session = new CriadorDeSessao().getSession();
+        session.beginTransaction();
+        mauricio = new Usuario("Mauricio", "m@a.com");
+        flavio = new Usuario("Flavio", "f@s.com");
+        UsuarioDao usuarioDao = new UsuarioDao(session);
+        usuarioDao.salvar(mauricio);
+        usuarioDao.salvar(flavio);
+        session.flush();
+    }
+
+    @After
+    public void depois() {
+        session.getTransaction().rollback();
+        session.close();
+
+        for (File arquivo : diretorio.listFiles()) {
+            arquivo.delete();
+        }
+        diretorio.delete();
+    }
+
+    @Test
+    public void deveLerDeVoltaOLeilaoArquivado() {
+        Calendar abertura = Calendar.getInstance();
+        abertura.add(Calendar.DAY_OF_MONTH, -40);
+        Leilao geladeira = arquivado(900001, new LeilaoBuilder().comNome("Geladeira").comValor(800.0)
+                .comDono(mauricio).usado().encerrado().abertoEm(abertura)
+                .comLance(abertura, flavio, 850.0)
+                .comLance(Calendar.getInstance(), flavio, 900.0));
+        new ArquivoColunar(diretorio).arquiva(Arrays.asList(geladeira));
+
+        Leilao lido = new ArquivoColunar(diretorio).porId(900001, session);
+
+        assertEquals("Geladeira", lido.getNome());
+        assertEquals(800.0, lido.getValorInicial(), 0.00001);
+        assertEquals("Mauricio", lido.getDono().getNome());
+        assertEquals(abertura.getTimeInMillis(), lido.getDataAbertura().getTimeInMillis());
+        assertTrue(lido.isUsado());
+        assertTrue(lido.isEncerrado());
+        assertEquals(2, lido.getQuantidadeLances());
+        assertEquals(900.0, lido.getMaiorLance(), 0.00001);
+
+        Lance primeiro = lido.getLances().get(0);
+        assertEquals(geladeira.getLances().get(0).getId(), primeiro.getId());
+        assertEquals(850.0, primeiro.getValor(), 0.00001);
+        assertEquals("Flavio", primeiro.getUsuario().getNome());
+    }
+
+    @Test
+    public void deveDevolverNullParaIdQueNaoFoiArquivado() {
+        ArquivoColunar arquivo = new ArquivoColunar(diretorio);
+        arquivo.arquiva(Arrays.asList(
+                arquivado(900001, new LeilaoBuilder().comDono(mauricio)),
+                arquivado(900005, new LeilaoBuilder().comDono(mauricio))));
+
+        assertNull(arquivo.porId(900003, session));
+        assertNull(arquivo.porId(1, session));
+    }
+
+    @Test
+    public void deveEncontrarOsLeiloesEmQueOUsuarioDeuLance() {
+        ArquivoColunar arquivo = new ArquivoColunar(diretorio);
+        arquivo.arquiva(Arrays.asList(
+                arquivado(900001, new LeilaoBuilder().comDono(mauricio).comNome("Com lance")
+                        .comLance(Calendar.getInstance(), flavio, 10.0)),
+                arquivado(900002, new LeilaoBuilder().comDono(flavio).comNome("Sem lance")
+                        .comLance(Calendar.getInstance(), mauricio, 10.0))));
+        arquivo.arquiva(Arrays.asList(
+                arquivado(900003, new LeilaoBuilder().comDono(mauricio).comNome("Outro segmento")
+                        .comLance(Calendar.getInstance(), flavio, 10.0))));
+
+        List<Leilao> doFlavio = new ArquivoColunar(diretorio).doUsuario(flavio, session);
+
+        assertEquals(2, doFlavio.size());
+        assertEquals("Outro segmento", doFlavio.get(0).getNome());
+        assertEquals("Com lance", doFlavio.get(1).getNome());
+    }
+
+    @Test
+    public void deveCairNoArquivoQuandoOLeilaoNaoEstaMaisNoBanco() {
+        ArquivoColunar arquivo = new ArquivoColunar(diretorio);
+        arquivo.arquiva(Arrays.asList(arquivado(900001, new LeilaoBuilder().comDono(mauricio)
+                .comNome("Arquivado").comLance(Calendar.getInstance(), flavio, 10.0))));
+
+        LeilaoDao leilaoDao = new LeilaoDao(session, arquivo);
+        leilaoDao.salvar(new LeilaoBuilder().comDono(mauricio).comNome("No banco")
+                .comLance(Calendar.getInstance(), flavio, 20.0).constroi());
+        session.flush();
+
+        assertEquals("Arquivado", leilaoDao.porId(900001).getNome());
+        assertEquals(2, leilaoDao.listaLeiloesDoUsuario(flavio).size());
+        assertNull(new LeilaoDao(session).porId(900001));
+    }
+
+    @Test
+    public void deveIgnorarSegmentoGravadoPelaMetade() throws IOException {
+        ArquivoColunar arquivo = new ArquivoColunar(diretorio);
+        arquivo.arquiva(Arrays.asList(arquivado(900001, new LeilaoBuilder().comDono(mauricio))));
+        new File(diretorio, "00000001.seg.tmp").createNewFile();
+
+        ArquivoColunar reaberto = new ArquivoColunar(diretorio);
+        reaberto.arquiva(Arrays.asList(arquivado(900002, new LeilaoBuilder().comDono(mauricio))));
+
+        assertEquals(2, reaberto.getSegmentos());
+        assertEquals(2L, reaberto.getLeiloes());
+        assertEquals(2, diretorio.listFiles().length);
+    }
+
+    private Leilao arquivado(int id, LeilaoBuilder builder) {
+        Leilao leilao = builder.constroi();
+        leilao.setId(id);
+        int lance = id * 10;
+        for (Lance l : leilao.getLances()) {
+            l.setId(lance++);
+        }
+        return leilao;
+    }
+}
@@ -0,0 +1,47 @@
+package br.com.caelum.pm73.dao.cache;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ArmazemLRUTest {
+
+    @Test
+    public void deveDescartarAEntradaMenosUsadaQuandoCheio() {
+        ArmazemLRU armazem = new ArmazemLRU(2, 0);
+        armazem.put(1, "um");
+        armazem.put(2, "dois");
+        armazem.get(1);
+
+        armazem.put(3, "tres");
+
+        assertEquals("um", armazem.get(1));
+        assertNull(armazem.get(2));
+        assertEquals(1L, armazem.estatisticas("teste").getExpulsoes());
+    }
+
+    @Test
+    public void naoDeveDevolverEntradaExpirada() throws InterruptedException {
+        ArmazemLRU armazem = new ArmazemLRU(10, 1);
+        armazem.put(1, "um");
+
+        Thread.sleep(5);
+
+        assertNull(armazem.get(1));
+    }
+
+    @Test
+    public void deveContarAcertosEFalhas() {
+        ArmazemLRU armazem = new ArmazemLRU(10, 0);
+        armazem.put(1, "um");
+
+        armazem.get(1);
+        armazem.get(2);
+
+        EstatisticasDoCache estatisticas = armazem.estatisticas("teste");
+        assertEquals(1L, estatisticas.getAcertos());
+        assertEquals(1L, estatisticas.getFalhas());
+        assertEquals(0.5, estatisticas.getTaxaDeAcerto(), 0.00001);
+    }
+}
@@ -0,0 +1,95 @@
+package br.com.caelum.pm73.dao.metricas;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.LeilaoDao;
+import br.com.caelum.pm73.dao.UsuarioDao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConsultasLentasTest {
+
+    @Rule
+    public TemporaryFolder pasta = new TemporaryFolder();
+
+    private Session session;
+    private LeilaoDao leilaoDao;
+    private File arquivo;
+
+    @Before
+    public void antes() throws IOException {
+        arquivo = new File(pasta.getRoot(), "lentas.0.log");
+        ConsultasLentas.setArquivo(new File(pasta.getRoot(), "lentas.%g.log").getPath(), 1024 * 1024, 2);
+        // tudo e lento: o teste nao depende de quanto o HSQLDB demora
+        ConsultasLentas.setLimite(0);
+
+        session = new CriadorDeSessao().getSession();
+        leilaoDao = new LeilaoDao(session);
+        session.beginTransaction();
+    }
+
+    @After
+    public void depois() {
+        session.getTransaction().rollback();
+        session.close();
+        ConsultasLentas.setLimite(-1);
+    }
+
+    @Test
+    public void deveRegistrarSqlParametrosOrigemEPlano() throws IOException {
+        Usuario mauricio = new Usuario("Mauricio", "m@a.com");
+        new UsuarioDao(session).salvar(mauricio);
+        leilaoDao.salvar(new LeilaoBuilder().comNome("Xbox").comValor(150.0).comDono(mauricio).constroi());
+        session.flush();
+
+        leilaoDao.disputadosEntre(123.0, 456.0);
+
+        String log = le();
+        assertTrue(log.contains("LeilaoDao.disputadosEntre"));
+        assertTrue(log.contains("=123.0"));
+        assertTrue(log.contains("=456.0"));
+        assertTrue(log.contains("plano:"));
+        assertTrue(log.contains("table=LEILAO"));
+    }
+
+    @Test
+    public void deveDizerODaoMesmoSemAsMetricasLigadas() throws IOException {
+        Instrumentacao.setAtiva(false);
+
+        leilaoDao.total();
+
+        assertTrue(le().contains("LeilaoDao.total:"));
+    }
+
+    @Test
+    public void naoDeveRegistrarAbaixoDoLimite() throws IOException {
+        ConsultasLentas.setLimite(60000);
+        long antes = ConsultasLentas.getRegistradas();
+
+        leilaoDao.total();
+
+        assertEquals(antes, ConsultasLentas.getRegistradas());
+        assertFalse(le().contains("LeilaoDao.total"));
+    }
+
+    private String le() throws IOException {
+        if (!arquivo.exists()) {
+            return "";
+        }
+        return new String(Files.readAllBytes(arquivo.toPath()), Charset.forName("UTF-8"));
+    }
+}
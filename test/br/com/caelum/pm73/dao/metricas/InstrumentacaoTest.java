@@ -0,0 +1,125 @@
+package br.com.caelum.pm73.dao.metricas;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.LeilaoDao;
+import br.com.caelum.pm73.dao.UsuarioDao;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class InstrumentacaoTest {
+
+    private Session session;
+    private LeilaoDao leilaoDao;
+    private Usuario mauricio;
+
+    @Before
+    public void antes() {
+        Instrumentacao.setAtiva(true);
+        Instrumentacao.zera();
+
+        session = new CriadorDeSessao().getSession();
+        leilaoDao = new LeilaoDao(session);
+        session.beginTransaction();
+
+        mauricio = new Usuario("Mauricio", "m@a.com");
+        new UsuarioDao(session).salvar(mauricio);
+    }
+
+    @After
+    public void depois() {
+        session.getTransaction().rollback();
+        session.close();
+
+        Instrumentacao.setAtiva(false);
+        Instrumentacao.setDestino(null);
+        Instrumentacao.zera();
+    }
+
+    @Test
+    public void deveContarComandosLinhasEEntidadesDoMetodo() {
+        Usuario flavio = new Usuario("Flavio", "f@s.com");
+        new UsuarioDao(session).salvar(flavio);
+        leilaoDao.salvarEmLote(Arrays.asList(
+                new LeilaoBuilder().comNome("Xbox").comDono(mauricio)
+                        .comLance(Calendar.getInstance(), flavio, 200.0).constroi(),
+                new LeilaoBuilder().comNome("Geladeira").comDono(mauricio).constroi()));
+
+        List<Leilao> novos = leilaoDao.novos();
+
+        MetricasDoMetodo metricas = Instrumentacao.getMetricas("LeilaoDao.novos");
+        assertEquals(1, metricas.getChamadas());
+        assertTrue(metricas.getComandos() >= 1);
+        assertTrue(metricas.getLinhas() >= novos.size());
+        assertTrue(metricas.getEntidades() >= novos.size());
+        assertTrue(metricas.getP99() >= metricas.getP50());
+
+        assertTrue(Instrumentacao.getMetricas("LeilaoDao.salvarEmLote").getTempoDeFlush() > 0);
+    }
+
+    @Test
+    public void naoDeveMedirComAInstrumentacaoDesligada() {
+        Instrumentacao.setAtiva(false);
+
+        leilaoDao.total();
+
+        assertNull(Instrumentacao.getMetricas("LeilaoDao.total"));
+    }
+
+    @Test
+    public void medicaoInternaDeveSomarNaExternaEIrParaODestino() {
+        final List<Medicao> recebidas = new ArrayList<Medicao>();
+        Instrumentacao.setDestino(new DestinoDeMetricas() {
+            @Override
+            public void registra(Medicao medicao) {
+                recebidas.add(medicao);
+            }
+        });
+
+        Medicao externa = Instrumentacao.inicia("Teste.externo");
+        try {
+            leilaoDao.total();
+            leilaoDao.total();
+        } finally {
+            externa.termina();
+        }
+
+        assertEquals(3, recebidas.size());
+        assertEquals("LeilaoDao.total", recebidas.get(0).getMetodo());
+        assertEquals(externa, recebidas.get(2));
+        assertEquals(recebidas.get(0).getComandos() + recebidas.get(1).getComandos(), externa.getComandos());
+        assertTrue(externa.getDuracao() >= recebidas.get(0).getDuracao() + recebidas.get(1).getDuracao());
+    }
+
+    @Test
+    public void deveExporAsMetricasNoJmx() throws Exception {
+        leilaoDao.novos(null, 10);
+
+        ObjectName nome = new ObjectName("br.com.caelum.pm73:type=MetricasDeDao,name="
+                + ObjectName.quote("LeilaoDao.novos(pagina)"));
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(nome, "Chamadas"));
+    }
+
+    @Test
+    public void faixaDoHistogramaDeveErrarPoucoNaLatencia() {
+        for (long micros = 1; micros < 100000000L; micros = micros * 3 + 1) {
+            double meio = MetricasDoMetodo.meioDaFaixa(MetricasDoMetodo.faixa(micros));
+            assertEquals(micros, meio, micros * 0.07);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package br.com.caelum.pm73.dao.relatorio;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.LeilaoDao;
+import br.com.caelum.pm73.dao.UsuarioDao;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MotorDeRelatoriosTest {
+
+    private static final double[] FAIXAS = { 100, 1000 };
+
+    private CriadorDeSessao criador;
+    private Usuario mauricio;
+    private List<Integer> leiloes = new ArrayList<>();
+
+    @Before
+    public void antes() {
+        criador = new CriadorDeSessao();
+
+        // o motor abre as proprias sessoes, entao os dados precisam estar comitados
+        Session session = criador.getSession();
+        session.beginTransaction();
+        mauricio = new Usuario("Mauricio", "m@a.com");
+        new UsuarioDao(session).salvar(mauricio);
+        LeilaoDao leilaoDao = new LeilaoDao(session);
+        for (int i = 0; i < 10; i++) {
+            LeilaoBuilder builder = new LeilaoBuilder().comNome("Leilao " + i).comValor(10.0 * (i + 1))
+                    .comDono(mauricio);
+            // janeiro de 2001: um lance por leilao; fevereiro: dois nos pares
+            builder.comLance(em(2001, Calendar.JANUARY, i + 1), mauricio, 50.0 + i);
+            if (i % 2 == 0) {
+                builder.comLance(em(2001, Calendar.FEBRUARY, 1), mauricio, 500.0 + i);
+                builder.comLance(em(2001, Calendar.FEBRUARY, 28), mauricio, 5000.0 + i);
+            }
+            if (i == 9) {
+                builder.encerrado();
+            }
+            Leilao leilao = builder.constroi();
+            leilaoDao.salvar(leilao);
+            leiloes.add(leilao.getId());
+        }
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @After
+    public void depois() {
+        Session session = criador.getSession();
+        session.beginTransaction();
+        session.createQuery("delete from Lance lance where lance.leilao.id in (:ids)")
+                .setParameterList("ids", leiloes)
+                .executeUpdate();
+        session.createQuery("delete from Leilao l where l.id in (:ids)")
+                .setParameterList("ids", leiloes)
+                .executeUpdate();
+        session.createQuery("delete from Usuario u where u.id = :id")
+                .setParameter("id", mauricio.getId())
+                .executeUpdate();
+        session.getTransaction().commit();
+        session.close();
+    }
+
+    @Test
+    public void deveAgruparOsLancesPorPeriodoEFaixaDeValor() {
+        RelatorioDeLeiloes relatorio = new MotorDeRelatorios(criador, 2, 3, Periodo.MES, FAIXAS).gera();
+
+        LancesDoPeriodo janeiro = doPeriodo(relatorio, em(2001, Calendar.JANUARY, 1));
+        assertEquals(10, janeiro.getLances());
+        assertEquals(545.0, janeiro.getTotal(), 0.00001);
+        assertEquals(59.0, janeiro.getMaior(), 0.00001);
+        assertArrayEquals(new long[] { 10, 0, 0 }, janeiro.getHistograma());
+
+        LancesDoPeriodo fevereiro = doPeriodo(relatorio, em(2001, Calendar.FEBRUARY, 1));
+        assertEquals(10, fevereiro.getLances());
+        assertEquals(5000.0 + 8, fevereiro.getMaior(), 0.00001);
+        assertArrayEquals(new long[] { 0, 5, 5 }, fevereiro.getHistograma());
+    }
+
+    @Test
+    public void deveDarOMesmoResultadoComQualquerParalelismoETamanhoDeFaixa() {
+        RelatorioDeLeiloes sequencial = new MotorDeRelatorios(criador, 1, Integer.MAX_VALUE, Periodo.DIA, FAIXAS).gera();
+        RelatorioDeLeiloes paralelo = new MotorDeRelatorios(criador, 4, 2, Periodo.DIA, FAIXAS).gera();
+
+        assertEquals(sequencial.getLeiloes(), paralelo.getLeiloes());
+        assertEquals(sequencial.getEncerrados(), paralelo.getEncerrados());
+        assertEquals(sequencial.getValorInicialMedio(), paralelo.getValorInicialMedio(), 0.00001);
+        assertEquals(sequencial.getLances().getLances(), paralelo.getLances().getLances());
+        assertEquals(sequencial.getLances().getTotal(), paralelo.getLances().getTotal(), 0.00001);
+        assertArrayEquals(sequencial.getLances().getHistograma(), paralelo.getLances().getHistograma());
+        assertEquals(sequencial.getPeriodos().size(), paralelo.getPeriodos().size());
+    }
+
+    @Test
+    public void deveBaterComAsAgregacoesDoBanco() {
+        RelatorioDeLeiloes relatorio = new MotorDeRelatorios(criador, 3, 4, Periodo.ANO, FAIXAS).gera();
+
+        Session session = criador.getSession();
+        try {
+            Object[] leiloes = (Object[]) session.createQuery("select count(l), avg(l.valorInicial), " +
+                    "sum(case when l.encerrado = true then 1 else 0 end) from Leilao l").uniqueResult();
+            Object[] lances = (Object[]) session.createQuery("select count(la), sum(la.valor), max(la.valor) " +
+                    "from Lance la").uniqueResult();
+
+            assertEquals(((Number) leiloes[0]).longValue(), relatorio.getLeiloes());
+            assertEquals((Double) leiloes[1], relatorio.getValorInicialMedio(), 0.00001);
+            assertEquals(((Number) leiloes[2]).longValue(), relatorio.getEncerrados());
+            assertEquals(((Number) lances[0]).longValue(), relatorio.getLances().getLances());
+            assertEquals((Double) lances[1], relatorio.getLances().getTotal(), 0.00001);
+            assertEquals((Double) lances[2], relatorio.getLances().getMaior(), 0.00001);
+        } finally {
+            session.close();
+        }
+    }
+
+    private LancesDoPeriodo doPeriodo(RelatorioDeLeiloes relatorio, Calendar inicio) {
+        for (LancesDoPeriodo periodo : relatorio.getPeriodos()) {
+            if (periodo.getInicioEmMilissegundos() == inicio.getTimeInMillis()) {
+                return periodo;
+            }
+        }
+        throw new AssertionError("Sem lances no periodo " + inicio.getTime());
+    }
+
+    private static Calendar em(int ano, int mes, int dia) {
+        return new GregorianCalendar(ano, mes, dia);
+    }
+}
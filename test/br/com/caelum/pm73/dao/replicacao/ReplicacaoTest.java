@@ -0,0 +1,201 @@
+package br.com.caelum.pm73.dao.replicacao;
+
+import br.com.caelum.pm73.dao.CriadorDeSessao;
+import br.com.caelum.pm73.dao.UsuarioDao;
+import br.com.caelum.pm73.dominio.HistoricoDeLances;
+import br.com.caelum.pm73.dominio.Lance;
+import br.com.caelum.pm73.dominio.Leilao;
+import br.com.caelum.pm73.dominio.Usuario;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AnnotationConfiguration;
+import org.hibernate.cfg.Configuration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings("deprecation")
+public class ReplicacaoTest {
+
+    private static final AtomicInteger BANCOS = new AtomicInteger();
+
+    private final List<String> urls = new ArrayList<>();
+    private final ExecutorService outraThread = Executors.newSingleThreadExecutor();
+    private Configuration config;
+    private SessionFactory primaria;
+    private Replicacao replicacao;
+
+    @Before
+    public void antes() {
+        int banco = BANCOS.incrementAndGet();
+        urls.add("jdbc:hsqldb:mem:replicacao" + banco + "-replica1");
+        urls.add("jdbc:hsqldb:mem:replicacao" + banco + "-replica2");
+
+        Properties propriedades = new Properties();
+        propriedades.putAll(new CriadorDeSessao().getConfig().getProperties());
+        propriedades.setProperty("hibernate.connection.url", "jdbc:hsqldb:mem:replicacao" + banco + "-primaria");
+        propriedades.setProperty("hibernate.hbm2ddl.auto", "create");
+        propriedades.setProperty("hibernate.show_sql", "false");
+        propriedades.setProperty("hibernate.cache.use_second_level_cache", "false");
+        propriedades.setProperty("hibernate.cache.use_query_cache", "false");
+        config = new AnnotationConfiguration()
+                .addAnnotatedClass(Lance.class)
+                .addAnnotatedClass(Leilao.class)
+                .addAnnotatedClass(Usuario.class)
+                .addAnnotatedClass(HistoricoDeLances.class)
+                .setProperties(propriedades);
+        primaria = config.buildSessionFactory();
+        urls.add(0, (String) propriedades.get("hibernate.connection.url"));
+    }
+
+    @After
+    public void depois() throws SQLException {
+        outraThread.shutdownNow();
+        if (replicacao != null) {
+            replicacao.para();
+        }
+        primaria.close();
+        for (String url : urls) {
+            Connection conexao = DriverManager.getConnection(url, "sa", "");
+            conexao.createStatement().execute("SHUTDOWN");
+        }
+    }
+
+    private Replicacao replica(long atrasoMaximo, long atraso) {
+        replicacao = new Replicacao(config, primaria, urls.subList(1, urls.size()), atrasoMaximo, atraso);
+        return replicacao;
+    }
+
+    @Test
+    public void deveCopiarAPrimariaParaAsReplicasAoSubir() {
+        salva(new Usuario("Mauricio", "mauricio@teste.com"));
+
+        replica(1000, 0);
+
+        for (Replica replica : replicacao.getReplicas()) {
+            assertNotNull(porEmail(replica, "mauricio@teste.com"));
+        }
+    }
+
+    @Test
+    public void deveRepetirNasReplicasOQueFoiComitado() throws Exception {
+        replica(1000, 0);
+
+        Usuario mauricio = salva(new Usuario("Mauricio", "mauricio@teste.com"));
+        Session session = primaria.openSession();
+        session.beginTransaction();
+        session.createQuery("update Usuario u set u.nome = 'Mauricio Aniche' where u.id = :id")
+                .setParameter("id", mauricio.getId())
+                .executeUpdate();
+        session.getTransaction().commit();
+        session.close();
+        assertTrue(replicacao.aguarda(5000));
+
+        for (Replica replica : replicacao.getReplicas()) {
+            assertEquals("Mauricio Aniche", porEmail(replica, "mauricio@teste.com").getNome());
+            assertEquals(2, replica.getAplicada());
+        }
+    }
+
+    @Test
+    public void naoDeveRepetirOQueFoiDesfeito() throws Exception {
+        replica(1000, 0);
+
+        Session session = primaria.openSession();
+        session.beginTransaction();
+        new UsuarioDao(session).salvar(new Usuario("Desfeito", "desfeito@teste.com"));
+        session.flush();
+        session.getTransaction().rollback();
+        session.close();
+        salva(new Usuario("Mauricio", "mauricio@teste.com"));
+        assertTrue(replicacao.aguarda(5000));
+
+        Replica replica = replicacao.getReplicas().get(0);
+        assertNull(porEmail(replica, "desfeito@teste.com"));
+        assertNotNull(porEmail(replica, "mauricio@teste.com"));
+        assertEquals(1, replicacao.getConfirmadas());
+    }
+
+    @Test
+    public void deveLerDaPrimariaQuandoAsReplicasPassamDoAtrasoMaximo() throws Exception {
+        replica(200, 1500);
+
+        salva(new Usuario("Mauricio", "mauricio@teste.com"));
+        Thread.sleep(400);
+
+        assertNull(escolheEmOutraThread());
+        assertTrue(replicacao.aguarda(5000));
+        assertNotNull(escolheEmOutraThread());
+        assertEquals(1, replicacao.getLeiturasNaPrimaria());
+    }
+
+    @Test
+    public void deveLerOQueAPropriaThreadEscreveu() throws Exception {
+        replica(10000, 1000);
+
+        salva(new Usuario("Mauricio", "mauricio@teste.com"));
+
+        assertNull(replicacao.escolhe());
+        assertNotNull(escolheEmOutraThread());
+        assertTrue(replicacao.aguarda(5000));
+        assertNotNull(porEmail(replicacao.escolhe(), "mauricio@teste.com"));
+    }
+
+    @Test
+    public void deveRevezarAsLeiturasEntreAsReplicas() {
+        replica(1000, 0);
+
+        for (int i = 0; i < 10; i++) {
+            replicacao.escolhe();
+        }
+
+        for (Replica replica : replicacao.getReplicas()) {
+            assertEquals(5, replica.getLeituras());
+        }
+    }
+
+    private Usuario salva(Usuario usuario) {
+        Session session = primaria.openSession();
+        session.beginTransaction();
+        new UsuarioDao(session).salvar(usuario);
+        session.getTransaction().commit();
+        session.close();
+        return usuario;
+    }
+
+    private Usuario porEmail(Replica replica, String email) {
+        Session session = replica.abreSessao();
+        try {
+            return (Usuario) session.createQuery("from Usuario u where u.email = :email")
+                    .setParameter("email", email)
+                    .uniqueResult();
+        } finally {
+            session.close();
+        }
+    }
+
+    private Replica escolheEmOutraThread() throws Exception {
+        return outraThread.submit(new Callable<Replica>() {
+            @Override
+            public Replica call() {
+                return replicacao.escolhe();
+            }
+        }).get();
+    }
+}
@@ -0,0 +1,136 @@
+package br.com.caelum.pm73.dominio;
+
+import br.com.caelum.pm73.builder.LeilaoBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LivroDeLancesTest {
+
+    private Usuario mauricio;
+    private LivroDeLances livro;
+
+    @Before
+    public void antes() {
+        mauricio = new Usuario("Mauricio", "m@a.com");
+        livro = new LivroDeLances(new LeilaoBuilder().comValor(100.0).constroi());
+    }
+
+    @Test
+    public void deveComecarPeloValorInicial() {
+        assertFalse(livro.oferece(lance(100.0)));
+        assertTrue(livro.oferece(lance(100.01)));
+
+        assertEquals(100.01, livro.getValorAtual(), 0.00001);
+        assertEquals(1, livro.getQuantidadeLances());
+    }
+
+    @Test
+    public void deveContinuarDeOndeOLeilaoParou() {
+        Leilao leilao = new LeilaoBuilder().comValor(100.0)
+                .comLance(Calendar.getInstance(), mauricio, 150.0)
+                .constroi();
+        LivroDeLances livro = new LivroDeLances(leilao);
+
+        assertFalse(livro.oferece(lance(120.0)));
+        assertTrue(livro.oferece(lance(160.0)));
+        assertEquals(2, livro.getQuantidadeLances());
+    }
+
+    @Test
+    public void deveRecusarLanceQueNaoSuperaOMelhor() {
+        Lance melhor = lance(300.0);
+        livro.oferece(lance(200.0));
+        livro.oferece(melhor);
+
+        assertFalse(livro.oferece(lance(250.0)));
+        assertFalse(livro.oferece(lance(300.0)));
+
+        assertSame(melhor, livro.getMelhorLance());
+        assertEquals(2, livro.getQuantidadeLances());
+        assertEquals(2, livro.retiraPendentes().size());
+        assertTrue(livro.retiraPendentes().isEmpty());
+    }
+
+    @Test
+    public void naoDeveAceitarLanceDepoisDeEncerrado() {
+        livro.encerra();
+
+        assertFalse(livro.oferece(lance(1000.0)));
+        assertNull(livro.getMelhorLance());
+        assertTrue(livro.isEncerrado());
+    }
+
+    @Test
+    public void deveDevolverLancesNaMesmaOrdem() {
+        livro.oferece(lance(200.0));
+        livro.oferece(lance(300.0));
+        List<Lance> retirados = livro.retiraPendentes();
+        livro.oferece(lance(400.0));
+
+        livro.devolve(retirados);
+
+        List<Lance> pendentes = livro.retiraPendentes();
+        assertEquals(200.0, pendentes.get(0).getValor(), 0.00001);
+        assertEquals(300.0, pendentes.get(1).getValor(), 0.00001);
+        assertEquals(400.0, pendentes.get(2).getValor(), 0.00001);
+    }
+
+    @Test
+    public void deveManterOsTotaisCoerentesComMuitasThreads() throws InterruptedException {
+        final int threads = 8;
+        final int tentativas = 5000;
+        final AtomicInteger aceitos = new AtomicInteger();
+        final CountDownLatch largada = new CountDownLatch(1);
+        Thread[] concorrentes = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            final int deslocamento = t;
+            concorrentes[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        largada.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 1; i <= tentativas; i++) {
+                        if (livro.oferece(lance(100.0 + i * threads + deslocamento))) {
+                            aceitos.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            concorrentes[t].start();
+        }
+        largada.countDown();
+        for (Thread concorrente : concorrentes) {
+            concorrente.join();
+        }
+
+        List<Lance> pendentes = livro.retiraPendentes();
+        double maior = 0;
+        for (Lance lance : pendentes) {
+            maior = Math.max(maior, lance.getValor());
+        }
+
+        assertEquals(aceitos.get(), livro.getQuantidadeLances());
+        assertEquals(aceitos.get(), pendentes.size());
+        assertEquals(maior, livro.getValorAtual(), 0.00001);
+        assertEquals(maior, livro.getMelhorLance().getValor(), 0.00001);
+    }
+
+    private Lance lance(double valor) {
+        return new Lance(Calendar.getInstance(), mauricio, valor, null);
+    }
+}